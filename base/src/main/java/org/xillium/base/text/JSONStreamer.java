@@ -0,0 +1,260 @@
+package org.xillium.base.text;
+
+import java.io.*;
+import java.lang.reflect.Array;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+
+/**
+ * A streaming JSON encoder that writes directly into a Writer or an OutputStream.
+ * <p/>
+ * The output is identical to that of JSONBuilder, but characters are collected in a bounded buffer which is flushed
+ * to the underlying stream whenever it fills up, so the memory footprint does not grow with the size of the document.
+ * When writing into an OutputStream, characters are encoded into UTF-8 directly without going through a CharsetEncoder.
+ * <p/>
+ * Buffers are borrowed from a small shared pool and returned upon <code>close()</code>.
+ */
+public class JSONStreamer implements Closeable, Flushable {
+    private static final int CHAR_BUFFER_SIZE = 8*1024;
+    private static final int POOL_SIZE = 64;
+    private static final BlockingQueue<char[]> _chars = new ArrayBlockingQueue<char[]>(POOL_SIZE);
+    private static final BlockingQueue<byte[]> _bytes = new ArrayBlockingQueue<byte[]>(POOL_SIZE);
+
+    private final Writer _writer;
+    private final OutputStream _stream;
+    private char[] _cbuf;
+    private byte[] _bbuf;
+    private int _count;
+    private long _length;
+
+    /**
+     * Constructs a JSONStreamer that writes characters into a Writer.
+     */
+    public JSONStreamer(Writer writer) {
+        _writer = writer;
+        _stream = null;
+        _cbuf = borrow(_chars);
+    }
+
+    /**
+     * Constructs a JSONStreamer that writes UTF-8 encoded bytes into an OutputStream.
+     */
+    public JSONStreamer(OutputStream stream) {
+        _writer = null;
+        _stream = stream;
+        _cbuf = borrow(_chars);
+        _bbuf = _bytes.poll();
+        if (_bbuf == null) _bbuf = new byte[CHAR_BUFFER_SIZE*3];
+    }
+
+    /**
+     * Appends a literal character to the JSON stream.
+     */
+    public JSONStreamer append(char c) throws IOException {
+        if (_count == _cbuf.length) drain();
+        _cbuf[_count++] = c;
+        return this;
+    }
+
+    /**
+     * Appends a literal string to the JSON stream.
+     */
+    public JSONStreamer append(String s) throws IOException {
+        for (int i = 0, ii = s.length(); i < ii;) {
+            if (_count == _cbuf.length) drain();
+            int n = Math.min(ii - i, _cbuf.length - _count);
+            s.getChars(i, i + n, _cbuf, _count);
+            _count += n;
+            i += n;
+        }
+        return this;
+    }
+
+    /**
+     * Quotes properly a string and appends it to the JSON stream.
+     */
+    public JSONStreamer quote(String value) throws IOException {
+        append('"');
+        for (int i = 0, ii = value.length(); i < ii; ++i) {
+            char c = value.charAt(i);
+            switch (c) {
+            case '"':
+                append("\\\"");
+                break;
+            case '\\':
+                append("\\\\");
+                break;
+            default:
+                if (c < 0x20) {
+                    append(CTRLCHARS[c]);
+                } else {
+                    append(c);
+                }
+                break;
+            }
+        }
+        return append('"');
+    }
+
+    /**
+     * Serializes a value into the JSON stream, in exactly the same way as JSONBuilder.serialize().
+     */
+    public JSONStreamer serialize(Object value) throws IOException {
+        if (value == null) {
+            append("null");
+        } else {
+            Class<?> t = value.getClass();
+            if (t.isArray()) {
+                append('[');
+                for (int i = 0, ii = Array.getLength(value); i < ii; ++i) {
+                    if (i > 0) append(',');
+                    serialize(Array.get(value, i));
+                }
+                append(']');
+            } else if (Iterable.class.isAssignableFrom(t)) {
+                append('[');
+                boolean hasElements = false;
+                for (Object object: (Iterable<?>)value) {
+                    if (hasElements) append(',');
+                    serialize(object);
+                    hasElements = true;
+                }
+                append(']');
+            } else if (Number.class.isAssignableFrom(t) || Boolean.class.isAssignableFrom(t)) {
+                append(value.toString());
+            } else if (String.class == t) {
+                quote((String)value);
+            } else {
+                quote(value.toString());
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Serializes a named value into the JSON stream.
+     */
+    public JSONStreamer serialize(String name, Object value) throws IOException {
+        return quote(name).append(':').serialize(value);
+    }
+
+    /**
+     * Returns the number of characters written into this stream so far.
+     */
+    public long length() {
+        return _length + _count;
+    }
+
+    /**
+     * Flushes buffered characters as well as the underlying stream.
+     */
+    @Override
+    public void flush() throws IOException {
+        drain();
+        if (_writer != null) _writer.flush(); else _stream.flush();
+    }
+
+    /**
+     * Flushes buffered characters, returns the buffers to the pool, and closes the underlying stream.
+     */
+    @Override
+    public void close() throws IOException {
+        if (_cbuf == null) return;
+        try {
+            drain();
+            if (_count > 0) { // a dangling high surrogate
+                _count = 0;
+                if (_stream != null) _stream.write('?');
+            }
+            if (_writer != null) _writer.close(); else _stream.close();
+        } finally {
+            _chars.offer(_cbuf);
+            if (_bbuf != null) _bytes.offer(_bbuf);
+            _cbuf = null;
+            _bbuf = null;
+        }
+    }
+
+    /*
+     * Writes buffered characters into the underlying stream. When encoding into UTF-8, a trailing high surrogate
+     * is kept in the buffer until its low surrogate arrives.
+     */
+    private void drain() throws IOException {
+        if (_writer != null) {
+            _writer.write(_cbuf, 0, _count);
+            _length += _count;
+            _count = 0;
+        } else {
+            int limit = _count, b = 0;
+            if (limit > 0 && Character.isHighSurrogate(_cbuf[limit-1])) --limit;
+            for (int i = 0; i < limit; ++i) {
+                char c = _cbuf[i];
+                if (c < 0x80) {
+                    _bbuf[b++] = (byte)c;
+                } else if (c < 0x800) {
+                    _bbuf[b++] = (byte)(0xc0 | (c >> 6));
+                    _bbuf[b++] = (byte)(0x80 | (c & 0x3f));
+                } else if (Character.isHighSurrogate(c) && Character.isLowSurrogate(_cbuf[i+1])) {
+                    int p = Character.toCodePoint(c, _cbuf[++i]);
+                    _bbuf[b++] = (byte)(0xf0 | (p >> 18));
+                    _bbuf[b++] = (byte)(0x80 | ((p >> 12) & 0x3f));
+                    _bbuf[b++] = (byte)(0x80 | ((p >> 6) & 0x3f));
+                    _bbuf[b++] = (byte)(0x80 | (p & 0x3f));
+                } else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+                    _bbuf[b++] = (byte)'?'; // malformed surrogate, same replacement as the standard UTF-8 encoder
+                } else {
+                    _bbuf[b++] = (byte)(0xe0 | (c >> 12));
+                    _bbuf[b++] = (byte)(0x80 | ((c >> 6) & 0x3f));
+                    _bbuf[b++] = (byte)(0x80 | (c & 0x3f));
+                }
+            }
+            _stream.write(_bbuf, 0, b);
+            _length += limit;
+            if (limit < _count) {
+                _cbuf[0] = _cbuf[limit];
+            }
+            _count -= limit;
+        }
+    }
+
+    private static char[] borrow(BlockingQueue<char[]> pool) {
+        char[] buffer = pool.poll();
+        return buffer != null ? buffer : new char[CHAR_BUFFER_SIZE];
+    }
+
+    private static final String[] CTRLCHARS = {
+        /* 00 */"\\u0000",
+        /* 01 */"\\u0001",
+        /* 02 */"\\u0002",
+        /* 03 */"\\u0003",
+        /* 04 */"\\u0004",
+        /* 05 */"\\u0005",
+        /* 06 */"\\u0006",
+        /* 07 */"\\u0007",
+        /* 08 */"\\b",
+        /* 09 */"\\t",
+        /* 0A */"\\n",
+        /* 0B */"\\u000b",
+        /* 0C */"\\f",
+        /* 0D */"\\r",
+        /* 0E */"\\u000e",
+        /* 0F */"\\u000f",
+        /* 10 */"\\u0010",
+        /* 11 */"\\u0011",
+        /* 12 */"\\u0012",
+        /* 13 */"\\u0013",
+        /* 14 */"\\u0014",
+        /* 15 */"\\u0015",
+        /* 16 */"\\u0016",
+        /* 17 */"\\u0017",
+        /* 18 */"\\u0018",
+        /* 19 */"\\u0019",
+        /* 1A */"\\u001a",
+        /* 1B */"\\u001b",
+        /* 1C */"\\u001c",
+        /* 1D */"\\u001d",
+        /* 1E */"\\u001e",
+        /* 1F */"\\u001f",
+    };
+}
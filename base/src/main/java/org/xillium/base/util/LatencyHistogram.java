@@ -0,0 +1,213 @@
+package org.xillium.base.util;
+
+import java.util.concurrent.atomic.*;
+
+
+/**
+ * A lock-free, high-dynamic-range histogram of latency values.
+ * <p/>
+ * Values are counted in log-linear buckets: every power-of-2 range is divided into 128 linear sub-buckets, which bounds the
+ * error of any reported percentile to less than 1% of the value, from microseconds to hours, in a few thousand counters.
+ * Recording is wait-free except for the min/max updates, and never blocks concurrent recorders or readers.
+ */
+public class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * The default highest trackable value, 1 hour in microseconds.
+     */
+    public static final long DEFAULT_HIGHEST_TRACKABLE_VALUE = 3600L*1000L*1000L;
+
+    private final long _highest;
+    private final AtomicLongArray _counts;
+    private final AtomicLong _count = new AtomicLong();
+    private final AtomicLong _sum = new AtomicLong();
+    private final AtomicLong _min = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong _max = new AtomicLong();
+
+    /**
+     * Constructs a LatencyHistogram that tracks values up to DEFAULT_HIGHEST_TRACKABLE_VALUE.
+     */
+    public LatencyHistogram() {
+        this(DEFAULT_HIGHEST_TRACKABLE_VALUE);
+    }
+
+    /**
+     * Constructs a LatencyHistogram that tracks values up to the given highest value. Larger values are counted in the last bucket,
+     * although the maximum is still reported exactly.
+     */
+    public LatencyHistogram(long highest) {
+        if (highest < 2*SUB_BUCKET_COUNT) highest = 2*SUB_BUCKET_COUNT;
+        _highest = highest;
+        _counts = new AtomicLongArray(indexOf(highest) + 1);
+    }
+
+    /**
+     * Records a value. Negative values are recorded as 0.
+     */
+    public void record(long value) {
+        if (value < 0) value = 0;
+        _counts.incrementAndGet(indexOf(Math.min(value, _highest)));
+        _sum.addAndGet(value);
+        _count.incrementAndGet();
+
+        long bound;
+        while (value < (bound = _min.get()) && !_min.compareAndSet(bound, value));
+        while (value > (bound = _max.get()) && !_max.compareAndSet(bound, value));
+    }
+
+    /**
+     * Returns the number of recorded values.
+     */
+    public long getCount() {
+        return _count.get();
+    }
+
+    /**
+     * Returns the smallest recorded value, or 0 if nothing has been recorded.
+     */
+    public long getMin() {
+        long min = _min.get();
+        return min == Long.MAX_VALUE ? 0 : min;
+    }
+
+    /**
+     * Returns the largest recorded value.
+     */
+    public long getMax() {
+        return _max.get();
+    }
+
+    /**
+     * Returns the mean of recorded values.
+     */
+    public double getMean() {
+        long count = _count.get();
+        return count > 0 ? _sum.get() / (double)count : 0.0;
+    }
+
+    /**
+     * Returns the value at the given percentile, a number between 0 and 100.
+     */
+    public long getValueAtPercentile(double percentile) {
+        return snapshot().getValueAtPercentile(percentile);
+    }
+
+    /**
+     * Takes a snapshot of the current counts. Values recorded concurrently may or may not be included.
+     */
+    public Snapshot snapshot() {
+        long[] counts = new long[_counts.length()];
+        long count = 0;
+        for (int i = 0; i < counts.length; ++i) {
+            count += counts[i] = _counts.get(i);
+        }
+        return new Snapshot(System.currentTimeMillis(), counts, count, _sum.get(), getMin(), getMax());
+    }
+
+    /**
+     * An immutable copy of the histogram, taken at a particular time.
+     */
+    public static class Snapshot {
+        private final long _time;
+        private final long[] _counts;
+        private final long _count;
+        private final long _sum;
+        private final long _min;
+        private final long _max;
+
+        Snapshot(long time, long[] counts, long count, long sum, long min, long max) {
+            _time = time;
+            _counts = counts;
+            _count = count;
+            _sum = sum;
+            _min = Math.min(min, max);
+            _max = max;
+        }
+
+        /**
+         * Returns the time, in milliseconds since the epoch, when this snapshot was taken.
+         */
+        public long getTime() {
+            return _time;
+        }
+
+        public long getCount() {
+            return _count;
+        }
+
+        public long getMin() {
+            return _min;
+        }
+
+        public long getMax() {
+            return _max;
+        }
+
+        public double getMean() {
+            return _count > 0 ? _sum / (double)_count : 0.0;
+        }
+
+        /**
+         * Returns the value at the given percentile, a number between 0 and 100, as the highest value equivalent to the bucket
+         * where the percentile falls, but never beyond the recorded maximum.
+         */
+        public long getValueAtPercentile(double percentile) {
+            if (_count == 0) return 0;
+            long rank = Math.max(1, (long)Math.ceil(Math.min(percentile, 100.0) / 100.0 * _count));
+            long total = 0;
+            for (int i = 0; i < _counts.length; ++i) {
+                total += _counts[i];
+                if (total >= rank) {
+                    return Math.max(_min, Math.min(_max, highestEquivalentValue(i)));
+                }
+            }
+            return _max;
+        }
+
+        /**
+         * Returns the values recorded between an earlier snapshot of the same histogram and this one. The minimum and maximum of
+         * the interval are approximated by the buckets.
+         */
+        public Snapshot since(Snapshot earlier) {
+            long[] counts = new long[_counts.length];
+            long count = 0;
+            int lowest = -1, highest = -1;
+            for (int i = 0; i < counts.length; ++i) {
+                count += counts[i] = _counts[i] - earlier._counts[i];
+                if (counts[i] > 0) {
+                    if (lowest < 0) lowest = i;
+                    highest = i;
+                }
+            }
+            return new Snapshot(
+                _time, counts, count, _sum - earlier._sum,
+                lowest < 0 ? 0 : Math.max(_min, lowestEquivalentValue(lowest)),
+                highest < 0 ? 0 : Math.min(_max, highestEquivalentValue(highest))
+            );
+        }
+    }
+
+    static int indexOf(long value) {
+        if (value < 2*SUB_BUCKET_COUNT) {
+            return (int)value;
+        } else {
+            int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+            return (shift + 1)*SUB_BUCKET_COUNT + (int)(value >>> shift) - SUB_BUCKET_COUNT;
+        }
+    }
+
+    static long lowestEquivalentValue(int index) {
+        if (index < 2*SUB_BUCKET_COUNT) {
+            return index;
+        } else {
+            int shift = index/SUB_BUCKET_COUNT - 1;
+            return (long)(index - shift*SUB_BUCKET_COUNT) << shift;
+        }
+    }
+
+    static long highestEquivalentValue(int index) {
+        return lowestEquivalentValue(index + 1) - 1;
+    }
+}
@@ -0,0 +1,72 @@
+package lab;
+
+import java.io.*;
+import java.util.*;
+import org.xillium.base.beans.JSONBuilder;
+import org.xillium.base.text.JSONStreamer;
+import org.testng.annotations.*;
+
+
+public class JSONStreamerTest {
+    private static final Object[] VALUES = {
+        "Dave's Lounge", false, 102.33, "A long\nhistory\nof bitter \"struggle\"s", null, "\u6f22\u7d00\tGood Day",
+        "\ud83d\ude00 smile", "back\\slash\u0001", new Object[] { 1, 2, 3, 4 }, new int[0], Arrays.asList("Monkey", "Chimp"),
+        new ArrayList<String>(), 930002L, java.sql.Date.valueOf("2014-01-01")
+    };
+
+    private static String build(int count) {
+        JSONBuilder jb = new JSONBuilder();
+        for (int i = 0; i < count; ++i) {
+            jb.append('{');
+            for (int j = 0; j < VALUES.length; ++j) {
+                jb.serialize("v" + j, VALUES[j]).append(',');
+            }
+            jb.replaceLast('}');
+        }
+        return jb.toString();
+    }
+
+    private static void stream(JSONStreamer js, int count) throws IOException {
+        for (int i = 0; i < count; ++i) {
+            js.append('{');
+            for (int j = 0; j < VALUES.length; ++j) {
+                if (j > 0) js.append(',');
+                js.serialize("v" + j, VALUES[j]);
+            }
+            js.append('}');
+        }
+        js.close();
+    }
+
+    @Test(groups={"JSON"})
+    public void testWriter() throws Exception {
+        for (int count: new int[] { 0, 1, 1000 }) {
+            StringWriter writer = new StringWriter();
+            stream(new JSONStreamer(writer), count);
+            assert build(count).equals(writer.toString()) : "JSON streaming error over Writer";
+        }
+    }
+
+    @Test(groups={"JSON"})
+    public void testOutputStream() throws Exception {
+        for (int count: new int[] { 0, 1, 1000 }) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            stream(new JSONStreamer(bytes), count);
+            assert Arrays.equals(build(count).getBytes("UTF-8"), bytes.toByteArray()) : "JSON streaming error over OutputStream";
+        }
+    }
+
+    @Test(groups={"JSON"})
+    public void testSurrogatesAcrossBufferBoundary() throws Exception {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 40000; ++i) sb.append(i % 3 == 0 ? "\ud83d\ude00" : "x\u00e9");
+        String text = sb.toString();
+        for (int shift = 0; shift < 3; ++shift) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            JSONStreamer js = new JSONStreamer(bytes);
+            for (int i = 0; i < shift; ++i) js.append(' ');
+            js.quote(text).close();
+            assert Arrays.equals(new JSONBuilder().append("  ".substring(0, shift)).quote(text).toString().getBytes("UTF-8"), bytes.toByteArray());
+        }
+    }
+}
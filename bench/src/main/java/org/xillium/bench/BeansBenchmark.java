@@ -0,0 +1,78 @@
+package org.xillium.bench;
+
+import java.lang.reflect.Field;
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+import org.xillium.base.beans.Beans;
+import org.openjdk.jmh.annotations.*;
+
+
+/**
+ * Beans.getKnownField() lookups and Beans.setValue() conversions, the reflective primitives under data binding and row mapping.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BeansBenchmark {
+    public static enum Color { RED, GREEN, BLUE }
+
+    public static class Base {
+        public String inherited;
+    }
+
+    public static class Target extends Base {
+        public int count;
+        public Long total;
+        public BigDecimal amount;
+        public Color color;
+        public java.sql.Date day;
+        public String name;
+    }
+
+    private Target _target;
+    private Field _count, _total, _amount, _color, _day, _name;
+    private BigDecimal _decimal;
+    private java.sql.Timestamp _timestamp;
+
+    @Setup
+    public void setup() throws Exception {
+        _target = new Target();
+        _count = Beans.getKnownField(Target.class, "count");
+        _total = Beans.getKnownField(Target.class, "total");
+        _amount = Beans.getKnownField(Target.class, "amount");
+        _color = Beans.getKnownField(Target.class, "color");
+        _day = Beans.getKnownField(Target.class, "day");
+        _name = Beans.getKnownField(Target.class, "name");
+        _decimal = new BigDecimal("1234.50");
+        _timestamp = new java.sql.Timestamp(1400000000000L);
+    }
+
+    @Benchmark
+    public Field getKnownField() throws NoSuchFieldException {
+        return Beans.getKnownField(Target.class, "amount");
+    }
+
+    @Benchmark
+    public Field getKnownInheritedField() throws NoSuchFieldException {
+        return Beans.getKnownField(Target.class, "inherited");
+    }
+
+    @Benchmark
+    public Target setValueSameType() throws IllegalAccessException {
+        Beans.setValue(_target, _amount, _decimal);
+        Beans.setValue(_target, _name, "name");
+        return _target;
+    }
+
+    @Benchmark
+    public Target setValueConverted() throws IllegalAccessException {
+        Beans.setValue(_target, _count, _decimal);
+        Beans.setValue(_target, _total, _decimal);
+        Beans.setValue(_target, _color, 2);
+        Beans.setValue(_target, _day, _timestamp);
+        return _target;
+    }
+}
@@ -0,0 +1,71 @@
+package org.xillium.bench;
+
+import java.io.*;
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.xillium.base.text.JSONStreamer;
+import org.xillium.data.*;
+import org.openjdk.jmh.annotations.*;
+
+
+/**
+ * DataBinder.toJSON() with large CachedResultSet tables, both built in memory and streamed, over row-wise and columnar tables.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DataBinderBenchmark {
+    public static class Position {
+        public long id;
+        public String symbol;
+        public BigDecimal quantity;
+        public Double price;
+        public java.sql.Timestamp updated;
+    }
+
+    @Param({ "1000", "10000" })
+    public int rows;
+
+    @Param({ "false", "true" })
+    public boolean columnar;
+
+    private DataBinder _binder;
+    private ByteArrayOutputStream _sink;
+
+    @Setup
+    public void setup() throws Exception {
+        List<Position> positions = new ArrayList<Position>();
+        for (int i = 0; i < rows; ++i) {
+            Position position = new Position();
+            position.id = i;
+            position.symbol = "SYM" + (i % 500);
+            position.quantity = BigDecimal.valueOf(i * 25L, 2);
+            position.price = i / 7.0;
+            position.updated = new java.sql.Timestamp(1400000000000L + i * 1000L);
+            positions.add(position);
+        }
+        _binder = new DataBinder();
+        _binder.put("account", "A-0001");
+        _binder.put("status", "open");
+        _binder.putResultSet("positions", new CachedResultSet(positions, false, columnar));
+        _sink = new ByteArrayOutputStream(rows * 128);
+    }
+
+    @Benchmark
+    public String toJSON() {
+        return _binder.toJSON();
+    }
+
+    @Benchmark
+    public int toJSONStreamer() throws IOException {
+        _sink.reset();
+        JSONStreamer js = new JSONStreamer(_sink);
+        _binder.toJSON(js);
+        js.flush();
+        return _sink.size();
+    }
+}
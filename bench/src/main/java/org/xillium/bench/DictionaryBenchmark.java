@@ -0,0 +1,62 @@
+package org.xillium.bench;
+
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+import org.xillium.data.*;
+import org.xillium.data.validation.*;
+import org.openjdk.jmh.annotations.*;
+
+
+/**
+ * Dictionary.collect() of request parameters into annotated DataObjects, including an array of nested DataObjects.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DictionaryBenchmark {
+    public static enum Side { BUY, SELL }
+
+    public static class Leg implements DataObject {
+        @required @size(12) public String symbol;
+        @required public Side side;
+        @range(min="1", max="1000000") public int quantity;
+    }
+
+    public static class Order implements DataObject {
+        @required @pattern("[A-Z]-[0-9]{4}") public String account;
+        @required @size(40) public String name;
+        @pattern(pattern.COMMON_CURRENCY) public String limit;
+        @range(min="0", max="100") public BigDecimal discount;
+        public Integer priority;
+        public boolean urgent;
+        public Leg[] legs;
+    }
+
+    private Dictionary _dictionary;
+    private DataBinder _binder;
+
+    @Setup
+    public void setup() {
+        _dictionary = new Dictionary();
+        _binder = new DataBinder();
+        _binder.put("account", "A-0001");
+        _binder.put("name", "Benchmark order");
+        _binder.put("limit", "1,250.00");
+        _binder.put("discount", "12.5");
+        _binder.put("priority", "3");
+        _binder.put("urgent", "true");
+        for (int i = 0; i < 5; ++i) {
+            _binder.put("legs[" + i + "].symbol", "SYM" + i);
+            _binder.put("legs[" + i + "].side", i % 2 == 0 ? "BUY" : "SELL");
+            _binder.put("legs[" + i + "].quantity", String.valueOf(100 * (i + 1)));
+        }
+    }
+
+    @Benchmark
+    public Order collect() throws DataValidationException {
+        return _dictionary.collect(new Order(), _binder);
+    }
+}
@@ -0,0 +1,122 @@
+package org.xillium.bench;
+
+import java.lang.reflect.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.*;
+import javax.servlet.http.HttpServletRequest;
+import org.xillium.data.*;
+import org.xillium.data.validation.Dictionary;
+import org.xillium.core.*;
+import org.openjdk.jmh.annotations.*;
+
+
+/**
+ * Dispatch overhead of HttpServiceDispatcher ahead of the service itself: locating the service from the request URI, classifying it,
+ * and collecting request parameters into a DataBinder. The "regex" benchmark reproduces the former dispatch path, with a regular
+ * expression, a HashMap, instanceof tests and 2 walks over the parameters, while "planned" routes through a RouteTable.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DispatchBenchmark {
+    private static final Pattern URI_REGEX = Pattern.compile("/[^/?]+/([^/?]+/[^/?]+)");
+
+    public static class Plain implements Service {
+        public DataBinder run(DataBinder parameters, Dictionary dict, Persistence persist) { return parameters; }
+    }
+
+    public static class Secured extends ExtendableAndSecured {
+        public DataBinder run(DataBinder parameters, Dictionary dict, Persistence persist) { return parameters; }
+    }
+
+    private final Map<String, Service> _registry = new HashMap<String, Service>();
+    private RouteTable _routes;
+    private HttpServletRequest[] _requests;
+    private int _next;
+
+    @Setup
+    public void setup() {
+        for (int m = 0; m < 20; ++m) {
+            for (int s = 0; s < 10; ++s) {
+                _registry.put("module" + m + "/service" + s, s % 2 == 0 ? new Plain() : new Secured());
+            }
+        }
+        _routes = new RouteTable(_registry);
+
+        _requests = new HttpServletRequest[64];
+        Random random = new Random(17);
+        for (int i = 0; i < _requests.length; ++i) {
+            Map<String, String[]> parameters = new LinkedHashMap<String, String[]>();
+            for (int p = 0; p < 8; ++p) {
+                parameters.put("param" + p, new String[] { "value" + random.nextInt(1000) });
+            }
+            _requests[i] = mock("/application/module" + random.nextInt(20) + "/service" + random.nextInt(10), parameters);
+        }
+    }
+
+    @Benchmark
+    public DataBinder regex() {
+        HttpServletRequest req = _requests[_next++ & 63];
+        String id;
+        if (req.getParameterValues(Service.REQUEST_TARGET_PATH) != null) {
+            id = req.getParameterValues(Service.REQUEST_TARGET_PATH)[0];
+        } else {
+            Matcher m = URI_REGEX.matcher(req.getRequestURI());
+            if (!m.matches()) return null;
+            id = m.group(1);
+        }
+        Service service = _registry.get(id);
+        if (service == null) return null;
+
+        DataBinder binder = new DataBinder();
+        Enumeration<String> en = req.getParameterNames();
+        while (en.hasMoreElements()) {
+            String name = en.nextElement();
+            binder.put(name, req.getParameterValues(name)[0]);
+        }
+        if (service instanceof Service.Extended) binder.putNamedObject("filter", service);
+        if (service instanceof Service.Secured) binder.putNamedObject("authorizer", service);
+        if (service instanceof Service.Asynchronous) binder.putNamedObject("asynchronous", service);
+        return binder;
+    }
+
+    @Benchmark
+    public DataBinder planned() {
+        HttpServletRequest req = _requests[_next++ & 63];
+        String[] target = req.getParameterValues(Service.REQUEST_TARGET_PATH);
+        DispatchPlan plan = target != null ? _routes.get(target[0]) : _routes.route(req.getRequestURI());
+        if (plan == null) return null;
+
+        DataBinder binder = new DataBinder();
+        for (Map.Entry<String, String[]> entry: req.getParameterMap().entrySet()) {
+            binder.put(entry.getKey(), entry.getValue()[0]);
+        }
+        if (plan.filter != null) binder.putNamedObject("filter", plan.filter);
+        if (plan.authorizer != null) binder.putNamedObject("authorizer", plan.authorizer);
+        if (plan.asynchronous) binder.putNamedObject("asynchronous", plan.service);
+        return binder;
+    }
+
+    private static HttpServletRequest mock(final String uri, final Map<String, String[]> parameters) {
+        return (HttpServletRequest)Proxy.newProxyInstance(HttpServletRequest.class.getClassLoader(), new Class<?>[] { HttpServletRequest.class }, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                String name = method.getName();
+                if (name.equals("getRequestURI")) {
+                    return uri;
+                } else if (name.equals("getParameterValues")) {
+                    return parameters.get(args[0]);
+                } else if (name.equals("getParameterNames")) {
+                    return Collections.enumeration(parameters.keySet());
+                } else if (name.equals("getParameterMap")) {
+                    return parameters;
+                } else {
+                    throw new UnsupportedOperationException(name);
+                }
+            }
+        });
+    }
+}
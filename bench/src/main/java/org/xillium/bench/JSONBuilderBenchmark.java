@@ -0,0 +1,47 @@
+package org.xillium.bench;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.xillium.base.beans.JSONBuilder;
+import org.openjdk.jmh.annotations.*;
+
+
+/**
+ * JSONBuilder serialization of strings, numbers, and nested collections.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class JSONBuilderBenchmark {
+    private String _plain;
+    private String _escaped;
+    private List<Object> _values;
+
+    @Setup
+    public void setup() {
+        _plain = "The quick brown fox jumps over the lazy dog, 0123456789";
+        _escaped = "Line 1\n\t\"quoted\" \\ backslash \u0001 control, 中文 text";
+        _values = new ArrayList<Object>();
+        for (int i = 0; i < 100; ++i) {
+            _values.add(i % 3 == 0 ? (Object)("item-" + i) : i % 3 == 1 ? (Object)Long.valueOf(i * 1000L) : (Object)new int[] { i, i + 1, i + 2 });
+        }
+    }
+
+    @Benchmark
+    public String quotePlain() {
+        return new JSONBuilder().quote(_plain).toString();
+    }
+
+    @Benchmark
+    public String quoteEscaped() {
+        return new JSONBuilder().quote(_escaped).toString();
+    }
+
+    @Benchmark
+    public String serializeCollection() {
+        return new JSONBuilder(4096).append('{').serialize("values", _values).append('}').toString();
+    }
+}
@@ -0,0 +1,31 @@
+package org.xillium.bench;
+
+import java.util.*;
+
+
+/**
+ * Runs the JMH benchmarks, writing the results in JSON unless another result format is requested on the command line. The benchmark
+ * module is built only in the "bench" profile.
+ * <xmp>
+ *   mvn -Pbench package
+ *   java -jar bench/target/benchmarks.jar [JMH options] [benchmark regex]
+ * </xmp>
+ * The results go to "jmh-result.json" in the current directory unless "-rff" specifies another file, and can be compared across
+ * releases with any JSON diff tool or the JMH visualizers.
+ */
+public class Main {
+    public static final String RESULT_FILE = "jmh-result.json";
+
+    public static void main(String[] args) throws Exception {
+        List<String> options = new ArrayList<String>(Arrays.asList(args));
+        if (!options.contains("-rf") && !options.contains("-h") && !options.contains("-l")) {
+            options.add(0, "json");
+            options.add(0, "-rf");
+            if (!options.contains("-rff")) {
+                options.add(0, RESULT_FILE);
+                options.add(0, "-rff");
+            }
+        }
+        org.openjdk.jmh.Main.main(options.toArray(new String[options.size()]));
+    }
+}
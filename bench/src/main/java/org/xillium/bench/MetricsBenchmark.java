@@ -0,0 +1,55 @@
+package org.xillium.bench;
+
+import java.util.concurrent.TimeUnit;
+import org.xillium.core.util.ServiceMetrics;
+import org.openjdk.jmh.annotations.*;
+
+
+/**
+ * Overhead of ServiceMetrics recording per request as done by HttpServiceDispatcher: a request begins and ends, and 4 phases are
+ * recorded in between. The "contended" benchmark has 4 threads recording into the metrics of the same service.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MetricsBenchmark {
+    private ServiceMetrics _metrics;
+
+    @Setup
+    public void setup() {
+        _metrics = new ServiceMetrics("module/service");
+    }
+
+    @Benchmark
+    public long baseline() {
+        long start = System.nanoTime(), mark = start;
+        for (int i = 0; i < 4; ++i) {
+            mark = System.nanoTime();
+        }
+        return mark - start;
+    }
+
+    @Benchmark
+    public long recorded() {
+        return record();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public long contended() {
+        return record();
+    }
+
+    private long record() {
+        long start = _metrics.begin();
+        long mark = _metrics.record(ServiceMetrics.Phase.PARSE, start);
+        mark = _metrics.record(ServiceMetrics.Phase.AUTHORIZE, mark);
+        mark = _metrics.record(ServiceMetrics.Phase.RUN, mark);
+        mark = _metrics.record(ServiceMetrics.Phase.SERIALIZE, mark);
+        _metrics.end(start, true);
+        return mark - start;
+    }
+}
@@ -0,0 +1,89 @@
+package org.xillium.bench;
+
+import java.math.BigDecimal;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.xillium.data.*;
+import org.openjdk.jmh.annotations.*;
+
+
+/**
+ * Conversions between collections of objects and CachedResultSets, through generated ObjectAccessors and through reflection.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ObjectAccessorBenchmark {
+    public static class Position implements DataObject {
+        public long id;
+        public String symbol;
+        public BigDecimal quantity;
+        public Double price;
+        public int lots;
+        public boolean open;
+        public java.sql.Timestamp updated;
+
+        public String getSymbol() {
+            return symbol;
+        }
+
+        public Double getPrice() {
+            return price;
+        }
+    }
+
+    @Param({ "100000" })
+    public int objects;
+
+    @Param({ "true", "false" })
+    public boolean generating;
+
+    private List<Position> _positions;
+    private CachedResultSet _table;
+
+    @Setup
+    public void setup() throws Exception {
+        ObjectAccessor.setGeneration(generating);
+        _positions = new ArrayList<Position>();
+        for (int i = 0; i < objects; ++i) {
+            Position position = new Position();
+            position.id = i;
+            position.symbol = "SYM" + (i % 500);
+            position.quantity = BigDecimal.valueOf(i * 25L, 2);
+            position.price = i / 7.0;
+            position.lots = i % 100;
+            position.open = i % 2 == 0;
+            position.updated = new java.sql.Timestamp(1400000000000L + i * 1000L);
+            _positions.add(position);
+        }
+        _table = new CachedResultSet(_positions);
+    }
+
+    @TearDown
+    public void tearDown() {
+        ObjectAccessor.setGeneration(true);
+    }
+
+    @Benchmark
+    public CachedResultSet toTable() throws Exception {
+        return new CachedResultSet(_positions);
+    }
+
+    @Benchmark
+    public CachedResultSet toColumnarTable() throws Exception {
+        return new CachedResultSet(_positions, false, true);
+    }
+
+    @Benchmark
+    public CachedResultSet toTextTable() {
+        return new CachedResultSet(_positions, "symbol", "price");
+    }
+
+    @Benchmark
+    public List<Position> toObjects() throws Exception {
+        return _table.asList(Position.class);
+    }
+}
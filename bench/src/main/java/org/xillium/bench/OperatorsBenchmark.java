@@ -0,0 +1,137 @@
+package org.xillium.bench;
+
+import java.math.BigDecimal;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.xillium.data.*;
+import org.xillium.data.persistence.*;
+import org.openjdk.jmh.annotations.*;
+
+
+/**
+ * In-memory query operators over a CachedResultSet against the equivalent SQL round trip on an in-memory HSQLDB, which also
+ * includes building the CachedResultSet of the result.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class OperatorsBenchmark {
+    private static final String[] REGIONS = { "N", "S", "E", "W" };
+
+    @Param({ "100000", "1000000" })
+    public int rows;
+
+    @Param({ "true", "false" })
+    public boolean columnar;
+
+    private Connection _connection;
+    private CachedResultSet _orders;
+    private CachedResultSet _customers;
+    private Operators.Condition[] _conditions;
+    private String[] _keys;
+
+    @Setup
+    public void setup() throws Exception {
+        Class.forName("org.hsqldb.jdbc.JDBCDriver");
+        _connection = DriverManager.getConnection("jdbc:hsqldb:mem:operators" + rows, "SA", "");
+        Statement statement = _connection.createStatement();
+        statement.execute("DROP TABLE ORDERS IF EXISTS");
+        statement.execute("DROP TABLE CUSTOMERS IF EXISTS");
+        statement.execute("CREATE TABLE ORDERS (ID INTEGER PRIMARY KEY, CUSTOMER INTEGER, REGION VARCHAR(4), AMOUNT DECIMAL(10,2), QTY INTEGER)");
+        statement.execute("CREATE TABLE CUSTOMERS (CUSTOMER INTEGER PRIMARY KEY, NAME VARCHAR(16))");
+        statement.close();
+
+        Random random = new Random(rows);
+        PreparedStatement insert = _connection.prepareStatement("INSERT INTO ORDERS VALUES (?, ?, ?, ?, ?)");
+        for (int i = 0; i < rows; ++i) {
+            insert.setInt(1, i);
+            insert.setInt(2, random.nextInt(rows / 10));
+            insert.setString(3, REGIONS[random.nextInt(REGIONS.length)]);
+            insert.setBigDecimal(4, BigDecimal.valueOf(random.nextInt(100000), 2));
+            insert.setInt(5, random.nextInt(10));
+            insert.addBatch();
+            if (i % 10000 == 9999 || i == rows - 1) insert.executeBatch();
+        }
+        insert.close();
+        insert = _connection.prepareStatement("INSERT INTO CUSTOMERS VALUES (?, ?)");
+        for (int i = 0; i < rows / 10; ++i) {
+            insert.setInt(1, i);
+            insert.setString(2, "customer-" + i);
+            insert.addBatch();
+        }
+        insert.executeBatch();
+        insert.close();
+
+        _orders = select("SELECT * FROM ORDERS");
+        _customers = select("SELECT * FROM CUSTOMERS");
+        _conditions = new Operators.Condition[] {
+            new Operators.Condition("amount", Operators.gt(500)), new Operators.Condition("region", Operators.in("N", "S"))
+        };
+        _keys = new String[] { "region" };
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        _connection.close();
+    }
+
+    @Benchmark
+    public CachedResultSet filter() {
+        return _orders.filter(_conditions);
+    }
+
+    @Benchmark
+    public CachedResultSet filterSQL() throws Exception {
+        return select("SELECT * FROM ORDERS WHERE AMOUNT > 500 AND REGION IN ('N', 'S')");
+    }
+
+    @Benchmark
+    public CachedResultSet sort() {
+        return _orders.sort("-amount", "id");
+    }
+
+    @Benchmark
+    public CachedResultSet sortSQL() throws Exception {
+        return select("SELECT * FROM ORDERS ORDER BY AMOUNT DESC, ID");
+    }
+
+    @Benchmark
+    public CachedResultSet top() {
+        return _orders.top(100, "-amount", "id");
+    }
+
+    @Benchmark
+    public CachedResultSet topSQL() throws Exception {
+        return select("SELECT * FROM ORDERS ORDER BY AMOUNT DESC, ID LIMIT 100");
+    }
+
+    @Benchmark
+    public CachedResultSet group() {
+        return _orders.group(_keys, Operators.Aggregate.count(), Operators.Aggregate.sum("amount"), Operators.Aggregate.avg("qty"));
+    }
+
+    @Benchmark
+    public CachedResultSet groupSQL() throws Exception {
+        return select("SELECT REGION, COUNT(*), SUM(AMOUNT), AVG(CAST(QTY AS DOUBLE)) FROM ORDERS GROUP BY REGION");
+    }
+
+    @Benchmark
+    public CachedResultSet join() {
+        return _orders.join(_customers, "customer");
+    }
+
+    @Benchmark
+    public CachedResultSet joinSQL() throws Exception {
+        return select("SELECT O.*, C.NAME FROM ORDERS O JOIN CUSTOMERS C ON O.CUSTOMER = C.CUSTOMER");
+    }
+
+    private CachedResultSet select(String sql) throws Exception {
+        return new ParametricQuery(new ParametricStatement.Param[0], sql).executeSelect(
+            _connection, null, columnar ? CachedResultSet.COLUMNAR_BUILDER : CachedResultSet.BUILDER
+        );
+    }
+}
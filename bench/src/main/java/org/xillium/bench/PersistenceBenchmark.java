@@ -0,0 +1,94 @@
+package org.xillium.bench;
+
+import java.math.BigDecimal;
+import java.sql.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.xillium.data.*;
+import org.xillium.data.persistence.*;
+import org.openjdk.jmh.annotations.*;
+
+
+/**
+ * ParametricStatement execution and ObjectMappedQuery mapping against an in-memory HSQLDB, with generated and reflective
+ * parameter binding and row mapping.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PersistenceBenchmark {
+    public static class Trade implements DataObject {
+        public long tradeId;
+        public String symbol;
+        public Integer quantity;
+        public BigDecimal price;
+        public Timestamp executed;
+    }
+
+    @Param({ "true", "false" })
+    public boolean generated;
+
+    @Param({ "1000" })
+    public int rows;
+
+    private Connection _connection;
+    private ParametricStatement _update;
+    private ObjectMappedQuery<Trade> _select;
+    private Trade _trade;
+
+    @Setup
+    public void setup() throws Exception {
+        Class.forName("org.hsqldb.jdbc.JDBCDriver");
+        _connection = DriverManager.getConnection("jdbc:hsqldb:mem:bench" + generated, "SA", "");
+        Statement statement = _connection.createStatement();
+        statement.execute("DROP TABLE TRADE IF EXISTS");
+        statement.execute("CREATE TABLE TRADE (TRADE_ID BIGINT PRIMARY KEY, SYMBOL VARCHAR(12), QUANTITY INTEGER, PRICE DECIMAL(12,4), EXECUTED TIMESTAMP)");
+        statement.close();
+
+        ParametricStatement insert = new ParametricStatement().set(
+            "INSERT INTO TRADE VALUES (:tradeId:BIGINT, :symbol:VARCHAR, :quantity:INTEGER, :price:DECIMAL, :executed:TIMESTAMP)"
+        );
+        List<Trade> trades = new ArrayList<Trade>();
+        for (int i = 0; i < rows; ++i) {
+            trades.add(trade(i));
+        }
+        insert.executeUpdate(_connection, trades);
+
+        _update = new ParametricStatement().set(
+            "UPDATE TRADE SET SYMBOL = :symbol:VARCHAR, QUANTITY = :quantity:INTEGER, PRICE = :price:DECIMAL, EXECUTED = :executed:TIMESTAMP " +
+            "WHERE TRADE_ID = :tradeId:BIGINT"
+        );
+        _update.setBinderGeneration(generated);
+        _select = new ObjectMappedQuery<Trade>(new ParametricStatement.Param[0], "SELECT * FROM TRADE ORDER BY TRADE_ID", Trade.class);
+        _select.setMapperGeneration(generated);
+        _trade = trade(rows / 2);
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        _connection.close();
+    }
+
+    @Benchmark
+    public int executeUpdate() throws SQLException {
+        return _update.executeUpdate(_connection, _trade);
+    }
+
+    @Benchmark
+    public List<Trade> getResults() throws Exception {
+        return _select.getResults(_connection, null);
+    }
+
+    private static Trade trade(int i) {
+        Trade trade = new Trade();
+        trade.tradeId = i;
+        trade.symbol = "SYM" + (i % 100);
+        trade.quantity = 100 + i;
+        trade.price = BigDecimal.valueOf(i * 125L, 4);
+        trade.executed = new Timestamp(1400000000000L + i * 1000L);
+        return trade;
+    }
+}
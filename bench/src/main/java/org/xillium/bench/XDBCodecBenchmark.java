@@ -0,0 +1,52 @@
+package org.xillium.bench;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.xillium.data.*;
+import org.xillium.data.xml.XDBCodec;
+import org.openjdk.jmh.annotations.*;
+
+
+/**
+ * XDBCodec encoding and decoding of a DataBinder with parameters and a table.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class XDBCodecBenchmark {
+    @Param({ "100", "1000" })
+    public int rows;
+
+    private DataBinder _binder;
+    private byte[] _encoded;
+
+    @Setup
+    public void setup() throws Exception {
+        _binder = new DataBinder();
+        for (int i = 0; i < 20; ++i) {
+            _binder.put("param" + i, "value <" + i + "> & more");
+        }
+        List<Object[]> data = new ArrayList<Object[]>();
+        for (int i = 0; i < rows; ++i) {
+            data.add(new Object[] { i, "name-" + i, i * 1.5, i % 2 == 0 ? null : "note " + i });
+        }
+        _binder.putResultSet("items", new CachedResultSet(new String[] { "id", "name", "score", "note" }, data));
+        _encoded = encode().getBytes("UTF-8");
+    }
+
+    @Benchmark
+    public String encode() throws Exception {
+        return XDBCodec.encode(new StringWriter(rows * 96), _binder).toString();
+    }
+
+    @Benchmark
+    public DataBinder decode() throws Exception {
+        DataBinder binder = new DataBinder();
+        XDBCodec.decode(binder, new ByteArrayInputStream(_encoded));
+        return binder;
+    }
+}
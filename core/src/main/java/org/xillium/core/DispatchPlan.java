@@ -0,0 +1,234 @@
+package org.xillium.core;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+import org.apache.commons.fileupload.servlet.ServletFileUpload;
+import org.xillium.data.CachedResultSet;
+import org.xillium.data.DataBinder;
+import org.xillium.data.DataObject;
+import org.xillium.data.StreamingResultSet;
+import org.xillium.data.validation.Dictionary;
+import org.xillium.core.util.ServiceMetrics;
+import org.xillium.core.util.SingleFlight;
+
+
+/**
+ * An immutable dispatch plan of a registered service, capturing everything about a service call that is known at registration time.
+ */
+public final class DispatchPlan {
+    public static final String INTRINSIC_PREFIX = "x!/";
+
+    /**
+     * The service's registered name, "module/service".
+     */
+    public final String id;
+
+    /**
+     * The service.
+     */
+    public final Service service;
+
+    /**
+     * The service as its own filter chain, or null if the service is not Service.Extended.
+     */
+    public final Service.Extended filter;
+
+    /**
+     * The service as its own authorizer, or null if the service is not Service.Secured.
+     */
+    public final Service.Secured authorizer;
+
+    /**
+     * Whether the service is Service.Asynchronous.
+     */
+    public final boolean asynchronous;
+
+    /**
+     * Whether the service is Service.Streaming, consuming uploaded files as they arrive.
+     */
+    public final boolean streaming;
+
+    /**
+     * Whether responses of the service may be compressed, i.e. the service is not Service.Uncompressed.
+     */
+    public final boolean compressible;
+
+    /**
+     * The executions of the service in progress, shared by identical requests, or null if the service is not Service.Coalesced.
+     */
+    public final SingleFlight<String, DataBinder> flights;
+
+    /**
+     * Whether the service is an intrinsic service of the platform.
+     */
+    public final boolean intrinsic;
+
+    /**
+     * The multipart request parser, shared by all calls to the service.
+     */
+    public final ServletFileUpload multipart;
+
+    /**
+     * The request type of the service if it is a DynamicService, into which JSON requests are decoded directly, or null otherwise. As
+     * keys of cached and coalesced responses are built from parameters in the DataBinder, services whose responses are cached or
+     * coalesced have JSON requests decoded wholly into the DataBinder.
+     */
+    public final Class<? extends DataObject> requestType;
+
+    /**
+     * The content type of responses, unless the request is in XML.
+     */
+    public final String contentType;
+
+    /**
+     * The request metrics of the service.
+     */
+    public final ServiceMetrics metrics;
+
+    /**
+     * The ResponseCache that caches responses of the service, or null if responses are not cached.
+     */
+    public final ResponseCache cache;
+
+    /**
+     * The ResponseCaches in which the service invalidates responses.
+     */
+    public final List<ResponseCache> invalidations;
+
+    /**
+     * The ServiceLimiter that limits concurrent executions of the service, or null if executions are not limited.
+     */
+    public final ServiceLimiter limiter;
+
+    public DispatchPlan(String id, Service service) {
+        this(id, service, new ServiceMetrics(id), Collections.emptyList());
+    }
+
+    /**
+     * Constructs a DispatchPlan, attaching the dispatch components (ResponseCaches and ServiceLimiters) that apply to the service.
+     */
+    public DispatchPlan(String id, Service service, ServiceMetrics metrics, Collection<?> components) {
+        this.id = id;
+        this.service = service;
+        this.filter = service instanceof Service.Extended ? (Service.Extended)service : null;
+        this.authorizer = service instanceof Service.Secured ? (Service.Secured)service : null;
+        this.asynchronous = service instanceof Service.Asynchronous;
+        this.streaming = service instanceof Service.Streaming;
+        this.compressible = !(service instanceof Service.Uncompressed);
+        this.flights = service instanceof Service.Coalesced ?
+            new SingleFlight<String, DataBinder>(Long.getLong("xillium.service.coalesce.Timeout", SingleFlight.DEFAULT_TIMEOUT)) : null;
+        this.intrinsic = id.startsWith(INTRINSIC_PREFIX);
+        this.multipart = new ServletFileUpload();
+        if (id.endsWith(".html")) {
+            this.contentType = "text/html;charset=utf-8";
+        } else if (id.endsWith(".text")) {
+            this.contentType = "text/plain;charset=utf-8";
+        } else {
+            this.contentType = "application/json;charset=utf-8";
+        }
+        this.metrics = metrics;
+
+        ResponseCache cache = null;
+        List<ResponseCache> invalidations = new ArrayList<ResponseCache>();
+        ServiceLimiter limiter = null;
+        for (Object component: components) {
+            if (component instanceof ResponseCache) {
+                ResponseCache c = (ResponseCache)component;
+                if (cache == null && c.caches(id)) cache = c;
+                if (c.isInvalidatedBy(id)) invalidations.add(c);
+            } else if (component instanceof ServiceLimiter) {
+                ServiceLimiter l = (ServiceLimiter)component;
+                if (limiter == null && l.limits(id)) limiter = l;
+            }
+        }
+        this.cache = cache;
+        this.invalidations = invalidations.isEmpty() ? Collections.<ResponseCache>emptyList() : Collections.unmodifiableList(invalidations);
+        this.limiter = limiter;
+        this.requestType = service instanceof DynamicService && flights == null && cache == null ? requestType((DynamicService)service) : null;
+    }
+
+    /**
+     * Runs the service. If the service is Service.Coalesced, an identical request already running the service is waited for instead,
+     * and a copy of its result is returned, in which the request's own parameters are overlaid with the result's parameters other than
+     * auto-values, its SERVICE_HTTP_STATUS and SERVICE_PAGE_TARGET, its result sets, and its SERVICE_HTTP_HEADER. A request that has
+     * waited for longer than the system property "xillium.service.coalesce.Timeout" milliseconds runs the service on its own.
+     * <p/>
+     * Result sets are copied along with their rows, so that filters of each request may modify them. A result holding rows that are
+     * closed once the response is sent, i.e. a StreamingResultSet or spilled rows, is not shared at all, and the waiting requests run
+     * the service on their own.
+     */
+    public DataBinder run(final DataBinder binder, final Dictionary dict, final Persistence persist) throws Exception {
+        if (flights == null) return service.run(binder, dict, persist);
+
+        final DataBinder[] own = new DataBinder[1];
+        DataBinder shared = flights.execute(ResponseCache.key(id, binder), new Callable<DataBinder>() {
+            public DataBinder call() throws Exception {
+                return share(own[0] = service.run(binder, dict, persist));
+            }
+        });
+        if (own[0] != null) {
+            return own[0];
+        } else if (shared == null) {
+            return service.run(binder, dict, persist);
+        } else {
+            metrics.coalesce();
+            return receive(binder, shared);
+        }
+    }
+
+    // the request type of a dynamic service, or null if not available yet
+    private static Class<? extends DataObject> requestType(DynamicService service) {
+        try {
+            return service.getRequestType();
+        } catch (RuntimeException x) {
+            return null;
+        }
+    }
+
+    // a read-only copy of a result for identical requests, or null if the result holds rows that can't outlive its own response
+    private static DataBinder share(DataBinder result) {
+        DataBinder shared = new DataBinder();
+        for (String name: result.getResultSetNames()) {
+            CachedResultSet rs = result.getResultSet(name);
+            if (rs instanceof StreamingResultSet || rs.isSpilled()) return null;
+            shared.putResultSet(name, copy(rs));
+        }
+        for (Map.Entry<String, String> entry: result.entrySet()) {
+            String name = entry.getKey();
+            if (!(name.length() > 1 && name.charAt(0) == '#' && name.charAt(name.length()-1) == '#')) shared.put(name, entry.getValue());
+        }
+        for (String name: new String[] { Service.SERVICE_HTTP_STATUS, Service.SERVICE_PAGE_TARGET }) {
+            String value = result.get(name);
+            if (value != null) shared.put(name, value);
+        }
+        Map<String, String> headers = result.getNamedObject(Service.SERVICE_HTTP_HEADER);
+        if (headers != null) shared.putNamedObject(Service.SERVICE_HTTP_HEADER, new HashMap<String, String>(headers));
+        return shared;
+    }
+
+    // a request's own copy of a shared result
+    private static DataBinder receive(DataBinder binder, DataBinder shared) {
+        binder.putAll(shared);
+        for (String name: shared.getResultSetNames()) {
+            binder.putResultSet(name, copy(shared.getResultSet(name)));
+        }
+        Map<String, String> headers = shared.getNamedObject(Service.SERVICE_HTTP_HEADER);
+        if (headers != null) binder.putNamedObject(Service.SERVICE_HTTP_HEADER, new HashMap<String, String>(headers));
+        return binder;
+    }
+
+    // a copy of a result set and its rows, held in memory
+    private static CachedResultSet copy(CachedResultSet rs) {
+        if (rs.rows == null) return new CachedResultSet(rs.columns.clone(), null);
+        List<Object[]> rows = new ArrayList<Object[]>(rs.rows.size());
+        for (Object[] row: rs.rows) {
+            rows.add(row.clone());
+        }
+        return new CachedResultSet(rs.columns.clone(), rows);
+    }
+
+    @Override
+    public String toString() {
+        return id + "::" + service.getClass().getName();
+    }
+}
@@ -1,22 +1,30 @@
 package org.xillium.core;
 
 import java.io.*;
+import java.lang.management.ManagementFactory;
 import java.util.*;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.logging.*;
 import java.util.regex.*;
+import javax.management.ObjectName;
 import javax.servlet.*;
 import javax.servlet.annotation.WebServlet;
 import javax.servlet.http.*;
-import org.apache.commons.fileupload.*;
+import org.apache.commons.fileupload.FileUploadException;
 import org.apache.commons.fileupload.servlet.ServletFileUpload;
-import org.apache.commons.fileupload.util.Streams;
 import org.springframework.context.ApplicationContext;
 import org.springframework.web.context.support.WebApplicationContextUtils;
 import org.xillium.base.beans.*;
+import org.xillium.base.text.JSONStreamer;
 import org.xillium.data.*;
+import org.xillium.data.json.JSONDecoder;
 import org.xillium.data.persistence.crud.CrudConfiguration;
 import org.xillium.data.xml.*;
+import org.xillium.core.intrinsic.BatchService;
 import org.xillium.core.management.ManagedPlatform;
+import org.xillium.core.util.CompressingOutputStream;
+import org.xillium.core.util.ServiceExecutor;
+import org.xillium.core.util.ServiceMetrics;
 
 
 /**
@@ -28,12 +36,35 @@ import org.xillium.core.management.ManagedPlatform;
  * </pre>
  * When a request URI matches the above pattern, this servlet looks up a Service instance registered under the name 'module/service'.
  * <p/>
+ * Besides form parameters, a POST request may carry an XML document, or a JSON object that is decoded as a stream by JSONDecoder,
+ * straight into the request object of a DynamicService where possible.
+ * <p/>
+ * An Asynchronous service runs on a ServiceExecutor instead of the container thread, going through the same filters and transaction
+ * as any other service. The executor is the "serviceExecutor" bean in the application context if there is one, or else a default
+ * one configured by the system properties "xillium.service.async.{Threads,QueueCapacity,QueueLimit,Timeout}". A request that can't
+ * be queued or times out gets a 503 (Service Unavailable) response.
+ * <p/>
+ * Every request is counted in the ServiceMetrics of its service, which records the latency of each dispatcher phase: parsing of the
+ * request, filtration and authorization, the service itself, and writing of the response.
+ * <p/>
+ * JSON and XML responses are compressed with gzip or deflate as negotiated through the Accept-Encoding header, once they grow beyond
+ * the threshold "xillium.service.compression.Threshold" (1024 bytes by default), at the level "xillium.service.compression.Level"
+ * (1 by default). Compression is turned off by the system property "xillium.service.DisableCompression", and for a single service by
+ * Service.Uncompressed.
+ * <p/>
+ * Responses of services attached to a ResponseCache are served from the cache when possible, after filtration and authorization, and
+ * concurrent identical requests to a Service.Coalesced service share a single execution of the service.
+ * <p/>
+ * Executions of services attached to a ServiceLimiter are limited in number. A request that finds its service at the limit waits for
+ * a bounded time, after which it is shed with a 429 (Too Many Requests) response.
+ * <p/>
+ * Rows of a StreamingResultSet in the response are pulled from the database cursor as they are written. Any StreamingResultSet left
+ * open in the data binder is closed, releasing its connection, after the response is sent, as are the temporary files of the rows
+ * of any CachedResultSet spilled to disk.
  */
-@WebServlet(name="dispatcher", value="/x!/*", loadOnStartup=1)
+@WebServlet(name="dispatcher", value="/x!/*", loadOnStartup=1, asyncSupported=true)
 public class HttpServiceDispatcher extends HttpServlet {
-    private static final Pattern URI_REGEX = Pattern.compile("/[^/?]+/([^/?]+/[^/?]+)"); // '/context/module/service'
     private static final Pattern SQL_CONSTRAINT = Pattern.compile("\\([^.]+\\.([\\w-]+)\\)");
-    private static final File TEMPORARY = null;
     private static final Logger _logger = Logger.getLogger(HttpServiceDispatcher.class.getName());
 
     // Servlet context path without the leading '/'
@@ -41,73 +72,157 @@ public class HttpServiceDispatcher extends HttpServlet {
 
     // Wired in spring application context
     private Persistence _persistence;
+    private ServiceExecutor _executor;
+    private ObjectName _executorName;
+
+    // Response compression
+    private boolean _compression;
+    private int _compressionThreshold;
+    private int _compressionLevel;
 
     /**
      * Initializes the servlet, loading and initializing xillium modules.
      */
     public void init() throws ServletException {
         _application = ((ManagedPlatform)ServicePlatform.getService(ManagedPlatform.INSTANCE)).getName();
+        _compression = System.getProperty("xillium.service.DisableCompression") == null;
+        _compressionThreshold = Integer.getInteger("xillium.service.compression.Threshold", CompressingOutputStream.DEFAULT_THRESHOLD);
+        _compressionLevel = Integer.getInteger("xillium.service.compression.Level", CompressingOutputStream.DEFAULT_LEVEL);
 
         ApplicationContext wac = WebApplicationContextUtils.getWebApplicationContext(getServletContext());
         if (wac.containsBean("persistence")) { // persistence may not be there if persistent storage is not required
             _persistence = (Persistence)wac.getBean("persistence");
         }
+        if (wac.containsBean("serviceExecutor")) {
+            _executor = (ServiceExecutor)wac.getBean("serviceExecutor");
+        } else {
+            _executor = new ServiceExecutor(
+                Integer.getInteger("xillium.service.async.Threads", ServiceExecutor.DEFAULT_THREADS),
+                Integer.getInteger("xillium.service.async.QueueCapacity", ServiceExecutor.DEFAULT_QUEUE_CAPACITY)
+            );
+            _executor.setQueueLimit(Integer.getInteger("xillium.service.async.QueueLimit", ServiceExecutor.DEFAULT_QUEUE_LIMIT));
+            _executor.setTimeout(Long.getLong("xillium.service.async.Timeout", ServiceExecutor.DEFAULT_TIMEOUT));
+            try {
+                _executorName = new ObjectName("org.xillium.core.management", "type", "ServiceExecutor" + getServletContext().getContextPath());
+                _executor.assignObjectName(_executorName);
+                ManagementFactory.getPlatformMBeanServer().registerMBean(_executor, _executorName);
+            } catch (Exception x) {
+                _executorName = null;
+                _logger.config("ServiceExecutor not registered with JMX: " + x.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Shuts down the default ServiceExecutor.
+     */
+    public void destroy() {
+        if (_executorName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(_executorName);
+            } catch (Exception x) {
+                _logger.log(Level.WARNING, _executorName.toString(), x);
+            }
+            _executor.shutdown();
+        }
     }
 
     /**
      * Dispatcher entry point
      */
     protected void service(HttpServletRequest req, HttpServletResponse res) throws IOException, ServletException {
-        String id;
+        String[] target = req.getParameterValues(Service.REQUEST_TARGET_PATH);
+        DispatchPlan plan = target != null ? ServicePlatform.getRoutes().get(target[0]) : ServicePlatform.getRoutes().route(req.getRequestURI());
+        if (plan == null) {
+            _logger.warning("Request not recognized: " + req.getRequestURI());
+            res.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
 
-        if (req.getParameterValues(Service.REQUEST_TARGET_PATH) != null) {
-            id = req.getParameterValues(Service.REQUEST_TARGET_PATH)[0];
+        if (plan.asynchronous && _executor != null && req.isAsyncSupported()) {
+            dispatchAsynchronously(plan, req, res);
         } else {
-            Matcher m = URI_REGEX.matcher(req.getRequestURI());
-            if (m.matches()) {
-                id = m.group(1);
-            } else {
-                _logger.warning("Request not recognized: " + req.getRequestURI());
-                res.sendError(HttpServletResponse.SC_NOT_FOUND);
-                return;
+            dispatch(plan, req, res, null);
+        }
+    }
+
+    /**
+     * Runs a service on the ServiceExecutor, completing the request asynchronously. The request is timed out by the executor rather
+     * than the container, so that a job running past its timeout keeps the request and response until it finishes: it is the job
+     * that sends the 503 response and completes the request, never another thread while the job may still be using them.
+     */
+    private void dispatchAsynchronously(final DispatchPlan plan, HttpServletRequest req, HttpServletResponse res) throws IOException {
+        final String id = plan.id;
+        final AsyncContext async = req.startAsync(req, res);
+        async.setTimeout(0);
+
+        final ServiceExecutor.Job job = new ServiceExecutor.Job(id) {
+            protected void execute() throws Exception {
+                dispatch(plan, (HttpServletRequest)async.getRequest(), (HttpServletResponse)async.getResponse(), this);
+            }
+            protected void finish() {
+                complete(async);
+            }
+            protected void abandon() {
+                _logger.warning("Request timed out in queue: " + id);
+                try {
+                    ((HttpServletResponse)async.getResponse()).sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                } catch (Exception x) {
+                    _logger.fine("Failed to send 503 response: " + x.getMessage());
+                }
+                complete(async);
+            }
+        };
+
+        async.addListener(new AsyncListener() {
+            public void onTimeout(AsyncEvent event) {}
+            public void onError(AsyncEvent event) {
+                job.expire();
             }
+            public void onComplete(AsyncEvent event) {}
+            public void onStartAsync(AsyncEvent event) {}
+        });
+
+        try {
+            _executor.submit(job);
+        } catch (RejectedExecutionException x) {
+            _logger.warning("Request rejected: " + id + ": " + x.getMessage());
+            res.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+            async.complete();
         }
+    }
 
-        Service service = ServicePlatform.getService(id);
-        if (service == null) {
-            _logger.warning("Request not recognized: " + req.getRequestURI());
-            res.sendError(HttpServletResponse.SC_NOT_FOUND);
-            return;
+    private static void complete(AsyncContext async) {
+        try {
+            async.complete();
+        } catch (IllegalStateException x) {
+            // already completed by the container after an error
         }
+    }
 
+    /**
+     * Runs a service, from request parsing through filters, authorization, and the service itself to response writing. If the service
+     * runs as a ServiceExecutor job, the response is written only if the job has not expired, and a 503 response is sent otherwise.
+     */
+    private void dispatch(DispatchPlan plan, HttpServletRequest req, HttpServletResponse res, ServiceExecutor.Job job) throws IOException, ServletException {
+        String id = plan.id;
+        ServiceMetrics metrics = plan.metrics;
         List<File> upload = new ArrayList<File>();
         DataBinder binder = new DataBinder();
+        long start = metrics.begin(), mark;
+        boolean successful = false;
+        ResponseCache.Lookup lookup = null;
+        ServiceLimiter.Permit permit = null;
 
         try {
             if (ServletFileUpload.isMultipartContent(req)) {
                 try {
-                    FileItemIterator it = new ServletFileUpload().getItemIterator(req);
-                    while (it.hasNext()) {
-                        FileItemStream item = it.next();
-                        String name = item.getFieldName();
-                        InputStream stream = item.openStream();
-                        if (item.isFormField()) {
-                            binder.put(name, Streams.asString(stream));
-                        } else {
-                            // File field with file name in item.getName()
-                            String original = item.getName();
-                            int dot = original.lastIndexOf('.');
-                            // store the file in a temporary place
-                            File file = File.createTempFile("xillium", dot > 0 ? original.substring(dot) : null, TEMPORARY);
-                            OutputStream out = new FileOutputStream(file);
-                            byte[] buffer = new byte[1024*1024];
-                            int length;
-                            while ((length = stream.read(buffer)) >= 0) out.write(buffer, 0, length);
-                            out.close();
-                            binder.put(name, original);
-                            binder.put(name + ":path", file.getAbsolutePath());
-                            upload.add(file);
-                        }
+                    MultipartStream multipart = new MultipartStream(plan.multipart.getItemIterator(req));
+                    if (plan.streaming) {
+                        multipart.collect(binder);
+                        binder.putNamedObject(Service.REQUEST_MULTIPART, multipart);
+                    } else {
+                        multipart.stage(binder, upload);
                     }
                 } catch (FileUploadException x) {
                     throw new RuntimeException("Failed to parse multipart content", x);
@@ -117,11 +232,12 @@ public class HttpServiceDispatcher extends HttpServlet {
                 if (content != null && isPostedXML(req.getMethod().toLowerCase(), content.toLowerCase())) {
                     XDBCodec.decode(binder, req.getInputStream()).close();
                     binder.put(Service.SERVICE_XML_CONTENT, Service.SERVICE_XML_CONTENT);
+                } else if (content != null && isPostedJSON(req.getMethod().toLowerCase(), content.toLowerCase())) {
+                    JSONDecoder.decode(binder, req.getInputStream(), plan.requestType, ServicePlatform.getDictionary());
                 }
-                Enumeration<String> en = req.getParameterNames();
-                while (en.hasMoreElements()) {
-                    String name = en.nextElement();
-                    String[] values = req.getParameterValues(name);
+                for (Map.Entry<String, String[]> entry: req.getParameterMap().entrySet()) {
+                    String name = entry.getKey();
+                    String[] values = entry.getValue();
                     if (values.length == 1) {
                         binder.put(name, values[0]);
                     } else {
@@ -146,17 +262,17 @@ public class HttpServiceDispatcher extends HttpServlet {
             binder.putNamedObject(Service.REQUEST_HTTP_COOKIE, req.getCookies());
             if (req.isSecure()) binder.put(Service.REQUEST_HTTP_SECURE, Service.REQUEST_HTTP_SECURE);
 
-            if (id.startsWith("x!/")) {
+            if (plan.intrinsic) {
                 req.setAttribute("intrinsic", "intrinsic");
-            } else if (id.endsWith(".html")) {
-                // TODO provide a default, error reporting page template
             }
 
+            mark = metrics.record(ServiceMetrics.Phase.PARSE, start);
+
             // pre-service filtration
 
-            if (service instanceof Service.Extended) {
+            if (plan.filter != null) {
                 try {
-                    ((Service.Extended)service).filtrate(binder);
+                    plan.filter.filtrate(binder);
                 } catch (AuthenticationRequiredException x) {
                     if (binder.get(Service.REQUEST_HTTP_STATUS) != null) {
                         res.sendError(HttpServletResponse.SC_UNAUTHORIZED);
@@ -176,9 +292,9 @@ public class HttpServiceDispatcher extends HttpServlet {
 
             // authorization
 
-            if (service instanceof Service.Secured) {
+            if (plan.authorizer != null) {
                 try {
-                    ((Service.Secured)service).authorize(id, binder, _persistence);
+                    plan.authorizer.authorize(id, binder, _persistence);
                 } catch (AuthenticationRequiredException x) {
                     if (binder.get(Service.REQUEST_HTTP_STATUS) != null) {
                         res.sendError(HttpServletResponse.SC_UNAUTHORIZED);
@@ -196,18 +312,53 @@ public class HttpServiceDispatcher extends HttpServlet {
                 }
             }
 
+            mark = metrics.record(ServiceMetrics.Phase.AUTHORIZE, mark);
+
+            // response cache
+
+            if (plan.cache != null && binder.find(Service.SERVICE_XML_CONTENT) == null) {
+                lookup = plan.cache.lookup(id, binder);
+            }
+
+            // concurrency limit
+
+            if (plan.limiter != null && (lookup == null || lookup.getResponse() == null)) {
+                permit = plan.limiter.acquire(id);
+                if (permit == null) {
+                    _logger.warning("Request shed: " + id);
+                    binder.put(Service.SERVICE_HTTP_STATUS, String.valueOf(ServiceLimiter.SC_TOO_MANY_REQUESTS));
+                    lookup = null;
+                    return;
+                }
+            }
+
             // acknowledgement
 
-            if (service instanceof Service.Extended) {
-                try { ((Service.Extended)service).acknowledge(binder); } catch (Throwable t) {}
+            if (plan.filter != null) {
+                try { plan.filter.acknowledge(binder); } catch (Throwable t) {}
             }
 
-            binder = service.run(binder, ServicePlatform.getDictionary(), _persistence);
+            if (lookup != null && lookup.getResponse() != null) {
+                binder.put(Service.SERVICE_JSON_TUNNEL, lookup.getResponse());
+                lookup = null;
+            } else {
+                try {
+                    binder = plan.run(binder, ServicePlatform.getDictionary(), _persistence);
+                } finally {
+                    if (permit != null) permit.release();
+                }
+            }
+            metrics.record(ServiceMetrics.Phase.RUN, mark);
+            successful = true;
+
+            for (ResponseCache cache: plan.invalidations) {
+                cache.invalidate(id);
+            }
 
             // post-service filter
 
-            if (service instanceof Service.Extended) {
-                try { ((Service.Extended)service).successful(binder); } catch (Throwable t) {}
+            if (plan.filter != null) {
+                try { plan.filter.successful(binder); } catch (Throwable t) {}
             }
 
             // post-service action (deprecated)
@@ -220,6 +371,8 @@ public class HttpServiceDispatcher extends HttpServlet {
                 _logger.warning("In post-service processing caught " + t.getClass() + ": " + t.getMessage());
             }
         } catch (Throwable x) {
+            lookup = null;
+
             // if a new binder can't be returned from Service.run, it can be placed in the original binder as a named object
             Object replacement = binder.getNamedObject(Service.SERVICE_DATA_BINDER);
             if (replacement != null && replacement instanceof DataBinder) {
@@ -240,12 +393,12 @@ public class HttpServiceDispatcher extends HttpServlet {
             binder.put(Service.FAILURE_MESSAGE, message);
 
             // post-service exception handler
-            if (service instanceof Service.Extended) {
-                try { ((Service.Extended)service).aborted(binder, x); } catch (Throwable t) {}
+            if (plan.filter != null) {
+                try { plan.filter.aborted(binder, x); } catch (Throwable t) {}
             }
 
             boolean sst = !(binder.get(Service.SERVICE_STACK_TRACE) == null);
-            boolean pst = !(System.getProperty("xillium.service.PrintStackTrace") == null || id.startsWith("x!/"));
+            boolean pst = !(System.getProperty("xillium.service.PrintStackTrace") == null || plan.intrinsic);
             if (sst || pst) {
                 CharArrayWriter sw = new CharArrayWriter();
                 x.printStackTrace(new PrintWriter(sw));
@@ -255,73 +408,138 @@ public class HttpServiceDispatcher extends HttpServlet {
             }
         } finally {
             // post-service filter
-            if (service instanceof Service.Extended) {
-                try { ((Service.Extended)service).complete(binder); } catch (Throwable t) {}
+            if (plan.filter != null) {
+                try { plan.filter.complete(binder); } catch (Throwable t) {}
             }
 
-            res.setHeader("Access-Control-Allow-Headers", "origin,x-prototype-version,x-requested-with,accept");
-            res.setHeader("Access-Control-Allow-Origin", "*");
+            try {
+                if (job == null || job.commit()) {
+                    mark = System.nanoTime();
+                    respond(plan, binder, req, res, lookup);
+                    metrics.record(ServiceMetrics.Phase.SERIALIZE, mark);
+                } else {
+                    _logger.warning("Request timed out: " + id);
+                    if (!res.isCommitted()) res.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                }
+            } finally {
+                close(binder);
+                for (File tmp: upload) {
+                    try { tmp.delete(); } catch (Exception x) {}
+                }
+                metrics.end(start, successful);
+            }
+        }
+    }
 
+    /**
+     * Writes the response from the data binder returned by the service, completing a ResponseCache lookup if the response is cacheable.
+     */
+    private void respond(DispatchPlan plan, DataBinder binder, HttpServletRequest req, HttpServletResponse res, ResponseCache.Lookup lookup) throws IOException, ServletException {
+        res.setHeader("Access-Control-Allow-Headers", "origin,x-prototype-version,x-requested-with,accept");
+        res.setHeader("Access-Control-Allow-Origin", "*");
+
+        // HTTP headers
+        @SuppressWarnings("unchecked")
+        Map<String, String> headers = binder.getNamedObject(Service.SERVICE_HTTP_HEADER, Map.class);
+        if (headers != null) {
             try {
-                // HTTP headers
-                @SuppressWarnings("unchecked")
-                Map<String, String> headers = binder.getNamedObject(Service.SERVICE_HTTP_HEADER, Map.class);
-                if (headers != null) {
-                    try {
-                        for (Map.Entry<String, String> e: headers.entrySet()) {
-                            res.setHeader(e.getKey(), e.getValue());
-                        }
-                    } catch (Exception x) {}
+                for (Map.Entry<String, String> e: headers.entrySet()) {
+                    res.setHeader(e.getKey(), e.getValue());
                 }
+            } catch (Exception x) {}
+        }
+
+        // return status only?
+        String status = binder.get(Service.SERVICE_HTTP_STATUS);
+        if (status != null) {
+            try { res.setStatus(Integer.parseInt(status)); } catch (Exception x) {}
+        } else {
+            String page = binder.get(Service.SERVICE_PAGE_TARGET);
 
-                // return status only?
-                String status = binder.get(Service.SERVICE_HTTP_STATUS);
-                if (status != null) {
-                    try { res.setStatus(Integer.parseInt(status)); } catch (Exception x) {}
+            if (page == null) {
+                if (binder.find(Service.SERVICE_XML_CONTENT) != null) {
+                    binder.clearAutoValues();
+                    res.setContentType("application/xml;charset=utf-8");
+                    Writer writer = new OutputStreamWriter(open(plan, req, res), "UTF-8");
+                    try {
+                        XDBCodec.encode(writer, binder).flush();
+                    } catch (Exception x) {
+                    } finally {
+                        try { writer.close(); } catch (Exception x) {}
+                    }
                 } else {
-                    String page = binder.get(Service.SERVICE_PAGE_TARGET);
-
-                    if (page == null) {
-                        if (binder.find(Service.SERVICE_XML_CONTENT) != null) {
-                            binder.clearAutoValues();
-                            res.setContentType("application/xml;charset=utf-8");
-                            try {
-                                XDBCodec.encode(res.getWriter(), binder).flush();
-                            } catch (Exception x) {}
-                        } else {
-                            binder.clearAutoValues();
-                            if (id.endsWith(".html")) {
-                                res.setContentType("text/html;charset=utf-8");
-                            } else if (id.endsWith(".text")) {
-                                res.setContentType("text/plain;charset=utf-8");
-                            } else {
-                                res.setContentType("application/json;charset=utf-8");
-                            }
-                            String json = binder.get(Service.SERVICE_JSON_TUNNEL);
-
-                            if (json == null) {
-                                json = binder.toJSON();
-                            }
-
-                            res.getWriter().append(json).flush();
+                    binder.clearAutoValues();
+                    res.setContentType(plan.contentType);
+                    String json = binder.get(Service.SERVICE_JSON_TUNNEL);
+
+                    if (lookup != null && headers == null && ResponseCache.isCacheable(binder)) {
+                        if (json == null) json = binder.toJSON();
+                        lookup.complete(json);
+                    }
+
+                    if (json == null) {
+                        JSONStreamer js = new JSONStreamer(open(plan, req, res));
+                        try {
+                            binder.toJSON(js);
+                        } finally {
+                            js.close();
                         }
                     } else {
-                        _logger.fine("\t=> " + getServletContext().getResource(page));
-                        req.setAttribute(Service.SERVICE_DATA_BINDER, binder);
-                        getServletContext().getRequestDispatcher(page).include(req, res);
+                        Writer writer = new OutputStreamWriter(open(plan, req, res), "UTF-8");
+                        try {
+                            writer.append(json);
+                        } finally {
+                            writer.close();
+                        }
                     }
                 }
-            } finally {
-                for (File tmp: upload) {
-                    try { tmp.delete(); } catch (Exception x) {}
-                }
+            } else {
+                _logger.fine("\t=> " + getServletContext().getResource(page));
+                req.setAttribute(Service.SERVICE_DATA_BINDER, binder);
+                getServletContext().getRequestDispatcher(page).include(req, res);
+            }
+        }
+    }
+
+    /**
+     * Closes any StreamingResultSet left in the data binder, or in the responses of a batch, and releases the temporary files of any
+     * spilled rows.
+     */
+    private static void close(DataBinder binder) {
+        for (String name: binder.getResultSetNames()) {
+            CachedResultSet rset = binder.getResultSet(name);
+            if (rset instanceof StreamingResultSet) {
+                ((StreamingResultSet)rset).close();
+            } else if (rset.rows instanceof SpillingRows) {
+                ((SpillingRows)rset.rows).close();
             }
         }
+        if (binder instanceof BatchService.Batch) {
+            for (DataBinder result: ((BatchService.Batch)binder).getResults()) close(result);
+        }
+    }
+
+    /**
+     * Opens the response output stream, compressing the response if the service and the request allow.
+     */
+    private OutputStream open(DispatchPlan plan, HttpServletRequest req, HttpServletResponse res) throws IOException {
+        if (_compression && plan.compressible && !res.containsHeader("Content-Encoding")) {
+            res.addHeader("Vary", "Accept-Encoding");
+            String encoding = CompressingOutputStream.negotiate(req.getHeader("Accept-Encoding"));
+            if (encoding != null) {
+                return new CompressingOutputStream(res, encoding, _compressionThreshold, _compressionLevel);
+            }
+        }
+        return res.getOutputStream();
     }
 
     private static boolean isPostedXML(String method, String content) {
         return "post".equals(method) && (content.endsWith("xml") || content.contains("xml;"));
     }
 
+    private static boolean isPostedJSON(String method, String content) {
+        return "post".equals(method) && (content.endsWith("json") || content.contains("json;"));
+    }
+
     private static final long serialVersionUID = 1L;
 }
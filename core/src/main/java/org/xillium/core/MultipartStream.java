@@ -0,0 +1,238 @@
+package org.xillium.core;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.*;
+import org.apache.commons.fileupload.*;
+import org.apache.commons.fileupload.util.Streams;
+import org.xillium.data.DataBinder;
+import org.xillium.core.util.BufferPool;
+
+
+/**
+ * A multipart request body, read part by part as it arrives.
+ * <p/>
+ * A multipart request to an ordinary service is staged in full before the service starts: form fields go into the data binder, and
+ * each uploaded file is either kept in memory, if it is no larger than the memory threshold, or written into a temporary file. For
+ * a file field "name", the data binder receives
+ * <ul>
+ * <li>"name", the original file name</li>
+ * <li>"name:size", the size of the file</li>
+ * <li>"name:path", the path of the temporary file, or</li>
+ * <li>"name:data", a named object of byte[] holding a file kept in memory</li>
+ * </ul>
+ * The memory threshold is set by the system property "xillium.service.upload.MemoryThreshold", DEFAULT_MEMORY_THRESHOLD by default, or
+ * 0 to write all files to temporary files. Temporary files are written with FileChannel.transferFrom(), and smaller parts are read
+ * into pooled buffers of BUFFER_SIZE, which is at least 64KB and larger than the memory threshold.
+ * <p/>
+ * A Service.Streaming service instead receives only the form fields that precede the first file, and the MultipartStream itself as a
+ * named object REQUEST_MULTIPART, to consume the remaining parts as they arrive with next().
+ */
+public class MultipartStream {
+    public static final String FILE_PATH = ":path";
+    public static final String FILE_DATA = ":data";
+    public static final String FILE_SIZE = ":size";
+    public static final int DEFAULT_MEMORY_THRESHOLD = 16*1024;
+    public static final int MEMORY_THRESHOLD =
+        Math.max(0, Integer.getInteger("xillium.service.upload.MemoryThreshold", DEFAULT_MEMORY_THRESHOLD));
+    public static final int BUFFER_SIZE = Math.max(64*1024, MEMORY_THRESHOLD + 1);
+
+    private static final File TEMPORARY = null;
+    private static final BufferPool _buffers = new BufferPool(BUFFER_SIZE, 64);
+    private static final ByteBuffer NOTHING = ByteBuffer.allocate(0);
+
+    private final FileItemIterator _iterator;
+    private FileItemStream _pending;
+
+    /**
+     * A part of a multipart request, either a form field or a file. The content of a part can be read only once, and only before
+     * the next part is requested.
+     */
+    public static class Part {
+        private final FileItemStream _item;
+
+        Part(FileItemStream item) {
+            _item = item;
+        }
+
+        /**
+         * Returns the name of the form field.
+         */
+        public String getName() {
+            return _item.getFieldName();
+        }
+
+        /**
+         * Returns the original file name, or null if this part is a form field.
+         */
+        public String getFileName() {
+            return _item.getName();
+        }
+
+        /**
+         * Returns the content type of this part, or null if not specified.
+         */
+        public String getContentType() {
+            return _item.getContentType();
+        }
+
+        public boolean isFormField() {
+            return _item.isFormField();
+        }
+
+        /**
+         * Opens the content of this part as an InputStream.
+         */
+        public InputStream openStream() throws IOException {
+            return _item.openStream();
+        }
+
+        /**
+         * Opens the content of this part as a ReadableByteChannel.
+         */
+        public ReadableByteChannel openChannel() throws IOException {
+            return Channels.newChannel(_item.openStream());
+        }
+
+        /**
+         * Reads the content of this part as a string.
+         */
+        public String getString() throws IOException {
+            return Streams.asString(_item.openStream());
+        }
+
+        /**
+         * Writes the content of this part into a file, returning the number of bytes written.
+         */
+        public long transferTo(File file) throws IOException {
+            FileChannel channel = new FileOutputStream(file).getChannel();
+            try {
+                return transfer(openChannel(), channel, 0);
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Constructs a MultipartStream over the items of a multipart request.
+     */
+    public MultipartStream(FileItemIterator iterator) {
+        _iterator = iterator;
+    }
+
+    /**
+     * Returns the next part, or null if there are no more parts.
+     */
+    public Part next() throws IOException {
+        try {
+            if (_pending != null) {
+                FileItemStream item = _pending;
+                _pending = null;
+                return new Part(item);
+            } else if (_iterator.hasNext()) {
+                return new Part(_iterator.next());
+            } else {
+                return null;
+            }
+        } catch (FileUploadException x) {
+            throw new IOException("Failed to parse multipart content", x);
+        }
+    }
+
+    /**
+     * Collects form fields into a data binder up to the first file, which is left to be returned by next().
+     */
+    public void collect(DataBinder binder) throws IOException {
+        try {
+            while (_pending == null && _iterator.hasNext()) {
+                FileItemStream item = _iterator.next();
+                if (item.isFormField()) {
+                    binder.put(item.getFieldName(), Streams.asString(item.openStream()));
+                } else {
+                    _pending = item;
+                }
+            }
+        } catch (FileUploadException x) {
+            throw new IOException("Failed to parse multipart content", x);
+        }
+    }
+
+    /**
+     * Stages all remaining parts, putting form fields into a data binder, and keeping files in memory up to MEMORY_THRESHOLD or
+     * writing them into temporary files, which are added to a list.
+     */
+    public void stage(DataBinder binder, List<File> files) throws IOException {
+        stage(binder, files, MEMORY_THRESHOLD);
+    }
+
+    /**
+     * Stages all remaining parts, putting form fields into a data binder, and keeping files in memory up to the given threshold, less
+     * than BUFFER_SIZE, or writing them into temporary files, which are added to a list.
+     */
+    public void stage(DataBinder binder, List<File> files, int threshold) throws IOException {
+        if (threshold >= BUFFER_SIZE) throw new IllegalArgumentException("threshold not less than " + BUFFER_SIZE + ": " + threshold);
+
+        Part part;
+        while ((part = next()) != null) {
+            String name = part.getName();
+            if (part.isFormField()) {
+                binder.put(name, part.getString());
+                continue;
+            }
+
+            String original = part.getFileName();
+            ReadableByteChannel input = part.openChannel();
+            ByteBuffer buffer = threshold > 0 ? _buffers.acquire() : NOTHING.duplicate();
+            try {
+                // read up to threshold + 1 bytes to learn whether the file fits in memory
+                if (threshold > 0) {
+                    buffer.limit(threshold + 1);
+                    while (buffer.hasRemaining() && input.read(buffer) >= 0);
+                    buffer.flip();
+                }
+
+                if (threshold > 0 && buffer.remaining() <= threshold) {
+                    byte[] data = new byte[buffer.remaining()];
+                    buffer.get(data);
+                    binder.putNamedObject(name + FILE_DATA, data);
+                    binder.put(name + FILE_SIZE, String.valueOf(data.length));
+                } else {
+                    int dot = original.lastIndexOf('.');
+                    File file = File.createTempFile("xillium", dot > 0 ? original.substring(dot) : null, TEMPORARY);
+                    files.add(file);
+                    FileChannel output = new FileOutputStream(file).getChannel();
+                    try {
+                        long size = buffer.remaining();
+                        while (buffer.hasRemaining()) output.write(buffer);
+                        size = transfer(input, output, size);
+                        binder.put(name + FILE_PATH, file.getAbsolutePath());
+                        binder.put(name + FILE_SIZE, String.valueOf(size));
+                    } finally {
+                        output.close();
+                    }
+                }
+                binder.put(name, original);
+            } finally {
+                _buffers.release(buffer);
+            }
+        }
+    }
+
+    /**
+     * Returns the pool of buffers shared by all MultipartStreams.
+     */
+    public static BufferPool getBufferPool() {
+        return _buffers;
+    }
+
+    // transfers the rest of the input into the output starting at the position, returning the end position
+    private static long transfer(ReadableByteChannel input, FileChannel output, long position) throws IOException {
+        long count;
+        while ((count = output.transferFrom(input, position, Long.MAX_VALUE - position)) > 0) {
+            position += count;
+        }
+        return position;
+    }
+}
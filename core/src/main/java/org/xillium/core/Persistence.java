@@ -8,6 +8,7 @@ import org.xillium.base.beans.*;
 import org.xillium.data.*;
 import org.xillium.data.persistence.*;
 import org.xillium.core.conf.*;
+import org.xillium.core.management.WithCache;
 import org.springframework.jdbc.datasource.DataSourceUtils;
 import org.springframework.transaction.*;
 import org.springframework.transaction.support.DefaultTransactionDefinition;
@@ -20,6 +21,7 @@ public class Persistence {
 
     private final DataSource _dataSource;
     private final Map<String, ParametricStatement> _statements;
+    private StatementCache _cache;
     private PlatformTransactionManager _manager;
     private DefaultTransactionDefinition _readonly;
 
@@ -49,7 +51,44 @@ public class Persistence {
      */
     public Persistence(DataSource source) {
         _dataSource = source;
-        _statements = new HashMap<String, ParametricStatement>();
+        _statements = new HashMap<String, ParametricStatement>() {
+            @Override
+            public ParametricStatement put(String name, ParametricStatement statement) {
+                if (_cache != null && statement != null) statement.setStatementCache(_cache);
+                return super.put(name, statement);
+            }
+            private static final long serialVersionUID = 1L;
+        };
+    }
+
+    /**
+     * Assigns a StatementCache to all ParametricStatements registered with this Persistence, now and in the future.
+     */
+    public void setStatementCache(StatementCache cache) {
+        _cache = cache;
+        for (ParametricStatement statement: _statements.values()) {
+            statement.setStatementCache(cache);
+        }
+    }
+
+    /**
+     * Returns the StatementCache assigned to this Persistence, or null if there is none.
+     */
+    public StatementCache getStatementCache() {
+        return _cache;
+    }
+
+    /**
+     * Reports the state of the StatementCache, or null if there is none.
+     */
+    public WithCache.CacheState getStatementCacheState() {
+        StatementCache cache = _cache;
+        if (cache != null) {
+            long hit = cache.getHit();
+            return new WithCache.CacheState(cache.getSize(), cache.getMax(), hit + cache.getMiss(), hit, cache.getSwap());
+        } else {
+            return null;
+        }
     }
 
     /**
@@ -163,6 +202,48 @@ public class Persistence {
         }
     }
 
+    /**
+     * Executes a SELECT statement and returns a StreamingResultSet, which, placed into a DataBinder, streams rows from an open cursor
+     * into the response, fetchSize rows at a time.
+     *
+     * The query runs on a dedicated connection, outside of the current transaction, which stays open until all rows have been pulled
+     * or the StreamingResultSet is closed. The dispatcher closes any StreamingResultSet left in a DataBinder after the response is sent.
+     * The connection's auto-commit and read-only settings are restored before it goes back to the data source.
+     */
+    public StreamingResultSet executeStream(String name, DataObject object, int fetchSize) throws SQLException {
+        ParametricQuery statement = (ParametricQuery)_statements.get(name);
+        if (statement != null) {
+            Connection connection = _dataSource.getConnection();
+            boolean autoCommit, readOnly;
+            try {
+                autoCommit = connection.getAutoCommit();
+                readOnly = connection.isReadOnly();
+            } catch (SQLException x) {
+                connection.close();
+                throw x;
+            }
+            try {
+                // some drivers fetch rows by cursor only when auto-commit is off
+                connection.setAutoCommit(false);
+                connection.setReadOnly(true);
+            } catch (SQLException x) {
+                StreamingResultSet.restore(connection, autoCommit, readOnly);
+                connection.close();
+                throw x;
+            }
+            return statement.executeStream(connection, object, fetchSize, autoCommit, readOnly);
+        } else {
+            throw new RuntimeException("ParametricQuery '" + name + "' not found");
+        }
+    }
+
+    /**
+     * Executes a SELECT statement and returns a StreamingResultSet with the default fetch size.
+     */
+    public StreamingResultSet executeStream(String name, DataObject object) throws SQLException {
+        return executeStream(name, object, StreamingResultSet.DEFAULT_FETCH_SIZE);
+    }
+
     /**
      * Executes a SELECT statement and returns the result set as a list of objects
      */
@@ -0,0 +1,300 @@
+package org.xillium.core;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.*;
+import java.util.logging.*;
+import org.xillium.data.CachedResultSet;
+import org.xillium.data.DataBinder;
+import org.xillium.data.StreamingResultSet;
+import org.xillium.core.management.ManagedComponent;
+import org.xillium.core.management.WithCache;
+
+
+/**
+ * A cache of JSON responses of read-only services, attached to services by configuration in service-configuration.xml.
+ * <xmp>
+ *  <bean id="lookups" class="org.xillium.core.ResponseCache">
+ *      <property name="capacity" value="1000"/>
+ *      <property name="timeToLive" value="300000"/>
+ *      <property name="services"><map>
+ *          <entry key="listCountries" value="geography"/>
+ *          <entry key="listCities" value="geography,cities"/>
+ *      </map></property>
+ *      <property name="invalidators"><map>
+ *          <entry key="updateCity" value="cities"/>
+ *      </map></property>
+ *  </bean>
+ * </xmp>
+ * Each cached service is labeled with a list of tags, and each invalidator, a write service, with a list of tags to invalidate. When an
+ * invalidator completes successfully, all cached responses of the services labeled with any of its tags are invalidated. Service names
+ * can be local names in the current module or fully qualified names.
+ * <p/>
+ * A response is cached under the service name and all request parameters except auto-values, after filtration and authorization. A
+ * cache hit skips Service.run(), but still goes through filtration and authorization. Only successful JSON responses are cached, and
+ * not those of requests in XML, or of services that return a status, a page, or HTTP headers. Neither are responses that hold a
+ * StreamingResultSet or rows spilled to disk, which are streamed to the client instead (see isCacheable()).
+ */
+public class ResponseCache extends ManagedComponent implements WithCache {
+    private static final Logger _logger = Logger.getLogger(ResponseCache.class.getName());
+
+    public static final int DEFAULT_CAPACITY = 1000;
+    public static final long DEFAULT_TIME_TO_LIVE = 60000L;
+
+    private final Responses _responses = new Responses();
+    private final Map<String, AtomicLong> _generations = new ConcurrentHashMap<String, AtomicLong>();
+    private final Map<String, List<AtomicLong>> _invalidations = new ConcurrentHashMap<String, List<AtomicLong>>();
+    private final AtomicLong _read = new AtomicLong();
+    private final AtomicLong _hit = new AtomicLong();
+    private Map<String, String> _services = Collections.emptyMap();
+    private Map<String, String> _invalidators = Collections.emptyMap();
+    private volatile int _capacity = DEFAULT_CAPACITY;
+    private volatile long _ttl = DEFAULT_TIME_TO_LIVE;
+
+    private static class Response {
+        final String json;
+        final long generation;
+        final long expiry;
+
+        Response(String json, long generation, long expiry) {
+            this.json = json;
+            this.generation = generation;
+            this.expiry = expiry;
+        }
+    }
+
+    // guarded by itself
+    private class Responses extends LinkedHashMap<String, Response> {
+        int max;
+        long swap;
+
+        Responses() {
+            super(16, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Response> eldest) {
+            if (size() > _capacity) {
+                ++swap;
+                return true;
+            } else {
+                return false;
+            }
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * A cache lookup by a request, which is to be completed with the response unless the response comes from the cache.
+     */
+    public class Lookup {
+        private final String _key;
+        private final AtomicLong _generation;
+        private final long _expected;
+        private final String _response;
+
+        Lookup(String key, AtomicLong generation) {
+            _key = key;
+            _generation = generation;
+            _expected = generation.get();
+            _read.incrementAndGet();
+
+            Response response;
+            synchronized (_responses) {
+                response = _responses.get(key);
+                if (response != null && (response.generation != _expected || response.expiry < System.currentTimeMillis())) {
+                    _responses.remove(key);
+                    response = null;
+                }
+            }
+            if (response != null) {
+                _hit.incrementAndGet();
+                _response = response.json;
+            } else {
+                _response = null;
+            }
+        }
+
+        /**
+         * Returns the cached response, or null upon a miss.
+         */
+        public String getResponse() {
+            return _response;
+        }
+
+        /**
+         * Caches the response to the request, unless the service has been invalidated since the lookup.
+         */
+        public void complete(String json) {
+            if (_generation.get() != _expected) return;
+            long ttl = _ttl;
+            Response response = new Response(json, _expected, ttl > 0 ? System.currentTimeMillis() + ttl : Long.MAX_VALUE);
+            synchronized (_responses) {
+                _responses.put(_key, response);
+                if (_responses.size() > _responses.max) _responses.max = _responses.size();
+            }
+        }
+    }
+
+    /**
+     * Sets the maximum number of cached responses.
+     */
+    public void setCapacity(int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        _capacity = capacity;
+    }
+
+    public int getCapacity() {
+        return _capacity;
+    }
+
+    /**
+     * Sets the time-to-live of cached responses in milliseconds, 0 for never expiring.
+     */
+    public void setTimeToLive(long ttl) {
+        if (ttl < 0) throw new IllegalArgumentException("ttl must not be negative: " + ttl);
+        _ttl = ttl;
+    }
+
+    public long getTimeToLive() {
+        return _ttl;
+    }
+
+    /**
+     * Sets the cached services, each with a comma-separated list of tags.
+     */
+    public void setServices(Map<String, String> services) {
+        _services = services;
+    }
+
+    /**
+     * Sets the invalidators, each with a comma-separated list of tags to invalidate.
+     */
+    public void setInvalidators(Map<String, String> invalidators) {
+        _invalidators = invalidators;
+    }
+
+    /**
+     * Resolves service names in the configuration against the module in which this cache is defined.
+     */
+    public ResponseCache name(String module) {
+        Map<String, List<AtomicLong>> tagged = new HashMap<String, List<AtomicLong>>();
+        for (Map.Entry<String, String> entry: _services.entrySet()) {
+            AtomicLong generation = new AtomicLong();
+            _generations.put(qualify(module, entry.getKey()), generation);
+            for (String tag: split(entry.getValue())) {
+                List<AtomicLong> generations = tagged.get(tag);
+                if (generations == null) tagged.put(tag, generations = new ArrayList<AtomicLong>());
+                generations.add(generation);
+            }
+        }
+        for (Map.Entry<String, String> entry: _invalidators.entrySet()) {
+            Set<AtomicLong> generations = Collections.newSetFromMap(new IdentityHashMap<AtomicLong, Boolean>());
+            for (String tag: split(entry.getValue())) {
+                if (tagged.containsKey(tag)) {
+                    generations.addAll(tagged.get(tag));
+                } else {
+                    _logger.warning("Tag '" + tag + "' of invalidator '" + entry.getKey() + "' labels no cached services");
+                }
+            }
+            _invalidations.put(qualify(module, entry.getKey()), new ArrayList<AtomicLong>(generations));
+        }
+        return this;
+    }
+
+    /**
+     * Returns whether this cache caches responses of a service.
+     */
+    public boolean caches(String service) {
+        return _generations.containsKey(service);
+    }
+
+    /**
+     * Returns whether a service invalidates responses in this cache.
+     */
+    public boolean isInvalidatedBy(String service) {
+        return _invalidations.containsKey(service);
+    }
+
+    /**
+     * Looks up the response of a cached service to a request.
+     */
+    public Lookup lookup(String service, DataBinder binder) {
+        AtomicLong generation = _generations.get(service);
+        if (generation == null) throw new IllegalArgumentException("service not cached: " + service);
+        return new Lookup(key(service, binder), generation);
+    }
+
+    /**
+     * Invalidates the responses of the cached services labeled with any of the tags of an invalidator.
+     */
+    public void invalidate(String invalidator) {
+        List<AtomicLong> generations = _invalidations.get(invalidator);
+        if (generations != null) for (AtomicLong generation: generations) {
+            generation.incrementAndGet();
+        }
+    }
+
+    /**
+     * Clears the cache.
+     */
+    @Override
+    public void refresh() {
+        synchronized (_responses) {
+            _responses.clear();
+        }
+    }
+
+    @Override
+    public CacheState getCacheState() {
+        synchronized (_responses) {
+            return new CacheState(_responses.size(), _responses.max, _read.get(), _hit.get(), _responses.swap);
+        }
+    }
+
+    /**
+     * Builds the cache key of a request, from the service name and all parameters except auto-values, in the order of their names.
+     */
+    public static String key(String service, DataBinder binder) {
+        String[] names = new String[binder.size()];
+        int count = 0;
+        for (String name: binder.keySet()) {
+            if (!(name.length() > 1 && name.charAt(0) == '#' && name.charAt(name.length()-1) == '#')) names[count++] = name;
+        }
+        Arrays.sort(names, 0, count);
+
+        StringBuilder sb = new StringBuilder(service);
+        for (int i = 0; i < count; ++i) {
+            String value = binder.get(names[i]);
+            sb.append('\n').append(names[i].length()).append(':').append(names[i]);
+            if (value != null) sb.append(value.length()).append(':').append(value); else sb.append('-');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Reports whether a response can be cached as a JSON string. It can't if any of its result sets is a StreamingResultSet, whose rows
+     * can be pulled only once, or has rows spilled to disk, which are not to be pulled back into memory all at once.
+     */
+    public static boolean isCacheable(DataBinder binder) {
+        for (String name: binder.getResultSetNames()) {
+            CachedResultSet rset = binder.getResultSet(name);
+            if (rset instanceof StreamingResultSet || rset.isSpilled()) return false;
+        }
+        return true;
+    }
+
+    private static String qualify(String module, String name) {
+        return name.indexOf('/') > -1 ? name : module + '/' + name;
+    }
+
+    private static List<String> split(String tags) {
+        List<String> list = new ArrayList<String>();
+        if (tags != null) for (String tag: tags.split(",")) {
+            tag = tag.trim();
+            if (tag.length() > 0) list.add(tag);
+        }
+        return list;
+    }
+}
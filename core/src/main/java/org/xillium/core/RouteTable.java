@@ -0,0 +1,154 @@
+package org.xillium.core;
+
+import java.util.*;
+import org.xillium.core.util.ServiceMetrics;
+
+
+/**
+ * An immutable table of dispatch plans, indexed by a character trie over service names.
+ * <p/>
+ * A request URI in the form of "/[context]/[module]/[service]" is routed by locating the name "module/service" inside the URI and
+ * walking the trie over it, without creating any objects.
+ */
+public final class RouteTable {
+    private final Node _root;
+    private final int _size;
+
+    /**
+     * Builds a RouteTable over the services in a registry.
+     */
+    public RouteTable(Map<String, Service> services) {
+        this(services, Collections.<String, ServiceMetrics>emptyMap());
+    }
+
+    /**
+     * Builds a RouteTable over the services in a registry, carrying over existing request metrics of the services.
+     */
+    public RouteTable(Map<String, Service> services, Map<String, ServiceMetrics> metrics) {
+        this(services, metrics, Collections.emptyList());
+    }
+
+    /**
+     * Builds a RouteTable over the services in a registry, carrying over existing request metrics of the services, and attaching
+     * dispatch components to the services they apply to: ResponseCaches to the services they cache or are invalidated by, and
+     * ServiceLimiters to the services they limit.
+     */
+    public RouteTable(Map<String, Service> services, Map<String, ServiceMetrics> metrics, Collection<?> components) {
+        Builder root = new Builder();
+        for (Map.Entry<String, Service> entry: services.entrySet()) {
+            Builder node = root;
+            String id = entry.getKey();
+            for (int i = 0; i < id.length(); ++i) {
+                node = node.child(id.charAt(i));
+            }
+            ServiceMetrics m = metrics.get(id);
+            node.plan = new DispatchPlan(id, entry.getValue(), m != null ? m : new ServiceMetrics(id), components);
+        }
+        _root = root.build();
+        _size = services.size();
+    }
+
+    /**
+     * Returns the number of services in this table.
+     */
+    public int size() {
+        return _size;
+    }
+
+    /**
+     * Returns the dispatch plan of a service, or null if the service is not found.
+     */
+    public DispatchPlan get(CharSequence id) {
+        return find(id, 0, id.length());
+    }
+
+    /**
+     * Routes a request URI in the form of "/[context]/[module]/[service]", returning the dispatch plan of the service "module/service",
+     * or null if the URI is not in that form or the service is not found.
+     */
+    public DispatchPlan route(CharSequence uri) {
+        int length = uri.length();
+        if (length == 0 || uri.charAt(0) != '/') return null;
+
+        // locate the 2 slashes after the context
+        int first = -1, second = -1;
+        for (int i = 1; i < length; ++i) {
+            char c = uri.charAt(i);
+            if (c == '?') {
+                return null;
+            } else if (c == '/') {
+                if (first < 0) {
+                    first = i;
+                } else if (second < 0) {
+                    second = i;
+                } else {
+                    return null;
+                }
+            }
+        }
+        if (first < 2 || second < first + 2 || second > length - 2) return null;
+
+        return find(uri, first + 1, length);
+    }
+
+    private DispatchPlan find(CharSequence name, int start, int end) {
+        Node node = _root;
+        for (int i = start; i < end && node != null; ++i) {
+            node = node.child(name.charAt(i));
+        }
+        return node != null ? node.plan : null;
+    }
+
+    private static final class Node {
+        final char[] keys;
+        final Node[] children;
+        final DispatchPlan plan;
+
+        Node(char[] keys, Node[] children, DispatchPlan plan) {
+            this.keys = keys;
+            this.children = children;
+            this.plan = plan;
+        }
+
+        Node child(char c) {
+            int low = 0, high = keys.length - 1;
+            while (low <= high) {
+                int middle = (low + high) >>> 1;
+                char key = keys[middle];
+                if (key < c) {
+                    low = middle + 1;
+                } else if (key > c) {
+                    high = middle - 1;
+                } else {
+                    return children[middle];
+                }
+            }
+            return null;
+        }
+    }
+
+    private static final class Builder {
+        final TreeMap<Character, Builder> children = new TreeMap<Character, Builder>();
+        DispatchPlan plan;
+
+        Builder child(char c) {
+            Builder child = children.get(c);
+            if (child == null) {
+                children.put(c, child = new Builder());
+            }
+            return child;
+        }
+
+        Node build() {
+            char[] keys = new char[children.size()];
+            Node[] nodes = new Node[children.size()];
+            int i = 0;
+            for (Map.Entry<Character, Builder> entry: children.entrySet()) {
+                keys[i] = entry.getKey();
+                nodes[i] = entry.getValue().build();
+                ++i;
+            }
+            return new Node(keys, nodes, plan);
+        }
+    }
+}
@@ -20,6 +20,7 @@ public interface Service {
     public static final String REQUEST_HTTP_COOKIE = "#http_cookie#";
     public static final String REQUEST_HTTP_SECURE = "#http_secure#";
     public static final String REQUEST_HTTP_STATUS = "_http_status_";
+    public static final String REQUEST_MULTIPART   = "#multipart#";
 
     public static final String SERVICE_DATA_BINDER = "#data_binder#";
     public static final String SERVICE_POST_ACTION = "#post_action#";
@@ -119,7 +120,31 @@ public interface Service {
     }
 
     /**
-     * Interface to indicate an asynchronous service.
+     * Interface to indicate a service that consumes uploaded files as they arrive. Of a multipart request, the service receives only
+     * the form fields preceding the first file, which are all that filters and authorization see, along with a MultipartStream named
+     * REQUEST_MULTIPART to read the remaining parts from.
+     */
+    public static interface Streaming extends Service {
+    }
+
+    /**
+     * Interface to indicate a service whose responses are never compressed, e.g. because they are already compressed or are too short
+     * to be worth it.
+     */
+    public static interface Uncompressed extends Service {
+    }
+
+    /**
+     * Interface to indicate a read-only service whose concurrent identical requests, those with the same parameters except auto-values
+     * after filtration and authorization, share a single execution. Each request receives its own copy of the resulting parameters and
+     * result sets, rows included, while named objects other than SERVICE_HTTP_HEADER are seen only by the request that ran the service.
+     */
+    public static interface Coalesced extends Service {
+    }
+
+    /**
+     * Interface to indicate an asynchronous service, which the dispatcher runs on a bounded ServiceExecutor rather than on the
+     * container thread, so that slow services can't starve others of container threads.
      */
     public static interface Asynchronous extends Service {
     }
@@ -0,0 +1,287 @@
+package org.xillium.core;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.*;
+import org.xillium.core.management.ManagedComponent;
+import org.xillium.core.management.WithLimiter;
+
+
+/**
+ * Limits on the number of concurrent executions of services, attached to services by configuration in service-configuration.xml.
+ * <xmp>
+ *  <bean id="limiter" class="org.xillium.core.ServiceLimiter">
+ *      <property name="queueLimit" value="32"/>
+ *      <property name="queueTimeout" value="500"/>
+ *      <property name="targetLatency" value="200"/>
+ *      <property name="limits"><map>
+ *          <entry key="search" value="8"/>
+ *          <entry key="report" value="2"/>
+ *      </map></property>
+ *  </bean>
+ * </xmp>
+ * When a service is running as many times as its limit, further requests wait in a queue of up to queueLimit requests for up to
+ * queueTimeout milliseconds, after which they are shed. The dispatcher responds to a shed request with SC_TOO_MANY_REQUESTS.
+ * <p/>
+ * With a target latency, limits are adaptive, adjusted by AIMD (additive increase, multiplicative decrease): an execution slower than
+ * the target cuts the limit by BACKOFF, at most once per the execution's latency, while an execution within the target that ran at
+ * the limit raises the limit by 1/limit, i.e. by about 1 per limit executions, up to maxLimit. Configured limits are the initial ones.
+ */
+public class ServiceLimiter extends ManagedComponent implements WithLimiter {
+    public static final int SC_TOO_MANY_REQUESTS = 429;
+    public static final int DEFAULT_QUEUE_LIMIT = 64;
+    public static final long DEFAULT_QUEUE_TIMEOUT = 1000L;
+    public static final int DEFAULT_MIN_LIMIT = 1;
+    public static final int DEFAULT_MAX_LIMIT = 1000;
+    public static final double BACKOFF = 0.9;
+
+    private final Map<String, Limit> _limits = new TreeMap<String, Limit>();
+    private Map<String, Integer> _configured = Collections.emptyMap();
+    private volatile int _queueLimit = DEFAULT_QUEUE_LIMIT;
+    private volatile long _queueTimeout = DEFAULT_QUEUE_TIMEOUT;
+    private volatile long _targetLatency;
+    private volatile int _minLimit = DEFAULT_MIN_LIMIT;
+    private volatile int _maxLimit = DEFAULT_MAX_LIMIT;
+
+    /**
+     * A granted execution, to be released when the execution is over.
+     */
+    public static class Permit {
+        private final Limit _limit;
+        private final long _start;
+
+        Permit(Limit limit, long start) {
+            _limit = limit;
+            _start = start;
+        }
+
+        /**
+         * Releases the execution, feeding its latency to an adaptive limit.
+         */
+        public void release() {
+            _limit.release(_start);
+        }
+    }
+
+    private class Limit {
+        final String service;
+        final ReentrantLock lock = new ReentrantLock();
+        final Condition available = lock.newCondition();
+        double limit;
+        int inflight;
+        int queued;
+        long admitted;
+        long shed;
+        long decreased = nanoTime();
+
+        Limit(String service, int limit) {
+            this.service = service;
+            this.limit = limit;
+        }
+
+        Permit acquire() throws InterruptedException {
+            lock.lock();
+            try {
+                if (queued == 0 && inflight < (int)limit) {
+                    return admit();
+                } else if (queued >= _queueLimit) {
+                    ++shed;
+                    return null;
+                }
+
+                ++queued;
+                try {
+                    long nanos = TimeUnit.MILLISECONDS.toNanos(_queueTimeout);
+                    while (inflight >= (int)limit) {
+                        if (nanos <= 0) {
+                            ++shed;
+                            return null;
+                        }
+                        nanos = available.awaitNanos(nanos);
+                    }
+                    return admit();
+                } finally {
+                    --queued;
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        private Permit admit() {
+            ++inflight;
+            ++admitted;
+            return new Permit(this, nanoTime());
+        }
+
+        void release(long start) {
+            lock.lock();
+            try {
+                int running = inflight--, before = (int)limit;
+                long target = TimeUnit.MILLISECONDS.toNanos(_targetLatency);
+                if (target > 0) {
+                    long now = nanoTime(), latency = now - start;
+                    if (latency > target) {
+                        if (now - decreased > latency) {
+                            limit = Math.max(_minLimit, limit * BACKOFF);
+                            decreased = now;
+                        }
+                    } else if (running >= before) {
+                        limit = Math.min(_maxLimit, limit + 1.0/limit);
+                    }
+                }
+                if ((int)limit > before) {
+                    available.signalAll();
+                } else {
+                    available.signal();
+                }
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        void set(int value) {
+            lock.lock();
+            try {
+                limit = value;
+                available.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        LimitState report() {
+            lock.lock();
+            try {
+                return new LimitState(service, (int)limit, inflight, queued, admitted, shed);
+            } finally {
+                lock.unlock();
+            }
+        }
+    }
+
+    /**
+     * Sets the limits of services, which are the initial limits if limits are adaptive.
+     */
+    public void setLimits(Map<String, Integer> limits) {
+        _configured = limits;
+    }
+
+    /**
+     * Sets the maximum number of requests waiting for an execution of a single service.
+     */
+    public void setQueueLimit(int limit) {
+        _queueLimit = limit;
+    }
+
+    @Override
+    public int getQueueLimit() {
+        return _queueLimit;
+    }
+
+    /**
+     * Sets the maximum time in milliseconds a request waits for an execution.
+     */
+    public void setQueueTimeout(long timeout) {
+        _queueTimeout = timeout;
+    }
+
+    @Override
+    public long getQueueTimeout() {
+        return _queueTimeout;
+    }
+
+    /**
+     * Sets the target latency in milliseconds, making limits adaptive, or 0 to keep limits fixed.
+     */
+    public void setTargetLatency(long latency) {
+        _targetLatency = latency;
+    }
+
+    @Override
+    public long getTargetLatency() {
+        return _targetLatency;
+    }
+
+    /**
+     * Sets the lower bound of adaptive limits.
+     */
+    public void setMinLimit(int limit) {
+        if (limit < 1) throw new IllegalArgumentException("limit must be positive: " + limit);
+        _minLimit = limit;
+    }
+
+    /**
+     * Sets the upper bound of adaptive limits.
+     */
+    public void setMaxLimit(int limit) {
+        if (limit < 1) throw new IllegalArgumentException("limit must be positive: " + limit);
+        _maxLimit = limit;
+    }
+
+    /**
+     * Resolves service names in the configuration against the module in which this limiter is defined.
+     */
+    public ServiceLimiter name(String module) {
+        synchronized (_limits) {
+            for (Map.Entry<String, Integer> entry: _configured.entrySet()) {
+                String service = entry.getKey().indexOf('/') > -1 ? entry.getKey() : module + '/' + entry.getKey();
+                if (entry.getValue() < 1) throw new IllegalArgumentException("limit of " + service + " must be positive: " + entry.getValue());
+                _limits.put(service, new Limit(service, entry.getValue()));
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Returns whether this limiter limits a service.
+     */
+    public boolean limits(String service) {
+        synchronized (_limits) {
+            return _limits.containsKey(service);
+        }
+    }
+
+    /**
+     * Acquires an execution of a service, waiting in the queue if necessary, or returns null if the request is shed.
+     */
+    public Permit acquire(String service) throws InterruptedException {
+        Limit limit;
+        synchronized (_limits) {
+            limit = _limits.get(service);
+        }
+        if (limit == null) throw new IllegalArgumentException("service not limited: " + service);
+        return limit.acquire();
+    }
+
+    @Override
+    public void setLimit(String service, int value) {
+        if (value < 1) throw new IllegalArgumentException("limit must be positive: " + value);
+        Limit limit;
+        synchronized (_limits) {
+            limit = _limits.get(service);
+        }
+        if (limit == null) throw new IllegalArgumentException("service not limited: " + service);
+        limit.set(value);
+    }
+
+    @Override
+    public List<LimitState> getLimitStates() {
+        List<Limit> limits;
+        synchronized (_limits) {
+            limits = new ArrayList<Limit>(_limits.values());
+        }
+        List<LimitState> states = new ArrayList<LimitState>(limits.size());
+        for (Limit limit: limits) {
+            states.add(limit.report());
+        }
+        return states;
+    }
+
+    /**
+     * Returns the current time in nanoseconds, by which latencies of executions are measured.
+     */
+    protected long nanoTime() {
+        return System.nanoTime();
+    }
+}
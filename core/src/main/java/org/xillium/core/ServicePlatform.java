@@ -4,6 +4,7 @@ import java.io.*;
 import java.lang.management.ManagementFactory;
 import java.net.URL;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.jar.*;
 import java.util.logging.*;
 import javax.management.*;
@@ -25,6 +26,7 @@ import org.xillium.core.conf.*;
 import org.xillium.core.management.*;
 import org.xillium.core.intrinsic.*;
 import org.xillium.core.util.ModuleSorter;
+import org.xillium.core.util.ServiceMetrics;
 
 
 /**
@@ -51,6 +53,7 @@ public class ServicePlatform extends ManagedPlatform {
 
     private static class ServiceModuleInfo {
         List<ServiceAugmentation> augmentations = new ArrayList<ServiceAugmentation>();
+        List<Object> components = new ArrayList<Object>();
         Map<String, String> descriptions = new HashMap<String, String>();
         List<PlatformLifeCycleAwareDef> plcas;
     }
@@ -59,6 +62,9 @@ public class ServicePlatform extends ManagedPlatform {
     private final Stack<ObjectName> _manageables = new Stack<ObjectName>();
     private final Stack<List<PlatformLifeCycleAwareDef>> _plca = new Stack<List<PlatformLifeCycleAwareDef>>();
     private static final org.xillium.data.validation.Dictionary _dict = new org.xillium.data.validation.Dictionary();
+    private static final Map<String, ServiceMetrics> _metrics = new ConcurrentHashMap<String, ServiceMetrics>();
+    private static final List<Object> _components = new ArrayList<Object>();
+    private static volatile RouteTable _routes = new RouteTable(Collections.<String, Service>emptyMap());
 
     // Wired in spring application context
     private Persistence _persistence;
@@ -77,6 +83,25 @@ public class ServicePlatform extends ManagedPlatform {
         return _dict;
     }
 
+    /**
+     * Returns the current RouteTable, which reflects the service registry as of the last publication.
+     */
+    public static RouteTable getRoutes() {
+        return _routes;
+    }
+
+    /**
+     * Publishes a new RouteTable built from the service registry, replacing the current one atomically. Request metrics of services
+     * already published are carried over.
+     */
+    protected static void publish() {
+        for (String id: _registry.keySet()) {
+            if (!_metrics.containsKey(id)) _metrics.put(id, new ServiceMetrics(id));
+        }
+        _routes = new RouteTable(_registry, _metrics, _components);
+        _logger.config("RouteTable published with " + _routes.size() + " services");
+    }
+
     /**
      * Initializes the servlet, loading and initializing xillium modules.
      */
@@ -104,6 +129,7 @@ public class ServicePlatform extends ManagedPlatform {
         for (ServiceAugmentation fi: info.augmentations) {
             fi.install(_registry);
         }
+        _components.addAll(info.components);
 
         String hide = System.getProperty("xillium.service.HideDescription");
         if (hide == null || hide.length() == 0) {
@@ -111,6 +137,10 @@ public class ServicePlatform extends ManagedPlatform {
             _registry.put("x!/list", new ListService(_registry));
         }
         _registry.put("x!/ping", new PingService());
+        _registry.put("x!/metrics", new MetricsService(_metrics));
+        _registry.put("x!/batch", new BatchService());
+        publish();
+        register(context.getContextPath(), _metrics.values());
 
         if (_persistence != null && System.getProperty("xillium.persistence.DisablePrecompilation") == null) {
             if (_persistence.getTransactionManager() != null) {
@@ -166,6 +196,22 @@ public class ServicePlatform extends ManagedPlatform {
         super.contextDestroyed(event);
     }
 
+    // registers service metrics under "ServiceMetrics/context-path" by service names
+    private void register(String contextPath, Collection<ServiceMetrics> metrics) {
+        MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+        for (ServiceMetrics m: metrics) {
+            if (m.getObjectName() != null) continue;
+            try {
+                ObjectName on = new ObjectName("org.xillium.core.management:type=ServiceMetrics" + contextPath + ",service=" + ObjectName.quote(m.getService()));
+                m.assignObjectName(on);
+                mbs.registerMBean(m, on);
+                _manageables.push(on);
+            } catch (Exception x) {
+                _logger.log(Level.WARNING, "ServiceMetrics '" + m.getService() + "' failed to register", x);
+            }
+        }
+    }
+
     private ApplicationContext installServiceModules(ServletContext context, ApplicationContext wac, ModuleSorter.Sorted sorted, ServiceModuleInfo info) {
         // scan special modules, configuring and initializing PlatformLifeCycleAware objects as each module is loaded
         info.plcas = null;
@@ -316,6 +362,18 @@ public class ServicePlatform extends ManagedPlatform {
             info.augmentations.add(gac.getBean(id, ServiceAugmentation.class).name(name));
         }
 
+        // Response caches
+
+        for (String id: gac.getBeanNamesForType(ResponseCache.class)) {
+            info.components.add(gac.getBean(id, ResponseCache.class).name(name));
+        }
+
+        // Concurrency limits
+
+        for (String id: gac.getBeanNamesForType(ServiceLimiter.class)) {
+            info.components.add(gac.getBean(id, ServiceLimiter.class).name(name));
+        }
+
         // Platform life cycle aware objects
 
         for (String id: gac.getBeanNamesForType(PlatformLifeCycleAware.class)) {
@@ -0,0 +1,306 @@
+package org.xillium.core.intrinsic;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.*;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.xillium.base.beans.JSONBuilder;
+import org.xillium.base.beans.Throwables;
+import org.xillium.base.text.JSONStreamer;
+import org.xillium.data.*;
+import org.xillium.core.*;
+import org.xillium.data.validation.Dictionary;
+
+
+/**
+ * Batch invocation of multiple services in a single request. The parameter "entries" is a JSON array of entries each in the form of
+ * <pre>
+ *      {"service": "module/service", "params": {"name": "value", ...}}
+ * </pre>
+ * Each entry runs with its own parameters on top of the auto-values of the batch request, which is filtered and authorized once as
+ * the service "x!/batch", and goes through the filters, authorization, and concurrency limit of its own service.
+ * <p/>
+ * Entries run in parallel on a bounded executor, configured by the system properties "xillium.service.batch.{Threads,QueueCapacity}",
+ * a failure in one entry leaving the others unaffected; or, if the parameter "transactional" is "true", sequentially in a single
+ * read-write transaction, a failure in any entry failing the batch and rolling back every entry. Responses cached in ResponseCaches
+ * are then invalidated by the entries only after the transaction commits. The number of entries is limited by the system property
+ * "xillium.service.batch.MaxEntries".
+ * <p/>
+ * The response, always in JSON, is streamed as the usual params and tables of the batch followed by "results", an array of the
+ * responses of the entries in order, each in the same form as that of a single service call.
+ */
+public class BatchService extends SecuredService {
+    private static final Logger _logger = Logger.getLogger(BatchService.class.getName());
+    private static final ObjectMapper _mapper = new ObjectMapper();
+
+    public static final int DEFAULT_THREADS = 8;
+    public static final int DEFAULT_QUEUE_CAPACITY = 256;
+    public static final int DEFAULT_MAX_ENTRIES = 64;
+
+    public static final String ENTRIES = "entries";
+    public static final String TRANSACTIONAL = "transactional";
+
+    private final ThreadPoolExecutor _executor;
+    private final int _maxEntries;
+
+    /**
+     * The response of a batch, serialized as its own params and tables followed by the responses of the entries.
+     */
+    public static class Batch extends DataBinder {
+        private final List<DataBinder> _results;
+
+        Batch(DataBinder binder, List<DataBinder> results) {
+            super(binder);
+            _results = results;
+        }
+
+        /**
+         * Returns the responses of the entries in order.
+         */
+        public List<DataBinder> getResults() {
+            return _results;
+        }
+
+        @Override
+        public String toJSON() {
+            JSONBuilder jb = new JSONBuilder(estimateMaximumBytes()).append('{');
+            appendParams(jb).append(',');
+            appendTables(jb).append(",\"results\":[");
+            for (int i = 0; i < _results.size(); ++i) {
+                if (i > 0) jb.append(',');
+                DataBinder result = _results.get(i);
+                String json = result.get(Service.SERVICE_JSON_TUNNEL);
+                jb.append(json != null ? json : result.toJSON());
+            }
+            return jb.append("]}").toString();
+        }
+
+        @Override
+        public JSONStreamer toJSON(JSONStreamer js) throws IOException {
+            js.append('{');
+            appendParams(js).append(',');
+            appendTables(js).append(",\"results\":[");
+            for (int i = 0; i < _results.size(); ++i) {
+                if (i > 0) js.append(',');
+                DataBinder result = _results.get(i);
+                String json = result.get(Service.SERVICE_JSON_TUNNEL);
+                if (json != null) {
+                    js.append(json);
+                } else {
+                    result.toJSON(js);
+                }
+            }
+            return js.append("]}");
+        }
+
+        private static final long serialVersionUID = 1L;
+    }
+
+    public BatchService() {
+        this(
+            Integer.getInteger("xillium.service.batch.Threads", DEFAULT_THREADS),
+            Integer.getInteger("xillium.service.batch.QueueCapacity", DEFAULT_QUEUE_CAPACITY),
+            Integer.getInteger("xillium.service.batch.MaxEntries", DEFAULT_MAX_ENTRIES)
+        );
+    }
+
+    /**
+     * Constructs a BatchService whose parallel entries run on a number of threads with a bounded queue. When the queue is full, entries
+     * run on the thread of the batch request.
+     */
+    public BatchService(int threads, int capacity, int maxEntries) {
+        _executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(capacity), new ThreadFactory() {
+            private final AtomicInteger _count = new AtomicInteger();
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "xillium-batch-" + _count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        }, new ThreadPoolExecutor.CallerRunsPolicy());
+        _executor.allowCoreThreadTimeOut(true);
+        _maxEntries = maxEntries;
+    }
+
+    @Override
+    public DataBinder run(final DataBinder binder, final Dictionary dict, final Persistence persist) throws ServiceException {
+        final RouteTable routes = getRoutes();
+        final List<DataBinder> entries = parse(binder);
+        final List<DataBinder> results = new ArrayList<DataBinder>(entries.size());
+
+        if ("true".equalsIgnoreCase(binder.get(TRANSACTIONAL))) {
+            if (persist != null) {
+                final List<DispatchPlan> invalidators = new ArrayList<DispatchPlan>();
+                try {
+                    persist.doReadWrite(null, new Persistence.Task<Void, Void>() {
+                        public Void run(Void facility, Persistence persistence) throws Exception {
+                            for (DataBinder entry: entries) {
+                                results.add(invoke(routes, entry, dict, persistence, true, invalidators));
+                            }
+                            return null;
+                        }
+                    });
+                } catch (RuntimeException x) {
+                    throw new ServiceException(Throwables.getFirstMessage(x), x);
+                }
+                // only now that the transaction has committed, lest a concurrent request cache what it read before the commit
+                for (DispatchPlan plan: invalidators) {
+                    invalidate(plan);
+                }
+            } else {
+                for (DataBinder entry: entries) {
+                    try {
+                        results.add(invoke(routes, entry, dict, persist, true, null));
+                    } catch (Exception x) {
+                        throw new ServiceException(Throwables.getFirstMessage(x), x);
+                    }
+                }
+            }
+        } else {
+            List<Future<DataBinder>> futures = new ArrayList<Future<DataBinder>>(entries.size());
+            for (final DataBinder entry: entries) {
+                futures.add(_executor.submit(new Callable<DataBinder>() {
+                    public DataBinder call() throws Exception {
+                        return invoke(routes, entry, dict, persist, false, null);
+                    }
+                }));
+            }
+            for (int i = 0; i < futures.size(); ++i) {
+                try {
+                    results.add(futures.get(i).get());
+                } catch (InterruptedException x) {
+                    for (Future<DataBinder> future: futures) future.cancel(true);
+                    throw new ServiceException(x);
+                } catch (ExecutionException x) {
+                    // not expected, as invoke() catches everything
+                    entries.get(i).put(Service.FAILURE_MESSAGE, Throwables.getFirstMessage(x.getCause()));
+                    results.add(entries.get(i));
+                }
+            }
+        }
+
+        return new Batch(binder, results);
+    }
+
+    /**
+     * Returns the RouteTable in which entries find their services, the current one of the ServicePlatform.
+     */
+    protected RouteTable getRoutes() {
+        return ServicePlatform.getRoutes();
+    }
+
+    /**
+     * Parses the entries of a batch into binders, each carrying the auto-values of the batch request.
+     */
+    private List<DataBinder> parse(DataBinder binder) throws ServiceException {
+        String text = binder.get(ENTRIES);
+        if (text == null) throw new ServiceException("MissingBatchEntries");
+
+        JsonNode array;
+        try {
+            array = _mapper.readTree(text);
+        } catch (IOException x) {
+            throw new ServiceException("InvalidBatchEntries", x);
+        }
+        if (array == null || !array.isArray()) throw new ServiceException("InvalidBatchEntries");
+        if (array.size() > _maxEntries) throw new ServiceException("TooManyBatchEntries:" + array.size());
+
+        List<DataBinder> entries = new ArrayList<DataBinder>(array.size());
+        for (JsonNode node: array) {
+            JsonNode service = node.get("service");
+            if (service == null || !service.isTextual()) throw new ServiceException("InvalidBatchEntries");
+
+            DataBinder entry = new DataBinder(binder);
+            JsonNode params = node.get("params");
+            if (params != null) {
+                Iterator<Map.Entry<String, JsonNode>> it = params.fields();
+                while (it.hasNext()) {
+                    Map.Entry<String, JsonNode> param = it.next();
+                    JsonNode value = param.getValue();
+                    entry.put(param.getKey(), value.isNull() ? null : value.isValueNode() ? value.asText() : value.toString());
+                }
+            }
+            for (Map.Entry<String, String> param: binder.entrySet()) {
+                String name = param.getKey();
+                if (name.length() > 1 && name.charAt(0) == '#' && name.charAt(name.length()-1) == '#') entry.put(name, param.getValue());
+            }
+            entry.put(Service.REQUEST_TARGET_PATH, service.asText());
+            entry.putNamedObject(Service.REQUEST_SERVLET_REQ, binder.getNamedObject(Service.REQUEST_SERVLET_REQ));
+            entry.putNamedObject(Service.REQUEST_HTTP_COOKIE, binder.getNamedObject(Service.REQUEST_HTTP_COOKIE));
+            entries.add(entry);
+        }
+        return entries;
+    }
+
+    /**
+     * Invokes the service of an entry through its filters, authorization, and concurrency limit. A failure is recorded in the entry,
+     * and rethrown if requested. If a list of invalidators is given, the plan of a successful entry is added to it instead of having
+     * the entry invalidate ResponseCaches at once.
+     */
+    private DataBinder invoke(RouteTable routes, DataBinder binder, Dictionary dict, Persistence persist, boolean rethrow, List<DispatchPlan> invalidators)
+    throws Exception {
+        String id = binder.get(Service.REQUEST_TARGET_PATH);
+        DispatchPlan plan = routes.get(id);
+        if (plan == null || plan.service == this) {
+            binder.put(Service.FAILURE_MESSAGE, "ServiceNotFound:" + id);
+            if (rethrow) throw new ServiceException("ServiceNotFound:" + id);
+            return binder;
+        }
+
+        long start = plan.metrics.begin();
+        boolean successful = false;
+        try {
+            if (plan.filter != null) plan.filter.filtrate(binder);
+            if (plan.authorizer != null) plan.authorizer.authorize(id, binder, persist);
+            if (plan.filter != null) {
+                try { plan.filter.acknowledge(binder); } catch (Throwable t) {}
+            }
+
+            ServiceLimiter.Permit permit = null;
+            if (plan.limiter != null && (permit = plan.limiter.acquire(id)) == null) {
+                throw new ServiceException("TooManyRequests:" + id);
+            }
+            try {
+                binder = plan.run(binder, dict, persist);
+            } finally {
+                if (permit != null) permit.release();
+            }
+            successful = true;
+
+            if (invalidators != null) {
+                invalidators.add(plan);
+            } else {
+                invalidate(plan);
+            }
+            if (plan.filter != null) {
+                try { plan.filter.successful(binder); } catch (Throwable t) {}
+            }
+        } catch (Exception x) {
+            Object replacement = binder.getNamedObject(Service.SERVICE_DATA_BINDER);
+            if (replacement != null && replacement instanceof DataBinder) {
+                binder = (DataBinder)replacement;
+            }
+            binder.put(Service.FAILURE_MESSAGE, Throwables.getFirstMessage(x));
+            if (plan.filter != null) {
+                try { plan.filter.aborted(binder, x); } catch (Throwable t) {}
+            }
+            _logger.log(Level.FINE, "batch entry " + id, x);
+            if (rethrow) throw x;
+        } finally {
+            if (plan.filter != null) {
+                try { plan.filter.complete(binder); } catch (Throwable t) {}
+            }
+            binder.clearAutoValues();
+            plan.metrics.end(start, successful);
+        }
+        return binder;
+    }
+
+    private static void invalidate(DispatchPlan plan) {
+        for (ResponseCache cache: plan.invalidations) {
+            cache.invalidate(plan.id);
+        }
+    }
+}
@@ -16,14 +16,24 @@ import org.springframework.transaction.annotation.Transactional;
 
 /**
  * Service description.
+ * <p/>
+ * A SEARCH service with a maximum page size returns its rows a page at a time, in the order of the primary key. A request asks for
+ * the first page, or for the page following the one that returned the continuation token in "_page_token_", of up to "_page_size_"
+ * rows, but no more than the maximum page size. The response carries the continuation token of the next page in "_next_page_"
+ * unless the page is the last one.
  */
 public class CrudService extends ExtendableAndSecured implements DynamicService {
+    public static final String PAGE_TOKEN = "_page_token_";
+    public static final String PAGE_SIZE  = "_page_size_";
+    public static final String NEXT_PAGE  = "_next_page_";
+
     private static final Logger _logger = Logger.getLogger(CrudService.class.getName());
     private static final Pattern CONSTRAINT = Pattern.compile("\\([A-Z_]+\\.([A-Z_]+)\\)");
 
     private final CrudCommand _command;
     private boolean _isUnique;
     private String _missing;
+    private int _maxPageSize;
 
 	/**
 	 * Creates a non-retrieval CRUD service. A CRUD service object is typically configured in service-configuration.xml.
@@ -106,6 +116,16 @@ public class CrudService extends ExtendableAndSecured implements DynamicService
         _isUnique = unique;
     }
 
+    /**
+     * Enables keyset pagination on a SEARCH service, returning at most the given number of rows in a page.
+     */
+    public void setMaxPageSize(int size) {
+        if (_command.getOperation() != CrudCommand.Operation.SEARCH || !_command.isPageable()) {
+            throw new IllegalArgumentException("Pagination not available: " + _command.getDescription());
+        }
+        _maxPageSize = size;
+    }
+
     /**
      * Sets a message to throw when an expected row is missing.
      */
@@ -149,6 +169,15 @@ public class CrudService extends ExtendableAndSecured implements DynamicService
             case SEARCH:
                 if (_isUnique) {
                     ((ParametricQuery)_command.getStatements()[_command.choose(binder)]).executeSelect(connection, request, binder);
+                } else if (_maxPageSize > 0) {
+                    String token = binder.get(PAGE_TOKEN), size = binder.get(PAGE_SIZE);
+                    CrudCommand.Page page = _command.page(connection, request, _command.choose(binder), token != null && token.length() > 0 ? token : null,
+                        size != null && size.length() > 0 ? Math.max(1, Math.min(Integer.parseInt(size), _maxPageSize)) : _maxPageSize
+                    );
+                    binder.putResultSet(_command.getName(), page.results);
+                    if (page.next != null) {
+                        binder.put(NEXT_PAGE, page.next);
+                    }
                 } else {
                     binder.putResultSet(_command.getName(),
                         ((ParametricQuery)_command.getStatements()[_command.choose(binder)]).executeSelect(connection, request, CachedResultSet.BUILDER)
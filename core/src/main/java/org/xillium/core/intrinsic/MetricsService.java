@@ -0,0 +1,64 @@
+package org.xillium.core.intrinsic;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.TreeMap;
+import org.xillium.base.beans.JSONBuilder;
+import org.xillium.base.util.LatencyHistogram;
+import org.xillium.data.*;
+import org.xillium.core.*;
+import org.xillium.core.util.ServiceMetrics;
+import org.xillium.data.validation.*;
+
+
+/**
+ * Service metrics, of all services or of the service named by the parameter "service", with latencies in microseconds.
+ */
+public class MetricsService extends SecuredService {
+    private final Map<String, ServiceMetrics> _metrics;
+
+    public MetricsService(Map<String, ServiceMetrics> metrics) {
+        _metrics = metrics;
+    }
+
+    public DataBinder run(DataBinder binder, Dictionary dict, Persistence persist) throws ServiceException {
+        String service = binder.get("service");
+        Map<String, ServiceMetrics> metrics = new TreeMap<String, ServiceMetrics>(_metrics);
+        if (service != null) metrics.keySet().retainAll(Collections.singleton(service));
+
+        JSONBuilder jb = new JSONBuilder(metrics.size()*512).append("json:{");
+        for (ServiceMetrics m: metrics.values()) {
+            jb.quote(m.getService()).append(":{");
+            jb.serialize("requests", m.getRequests()).append(',');
+            jb.serialize("successes", m.getSuccesses()).append(',');
+            jb.serialize("failures", m.getFailures()).append(',');
+            jb.serialize("coalesced", m.getCoalesced()).append(',');
+            jb.serialize("inflight", m.getInFlight()).append(',');
+            append(jb, "total", m.getLatencyHistogram());
+            for (ServiceMetrics.Phase phase: ServiceMetrics.Phase.values()) {
+                append(jb.append(','), phase.label(), m.getLatencyHistogram(phase));
+            }
+            jb.append("},");
+        }
+        if (metrics.size() > 0) {
+            jb.replaceLast('}');
+        } else {
+            jb.append('}');
+        }
+        binder.put("metrics", jb.toString());
+        return binder;
+    }
+
+    private static void append(JSONBuilder jb, String name, LatencyHistogram histogram) {
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        jb.quote(name).append(":{");
+        jb.serialize("count", snapshot.getCount()).append(',');
+        jb.serialize("mean", Math.round(snapshot.getMean())).append(',');
+        jb.serialize("min", snapshot.getMin()).append(',');
+        jb.serialize("max", snapshot.getMax()).append(',');
+        jb.serialize("p50", snapshot.getValueAtPercentile(50.0)).append(',');
+        jb.serialize("p90", snapshot.getValueAtPercentile(90.0)).append(',');
+        jb.serialize("p99", snapshot.getValueAtPercentile(99.0)).append(',');
+        jb.serialize("p999", snapshot.getValueAtPercentile(99.9)).append('}');
+    }
+}
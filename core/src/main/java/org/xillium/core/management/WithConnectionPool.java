@@ -0,0 +1,110 @@
+package org.xillium.core.management;
+
+import java.beans.ConstructorProperties;
+import java.util.List;
+import javax.management.*;
+
+
+/**
+ * A JMX bean that maintains a pool of client connections to remote hosts.
+ */
+@MXBean
+public interface WithConnectionPool extends Manageable {
+
+    /**
+     * Pool state of a single host, or of all hosts together, a JMX open type
+     */
+    public static class PoolState {
+
+        @ConstructorProperties({"host", "active", "idle", "created", "reused", "requests", "failures", "timeouts"})
+        public PoolState(String h, int a, int i, long c, long u, long r, long f, long t) {
+            host = h;
+            active = a;
+            idle = i;
+            created = c;
+            reused = u;
+            requests = r;
+            failures = f;
+            timeouts = t;
+        }
+
+        /**
+         * Returns the host, or "*" for all hosts.
+         */
+        public String getHost() { return host; }
+
+        /**
+         * Returns the number of connections currently in use.
+         */
+        public int getActive() { return active; }
+
+        /**
+         * Returns the number of idle connections kept alive for reuse.
+         */
+        public int getIdle() { return idle; }
+
+        /**
+         * Returns the number of connections ever opened.
+         */
+        public long getCreated() { return created; }
+
+        /**
+         * Returns the number of requests served over a reused connection.
+         */
+        public long getReused() { return reused; }
+
+        /**
+         * Returns the number of requests.
+         */
+        public long getRequests() { return requests; }
+
+        /**
+         * Returns the number of failed requests, including timeouts.
+         */
+        public long getFailures() { return failures; }
+
+        /**
+         * Returns the number of requests that timed out, either waiting for a connection or communicating over one.
+         */
+        public long getTimeouts() { return timeouts; }
+
+        private final String host;
+        private final int active;
+        private final int idle;
+        private final long created;
+        private final long reused;
+        private final long requests;
+        private final long failures;
+        private final long timeouts;
+    }
+
+    /**
+     * Returns the connect timeout in milliseconds.
+     */
+    public int getConnectTimeout();
+
+    /**
+     * Returns the read timeout in milliseconds.
+     */
+    public int getReadTimeout();
+
+    /**
+     * Returns the maximum number of concurrent connections to a single host.
+     */
+    public int getMaxConnectionsPerHost();
+
+    /**
+     * Reports the state of the pool as a whole.
+     */
+    public PoolState getPoolState();
+
+    /**
+     * Reports the state of the pool for each host.
+     */
+    public List<PoolState> getHostStates();
+
+    /**
+     * Closes all idle connections.
+     */
+    public void evict();
+}
@@ -0,0 +1,103 @@
+package org.xillium.core.management;
+
+import java.beans.ConstructorProperties;
+import java.util.List;
+import javax.management.*;
+
+
+/**
+ * A JMX bean that runs tasks on a bounded pool of threads.
+ */
+@MXBean
+public interface WithExecutor extends Manageable {
+
+    /**
+     * Queue state of a single service, or of all services together, a JMX open type
+     */
+    public static class QueueState {
+
+        @ConstructorProperties({"service", "queued", "active", "submitted", "completed", "rejected", "timeouts"})
+        public QueueState(String s, int q, int a, long u, long c, long r, long t) {
+            service = s;
+            queued = q;
+            active = a;
+            submitted = u;
+            completed = c;
+            rejected = r;
+            timeouts = t;
+        }
+
+        /**
+         * Returns the service, or "*" for all services.
+         */
+        public String getService() { return service; }
+
+        /**
+         * Returns the number of tasks waiting in the queue (the queue depth).
+         */
+        public int getQueued() { return queued; }
+
+        /**
+         * Returns the number of tasks currently running.
+         */
+        public int getActive() { return active; }
+
+        /**
+         * Returns the number of tasks accepted into the queue.
+         */
+        public long getSubmitted() { return submitted; }
+
+        /**
+         * Returns the number of tasks that have run to completion.
+         */
+        public long getCompleted() { return completed; }
+
+        /**
+         * Returns the number of tasks rejected because the queue was full.
+         */
+        public long getRejected() { return rejected; }
+
+        /**
+         * Returns the number of tasks that timed out, either in the queue or while running.
+         */
+        public long getTimeouts() { return timeouts; }
+
+        private final String service;
+        private final int queued;
+        private final int active;
+        private final long submitted;
+        private final long completed;
+        private final long rejected;
+        private final long timeouts;
+    }
+
+    /**
+     * Returns the maximum number of threads.
+     */
+    public int getThreads();
+
+    /**
+     * Returns the capacity of the queue shared by all services.
+     */
+    public int getQueueCapacity();
+
+    /**
+     * Returns the default maximum number of queued tasks of a single service.
+     */
+    public int getQueueLimit();
+
+    /**
+     * Returns the default timeout in milliseconds.
+     */
+    public long getTimeout();
+
+    /**
+     * Reports the state of the executor as a whole.
+     */
+    public QueueState getQueueState();
+
+    /**
+     * Reports the state of the executor for each service.
+     */
+    public List<QueueState> getServiceStates();
+}
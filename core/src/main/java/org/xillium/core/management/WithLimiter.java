@@ -0,0 +1,91 @@
+package org.xillium.core.management;
+
+import java.beans.ConstructorProperties;
+import java.util.List;
+import javax.management.*;
+
+
+/**
+ * A JMX bean that limits the number of concurrent executions of services.
+ */
+@MXBean
+public interface WithLimiter extends Manageable {
+
+    /**
+     * Limit state of a single service, a JMX open type
+     */
+    public static class LimitState {
+
+        @ConstructorProperties({"service", "limit", "inFlight", "queued", "admitted", "shed"})
+        public LimitState(String s, int l, int i, int q, long a, long d) {
+            service = s;
+            limit = l;
+            inFlight = i;
+            queued = q;
+            admitted = a;
+            shed = d;
+        }
+
+        /**
+         * Returns the service.
+         */
+        public String getService() { return service; }
+
+        /**
+         * Returns the current limit on concurrent executions.
+         */
+        public int getLimit() { return limit; }
+
+        /**
+         * Returns the number of executions in progress.
+         */
+        public int getInFlight() { return inFlight; }
+
+        /**
+         * Returns the number of requests waiting for an execution (the queue depth).
+         */
+        public int getQueued() { return queued; }
+
+        /**
+         * Returns the number of requests admitted to execute.
+         */
+        public long getAdmitted() { return admitted; }
+
+        /**
+         * Returns the number of requests shed, either because the queue was full or because they waited too long.
+         */
+        public long getShed() { return shed; }
+
+        private final String service;
+        private final int limit;
+        private final int inFlight;
+        private final int queued;
+        private final long admitted;
+        private final long shed;
+    }
+
+    /**
+     * Returns the maximum number of requests waiting for an execution of a single service.
+     */
+    public int getQueueLimit();
+
+    /**
+     * Returns the maximum time in milliseconds a request waits for an execution.
+     */
+    public long getQueueTimeout();
+
+    /**
+     * Returns the target latency in milliseconds of adaptive limits, or 0 if limits are fixed.
+     */
+    public long getTargetLatency();
+
+    /**
+     * Sets the current limit on concurrent executions of a service.
+     */
+    public void setLimit(String service, int limit);
+
+    /**
+     * Reports the state of each limited service.
+     */
+    public List<LimitState> getLimitStates();
+}
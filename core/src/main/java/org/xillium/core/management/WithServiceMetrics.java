@@ -0,0 +1,106 @@
+package org.xillium.core.management;
+
+import java.beans.ConstructorProperties;
+import java.util.List;
+import javax.management.*;
+
+
+/**
+ * A JMX bean that reports request metrics of a single service.
+ */
+@MXBean
+public interface WithServiceMetrics extends Manageable {
+
+    /**
+     * Latency distribution of a dispatcher phase, in microseconds, a JMX open type
+     */
+    public static class PhaseState {
+
+        @ConstructorProperties({"phase", "count", "mean", "min", "max", "p50", "p90", "p99", "p999"})
+        public PhaseState(String f, long c, double m, long n, long x, long p50, long p90, long p99, long p999) {
+            phase = f;
+            count = c;
+            mean = m;
+            min = n;
+            max = x;
+            this.p50 = p50;
+            this.p90 = p90;
+            this.p99 = p99;
+            this.p999 = p999;
+        }
+
+        /**
+         * Returns the phase, or "total" for the whole request.
+         */
+        public String getPhase() { return phase; }
+
+        /**
+         * Returns the number of recorded latencies.
+         */
+        public long getCount() { return count; }
+
+        public double getMean() { return mean; }
+
+        public long getMin() { return min; }
+
+        public long getMax() { return max; }
+
+        public long getP50() { return p50; }
+
+        public long getP90() { return p90; }
+
+        public long getP99() { return p99; }
+
+        public long getP999() { return p999; }
+
+        private final String phase;
+        private final long count;
+        private final double mean;
+        private final long min;
+        private final long max;
+        private final long p50;
+        private final long p90;
+        private final long p99;
+        private final long p999;
+    }
+
+    /**
+     * Returns the name of the service.
+     */
+    public String getService();
+
+    /**
+     * Returns the number of requests dispatched to the service.
+     */
+    public long getRequests();
+
+    /**
+     * Returns the number of requests that the service completed successfully.
+     */
+    public long getSuccesses();
+
+    /**
+     * Returns the number of requests that failed.
+     */
+    public long getFailures();
+
+    /**
+     * Returns the number of requests that shared the execution of an identical request instead of running the service.
+     */
+    public long getCoalesced();
+
+    /**
+     * Returns the number of requests currently being dispatched.
+     */
+    public int getInFlight();
+
+    /**
+     * Reports the latency of whole requests.
+     */
+    public PhaseState getLatency();
+
+    /**
+     * Reports the latency of each dispatcher phase.
+     */
+    public List<PhaseState> getPhases();
+}
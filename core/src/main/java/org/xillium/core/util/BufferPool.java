@@ -0,0 +1,75 @@
+package org.xillium.core.util;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * A pool of equally sized heap ByteBuffers, keeping at most a fixed number of idle buffers. Buffers are allocated on demand when the
+ * pool is empty, and dropped on release when the pool is full.
+ */
+public class BufferPool {
+    private final ConcurrentLinkedQueue<ByteBuffer> _buffers = new ConcurrentLinkedQueue<ByteBuffer>();
+    private final AtomicInteger _idle = new AtomicInteger();
+    private final AtomicInteger _allocated = new AtomicInteger();
+    private final int _size;
+    private final int _limit;
+
+    /**
+     * Constructs a BufferPool of buffers of the given size, keeping at most the given number of idle buffers.
+     */
+    public BufferPool(int size, int limit) {
+        if (size < 1) throw new IllegalArgumentException("size must be positive: " + size);
+        _size = size;
+        _limit = limit;
+    }
+
+    /**
+     * Returns the size of the buffers.
+     */
+    public int getBufferSize() {
+        return _size;
+    }
+
+    /**
+     * Returns the number of idle buffers in the pool.
+     */
+    public int getIdleCount() {
+        return _idle.get();
+    }
+
+    /**
+     * Returns the number of buffers ever allocated by the pool.
+     */
+    public int getAllocatedCount() {
+        return _allocated.get();
+    }
+
+    /**
+     * Takes a cleared buffer from the pool, allocating a new one if the pool is empty.
+     */
+    public ByteBuffer acquire() {
+        ByteBuffer buffer = _buffers.poll();
+        if (buffer != null) {
+            _idle.decrementAndGet();
+            buffer.clear();
+            return buffer;
+        } else {
+            _allocated.incrementAndGet();
+            return ByteBuffer.allocate(_size);
+        }
+    }
+
+    /**
+     * Returns a buffer to the pool. The buffer must not be used afterwards.
+     */
+    public void release(ByteBuffer buffer) {
+        if (buffer == null || buffer.capacity() != _size || buffer.isReadOnly()) return;
+        if (_idle.incrementAndGet() <= _limit) {
+            _buffers.offer(buffer);
+        } else {
+            _idle.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,153 @@
+package org.xillium.core.util;
+
+import java.io.*;
+import java.util.zip.*;
+import javax.servlet.http.HttpServletResponse;
+
+
+/**
+ * A response output stream that compresses the response with gzip or deflate, once the response grows beyond a threshold.
+ * <p/>
+ * Up to the threshold, bytes are held in a small buffer and nothing is written to the response, which therefore stays uncommitted. A
+ * response that ends within the threshold is written as it is. Otherwise the Content-Encoding header is set, and the buffer and the
+ * rest of the response are compressed as they are written, without ever holding the whole response in memory.
+ */
+public class CompressingOutputStream extends OutputStream {
+    public static final String GZIP = "gzip";
+    public static final String DEFLATE = "deflate";
+    public static final int DEFAULT_THRESHOLD = 1024;
+    public static final int DEFAULT_LEVEL = Deflater.BEST_SPEED;
+
+    private static final int BUFFER_SIZE = 8*1024;
+
+    private final HttpServletResponse _response;
+    private final String _encoding;
+    private final int _level;
+    private final byte[] _buffer;
+    private int _count;
+    private OutputStream _stream;
+    private Deflater _deflater;
+    private boolean _compressed;
+    private boolean _closed;
+
+    /**
+     * Constructs a CompressingOutputStream over a response, with an encoding, either GZIP or DEFLATE, a threshold in bytes, and a
+     * compression level from 1 to 9.
+     */
+    public CompressingOutputStream(HttpServletResponse response, String encoding, int threshold, int level) {
+        if (!GZIP.equals(encoding) && !DEFLATE.equals(encoding)) throw new IllegalArgumentException("encoding: " + encoding);
+        if (level < Deflater.BEST_SPEED || level > Deflater.BEST_COMPRESSION) throw new IllegalArgumentException("level: " + level);
+        _response = response;
+        _encoding = encoding;
+        _level = level;
+        _buffer = new byte[Math.max(0, threshold)];
+    }
+
+    /**
+     * Returns whether the response is being compressed.
+     */
+    public boolean isCompressed() {
+        return _compressed;
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (_stream == null && _count == _buffer.length) start(true);
+        if (_stream != null) {
+            _stream.write(b);
+        } else {
+            _buffer[_count++] = (byte)b;
+        }
+    }
+
+    @Override
+    public void write(byte[] bytes, int offset, int length) throws IOException {
+        if (_stream == null && _count + length > _buffer.length) start(true);
+        if (_stream != null) {
+            _stream.write(bytes, offset, length);
+        } else {
+            System.arraycopy(bytes, offset, _buffer, _count, length);
+            _count += length;
+        }
+    }
+
+    /**
+     * Flushes the response, unless it is still within the threshold, in which case nothing is written.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (_stream != null) _stream.flush();
+    }
+
+    /**
+     * Finishes compression if the response is being compressed, and closes the response.
+     */
+    @Override
+    public void close() throws IOException {
+        if (_closed) return;
+        _closed = true;
+        try {
+            if (_stream == null) start(false);
+            _stream.close();
+        } finally {
+            if (_deflater != null) _deflater.end();
+        }
+    }
+
+    private void start(boolean compressed) throws IOException {
+        OutputStream output = _response.getOutputStream();
+        if (compressed) {
+            _response.setHeader("Content-Encoding", _encoding);
+            if (GZIP.equals(_encoding)) {
+                _stream = new GZIPOutputStream(output, BUFFER_SIZE) {{ def.setLevel(_level); }};
+            } else {
+                _stream = new DeflaterOutputStream(output, _deflater = new Deflater(_level), BUFFER_SIZE);
+            }
+            _compressed = true;
+        } else {
+            _stream = output;
+        }
+        if (_count > 0) {
+            _stream.write(_buffer, 0, _count);
+            _count = 0;
+        }
+    }
+
+    /**
+     * Chooses an encoding acceptable by a request with an Accept-Encoding header, preferring gzip over deflate, or returns null if
+     * neither is acceptable.
+     */
+    public static String negotiate(String accept) {
+        if (accept == null) return null;
+
+        float gzip = -1, deflate = -1, any = -1;
+        for (String coding: accept.split(",")) {
+            int semicolon = coding.indexOf(';');
+            String name = (semicolon < 0 ? coding : coding.substring(0, semicolon)).trim().toLowerCase();
+            float quality = 1;
+            if (semicolon > -1) {
+                String parameter = coding.substring(semicolon + 1).trim();
+                if (parameter.startsWith("q=")) {
+                    try { quality = Float.parseFloat(parameter.substring(2).trim()); } catch (NumberFormatException x) { quality = 0; }
+                }
+            }
+            if (name.equals(GZIP) || name.equals("x-gzip")) {
+                gzip = quality;
+            } else if (name.equals(DEFLATE)) {
+                deflate = quality;
+            } else if (name.equals("*")) {
+                any = quality;
+            }
+        }
+        if (gzip < 0) gzip = any;
+        if (deflate < 0) deflate = any;
+
+        if (gzip > 0 && gzip >= deflate) {
+            return GZIP;
+        } else if (deflate > 0) {
+            return DEFLATE;
+        } else {
+            return null;
+        }
+    }
+}
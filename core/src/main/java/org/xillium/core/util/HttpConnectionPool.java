@@ -0,0 +1,574 @@
+package org.xillium.core.util;
+
+import java.io.*;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.*;
+import org.xillium.core.management.ManagedComponent;
+import org.xillium.core.management.WithConnectionPool;
+
+
+/**
+ * A pool of keep-alive HTTP/1.1 client connections, with connect and read timeouts and a limit on concurrent connections per host.
+ * <p/>
+ * A request takes a connection slot of the target host, waiting at most the connect timeout for one to become available, and then
+ * reuses the most recently released idle connection to the host or opens a new one. The response body is returned as an InputStream
+ * to be consumed directly; closing it releases the slot and, if the body has been read through and the server allows, puts the
+ * connection back into the pool. Idle connections are closed after the idle timeout. Before reuse, an idle connection is checked for
+ * having been closed by the server, and replaced if so. A request that cannot be written out on a reused connection is retried on
+ * another connection; once the request has been sent, however, a failure is reported to the caller rather than retried, because the
+ * server may already have carried out the request.
+ * <p/>
+ * Requests to "https" URLs, or through a proxy, are carried out by HttpURLConnection, which verifies server identities and keeps its
+ * own connection cache. They are subject to the same timeouts and per-host limits, but not reflected in the connection counts.
+ */
+public class HttpConnectionPool extends ManagedComponent implements WithConnectionPool {
+    private static final Logger _logger = Logger.getLogger(HttpConnectionPool.class.getName());
+
+    public static final int DEFAULT_CONNECT_TIMEOUT = 10000;
+    public static final int DEFAULT_READ_TIMEOUT = 60000;
+    public static final int DEFAULT_IDLE_TIMEOUT = 30000;
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_HOST = 16;
+
+    private static final int DRAIN_LIMIT = 8192;
+    private static final int LINE_LIMIT = 8192;
+
+    private final ConcurrentMap<String, Host> _hosts = new ConcurrentHashMap<String, Host>();
+    private volatile int _connectTimeout = DEFAULT_CONNECT_TIMEOUT;
+    private volatile int _readTimeout = DEFAULT_READ_TIMEOUT;
+    private volatile int _idleTimeout = DEFAULT_IDLE_TIMEOUT;
+    private volatile int _maxConnectionsPerHost = DEFAULT_MAX_CONNECTIONS_PER_HOST;
+
+    /**
+     * Constructs an HttpConnectionPool with default settings.
+     */
+    public HttpConnectionPool() {
+        setStatus(Status.HEALTHY);
+    }
+
+    /**
+     * Sets the connect timeout in milliseconds, which also bounds the wait for a connection slot. 0 means no timeout.
+     */
+    public void setConnectTimeout(int timeout) {
+        _connectTimeout = timeout;
+    }
+
+    @Override
+    public int getConnectTimeout() {
+        return _connectTimeout;
+    }
+
+    /**
+     * Sets the read timeout in milliseconds. 0 means no timeout.
+     */
+    public void setReadTimeout(int timeout) {
+        _readTimeout = timeout;
+    }
+
+    @Override
+    public int getReadTimeout() {
+        return _readTimeout;
+    }
+
+    /**
+     * Sets the time in milliseconds an idle connection is kept alive for reuse.
+     */
+    public void setIdleTimeout(int timeout) {
+        _idleTimeout = timeout;
+    }
+
+    public int getIdleTimeout() {
+        return _idleTimeout;
+    }
+
+    /**
+     * Sets the maximum number of concurrent connections to a single host.
+     */
+    public void setMaxConnectionsPerHost(int max) {
+        if (max < 1) throw new IllegalArgumentException("max must be positive: " + max);
+        _maxConnectionsPerHost = max;
+        for (Host host: _hosts.values()) {
+            synchronized (host) { host.notifyAll(); }
+        }
+    }
+
+    @Override
+    public int getMaxConnectionsPerHost() {
+        return _maxConnectionsPerHost;
+    }
+
+    @Override
+    public PoolState getPoolState() {
+        int active = 0, idle = 0;
+        long created = 0, reused = 0, requests = 0, failures = 0, timeouts = 0;
+        for (PoolState state: getHostStates()) {
+            active += state.getActive();
+            idle += state.getIdle();
+            created += state.getCreated();
+            reused += state.getReused();
+            requests += state.getRequests();
+            failures += state.getFailures();
+            timeouts += state.getTimeouts();
+        }
+        return new PoolState("*", active, idle, created, reused, requests, failures, timeouts);
+    }
+
+    @Override
+    public List<PoolState> getHostStates() {
+        List<PoolState> states = new ArrayList<PoolState>();
+        for (Host host: _hosts.values()) {
+            states.add(host.state());
+        }
+        return states;
+    }
+
+    @Override
+    public void evict() {
+        for (Host host: _hosts.values()) {
+            host.evict(0);
+        }
+    }
+
+    /**
+     * POSTs content to a URL, returning the response body if the response status is 2xx, or throwing an IOException otherwise.
+     * The caller must close the returned stream.
+     */
+    public InputStream post(URL url, String type, byte[] content) throws IOException {
+        int port = url.getPort() < 0 ? url.getDefaultPort() : url.getPort();
+        Host host = _hosts.get(url.getProtocol() + "://" + url.getHost() + ':' + port);
+        if (host == null) {
+            Host h = new Host(url.getProtocol() + "://" + url.getHost() + ':' + port);
+            host = _hosts.putIfAbsent(h.name, h);
+            if (host == null) host = h;
+        }
+
+        host.requests.incrementAndGet();
+        boolean acquired = false, done = false;
+        try {
+            host.acquire(_connectTimeout);
+            acquired = true;
+            InputStream in = "http".equals(url.getProtocol()) && isDirect(url) ? exchange(host, url, port, type, content) : delegate(host, url, type, content);
+            done = true;
+            return in;
+        } catch (SocketTimeoutException x) {
+            host.timeouts.incrementAndGet();
+            throw x;
+        } finally {
+            if (!done) {
+                host.failures.incrementAndGet();
+                if (acquired) host.release();
+            }
+        }
+    }
+
+    private InputStream exchange(Host host, URL url, int port, String type, byte[] content) throws IOException {
+        StringBuilder sb = new StringBuilder("POST ").append(url.getFile().length() > 0 ? url.getFile() : "/").append(" HTTP/1.1\r\n");
+        sb.append("Host: ").append(url.getHost());
+        if (port != url.getDefaultPort()) sb.append(':').append(port);
+        sb.append("\r\nContent-Type: ").append(type);
+        sb.append("\r\nContent-Length: ").append(content.length);
+        sb.append("\r\nAccept: application/json\r\nConnection: keep-alive\r\n\r\n");
+        byte[] head = sb.toString().getBytes("ISO-8859-1");
+
+        while (true) {
+            Connection connection = host.poll(_idleTimeout);
+            boolean reused = connection != null;
+            if (reused && connection.isStale()) {
+                connection.close();
+                continue;
+            }
+            if (!reused) {
+                connection = new Connection(url.getHost(), port, _connectTimeout);
+                host.created.incrementAndGet();
+            }
+            try {
+                connection.socket.setSoTimeout(_readTimeout);
+                connection.out.write(head);
+                connection.out.write(content);
+                connection.out.flush();
+            } catch (IOException x) {
+                connection.close();
+                // a request not written out in full can't have been carried out
+                if (reused && !(x instanceof SocketTimeoutException)) {
+                    _logger.fine("Retrying on a new connection after failure on a reused one: " + x);
+                    continue;
+                } else {
+                    throw x;
+                }
+            }
+            Body body;
+            try {
+                body = receive(host, connection);
+            } catch (IOException x) {
+                connection.close();
+                throw x;
+            }
+            if (reused) host.reused.incrementAndGet();
+            if (body.status / 100 != 2) {
+                body.discard();
+                throw new IOException("Server returned HTTP response code: " + body.status + " for URL: " + url);
+            }
+            return body;
+        }
+    }
+
+    private Body receive(Host host, Connection connection) throws IOException {
+        int status;
+        Map<String, String> headers = new HashMap<String, String>();
+        String version;
+        do {
+            String line = readLine(connection.in);
+            if (line == null) throw new SocketException("Connection closed by " + host.name);
+            String[] parts = line.split(" ", 3);
+            if (parts.length < 2 || !parts[0].startsWith("HTTP/")) throw new ProtocolException("Invalid status line: " + line);
+            version = parts[0];
+            try {
+                status = Integer.parseInt(parts[1]);
+            } catch (NumberFormatException x) {
+                throw new ProtocolException("Invalid status line: " + line);
+            }
+            headers.clear();
+            while ((line = readLine(connection.in)) != null && line.length() > 0) {
+                int colon = line.indexOf(':');
+                if (colon > 0) headers.put(line.substring(0, colon).trim().toLowerCase(), line.substring(colon + 1).trim());
+            }
+        } while (status / 100 == 1);
+
+        String option = headers.get("connection");
+        boolean keepAlive = option != null ? !option.toLowerCase().contains("close") : !"HTTP/1.0".equals(version);
+        InputStream body;
+        String encoding = headers.get("transfer-encoding"), length = headers.get("content-length");
+        if (status == 204 || status == 304) {
+            body = new FixedLengthInputStream(connection.in, 0);
+        } else if (encoding != null && encoding.toLowerCase().contains("chunked")) {
+            body = new ChunkedInputStream(connection.in);
+        } else if (length != null) {
+            try {
+                body = new FixedLengthInputStream(connection.in, Long.parseLong(length));
+            } catch (NumberFormatException x) {
+                throw new ProtocolException("Invalid Content-Length: " + length);
+            }
+        } else {
+            body = connection.in;
+            keepAlive = false;
+        }
+
+        return new Body(host, connection, status, body, keepAlive);
+    }
+
+    private InputStream delegate(final Host host, URL url, String type, byte[] content) throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection)url.openConnection();
+        connection.setConnectTimeout(_connectTimeout);
+        connection.setReadTimeout(_readTimeout);
+        connection.setDoOutput(true);
+        connection.setFixedLengthStreamingMode(content.length);
+        connection.setRequestProperty("Content-Type", type);
+        OutputStream out = connection.getOutputStream();
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+        try {
+            return new FilterInputStream(connection.getInputStream()) {
+                private boolean _closed;
+                public void close() throws IOException {
+                    if (_closed) return;
+                    _closed = true;
+                    try { super.close(); } finally { host.release(); }
+                }
+            };
+        } catch (IOException x) {
+            // reads out the error body so that HttpURLConnection can keep the connection alive
+            InputStream error = connection.getErrorStream();
+            if (error != null) {
+                try { drain(error, DRAIN_LIMIT); } catch (IOException t) {} finally { error.close(); }
+            }
+            throw x;
+        }
+    }
+
+    private static boolean isDirect(URL url) {
+        try {
+            List<Proxy> proxies = ProxySelector.getDefault().select(url.toURI());
+            return proxies.isEmpty() || proxies.get(0).type() == Proxy.Type.DIRECT;
+        } catch (Exception x) {
+            return true;
+        }
+    }
+
+    // returns true if the end of stream is reached within the limit
+    private static boolean drain(InputStream in, int limit) throws IOException {
+        byte[] buffer = new byte[1024];
+        int count;
+        while (limit >= 0 && (count = in.read(buffer)) >= 0) {
+            limit -= count;
+        }
+        return limit >= 0;
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int c;
+        while ((c = in.read()) != '\n') {
+            if (c < 0) {
+                if (sb.length() == 0) return null;
+                else throw new EOFException("Unexpected end of stream");
+            } else if (sb.length() >= LINE_LIMIT) {
+                throw new ProtocolException("Line too long");
+            }
+            sb.append((char)c);
+        }
+        int length = sb.length();
+        if (length > 0 && sb.charAt(length - 1) == '\r') sb.setLength(length - 1);
+        return sb.toString();
+    }
+
+    /*
+     * Connections to a single host: the idle ones, the number in use, and the statistics.
+     */
+    private class Host {
+        final String name;
+        final Deque<Connection> idle = new ArrayDeque<Connection>();
+        final AtomicLong created = new AtomicLong(), reused = new AtomicLong(), requests = new AtomicLong(), failures = new AtomicLong(), timeouts = new AtomicLong();
+        int active;
+
+        Host(String n) {
+            name = n;
+        }
+
+        synchronized void acquire(int timeout) throws IOException {
+            long deadline = System.nanoTime() + timeout * 1000000L;
+            while (active >= _maxConnectionsPerHost) {
+                long wait = timeout > 0 ? (deadline - System.nanoTime()) / 1000000L : 0;
+                if (timeout > 0 && wait <= 0) {
+                    throw new SocketTimeoutException("Timed out waiting for a connection to " + name);
+                }
+                try {
+                    wait(wait);
+                } catch (InterruptedException x) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted waiting for a connection to " + name);
+                }
+            }
+            ++active;
+        }
+
+        synchronized void release() {
+            --active;
+            notify();
+        }
+
+        synchronized Connection poll(int timeout) {
+            evict(timeout);
+            return idle.pollLast();
+        }
+
+        synchronized void offer(Connection connection) {
+            connection.released = System.currentTimeMillis();
+            idle.addLast(connection);
+        }
+
+        // closes connections idle for longer than the timeout
+        synchronized void evict(int timeout) {
+            long now = System.currentTimeMillis();
+            while (!idle.isEmpty() && now - idle.peekFirst().released >= timeout) {
+                idle.pollFirst().close();
+            }
+        }
+
+        synchronized PoolState state() {
+            return new PoolState(name, active, idle.size(), created.get(), reused.get(), requests.get(), failures.get(), timeouts.get());
+        }
+    }
+
+    private static class Connection {
+        final Socket socket;
+        final InputStream in;
+        final OutputStream out;
+        long released;
+
+        Connection(String host, int port, int timeout) throws IOException {
+            socket = new Socket();
+            try {
+                socket.setTcpNoDelay(true);
+                socket.connect(new InetSocketAddress(host, port), timeout);
+                in = new BufferedInputStream(socket.getInputStream());
+                out = new BufferedOutputStream(socket.getOutputStream());
+            } catch (IOException x) {
+                socket.close();
+                throw x;
+            }
+        }
+
+        // returns true if the server has closed the connection or sent anything unsolicited, waiting no more than a millisecond
+        boolean isStale() {
+            try {
+                if (in.available() > 0) return true;
+                socket.setSoTimeout(1);
+                in.read(); // returns only at the end of stream or with unsolicited data
+                return true;
+            } catch (SocketTimeoutException x) {
+                return false;
+            } catch (IOException x) {
+                return true;
+            }
+        }
+
+        void close() {
+            try { socket.close(); } catch (IOException x) {}
+        }
+    }
+
+    /*
+     * The response body, which returns the connection to the pool upon closing.
+     */
+    private static class Body extends FilterInputStream {
+        final int status;
+        private final Host _host;
+        private final Connection _connection;
+        private boolean _reusable;
+        private boolean _closed;
+
+        Body(Host host, Connection connection, int s, InputStream in, boolean keepAlive) {
+            super(in);
+            status = s;
+            _host = host;
+            _connection = connection;
+            _reusable = keepAlive;
+        }
+
+        @Override
+        public int read() throws IOException {
+            try {
+                return super.read();
+            } catch (IOException x) {
+                throw failed(x);
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            try {
+                return super.read(b, off, len);
+            } catch (IOException x) {
+                throw failed(x);
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (_closed) return;
+            try {
+                discard();
+            } finally {
+                _host.release();
+            }
+        }
+
+        // returns the connection to the pool or closes it, without releasing the connection slot
+        void discard() {
+            _closed = true;
+            try {
+                if (_reusable && drain(in, DRAIN_LIMIT)) {
+                    _host.offer(_connection);
+                } else {
+                    _connection.close();
+                }
+            } catch (IOException x) {
+                _connection.close();
+            }
+        }
+
+        private IOException failed(IOException x) {
+            _reusable = false;
+            _host.failures.incrementAndGet();
+            if (x instanceof SocketTimeoutException) _host.timeouts.incrementAndGet();
+            return x;
+        }
+    }
+
+    private static class FixedLengthInputStream extends InputStream {
+        private final InputStream _in;
+        private long _remaining;
+
+        FixedLengthInputStream(InputStream in, long length) {
+            _in = in;
+            _remaining = length;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (_remaining <= 0) return -1;
+            int c = _in.read();
+            if (c < 0) throw new EOFException("Unexpected end of response body");
+            --_remaining;
+            return c;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (_remaining <= 0) return -1;
+            int count = _in.read(b, off, (int)Math.min(len, _remaining));
+            if (count < 0) throw new EOFException("Unexpected end of response body");
+            _remaining -= count;
+            return count;
+        }
+
+        @Override
+        public int available() throws IOException {
+            return (int)Math.min(_in.available(), _remaining);
+        }
+    }
+
+    private static class ChunkedInputStream extends InputStream {
+        private final InputStream _in;
+        private long _remaining;
+        private boolean _eof;
+
+        ChunkedInputStream(InputStream in) {
+            _in = in;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!next()) return -1;
+            int c = _in.read();
+            if (c < 0) throw new EOFException("Unexpected end of chunk");
+            --_remaining;
+            return c;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (!next()) return -1;
+            int count = _in.read(b, off, (int)Math.min(len, _remaining));
+            if (count < 0) throw new EOFException("Unexpected end of chunk");
+            _remaining -= count;
+            return count;
+        }
+
+        // positions at a chunk with data remaining, returning false at the end of the body
+        private boolean next() throws IOException {
+            if (_eof) return false;
+            if (_remaining > 0) return true;
+            String line = readLine(_in);
+            if (line != null && line.length() == 0) line = readLine(_in); // the CRLF after the previous chunk
+            if (line == null) throw new EOFException("Unexpected end of chunked body");
+            int semicolon = line.indexOf(';');
+            try {
+                _remaining = Long.parseLong((semicolon < 0 ? line : line.substring(0, semicolon)).trim(), 16);
+            } catch (NumberFormatException x) {
+                throw new ProtocolException("Invalid chunk size: " + line);
+            }
+            if (_remaining == 0) {
+                while ((line = readLine(_in)) != null && line.length() > 0); // trailers
+                _eof = true;
+                return false;
+            }
+            return true;
+        }
+    }
+}
@@ -5,7 +5,8 @@ import java.lang.reflect.*;
 import java.net.*;
 import java.util.*;
 import java.util.logging.*;
-import org.xillium.base.util.Bytes;
+import java.lang.management.ManagementFactory;
+import javax.management.ObjectName;
 import org.xillium.data.DataObject;
 import org.xillium.data.DataBinder;
 import org.xillium.data.CachedResultSet;
@@ -22,10 +23,12 @@ import com.fasterxml.jackson.databind.jsontype.TypeDeserializer;
  */
 public class RemoteService {
     private static final Logger _logger = Logger.getLogger(RemoteService.class.getName());
+    private static final int LOGGING_LIMIT = 4096;
     private static final boolean _urlencoding = System.getProperty("xillium.service.remote.DisableURLEncoding") == null;
     private static final ObjectMapper _mapper = new ObjectMapper()
         .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
         .registerModule(new SimpleModule("PureStringDeserializerModule").addDeserializer(String.class, new PureStringDeserializer()));
+    private static volatile HttpConnectionPool _pool = createDefaultConnectionPool();
 
     /**
      * This class represents a response from a remote Xillium service.
@@ -34,6 +37,9 @@ public class RemoteService {
         public Map<String, String> params;
         public Map<String, Object> values;
         public Map<String, CachedResultSet> tables;
+        /**
+         * The raw response body, present unless the call has asked not to keep it.
+         */
         public transient byte[] body;
 
         Response setResponseBody(byte[] body) {
@@ -74,16 +80,40 @@ public class RemoteService {
     }
 
     /**
-     * Calls a remote service with non-static member values in the given DataObject as arguments.
+     * Replaces the HttpConnectionPool through which remote services are called.
+     */
+    public static void setConnectionPool(HttpConnectionPool pool) {
+        _pool = pool;
+    }
+
+    /**
+     * Returns the HttpConnectionPool through which remote services are called.
+     */
+    public static HttpConnectionPool getConnectionPool() {
+        return _pool;
+    }
+
+    /**
+     * Calls a remote service with non-static member values in the given DataObject as arguments, keeping the raw response body in the
+     * Response.
      */
     public static Response call(String server, String service, DataObject data, String... params) {
         return call(server, service, false, data, params);
     }
 
     /**
-     * Calls a remote service with non-static member values in the given DataObject as arguments.
+     * Calls a remote service with non-static member values in the given DataObject as arguments, keeping the raw response body in the
+     * Response.
      */
     public static Response call(String server, String service, boolean suppress, DataObject data, String... params) {
+        return call(server, service, suppress, true, data, params);
+    }
+
+    /**
+     * Calls a remote service with non-static member values in the given DataObject as arguments, keeping the raw response body
+     * in the Response only if <code>keep</code> is true.
+     */
+    public static Response call(String server, String service, boolean suppress, boolean keep, DataObject data, String... params) {
         List<String> list = new ArrayList<String>(Arrays.asList(params));
         for (Field field: data.getClass().getFields()) {
             if (Modifier.isStatic(field.getModifiers())) continue;
@@ -102,11 +132,12 @@ public class RemoteService {
                 }
             } catch (IllegalAccessException x) {}
         }
-        return call(server, service, suppress, list.toArray(new String[list.size()]));
+        return call(server, service, suppress, keep, list.toArray(new String[list.size()]));
     }
 
     /**
-     * Calls a remote service with parameters in the given DataBinder as well as in an String list.
+     * Calls a remote service with parameters in the given DataBinder as well as in an String list, keeping the raw response body in the
+     * Response.
      *
      * Note: parameters in the data binder whose names start with '_' or '#' are NOT passed to the remote service.
      */
@@ -115,11 +146,22 @@ public class RemoteService {
     }
 
     /**
-     * Calls a remote service with parameters in the given DataBinder as well as in an String list.
+     * Calls a remote service with parameters in the given DataBinder as well as in an String list, keeping the raw response body in the
+     * Response.
      *
      * Note: parameters in the data binder whose names start with '_' or '#' are NOT passed to the remote service.
      */
     public static Response call(String server, String service, boolean suppress, DataBinder binder, String... params) {
+        return call(server, service, suppress, true, binder, params);
+    }
+
+    /**
+     * Calls a remote service with parameters in the given DataBinder as well as in an String list, keeping the raw response body
+     * in the Response only if <code>keep</code> is true.
+     *
+     * Note: parameters in the data binder whose names start with '_' or '#' are NOT passed to the remote service.
+     */
+    public static Response call(String server, String service, boolean suppress, boolean keep, DataBinder binder, String... params) {
         List<String> list = new ArrayList<String>(Arrays.asList(params));
         for (Map.Entry<String, String> entry: binder.entrySet()) {
             String name = entry.getKey();
@@ -134,36 +176,44 @@ public class RemoteService {
                 list.add(name + '=' + entry.getValue());
             }
         }
-        return call(server, service, suppress, list.toArray(new String[list.size()]));
+        return call(server, service, suppress, keep, list.toArray(new String[list.size()]));
     }
 
     /**
-     * Calls a remote service with a list of "name=value" string values as arguments.
+     * Calls a remote service with a list of "name=value" string values as arguments, keeping the raw response body in the Response.
      */
     public static Response call(String server, String service, String... params) {
         return call(server, service, false, params);
     }
 
     /**
-     * Calls a remote service with a list of "name=value" string values as arguments.
+     * Calls a remote service with a list of "name=value" string values as arguments, keeping the raw response body in the Response.
      */
     public static Response call(String server, String service, boolean suppress, String... params) {
+        return call(server, service, suppress, true, params);
+    }
+
+    /**
+     * Calls a remote service with a list of "name=value" string values as arguments, keeping the raw response body in the Response
+     * only if <code>keep</code> is true. Otherwise the response is parsed as it arrives, and no more than the first few kilobytes of
+     * it are retained, for logging should parsing fail.
+     */
+    public static Response call(String server, String service, boolean suppress, boolean keep, String... params) {
         try {
-            URL url = new URL(server + '/' + service);
-            URLConnection connection = url.openConnection();
-            connection.setDoOutput(true);
-            connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded;charset=utf-8");
-            PrintWriter pw = new PrintWriter(new OutputStreamWriter(connection.getOutputStream(), "utf-8"));
+            StringBuilder sb = new StringBuilder();
             for (String param: params) {
                 _logger.fine(param);
-                pw.print(param); pw.print('&');
+                sb.append(param).append('&');
             }
-            pw.close();
-            InputStream in = connection.getInputStream();
+            RecordingInputStream in = new RecordingInputStream(
+                _pool.post(new URL(server + '/' + service), "application/x-www-form-urlencoded;charset=utf-8", sb.toString().getBytes("UTF-8")),
+                keep ? Integer.MAX_VALUE : LOGGING_LIMIT
+            );
             try {
-                byte[] bytes = Bytes.read(in);
                 try {
-                    Response response = _mapper.readValue(bytes, Response.class).setResponseBody(bytes);
+                    Response response = _mapper.readValue(in, Response.class);
+                    in.close();
+                    if (keep) response.setResponseBody(in.getBytes());
                     if (response.params == null) {
                         throw new ServiceException("***ProtocolErrorMissingParams");
                     } else if (!suppress) {
@@ -174,7 +224,8 @@ public class RemoteService {
                     }
                     return response;
                 } catch (JsonProcessingException x) {
-                    _logger.log(Level.WARNING, new String(bytes, "UTF-8"));
+                    in.close();
+                    _logger.log(Level.WARNING, new String(in.getBytes(), "UTF-8"));
                     throw x;
                 }
             } finally {
@@ -187,6 +238,78 @@ public class RemoteService {
         }
     }
 
+    private static HttpConnectionPool createDefaultConnectionPool() {
+        HttpConnectionPool pool = new HttpConnectionPool();
+        pool.setConnectTimeout(Integer.getInteger("xillium.service.remote.ConnectTimeout", HttpConnectionPool.DEFAULT_CONNECT_TIMEOUT));
+        pool.setReadTimeout(Integer.getInteger("xillium.service.remote.ReadTimeout", HttpConnectionPool.DEFAULT_READ_TIMEOUT));
+        pool.setIdleTimeout(Integer.getInteger("xillium.service.remote.IdleTimeout", HttpConnectionPool.DEFAULT_IDLE_TIMEOUT));
+        pool.setMaxConnectionsPerHost(Integer.getInteger("xillium.service.remote.MaxConnectionsPerHost", HttpConnectionPool.DEFAULT_MAX_CONNECTIONS_PER_HOST));
+        try {
+            ObjectName name = new ObjectName("org.xillium.core.management", "type", "RemoteService");
+            pool.assignObjectName(name);
+            ManagementFactory.getPlatformMBeanServer().registerMBean(pool, name);
+        } catch (Exception x) {
+            _logger.config("RemoteService connection pool not registered with JMX: " + x.getMessage());
+        }
+        return pool;
+    }
+
+    /*#
+     * An InputStream that keeps a copy of the bytes read, up to a limit, and reads through the rest of the underlying stream upon
+     * closing.
+     */
+    private static class RecordingInputStream extends FilterInputStream {
+        private final ByteArrayOutputStream _bytes = new ByteArrayOutputStream();
+        private final int _limit;
+        private boolean _closed;
+
+        RecordingInputStream(InputStream in, int limit) {
+            super(in);
+            _limit = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int c = in.read();
+            if (c >= 0 && _bytes.size() < _limit) _bytes.write(c);
+            return c;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int count = in.read(b, off, len);
+            if (count > 0 && _bytes.size() < _limit) _bytes.write(b, off, Math.min(count, _limit - _bytes.size()));
+            return count;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            int count = read(new byte[(int)Math.max(0, Math.min(n, 8192))], 0, (int)Math.max(0, Math.min(n, 8192)));
+            return count < 0 ? 0 : count;
+        }
+
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (_closed) return;
+            _closed = true;
+            try {
+                byte[] buffer = new byte[1024];
+                while (read(buffer, 0, buffer.length) >= 0);
+            } finally {
+                in.close();
+            }
+        }
+
+        byte[] getBytes() {
+            return _bytes.toByteArray();
+        }
+    }
+
     /*#
      * A PureStringDeserializer is a Jackson string deserializer that ignores and skips any non-string JSON specifications.
      */
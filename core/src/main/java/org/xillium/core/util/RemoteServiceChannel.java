@@ -77,7 +77,7 @@ public class RemoteServiceChannel extends PropertiesConfigured implements Messag
                 }
                 if (SUBJECT != null && SUBJECT.length() > 0) binder.put(SUBJECT, URLEncoder.encode(subject, "UTF-8"));
                 binder.put(MESSAGE, URLEncoder.encode(message, "UTF-8"));
-                RemoteService.call(_host, _path, binder);
+                RemoteService.call(_host, _path, false, false, binder);
             } catch (Exception x) {}
         }
     }
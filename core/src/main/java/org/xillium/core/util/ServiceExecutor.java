@@ -0,0 +1,311 @@
+package org.xillium.core.util;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import java.util.logging.*;
+import org.xillium.core.management.ManagedComponent;
+import org.xillium.core.management.WithExecutor;
+
+
+/**
+ * A bounded executor of service jobs, with a limit on the number of queued jobs of each service and a timeout on each job.
+ * <p/>
+ * A job is rejected if its service already has as many jobs waiting in the queue as the service's queue limit, or if the queue shared
+ * by all services is full. A job expires when its service's timeout elapses after submission. A job that expires in the queue never
+ * runs and is abandoned instead, while a job that expires while running is only flagged: it is allowed to finish, but loses the right
+ * to commit its result. Either way exactly one of Job.finish() and Job.abandon() is called, so a job alone is responsible for whatever
+ * resources it holds until then.
+ */
+public class ServiceExecutor extends ManagedComponent implements WithExecutor {
+    private static final Logger _logger = Logger.getLogger(ServiceExecutor.class.getName());
+
+    public static final int DEFAULT_THREADS = 32;
+    public static final int DEFAULT_QUEUE_CAPACITY = 1024;
+    public static final int DEFAULT_QUEUE_LIMIT = 256;
+    public static final long DEFAULT_TIMEOUT = 60000L;
+
+    private static final int QUEUED = 0, RUNNING = 1, COMMITTED = 2, DONE = 3, EXPIRED = 4;
+
+    private final ConcurrentMap<String, ServiceQueue> _queues = new ConcurrentHashMap<String, ServiceQueue>();
+    private final Map<String, Integer> _queueLimits = new ConcurrentHashMap<String, Integer>();
+    private final Map<String, Long> _timeouts = new ConcurrentHashMap<String, Long>();
+    private final int _queueCapacity;
+    private final ThreadPoolExecutor _executor;
+    private final ScheduledThreadPoolExecutor _timer;
+    private volatile int _queueLimit = DEFAULT_QUEUE_LIMIT;
+    private volatile long _timeout = DEFAULT_TIMEOUT;
+
+    /**
+     * A job of a service. The job is done when execute() returns, after which finish() is called whether or not the job has expired.
+     * If the job expires before it starts running, abandon() is called instead.
+     */
+    public static abstract class Job implements Runnable {
+        private final AtomicInteger _state = new AtomicInteger(QUEUED);
+        private final String _service;
+        private ServiceExecutor _owner;
+        private ServiceQueue _queue;
+        private Future<?> _expiration;
+
+        protected Job(String service) {
+            _service = service;
+        }
+
+        public String getService() {
+            return _service;
+        }
+
+        /**
+         * Executes the job.
+         */
+        protected abstract void execute() throws Exception;
+
+        /**
+         * Finishes the job after execute() returns, whether or not the job has expired.
+         */
+        protected abstract void finish();
+
+        /**
+         * Abandons a job that has expired before it starts running, on the thread that expires it. The default does nothing.
+         */
+        protected void abandon() {
+        }
+
+        /**
+         * Claims the right to commit the result of a running job. Returns false if the job has expired, in which case the job is
+         * still responsible for reporting the expiration before it finishes.
+         */
+        public boolean commit() {
+            return _state.compareAndSet(RUNNING, COMMITTED);
+        }
+
+        /**
+         * Expires the job. Returns true if the job expired in the queue, in which case it never runs and is abandoned, or expired while
+         * running but before its result is committed; false if the job is done or its result has been committed. This method never
+         * waits for a running job.
+         */
+        public boolean expire() {
+            if (_state.compareAndSet(QUEUED, EXPIRED)) {
+                _owner._executor.remove(this);
+                _queue.queued.decrementAndGet();
+                _queue.timeouts.incrementAndGet();
+                cancelExpiration();
+                abandon();
+                return true;
+            } else if (_state.compareAndSet(RUNNING, EXPIRED)) {
+                _queue.timeouts.incrementAndGet();
+                return true;
+            } else {
+                return false;
+            }
+        }
+
+        @Override
+        public final void run() {
+            if (!_state.compareAndSet(QUEUED, RUNNING)) return;
+            _queue.queued.decrementAndGet();
+            _queue.active.incrementAndGet();
+            try {
+                execute();
+            } catch (Throwable t) {
+                _logger.log(Level.WARNING, "Job of service " + _service + " failed", t);
+            } finally {
+                _queue.active.decrementAndGet();
+                _queue.completed.incrementAndGet();
+                if (!_state.compareAndSet(COMMITTED, DONE)) _state.compareAndSet(RUNNING, DONE);
+                cancelExpiration();
+                finish();
+            }
+        }
+
+        private void cancelExpiration() {
+            Future<?> expiration = _expiration;
+            if (expiration != null) {
+                expiration.cancel(false);
+                _owner._timer.remove((Runnable)expiration);
+            }
+        }
+    }
+
+    /**
+     * Constructs a ServiceExecutor with default settings.
+     */
+    public ServiceExecutor() {
+        this(DEFAULT_THREADS, DEFAULT_QUEUE_CAPACITY);
+    }
+
+    /**
+     * Constructs a ServiceExecutor with the given number of threads and the given capacity of the queue shared by all services.
+     */
+    public ServiceExecutor(int threads, int capacity) {
+        if (threads < 1) throw new IllegalArgumentException("threads must be positive: " + threads);
+        if (capacity < 1) throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        _queueCapacity = capacity;
+        _executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(capacity), new ThreadFactory() {
+            private final AtomicInteger _count = new AtomicInteger();
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "xillium-service-" + _count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        _executor.allowCoreThreadTimeOut(true);
+        _timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "xillium-service-timer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        setStatus(Status.HEALTHY);
+    }
+
+    /**
+     * Sets the default maximum number of queued jobs of a single service.
+     */
+    public void setQueueLimit(int limit) {
+        if (limit < 1) throw new IllegalArgumentException("limit must be positive: " + limit);
+        _queueLimit = limit;
+    }
+
+    @Override
+    public int getQueueLimit() {
+        return _queueLimit;
+    }
+
+    /**
+     * Sets the maximum numbers of queued jobs of particular services, overriding the default.
+     */
+    public void setQueueLimits(Map<String, Integer> limits) {
+        _queueLimits.putAll(limits);
+    }
+
+    /**
+     * Returns the maximum number of queued jobs of a service.
+     */
+    public int getQueueLimit(String service) {
+        Integer limit = _queueLimits.get(service);
+        return limit != null ? limit : _queueLimit;
+    }
+
+    /**
+     * Sets the default timeout in milliseconds. 0 means no timeout.
+     */
+    public void setTimeout(long timeout) {
+        _timeout = timeout;
+    }
+
+    @Override
+    public long getTimeout() {
+        return _timeout;
+    }
+
+    /**
+     * Sets the timeouts of particular services, overriding the default.
+     */
+    public void setTimeouts(Map<String, Long> timeouts) {
+        _timeouts.putAll(timeouts);
+    }
+
+    /**
+     * Returns the timeout of a service in milliseconds.
+     */
+    public long getTimeout(String service) {
+        Long timeout = _timeouts.get(service);
+        return timeout != null ? timeout : _timeout;
+    }
+
+    @Override
+    public int getThreads() {
+        return _executor.getMaximumPoolSize();
+    }
+
+    @Override
+    public int getQueueCapacity() {
+        return _queueCapacity;
+    }
+
+    @Override
+    public QueueState getQueueState() {
+        int queued = 0, active = 0;
+        long submitted = 0, completed = 0, rejected = 0, timeouts = 0;
+        for (QueueState state: getServiceStates()) {
+            queued += state.getQueued();
+            active += state.getActive();
+            submitted += state.getSubmitted();
+            completed += state.getCompleted();
+            rejected += state.getRejected();
+            timeouts += state.getTimeouts();
+        }
+        return new QueueState("*", queued, active, submitted, completed, rejected, timeouts);
+    }
+
+    @Override
+    public List<QueueState> getServiceStates() {
+        List<QueueState> states = new ArrayList<QueueState>();
+        for (Map.Entry<String, ServiceQueue> entry: _queues.entrySet()) {
+            states.add(entry.getValue().state(entry.getKey()));
+        }
+        return states;
+    }
+
+    /**
+     * Submits a job.
+     *
+     * @throws RejectedExecutionException if the queue limit of the job's service has been reached, or the executor's queue is full
+     */
+    public void submit(Job job) throws RejectedExecutionException {
+        ServiceQueue queue = _queues.get(job._service);
+        if (queue == null) {
+            ServiceQueue existing = _queues.putIfAbsent(job._service, queue = new ServiceQueue());
+            if (existing != null) queue = existing;
+        }
+        job._owner = this;
+        job._queue = queue;
+
+        if (queue.queued.incrementAndGet() > getQueueLimit(job._service)) {
+            queue.queued.decrementAndGet();
+            queue.rejected.incrementAndGet();
+            throw new RejectedExecutionException("QueueLimitReached:" + job._service);
+        }
+        try {
+            long timeout = getTimeout(job._service);
+            if (timeout > 0) {
+                final Job expiring = job;
+                job._expiration = _timer.schedule(new Runnable() {
+                    public void run() {
+                        expiring.expire();
+                    }
+                }, timeout, TimeUnit.MILLISECONDS);
+            }
+            _executor.execute(job);
+            queue.submitted.incrementAndGet();
+        } catch (RejectedExecutionException x) {
+            job.cancelExpiration();
+            queue.queued.decrementAndGet();
+            queue.rejected.incrementAndGet();
+            throw x;
+        }
+    }
+
+    /**
+     * Shuts down the executor, letting queued and running jobs finish. Jobs still expire on time while the executor shuts down.
+     */
+    public void shutdown() {
+        _executor.shutdown();
+        _timer.shutdown();
+    }
+
+    private static class ServiceQueue {
+        final AtomicInteger queued = new AtomicInteger();
+        final AtomicInteger active = new AtomicInteger();
+        final AtomicLong submitted = new AtomicLong();
+        final AtomicLong completed = new AtomicLong();
+        final AtomicLong rejected = new AtomicLong();
+        final AtomicLong timeouts = new AtomicLong();
+
+        QueueState state(String service) {
+            return new QueueState(service, queued.get(), active.get(), submitted.get(), completed.get(), rejected.get(), timeouts.get());
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package org.xillium.core.util;
+
+import java.util.*;
+import java.util.concurrent.atomic.*;
+import org.xillium.base.util.LatencyHistogram;
+import org.xillium.core.management.ManagedComponent;
+import org.xillium.core.management.WithServiceMetrics;
+
+
+/**
+ * Request metrics of a single service: request, success, failure, and coalescing counts, the number of requests in flight, and latency
+ * histograms of whole requests and of each dispatcher phase, all in microseconds.
+ * <p/>
+ * Recording takes a few atomic increments per phase and never blocks, so that metrics can be kept on in production.
+ */
+public class ServiceMetrics extends ManagedComponent implements WithServiceMetrics {
+    /**
+     * Dispatcher phases.
+     */
+    public static enum Phase {
+        PARSE,
+        AUTHORIZE,
+        RUN,
+        SERIALIZE;
+
+        private final String label = name().toLowerCase();
+
+        public String label() {
+            return label;
+        }
+    }
+
+    private static final Phase[] PHASES = Phase.values();
+
+    private final String _service;
+    private final AtomicLong _requests = new AtomicLong();
+    private final AtomicLong _successes = new AtomicLong();
+    private final AtomicLong _failures = new AtomicLong();
+    private final AtomicLong _coalesced = new AtomicLong();
+    private final AtomicInteger _inflight = new AtomicInteger();
+    private final LatencyHistogram _latency = new LatencyHistogram();
+    private final LatencyHistogram[] _phases = new LatencyHistogram[PHASES.length];
+
+    /**
+     * Constructs a ServiceMetrics for a service.
+     */
+    public ServiceMetrics(String service) {
+        _service = service;
+        for (int i = 0; i < _phases.length; ++i) {
+            _phases[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Begins a request, returning the start time in nanoseconds.
+     */
+    public long begin() {
+        _requests.incrementAndGet();
+        _inflight.incrementAndGet();
+        return System.nanoTime();
+    }
+
+    /**
+     * Records the latency of a phase that started at the given time in nanoseconds, returning the current time in nanoseconds, from
+     * which the next phase starts.
+     */
+    public long record(Phase phase, long since) {
+        long now = System.nanoTime();
+        _phases[phase.ordinal()].record((now - since)/1000L);
+        return now;
+    }
+
+    /**
+     * Counts a request that shared the execution of an identical request.
+     */
+    public void coalesce() {
+        _coalesced.incrementAndGet();
+    }
+
+    /**
+     * Ends a request that began at the given time in nanoseconds.
+     */
+    public void end(long start, boolean successful) {
+        _latency.record((System.nanoTime() - start)/1000L);
+        if (successful) {
+            _successes.incrementAndGet();
+        } else {
+            _failures.incrementAndGet();
+        }
+        _inflight.decrementAndGet();
+    }
+
+    /**
+     * Returns the latency histogram of whole requests.
+     */
+    public LatencyHistogram getLatencyHistogram() {
+        return _latency;
+    }
+
+    /**
+     * Returns the latency histogram of a phase.
+     */
+    public LatencyHistogram getLatencyHistogram(Phase phase) {
+        return _phases[phase.ordinal()];
+    }
+
+    @Override
+    public String getService() {
+        return _service;
+    }
+
+    @Override
+    public long getRequests() {
+        return _requests.get();
+    }
+
+    @Override
+    public long getSuccesses() {
+        return _successes.get();
+    }
+
+    @Override
+    public long getFailures() {
+        return _failures.get();
+    }
+
+    @Override
+    public long getCoalesced() {
+        return _coalesced.get();
+    }
+
+    @Override
+    public int getInFlight() {
+        return _inflight.get();
+    }
+
+    @Override
+    public PhaseState getLatency() {
+        return report("total", _latency);
+    }
+
+    @Override
+    public List<PhaseState> getPhases() {
+        List<PhaseState> states = new ArrayList<PhaseState>(PHASES.length);
+        for (Phase phase: PHASES) {
+            states.add(report(phase.label(), _phases[phase.ordinal()]));
+        }
+        return states;
+    }
+
+    private static PhaseState report(String phase, LatencyHistogram histogram) {
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        return new PhaseState(
+            phase,
+            snapshot.getCount(),
+            snapshot.getMean(),
+            snapshot.getMin(),
+            snapshot.getMax(),
+            snapshot.getValueAtPercentile(50.0),
+            snapshot.getValueAtPercentile(90.0),
+            snapshot.getValueAtPercentile(99.0),
+            snapshot.getValueAtPercentile(99.9)
+        );
+    }
+}
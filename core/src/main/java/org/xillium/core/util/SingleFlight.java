@@ -0,0 +1,117 @@
+package org.xillium.core.util;
+
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Coalesces concurrent executions of identical tasks, identified by keys, into a single execution whose outcome is shared.
+ * <p/>
+ * The first caller with a key becomes the leader and executes the task, while callers arriving with the same key before the task
+ * completes wait for it and receive the same result, or the same exception. A caller arriving after the task completes starts a new
+ * execution; nothing is cached.
+ * <p/>
+ * A caller waits for the leader for at most a timeout, after which it executes the task on its own, so that a hung leader doesn't
+ * hold up the threads of all identical requests.
+ */
+public class SingleFlight<K, V> {
+    public static final long DEFAULT_TIMEOUT = 30000L;
+
+    private final ConcurrentMap<K, Flight<V>> _flights = new ConcurrentHashMap<K, Flight<V>>();
+    private final AtomicLong _executions = new AtomicLong();
+    private final AtomicLong _coalesced = new AtomicLong();
+    private final AtomicLong _timedOut = new AtomicLong();
+    private final long _timeout;
+
+    private static class Flight<V> {
+        final CountDownLatch done = new CountDownLatch(1);
+        V value;
+        Throwable failure;
+    }
+
+    /**
+     * Constructs a SingleFlight whose callers wait for the leader for at most DEFAULT_TIMEOUT milliseconds.
+     */
+    public SingleFlight() {
+        this(DEFAULT_TIMEOUT);
+    }
+
+    /**
+     * Constructs a SingleFlight whose callers wait for the leader for at most the given number of milliseconds, or indefinitely if
+     * the timeout is not positive.
+     */
+    public SingleFlight(long timeout) {
+        _timeout = timeout;
+    }
+
+    /**
+     * Executes a task, or waits for an identical task in progress, returning its result. If the identical task doesn't complete within
+     * the timeout, the task is executed on its own.
+     */
+    public V execute(K key, Callable<V> task) throws Exception {
+        Flight<V> flight = new Flight<V>(), leading = _flights.putIfAbsent(key, flight);
+        if (leading != null) {
+            _coalesced.incrementAndGet();
+            if (_timeout > 0) {
+                if (!leading.done.await(_timeout, TimeUnit.MILLISECONDS)) {
+                    _timedOut.incrementAndGet();
+                    return task.call();
+                }
+            } else {
+                leading.done.await();
+            }
+            return outcome(leading);
+        }
+
+        _executions.incrementAndGet();
+        try {
+            flight.value = task.call();
+        } catch (Throwable t) {
+            flight.failure = t;
+        } finally {
+            _flights.remove(key, flight);
+            flight.done.countDown();
+        }
+        return outcome(flight);
+    }
+
+    /**
+     * Returns the number of tasks executed.
+     */
+    public long getExecutions() {
+        return _executions.get();
+    }
+
+    /**
+     * Returns the number of callers that waited for the execution of another.
+     */
+    public long getCoalesced() {
+        return _coalesced.get();
+    }
+
+    /**
+     * Returns the number of callers that gave up waiting for the execution of another and executed the task on their own.
+     */
+    public long getTimedOut() {
+        return _timedOut.get();
+    }
+
+    /**
+     * Returns the number of tasks in progress.
+     */
+    public int getInFlight() {
+        return _flights.size();
+    }
+
+    private static <V> V outcome(Flight<V> flight) throws Exception {
+        if (flight.failure == null) {
+            return flight.value;
+        } else if (flight.failure instanceof Exception) {
+            throw (Exception)flight.failure;
+        } else if (flight.failure instanceof Error) {
+            throw (Error)flight.failure;
+        } else {
+            throw new ExecutionException(flight.failure);
+        }
+    }
+}
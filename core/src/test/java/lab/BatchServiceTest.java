@@ -0,0 +1,206 @@
+package lab;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.xillium.base.text.JSONStreamer;
+import org.xillium.data.DataBinder;
+import org.xillium.data.validation.Dictionary;
+import org.xillium.core.*;
+import org.xillium.core.intrinsic.BatchService;
+import org.xillium.core.util.ServiceMetrics;
+
+import org.testng.annotations.*;
+
+
+/**
+ * Testing batch invocation of multiple services.
+ */
+public class BatchServiceTest {
+    private static class Echo implements Service {
+        public DataBinder run(DataBinder binder, Dictionary dict, Persistence persist) {
+            binder.put("echo", binder.get("text") + '@' + binder.get(Service.REQUEST_CLIENT_ADDR));
+            return binder;
+        }
+    }
+
+    private static class Failing implements Service {
+        public DataBinder run(DataBinder binder, Dictionary dict, Persistence persist) throws ServiceException {
+            throw new ServiceException("failing");
+        }
+    }
+
+    private static class Guarded extends Echo implements Service.Secured, Service.Extended {
+        final AtomicInteger filtered = new AtomicInteger(), completed = new AtomicInteger();
+        public void authorize(String deployment, DataBinder binder, Persistence persist) throws AuthorizationException {
+            if (!"admin".equals(binder.get("#user#"))) throw new AuthorizationException("denied");
+        }
+        public void filtrate(DataBinder binder) { filtered.incrementAndGet(); }
+        public void acknowledge(DataBinder binder) {}
+        public void successful(DataBinder binder) {}
+        public void aborted(DataBinder binder, Throwable throwable) {}
+        public void complete(DataBinder binder) { completed.incrementAndGet(); }
+    }
+
+    private static BatchService batch(Map<String, Service> registry, Object... components) {
+        final RouteTable routes = new RouteTable(registry, Collections.<String, ServiceMetrics>emptyMap(), Arrays.asList(components));
+        return new BatchService(2, 4, 16) {
+            protected RouteTable getRoutes() { return routes; }
+        };
+    }
+
+    private static DataBinder request(String entries) {
+        DataBinder binder = new DataBinder();
+        binder.put(BatchService.ENTRIES, entries);
+        binder.put(Service.REQUEST_CLIENT_ADDR, "10.0.0.1");
+        binder.put("#user#", "admin");
+        return binder;
+    }
+
+    private static String stream(DataBinder binder) throws IOException {
+        StringWriter sw = new StringWriter();
+        JSONStreamer js = new JSONStreamer(sw);
+        binder.toJSON(js).close();
+        return sw.toString();
+    }
+
+    @Test(groups={"batch"})
+    public void testParallel() throws Exception {
+        Map<String, Service> registry = new HashMap<String, Service>();
+        Guarded guarded = new Guarded();
+        registry.put("module/echo", new Echo());
+        registry.put("module/fail", new Failing());
+        registry.put("module/guarded", guarded);
+        BatchService service = batch(registry);
+
+        StringBuilder entries = new StringBuilder("[");
+        for (int i = 0; i < 6; ++i) {
+            entries.append("{\"service\":\"module/echo\",\"params\":{\"text\":\"t").append(i).append("\"}},");
+        }
+        entries.append("{\"service\":\"module/fail\"},{\"service\":\"module/guarded\",\"params\":{\"text\":\"g\"}},{\"service\":\"module/none\"}]");
+
+        DataBinder result = service.run(request(entries.toString()), null, null);
+        assert result instanceof BatchService.Batch;
+        List<DataBinder> results = ((BatchService.Batch)result).getResults();
+        assert results.size() == 9;
+        for (int i = 0; i < 6; ++i) {
+            assert ("t" + i + "@10.0.0.1").equals(results.get(i).get("echo")) : results.get(i);
+            assert results.get(i).get(Service.FAILURE_MESSAGE) == null;
+            assert results.get(i).get(Service.REQUEST_CLIENT_ADDR) == null;
+        }
+        assert "failing".equals(results.get(6).get(Service.FAILURE_MESSAGE));
+        assert "g@10.0.0.1".equals(results.get(7).get("echo"));
+        assert guarded.filtered.get() == 1 && guarded.completed.get() == 1;
+        assert "ServiceNotFound:module/none".equals(results.get(8).get(Service.FAILURE_MESSAGE));
+
+        // each entry goes through its own authorization
+        DataBinder request = request("[{\"service\":\"module/guarded\"},{\"service\":\"module/echo\",\"params\":{\"text\":\"e\"}}]");
+        request.put("#user#", "guest");
+        results = ((BatchService.Batch)service.run(request, null, null)).getResults();
+        assert "denied".equals(results.get(0).get(Service.FAILURE_MESSAGE));
+        assert "e@10.0.0.1".equals(results.get(1).get("echo"));
+    }
+
+    @Test(groups={"batch"})
+    public void testTransactional() throws Exception {
+        Map<String, Service> registry = new HashMap<String, Service>();
+        registry.put("module/echo", new Echo());
+        registry.put("module/fail", new Failing());
+        BatchService service = batch(registry);
+
+        DataBinder request = request("[{\"service\":\"module/echo\",\"params\":{\"text\":\"a\"}},{\"service\":\"module/echo\",\"params\":{\"text\":\"b\"}}]");
+        request.put(BatchService.TRANSACTIONAL, "true");
+        List<DataBinder> results = ((BatchService.Batch)service.run(request, null, null)).getResults();
+        assert "a@10.0.0.1".equals(results.get(0).get("echo")) && "b@10.0.0.1".equals(results.get(1).get("echo"));
+
+        // a failure in any entry fails the batch
+        request = request("[{\"service\":\"module/echo\"},{\"service\":\"module/fail\"}]");
+        request.put(BatchService.TRANSACTIONAL, "true");
+        try {
+            service.run(request, null, null);
+            assert false;
+        } catch (ServiceException x) {
+            assert "failing".equals(x.getMessage());
+        }
+    }
+
+    @Test(groups={"batch"})
+    public void testTransactionalInvalidation() throws Exception {
+        final ResponseCache cache = new ResponseCache();
+        cache.setServices(Collections.singletonMap("cached", "echoes"));
+        cache.setInvalidators(Collections.singletonMap("echo", "echoes"));
+        cache.name("module");
+        Map<String, Service> registry = new HashMap<String, Service>();
+        registry.put("module/cached", new Echo());
+        registry.put("module/echo", new Echo());
+        registry.put("module/fail", new Failing());
+        BatchService service = batch(registry, cache);
+
+        final DataBinder query = new DataBinder();
+        cache.lookup("module/cached", query).complete("{}");
+        final AtomicInteger transactions = new AtomicInteger();
+        Persistence persist = new Persistence(null) {
+            @Override
+            public <T, F> T doReadWrite(F facility, Persistence.Task<T, F> task) {
+                transactions.incrementAndGet();
+                try {
+                    T value = task.run(facility, this);
+                    // entries don't invalidate cached responses before the transaction commits
+                    assert cache.lookup("module/cached", query).getResponse() != null;
+                    return value;
+                } catch (Exception x) {
+                    throw new RuntimeException(x.getMessage(), x);
+                }
+            }
+        };
+
+        // a rolled back batch invalidates nothing
+        DataBinder request = request("[{\"service\":\"module/echo\"},{\"service\":\"module/fail\"}]");
+        request.put(BatchService.TRANSACTIONAL, "true");
+        try {
+            service.run(request, null, persist);
+            assert false;
+        } catch (ServiceException x) {
+            assert "failing".equals(x.getMessage());
+        }
+        assert cache.lookup("module/cached", query).getResponse() != null;
+
+        request = request("[{\"service\":\"module/echo\",\"params\":{\"text\":\"a\"}},{\"service\":\"module/cached\"}]");
+        request.put(BatchService.TRANSACTIONAL, "true");
+        service.run(request, null, persist);
+        assert transactions.get() == 2;
+        assert cache.lookup("module/cached", query).getResponse() == null;
+    }
+
+    @Test(groups={"batch"})
+    public void testInvalidEntries() throws Exception {
+        BatchService service = batch(Collections.<String, Service>singletonMap("module/echo", new Echo()));
+        StringBuilder many = new StringBuilder("[");
+        for (int i = 0; i < 17; ++i) {
+            many.append(i > 0 ? "," : "").append("{\"service\":\"module/echo\"}");
+        }
+        for (String entries: new String[] { null, "{}", "[{\"params\":{}}]", "[1,2", many.append(']').toString() }) {
+            DataBinder request = request(entries);
+            if (entries == null) request.remove(BatchService.ENTRIES);
+            try {
+                service.run(request, null, null);
+                assert false : entries;
+            } catch (ServiceException x) {
+                assert x.getMessage().endsWith("BatchEntries") || x.getMessage().startsWith("TooManyBatchEntries") : x.getMessage();
+            }
+        }
+    }
+
+    @Test(groups={"batch"})
+    public void testSerialization() throws Exception {
+        BatchService service = batch(Collections.<String, Service>singletonMap("module/echo", new Echo()));
+        DataBinder result = service.run(request("[{\"service\":\"module/echo\",\"params\":{\"text\":\"x\"}},{\"service\":\"module/echo\",\"params\":{\"text\":\"y\"}}]"), null, null);
+        result.clearAutoValues();
+
+        String json = stream(result);
+        assert json.equals(result.toJSON()) : json + " vs " + result.toJSON();
+        assert json.startsWith("{\"params\":{") && json.contains(",\"results\":[{\"params\":{") && json.endsWith("}]}") : json;
+        assert json.contains("\"echo\":\"x@10.0.0.1\"") && json.indexOf("x@10.0.0.1") < json.indexOf("y@10.0.0.1") : json;
+        assert !json.contains("#user#") : json;
+    }
+}
@@ -0,0 +1,123 @@
+package lab;
+
+import java.io.*;
+import java.lang.reflect.*;
+import java.util.*;
+import java.util.zip.*;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletResponse;
+import org.xillium.core.util.CompressingOutputStream;
+
+import org.testng.annotations.*;
+
+
+/**
+ * Testing CompressingOutputStream negotiation, thresholds, and streaming.
+ */
+public class CompressingOutputStreamTest {
+    private static class Response {
+        final Map<String, String> headers = new HashMap<String, String>();
+        final ByteArrayOutputStream body = new ByteArrayOutputStream();
+        final HttpServletResponse proxy = (HttpServletResponse)Proxy.newProxyInstance(
+            HttpServletResponse.class.getClassLoader(), new Class<?>[] { HttpServletResponse.class }, new InvocationHandler() {
+                public Object invoke(Object p, Method method, Object[] args) {
+                    String name = method.getName();
+                    if (name.equals("setHeader")) {
+                        headers.put((String)args[0], (String)args[1]);
+                        return null;
+                    } else if (name.equals("getOutputStream")) {
+                        return new ServletOutputStream() {
+                            public void write(int b) { body.write(b); }
+                        };
+                    } else {
+                        throw new UnsupportedOperationException(name);
+                    }
+                }
+            }
+        );
+    }
+
+    @Test(groups={"compression"})
+    public void testNegotiation() {
+        assert CompressingOutputStream.negotiate(null) == null;
+        assert CompressingOutputStream.negotiate("") == null;
+        assert CompressingOutputStream.negotiate("identity") == null;
+        assert CompressingOutputStream.GZIP.equals(CompressingOutputStream.negotiate("gzip, deflate, br"));
+        assert CompressingOutputStream.GZIP.equals(CompressingOutputStream.negotiate("x-gzip"));
+        assert CompressingOutputStream.DEFLATE.equals(CompressingOutputStream.negotiate("deflate"));
+        assert CompressingOutputStream.DEFLATE.equals(CompressingOutputStream.negotiate("gzip;q=0.5, deflate"));
+        assert CompressingOutputStream.DEFLATE.equals(CompressingOutputStream.negotiate("gzip;q=0, *"));
+        assert CompressingOutputStream.GZIP.equals(CompressingOutputStream.negotiate("*;q=0.1"));
+        assert CompressingOutputStream.negotiate("gzip;q=0, deflate;q=0") == null;
+        assert CompressingOutputStream.negotiate("*;q=0") == null;
+    }
+
+    @Test(groups={"compression"})
+    public void testThreshold() throws Exception {
+        byte[] content = payload(1024);
+
+        Response response = new Response();
+        CompressingOutputStream stream = new CompressingOutputStream(response.proxy, CompressingOutputStream.GZIP, 1024, 1);
+        stream.write(content, 0, 1000);
+        stream.flush();
+        assert response.body.size() == 0;
+        stream.write(content, 1000, 24);
+        stream.close();
+        assert !stream.isCompressed() && response.headers.isEmpty();
+        assert Arrays.equals(response.body.toByteArray(), content);
+
+        response = new Response();
+        stream = new CompressingOutputStream(response.proxy, CompressingOutputStream.GZIP, 1024, 1);
+        stream.write(content);
+        stream.write('!');
+        stream.close();
+        assert stream.isCompressed() && CompressingOutputStream.GZIP.equals(response.headers.get("Content-Encoding"));
+        byte[] expected = Arrays.copyOf(content, 1025);
+        expected[1024] = '!';
+        assert Arrays.equals(read(new GZIPInputStream(new ByteArrayInputStream(response.body.toByteArray()))), expected);
+    }
+
+    @Test(groups={"compression"})
+    public void testStreaming() throws Exception {
+        for (String encoding: new String[] { CompressingOutputStream.GZIP, CompressingOutputStream.DEFLATE }) {
+            byte[] content = payload(4*1024*1024);
+            Response response = new Response();
+            CompressingOutputStream stream = new CompressingOutputStream(response.proxy, encoding, 1024, 6);
+            for (int i = 0; i < content.length; i += 1000) {
+                stream.write(content, i, Math.min(1000, content.length - i));
+            }
+            // compressed data leaves the stream before it is closed
+            assert response.body.size() > 0;
+            stream.close();
+            stream.close();
+
+            byte[] compressed = response.body.toByteArray();
+            assert compressed.length < content.length / 3 : compressed.length;
+            InputStream input = encoding.equals(CompressingOutputStream.GZIP)
+                ? new GZIPInputStream(new ByteArrayInputStream(compressed))
+                : new InflaterInputStream(new ByteArrayInputStream(compressed));
+            assert Arrays.equals(read(input), content);
+            assert encoding.equals(response.headers.get("Content-Encoding"));
+        }
+    }
+
+    private static byte[] payload(int size) {
+        StringBuilder sb = new StringBuilder(size + 100);
+        Random random = new Random(size);
+        sb.append("{\"rows\":[");
+        while (sb.length() < size) {
+            sb.append("[").append(random.nextInt(100000)).append(",\"SYM").append(random.nextInt(500)).append("\",").append(random.nextInt(1000)/7.0).append("],");
+        }
+        return Arrays.copyOf(sb.toString().getBytes(), size);
+    }
+
+    private static byte[] read(InputStream input) throws IOException {
+        ByteArrayOutputStream output = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        int count;
+        while ((count = input.read(buffer)) > 0) {
+            output.write(buffer, 0, count);
+        }
+        return output.toByteArray();
+    }
+}
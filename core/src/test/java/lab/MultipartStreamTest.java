@@ -0,0 +1,162 @@
+package lab;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.*;
+import org.apache.commons.fileupload.*;
+import org.xillium.data.DataBinder;
+import org.xillium.core.MultipartStream;
+
+import org.testng.annotations.*;
+
+
+/**
+ * Testing MultipartStream staging and streaming with generated multipart bodies.
+ */
+public class MultipartStreamTest {
+    private static final String BOUNDARY = "----xillium-boundary-7MA4YWxkTrZu0gW";
+    private static final int[] SIZES = { 0, 1, 100, 4096, 4097, 65535, 65536, 1 << 20, 3 * (1 << 20) + 17 };
+
+    @Test(groups={"multipart"})
+    public void testStaging() throws Exception {
+        // small files stay in memory by default, in pooled buffers that hold any file up to the threshold
+        assert MultipartStream.MEMORY_THRESHOLD == MultipartStream.DEFAULT_MEMORY_THRESHOLD && MultipartStream.MEMORY_THRESHOLD > 0;
+        assert MultipartStream.BUFFER_SIZE > MultipartStream.MEMORY_THRESHOLD;
+        for (int threshold: new int[] { 0, 4096, MultipartStream.MEMORY_THRESHOLD, MultipartStream.BUFFER_SIZE - 1 }) {
+            Map<String, byte[]> files = files();
+            DataBinder binder = new DataBinder();
+            List<File> staged = new ArrayList<File>();
+            new MultipartStream(iterator(body(files))).stage(binder, staged, threshold);
+            try {
+                assert "before".equals(binder.get("first")) && "after".equals(binder.get("last"));
+                int disk = 0;
+                for (Map.Entry<String, byte[]> entry: files.entrySet()) {
+                    String name = entry.getKey();
+                    byte[] expected = entry.getValue();
+                    assert (name + ".bin").equals(binder.get(name));
+                    assert String.valueOf(expected.length).equals(binder.get(name + MultipartStream.FILE_SIZE));
+                    if (threshold > 0 && expected.length <= threshold) {
+                        assert binder.get(name + MultipartStream.FILE_PATH) == null;
+                        assert Arrays.equals(expected, binder.<byte[]>getNamedObject(name + MultipartStream.FILE_DATA)) : name;
+                    } else {
+                        ++disk;
+                        File file = new File(binder.get(name + MultipartStream.FILE_PATH));
+                        assert file.getName().endsWith(".bin") && staged.contains(file);
+                        assert Arrays.equals(expected, read(new FileInputStream(file))) : name;
+                    }
+                }
+                assert disk == staged.size();
+            } finally {
+                for (File file: staged) file.delete();
+            }
+        }
+        assert MultipartStream.getBufferPool().getAllocatedCount() == 1 : MultipartStream.getBufferPool().getAllocatedCount();
+    }
+
+    @Test(groups={"multipart"})
+    public void testStreaming() throws Exception {
+        Map<String, byte[]> files = files();
+        DataBinder binder = new DataBinder();
+        MultipartStream multipart = new MultipartStream(iterator(body(files)));
+        multipart.collect(binder);
+        assert "before".equals(binder.get("first")) && binder.get("last") == null && binder.size() == 1;
+
+        Iterator<Map.Entry<String, byte[]>> expected = files.entrySet().iterator();
+        MultipartStream.Part part;
+        int count = 0;
+        while ((part = multipart.next()) != null) {
+            if (part.isFormField()) {
+                assert "last".equals(part.getName()) && "after".equals(part.getString());
+            } else {
+                Map.Entry<String, byte[]> entry = expected.next();
+                assert entry.getKey().equals(part.getName()) && (entry.getKey() + ".bin").equals(part.getFileName());
+                assert "application/octet-stream".equals(part.getContentType());
+                if (++count % 2 == 0) {
+                    assert Arrays.equals(entry.getValue(), read(part.openStream())) : entry.getKey();
+                } else {
+                    ReadableByteChannel channel = part.openChannel();
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    ByteBuffer buffer = ByteBuffer.allocate(1000);
+                    while (channel.read(buffer) >= 0) {
+                        bytes.write(buffer.array(), 0, buffer.position());
+                        buffer.clear();
+                    }
+                    bytes.write(buffer.array(), 0, buffer.position());
+                    assert Arrays.equals(entry.getValue(), bytes.toByteArray()) : entry.getKey();
+                }
+            }
+        }
+        assert count == SIZES.length && !expected.hasNext();
+    }
+
+    @Test(groups={"multipart"})
+    public void testTransfer() throws Exception {
+        Map<String, byte[]> files = files();
+        MultipartStream multipart = new MultipartStream(iterator(body(files)));
+        multipart.collect(new DataBinder());
+        File file = File.createTempFile("xillium", ".bin");
+        try {
+            MultipartStream.Part part;
+            while ((part = multipart.next()) != null) {
+                if (part.isFormField()) continue;
+                byte[] expected = files.get(part.getName());
+                assert part.transferTo(file) == expected.length;
+                assert file.length() == expected.length && Arrays.equals(expected, read(new FileInputStream(file)));
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    private static Map<String, byte[]> files() {
+        Random random = new Random(5);
+        Map<String, byte[]> files = new LinkedHashMap<String, byte[]>();
+        for (int size: SIZES) {
+            byte[] data = new byte[size];
+            random.nextBytes(data);
+            files.put("file" + size, data);
+        }
+        return files;
+    }
+
+    private static byte[] body(Map<String, byte[]> files) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        field(body, "first", "before");
+        for (Map.Entry<String, byte[]> entry: files.entrySet()) {
+            body.write(("--" + BOUNDARY + "\r\nContent-Disposition: form-data; name=\"" + entry.getKey() + "\"; filename=\"" + entry.getKey() +
+                        ".bin\"\r\nContent-Type: application/octet-stream\r\n\r\n").getBytes("UTF-8"));
+            body.write(entry.getValue());
+            body.write("\r\n".getBytes("UTF-8"));
+        }
+        field(body, "last", "after");
+        body.write(("--" + BOUNDARY + "--\r\n").getBytes("UTF-8"));
+        return body.toByteArray();
+    }
+
+    private static void field(ByteArrayOutputStream body, String name, String value) throws IOException {
+        body.write(("--" + BOUNDARY + "\r\nContent-Disposition: form-data; name=\"" + name + "\"\r\n\r\n" + value + "\r\n").getBytes("UTF-8"));
+    }
+
+    private static FileItemIterator iterator(final byte[] body) throws Exception {
+        return new FileUpload().getItemIterator(new UploadContext() {
+            public String getCharacterEncoding() { return "UTF-8"; }
+            public String getContentType() { return "multipart/form-data; boundary=" + BOUNDARY; }
+            public long contentLength() { return body.length; }
+            @Deprecated public int getContentLength() { return body.length; }
+            public InputStream getInputStream() { return new ByteArrayInputStream(body); }
+        });
+    }
+
+    private static byte[] read(InputStream in) throws IOException {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int count;
+            while ((count = in.read(buffer)) > 0) bytes.write(buffer, 0, count);
+            return bytes.toByteArray();
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package lab;
+
+import java.io.*;
+import java.lang.management.ManagementFactory;
+import java.net.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import org.xillium.core.*;
+import org.xillium.core.management.WithConnectionPool;
+import org.xillium.core.util.*;
+import com.sun.net.httpserver.*;
+
+import org.testng.annotations.*;
+
+
+/**
+ * Testing RemoteService and HttpConnectionPool against an in-process HTTP server.
+ */
+public class RemoteServiceTest {
+    private HttpServer _server;
+    private String _base;
+    private final Set<Integer> _clients = Collections.synchronizedSet(new HashSet<Integer>());
+    private final AtomicInteger _concurrent = new AtomicInteger(), _peak = new AtomicInteger();
+
+    @BeforeClass(groups={"remote"})
+    public void start() throws Exception {
+        _server = HttpServer.create(new InetSocketAddress(InetAddress.getByName("127.0.0.1"), 0), 0);
+        _server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                String path = exchange.getRequestURI().getPath();
+                // only requests to "busy" count toward the concurrency peak
+                int concurrent = path.endsWith("/busy") ? _concurrent.incrementAndGet() : 0, peak;
+                while (concurrent > (peak = _peak.get()) && !_peak.compareAndSet(peak, concurrent));
+                try {
+                    _clients.add(exchange.getRemoteAddress().getPort());
+                    String query = read(exchange.getRequestBody());
+
+                    StringBuilder sb = new StringBuilder("{\"params\":{");
+                    for (String param: query.split("&")) {
+                        if (param.length() == 0) continue;
+                        String[] pair = param.split("=", 2);
+                        if (sb.charAt(sb.length() - 1) != '{') sb.append(',');
+                        sb.append('"').append(pair[0]).append("\":\"").append(URLDecoder.decode(pair[1], "UTF-8")).append('"');
+                    }
+                    if (path.endsWith("/failure")) sb.append(",\"").append(Service.FAILURE_MESSAGE).append("\":\"SomethingWrong\"");
+                    sb.append("},\"values\":{\"number\":[1,2,3]},\"tables\":{}}\n");
+                    byte[] body = sb.toString().getBytes("UTF-8");
+
+                    if (path.endsWith("/slow")) Thread.sleep(1000);
+                    if (path.endsWith("/busy")) Thread.sleep(100);
+                    exchange.getResponseHeaders().set("Content-Type", "application/json");
+                    if (path.endsWith("/broken")) {
+                        exchange.sendResponseHeaders(500, body.length);
+                    } else {
+                        exchange.sendResponseHeaders(200, path.endsWith("/chunked") ? 0 : body.length);
+                    }
+                    OutputStream out = exchange.getResponseBody();
+                    out.write(body);
+                    out.close();
+                } catch (InterruptedException x) {
+                    throw new InterruptedIOException();
+                } finally {
+                    if (concurrent > 0) _concurrent.decrementAndGet();
+                }
+            }
+        });
+        _server.setExecutor(Executors.newCachedThreadPool());
+        _server.start();
+        _base = "http://127.0.0.1:" + _server.getAddress().getPort();
+    }
+
+    @AfterClass(groups={"remote"})
+    public void stop() {
+        _server.stop(0);
+    }
+
+    @Test(groups={"remote"})
+    public void testKeepAlive() throws Exception {
+        HttpConnectionPool pool = new HttpConnectionPool();
+        RemoteService.setConnectionPool(pool);
+        _clients.clear();
+
+        for (int i = 0; i < 20; ++i) {
+            RemoteService.Response response = RemoteService.call(_base, i % 2 == 0 ? "x/echo" : "x/chunked", false, true, "name=value " + i, "other=中文");
+            assert ("value " + i).equals(response.params.get("name")) : response.params;
+            assert "中文".equals(response.params.get("other"));
+            assert response.values.get("number") instanceof List;
+            assert new String(response.body, "UTF-8").endsWith("}}\n");
+        }
+        assert _clients.size() == 1 : _clients;
+
+        WithConnectionPool.PoolState state = pool.getPoolState();
+        assert state.getCreated() == 1 && state.getReused() == 19 && state.getRequests() == 20 && state.getFailures() == 0;
+        assert state.getActive() == 0 && state.getIdle() == 1;
+
+        // a stale connection closed by the peer is replaced transparently
+        pool.setIdleTimeout(0);
+        RemoteService.Response response = RemoteService.call(_base, "x/echo", false, false, "name=v");
+        assert "v".equals(response.params.get("name")) && response.body == null;
+        assert pool.getPoolState().getCreated() == 2;
+        pool.evict();
+        assert pool.getPoolState().getIdle() == 0;
+    }
+
+    @Test(groups={"remote"})
+    public void testFailures() throws Exception {
+        HttpConnectionPool pool = new HttpConnectionPool();
+        pool.setReadTimeout(200);
+        RemoteService.setConnectionPool(pool);
+
+        try {
+            RemoteService.call(_base, "x/failure", "name=value");
+            assert false;
+        } catch (RemoteServiceException x) {
+            assert "SomethingWrong".equals(x.getMessage());
+        }
+        assert "SomethingWrong".equals(RemoteService.call(_base, "x/failure", true, "name=value").params.get(Service.FAILURE_MESSAGE));
+
+        try {
+            RemoteService.call(_base, "x/broken", "name=value");
+            assert false;
+        } catch (ServiceException x) {
+            assert x.getCause().getMessage().startsWith("Server returned HTTP response code: 500") : x.getCause();
+        }
+
+        try {
+            RemoteService.call(_base, "x/slow", "name=value");
+            assert false;
+        } catch (ServiceException x) {
+            assert x.getCause() instanceof SocketTimeoutException : x.getCause();
+        }
+
+        WithConnectionPool.PoolState state = pool.getPoolState();
+        assert state.getRequests() == 4 && state.getFailures() == 2 && state.getTimeouts() == 1 && state.getActive() == 0;
+        // the connection survives the 500 response but not the timeout
+        assert state.getCreated() == 1 : state.getCreated();
+        RemoteService.Response response = RemoteService.call(_base, "x/echo", "name=value");
+        assert pool.getPoolState().getCreated() == 2;
+        // the raw response body is kept unless the call asks not to
+        assert "value".equals(response.params.get("name")) && new String(response.body, "UTF-8").endsWith("}}\n");
+    }
+
+    @Test(groups={"remote"})
+    public void testHostLimit() throws Exception {
+        final HttpConnectionPool pool = new HttpConnectionPool();
+        pool.setMaxConnectionsPerHost(2);
+        RemoteService.setConnectionPool(pool);
+        _clients.clear();
+        _peak.set(0);
+
+        ExecutorService executor = Executors.newFixedThreadPool(6);
+        List<Future<String>> results = new ArrayList<Future<String>>();
+        for (int i = 0; i < 12; ++i) {
+            final int n = i;
+            results.add(executor.submit(new Callable<String>() {
+                public String call() {
+                    return RemoteService.call(_base, "x/busy", "name=" + n).params.get("name");
+                }
+            }));
+        }
+        for (int i = 0; i < results.size(); ++i) {
+            assert String.valueOf(i).equals(results.get(i).get());
+        }
+        executor.shutdown();
+
+        assert _peak.get() <= 2 : _peak.get();
+        assert _clients.size() <= 2 : _clients;
+        assert pool.getPoolState().getRequests() == 12 && pool.getPoolState().getCreated() <= 2;
+
+        // waiting for a slot is bounded by the connect timeout
+        pool.setMaxConnectionsPerHost(1);
+        pool.setConnectTimeout(50);
+        InputStream held = pool.post(new URL(_base + "/x/echo"), "text/plain", new byte[0]);
+        try {
+            pool.post(new URL(_base + "/x/echo"), "text/plain", new byte[0]);
+            assert false;
+        } catch (SocketTimeoutException x) {
+            assert pool.getPoolState().getTimeouts() == 1;
+        } finally {
+            held.close();
+        }
+        pool.post(new URL(_base + "/x/echo"), "text/plain", new byte[0]).close();
+    }
+
+    @Test(groups={"remote"})
+    public void testNoResend() throws Exception {
+        // a server that answers the first request on a connection, and then either closes the connection, as if idle for too long,
+        // or drops it without answering the next request
+        final ServerSocket server = new ServerSocket(0, 0, InetAddress.getByName("127.0.0.1"));
+        final AtomicInteger received = new AtomicInteger();
+        Thread thread = new Thread() {
+            public void run() {
+                try {
+                    while (true) {
+                        Socket socket = server.accept();
+                        try {
+                            socket.setSoTimeout(2000);
+                            InputStream in = new BufferedInputStream(socket.getInputStream());
+                            String path = request(in);
+                            received.incrementAndGet();
+                            OutputStream out = socket.getOutputStream();
+                            out.write("HTTP/1.1 200 OK\r\nContent-Type: text/plain\r\nContent-Length: 2\r\n\r\nOK".getBytes("ISO-8859-1"));
+                            out.flush();
+                            if (path.endsWith("/drop") && request(in) != null) received.incrementAndGet();
+                        } finally {
+                            socket.close();
+                        }
+                    }
+                } catch (IOException x) {
+                    if (!server.isClosed()) x.printStackTrace();
+                }
+            }
+        };
+        thread.start();
+
+        try {
+            HttpConnectionPool pool = new HttpConnectionPool();
+            String base = "http://127.0.0.1:" + server.getLocalPort();
+
+            // an idle connection closed by the server is detected and replaced before the request is sent
+            assert "OK".equals(fetch(pool, base + "/x/close"));
+            Thread.sleep(100);
+            assert "OK".equals(fetch(pool, base + "/x/close"));
+            assert received.get() == 2 && pool.getPoolState().getCreated() == 2 && pool.getPoolState().getFailures() == 0;
+
+            // a request sent but not answered is not sent again
+            received.set(0);
+            pool.evict();
+            assert "OK".equals(fetch(pool, base + "/x/drop"));
+            try {
+                fetch(pool, base + "/x/drop");
+                assert false;
+            } catch (IOException x) {
+                // expected
+            }
+            Thread.sleep(100);
+            assert received.get() == 2 : received.get();
+            assert pool.getPoolState().getFailures() == 1 && pool.getPoolState().getActive() == 0;
+        } finally {
+            server.close();
+            thread.join();
+        }
+    }
+
+    private static String fetch(HttpConnectionPool pool, String url) throws IOException {
+        InputStream in = pool.post(new URL(url), "text/plain", "name=value".getBytes("UTF-8"));
+        try {
+            return read(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    // reads an HTTP request, returning the path, or null if the connection is closed
+    private static String request(InputStream in) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        int c, length = 0;
+        String path = null;
+        while ((c = in.read()) >= 0) {
+            if (c == '\r') continue;
+            if (c != '\n') {
+                sb.append((char)c);
+            } else if (sb.length() > 0) {
+                String line = sb.toString();
+                if (path == null) path = line.split(" ")[1];
+                if (line.toLowerCase().startsWith("content-length:")) length = Integer.parseInt(line.substring(15).trim());
+                sb.setLength(0);
+            } else {
+                while (length-- > 0) in.read();
+                return path;
+            }
+        }
+        return null;
+    }
+
+    @Test(groups={"remote"})
+    public void testManagement() throws Exception {
+        CompositeData state = (CompositeData)ManagementFactory.getPlatformMBeanServer().getAttribute(
+            new ObjectName("org.xillium.core.management", "type", "RemoteService"), "PoolState"
+        );
+        assert "*".equals(state.get("host"));
+        assert ((Integer)ManagementFactory.getPlatformMBeanServer().getAttribute(
+            new ObjectName("org.xillium.core.management", "type", "RemoteService"), "MaxConnectionsPerHost"
+        )) == HttpConnectionPool.DEFAULT_MAX_CONNECTIONS_PER_HOST;
+    }
+
+    private static String read(InputStream in) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[1024];
+        int count;
+        while ((count = in.read(buffer)) > 0) bytes.write(buffer, 0, count);
+        return bytes.toString("UTF-8");
+    }
+}
@@ -0,0 +1,172 @@
+package lab;
+
+import java.lang.reflect.*;
+import java.sql.*;
+import java.util.*;
+import org.xillium.data.*;
+import org.xillium.data.validation.Dictionary;
+import org.xillium.core.*;
+import org.xillium.core.management.WithCache;
+import org.xillium.core.util.ServiceMetrics;
+
+import org.testng.annotations.*;
+
+
+/**
+ * Testing ResponseCache keys, expiration, eviction, and invalidation by tags.
+ */
+public class ResponseCacheTest {
+    private static class Plain implements Service {
+        public DataBinder run(DataBinder binder, Dictionary dict, Persistence persist) { return binder; }
+    }
+
+    private static DataBinder request(String... pairs) {
+        DataBinder binder = new DataBinder();
+        for (int i = 0; i < pairs.length; i += 2) {
+            binder.put(pairs[i], pairs[i+1]);
+        }
+        return binder;
+    }
+
+    private static ResponseCache cache(int capacity, long ttl) {
+        ResponseCache cache = new ResponseCache();
+        cache.setCapacity(capacity);
+        cache.setTimeToLive(ttl);
+        Map<String, String> services = new HashMap<String, String>();
+        services.put("countries", "geography");
+        services.put("cities", "geography, cities");
+        services.put("other/rates", "");
+        cache.setServices(services);
+        Map<String, String> invalidators = new HashMap<String, String>();
+        invalidators.put("updateCity", "cities");
+        invalidators.put("updateWorld", "geography");
+        cache.setInvalidators(invalidators);
+        return cache.name("lookup");
+    }
+
+    @Test(groups={"cache"})
+    public void testKeys() {
+        String key = ResponseCache.key("lookup/cities", request("country", "US", "state", "CA"));
+        assert key.equals(ResponseCache.key("lookup/cities", request("state", "CA", "country", "US", Service.REQUEST_CLIENT_ADDR, "10.0.0.1")));
+        assert !key.equals(ResponseCache.key("lookup/countries", request("country", "US", "state", "CA")));
+        assert !key.equals(ResponseCache.key("lookup/cities", request("country", "US", "state", "CAX")));
+        assert !key.equals(ResponseCache.key("lookup/cities", request("country", "US", "state", "CA", "_http_status_", "1")));
+        // no ambiguity between names and values
+        assert !ResponseCache.key("s", request("a", "bc")).equals(ResponseCache.key("s", request("ab", "c")));
+    }
+
+    @Test(groups={"cache"})
+    public void testLookups() throws Exception {
+        ResponseCache cache = cache(10, 0);
+        assert cache.caches("lookup/cities") && cache.caches("other/rates") && !cache.caches("lookup/updateCity");
+        assert cache.isInvalidatedBy("lookup/updateCity") && !cache.isInvalidatedBy("lookup/cities");
+
+        ResponseCache.Lookup lookup = cache.lookup("lookup/cities", request("country", "US"));
+        assert lookup.getResponse() == null;
+        lookup.complete("{\"cities\":1}");
+        assert "{\"cities\":1}".equals(cache.lookup("lookup/cities", request("country", "US", Service.REQUEST_CLIENT_PORT, "1234")).getResponse());
+        assert cache.lookup("lookup/cities", request("country", "CA")).getResponse() == null;
+
+        WithCache.CacheState state = cache.getCacheState();
+        assert state.getSize() == 1 && state.getRead() == 3 && state.getHit() == 1 : state.getRead();
+
+        cache.refresh();
+        assert cache.lookup("lookup/cities", request("country", "US")).getResponse() == null;
+    }
+
+    @Test(groups={"cache"})
+    public void testInvalidation() throws Exception {
+        ResponseCache cache = cache(10, 0);
+        cache.lookup("lookup/cities", request()).complete("cities");
+        cache.lookup("lookup/countries", request()).complete("countries");
+        cache.lookup("other/rates", request()).complete("rates");
+
+        cache.invalidate("lookup/updateCity");
+        assert cache.lookup("lookup/cities", request()).getResponse() == null;
+        assert "countries".equals(cache.lookup("lookup/countries", request()).getResponse());
+
+        cache.lookup("lookup/cities", request()).complete("cities");
+        cache.invalidate("lookup/updateWorld");
+        assert cache.lookup("lookup/cities", request()).getResponse() == null;
+        assert cache.lookup("lookup/countries", request()).getResponse() == null;
+        assert "rates".equals(cache.lookup("other/rates", request()).getResponse());
+
+        // a response computed before an invalidation is not cached
+        ResponseCache.Lookup lookup = cache.lookup("lookup/countries", request());
+        cache.invalidate("lookup/updateWorld");
+        lookup.complete("stale");
+        assert cache.lookup("lookup/countries", request()).getResponse() == null;
+    }
+
+    @Test(groups={"cache"})
+    public void testBounds() throws Exception {
+        ResponseCache cache = cache(3, 0);
+        for (int i = 0; i < 5; ++i) {
+            cache.lookup("lookup/cities", request("id", String.valueOf(i))).complete(String.valueOf(i));
+        }
+        WithCache.CacheState state = cache.getCacheState();
+        assert state.getSize() == 3 && state.getMax() == 3 && state.getSwap() == 2;
+        assert cache.lookup("lookup/cities", request("id", "0")).getResponse() == null;
+        assert "4".equals(cache.lookup("lookup/cities", request("id", "4")).getResponse());
+
+        cache = cache(3, 50);
+        cache.lookup("lookup/cities", request()).complete("cities");
+        assert "cities".equals(cache.lookup("lookup/cities", request()).getResponse());
+        Thread.sleep(100);
+        assert cache.lookup("lookup/cities", request()).getResponse() == null;
+    }
+
+    @Test(groups={"cache"})
+    public void testPlans() {
+        Map<String, Service> registry = new HashMap<String, Service>();
+        for (String id: new String[] { "lookup/cities", "lookup/updateCity", "lookup/plain" }) {
+            registry.put(id, new Plain());
+        }
+        ResponseCache cache = cache(10, 0);
+        RouteTable routes = new RouteTable(registry, Collections.<String, ServiceMetrics>emptyMap(), Collections.singletonList(cache));
+        assert routes.get("lookup/cities").cache == cache && routes.get("lookup/cities").invalidations.isEmpty();
+        assert routes.get("lookup/updateCity").cache == null && routes.get("lookup/updateCity").invalidations.equals(Collections.singletonList(cache));
+        assert routes.get("lookup/plain").cache == null && routes.get("lookup/plain").invalidations.isEmpty();
+    }
+
+    @Test(groups={"cache"})
+    public void testCacheable() throws Exception {
+        DataBinder binder = request("country", "US");
+        binder.putResultSet("plain", new CachedResultSet(new String[] { "a" }, new ArrayList<Object[]>()));
+        SpillingRows rows = new SpillingRows(1, 1024);
+        binder.putResultSet("spilling", new CachedResultSet(new String[] { "a" }, rows));
+        rows.add(new Object[] { "in memory" });
+        assert ResponseCache.isCacheable(binder);
+
+        // rows spilled to disk
+        while (!rows.isSpilled()) rows.add(new Object[] { "spilled" });
+        assert !ResponseCache.isCacheable(binder);
+        rows.close();
+
+        // rows streamed from a cursor
+        binder.putResultSet("spilling", new CachedResultSet(new String[] { "a" }, new ArrayList<Object[]>()));
+        assert ResponseCache.isCacheable(binder);
+        binder.putResultSet("streaming", new StreamingResultSet(null, null, jdbc(ResultSet.class)));
+        assert !ResponseCache.isCacheable(binder);
+    }
+
+    // a JDBC object of one column and no rows
+    private static <T> T jdbc(Class<T> type) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                String name = method.getName();
+                if (name.equals("getMetaData")) {
+                    return jdbc(ResultSetMetaData.class);
+                } else if (name.equals("getColumnCount")) {
+                    return 1;
+                } else if (name.equals("getColumnLabel")) {
+                    return "A";
+                } else if (method.getReturnType() == boolean.class) {
+                    return false;
+                } else {
+                    return null;
+                }
+            }
+        }));
+    }
+}
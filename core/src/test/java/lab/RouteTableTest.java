@@ -0,0 +1,83 @@
+package lab;
+
+import java.util.*;
+import java.util.regex.*;
+import org.xillium.data.*;
+import org.xillium.data.validation.Dictionary;
+import org.xillium.core.*;
+
+import org.testng.annotations.*;
+
+
+/**
+ * Testing RouteTable routing against the regular expression it replaces.
+ */
+public class RouteTableTest {
+    private static final Pattern URI_REGEX = Pattern.compile("/[^/?]+/([^/?]+/[^/?]+)");
+    private static final String[] SEGMENTS = { "", "a", "ab", "b", "x!", "desc", "/", "?", "c.html" };
+
+    public static class Plain implements Service {
+        public DataBinder run(DataBinder parameters, Dictionary dict, Persistence persist) { return parameters; }
+    }
+
+    public static class Secured extends ExtendableAndSecured implements Service.Asynchronous {
+        public DataBinder run(DataBinder parameters, Dictionary dict, Persistence persist) { return parameters; }
+    }
+
+    @Test(groups={"routes"})
+    public void testPlans() throws Exception {
+        Map<String, Service> registry = new HashMap<String, Service>();
+        registry.put("module/plain", new Plain());
+        registry.put("module/page.html", new Plain());
+        registry.put("x!/secured", new Secured());
+        RouteTable routes = new RouteTable(registry);
+        assert routes.size() == 3;
+
+        DispatchPlan plan = routes.route("/app/module/plain");
+        assert plan.id.equals("module/plain") && plan.service == registry.get("module/plain");
+        assert plan.filter == null && plan.authorizer == null && !plan.asynchronous && !plan.intrinsic;
+        assert plan.contentType.startsWith("application/json");
+        assert routes.route("/app/module/page.html").contentType.startsWith("text/html");
+
+        plan = routes.get("x!/secured");
+        assert plan.filter == plan.service && plan.authorizer == plan.service && plan.asynchronous && plan.intrinsic;
+
+        assert routes.route("/app/module/plai") == null;
+        assert routes.route("/app/module/plain/") == null;
+        assert routes.route("/app/module") == null;
+        assert routes.get("module/plainer") == null;
+    }
+
+    @Test(groups={"routes"})
+    public void testRoutingSemantics() throws Exception {
+        Random random = new Random(3);
+        Map<String, Service> registry = new HashMap<String, Service>();
+        for (int i = 0; i < 50; ++i) {
+            registry.put(segment(random) + '/' + segment(random), new Plain());
+        }
+        RouteTable routes = new RouteTable(registry);
+        List<String> names = new ArrayList<String>(registry.keySet());
+
+        int found = 0;
+        for (int i = 0; i < 20000; ++i) {
+            StringBuilder uri = new StringBuilder();
+            if (random.nextBoolean()) {
+                uri.append('/').append(segment(random)).append('/').append(names.get(random.nextInt(names.size())));
+            } else {
+                for (int s = random.nextInt(5); s >= 0; --s) uri.append('/').append(segment(random));
+            }
+            Matcher matcher = URI_REGEX.matcher(uri);
+            Service expected = matcher.matches() ? registry.get(matcher.group(1)) : null;
+            DispatchPlan plan = routes.route(uri);
+            assert expected == (plan != null ? plan.service : null) : uri;
+            if (plan != null) ++found;
+        }
+        assert found > 100 : found;
+    }
+
+    private static String segment(Random random) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = random.nextInt(3); i >= 0; --i) sb.append(SEGMENTS[random.nextInt(SEGMENTS.length)]);
+        return sb.toString();
+    }
+}
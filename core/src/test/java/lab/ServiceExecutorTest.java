@@ -0,0 +1,164 @@
+package lab;
+
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import org.xillium.core.management.WithExecutor;
+import org.xillium.core.util.ServiceExecutor;
+
+import org.testng.annotations.*;
+
+
+/**
+ * Testing ServiceExecutor queue limits, rejections, and timeouts.
+ */
+public class ServiceExecutorTest {
+    private static class Probe extends ServiceExecutor.Job {
+        final CountDownLatch started = new CountDownLatch(1), release, finished = new CountDownLatch(1), abandoned = new CountDownLatch(1);
+        final AtomicBoolean ran = new AtomicBoolean(), committed = new AtomicBoolean(), done = new AtomicBoolean();
+
+        Probe(String service, CountDownLatch release) {
+            super(service);
+            this.release = release;
+        }
+
+        protected void execute() throws Exception {
+            ran.set(true);
+            started.countDown();
+            release.await();
+            committed.set(commit());
+        }
+
+        protected void finish() {
+            done.set(true);
+            finished.countDown();
+        }
+
+        protected void abandon() {
+            abandoned.countDown();
+        }
+    }
+
+    @Test(groups={"executor"})
+    public void testQueueLimits() throws Exception {
+        ServiceExecutor executor = new ServiceExecutor(1, 4);
+        executor.setQueueLimit(2);
+        executor.setQueueLimits(Collections.singletonMap("x/fast", 3));
+        CountDownLatch release = new CountDownLatch(1);
+
+        // the only thread is taken
+        Probe blocker = new Probe("x/slow", release);
+        executor.submit(blocker);
+        blocker.started.await();
+
+        List<Probe> probes = new ArrayList<Probe>();
+        for (String service: new String[] { "x/slow", "x/slow", "x/slow", "x/fast", "x/fast", "x/fast" }) {
+            Probe probe = new Probe(service, release);
+            try {
+                executor.submit(probe);
+                probes.add(probe);
+            } catch (RejectedExecutionException x) {
+                assert x.getMessage().startsWith("QueueLimitReached") || probes.size() == 4 : x.getMessage();
+            }
+        }
+        // x/slow is limited to 2 queued jobs, and the shared queue of 4 leaves room for 2 of x/fast
+        assert probes.size() == 4 : probes.size();
+        WithExecutor.QueueState state = executor.getQueueState();
+        assert state.getQueued() == 4 && state.getActive() == 1 && state.getRejected() == 2 : state.getQueued() + "/" + state.getRejected();
+
+        release.countDown();
+        for (Probe probe: probes) {
+            assert probe.finished.await(5, TimeUnit.SECONDS);
+            assert probe.committed.get() && probe.done.get();
+        }
+        state = executor.getQueueState();
+        assert state.getQueued() == 0 && state.getActive() == 0 && state.getCompleted() == 5 && state.getSubmitted() == 5;
+        assert executor.getServiceStates().size() == 2;
+        executor.shutdown();
+    }
+
+    @Test(groups={"executor"})
+    public void testExpiration() throws Exception {
+        ServiceExecutor executor = new ServiceExecutor(1, 4);
+        CountDownLatch release = new CountDownLatch(1);
+
+        Probe running = new Probe("x/slow", release), queued = new Probe("x/slow", release);
+        executor.submit(running);
+        running.started.await();
+        executor.submit(queued);
+
+        // a queued job expires without running and is abandoned, a running one finishes without committing
+        assert queued.expire();
+        assert queued.abandoned.getCount() == 0;
+        assert running.expire();
+        assert running.abandoned.getCount() == 1;
+        release.countDown();
+        assert running.finished.await(5, TimeUnit.SECONDS);
+        Thread.sleep(100);
+        assert !queued.ran.get() && !queued.done.get();
+        assert running.ran.get() && !running.committed.get() && running.done.get();
+
+        // a committed job does not expire
+        Probe committed = new Probe("x/slow", new CountDownLatch(0));
+        executor.submit(committed);
+        assert committed.finished.await(5, TimeUnit.SECONDS);
+        assert !committed.expire();
+
+        WithExecutor.QueueState state = executor.getQueueState();
+        assert state.getTimeouts() == 2 && state.getQueued() == 0 && state.getCompleted() == 2 : state.getTimeouts();
+        executor.shutdown();
+    }
+
+    @Test(groups={"executor"})
+    public void testTimeouts() throws Exception {
+        ServiceExecutor executor = new ServiceExecutor(1, 4);
+        executor.setTimeouts(Collections.singletonMap("x/slow", 100L));
+        CountDownLatch release = new CountDownLatch(1);
+
+        // the executor expires jobs on its own, without waiting for a running job
+        Probe running = new Probe("x/slow", release), queued = new Probe("x/slow", release), fast = new Probe("x/fast", release);
+        executor.submit(running);
+        running.started.await();
+        executor.submit(queued);
+        assert queued.abandoned.await(5, TimeUnit.SECONDS);
+        Thread.sleep(100);
+        assert !running.done.get() && !running.expire();
+        release.countDown();
+        assert running.finished.await(5, TimeUnit.SECONDS);
+        assert !running.committed.get() && !queued.ran.get();
+
+        // a job done in time is not expired later
+        executor.submit(fast);
+        assert fast.finished.await(5, TimeUnit.SECONDS);
+        Probe timely = new Probe("x/slow", new CountDownLatch(0));
+        executor.submit(timely);
+        assert timely.finished.await(5, TimeUnit.SECONDS);
+        Thread.sleep(200);
+        assert fast.committed.get() && timely.committed.get() && timely.abandoned.getCount() == 1;
+        assert executor.getQueueState().getTimeouts() == 2 : executor.getQueueState().getTimeouts();
+        executor.shutdown();
+    }
+
+    @Test(groups={"executor"})
+    public void testManagement() throws Exception {
+        ServiceExecutor executor = new ServiceExecutor(2, 8);
+        ObjectName name = new ObjectName("org.xillium.core.management", "type", "ServiceExecutorTest");
+        executor.assignObjectName(name);
+        ManagementFactory.getPlatformMBeanServer().registerMBean(executor, name);
+        try {
+            Probe probe = new Probe("x/echo", new CountDownLatch(0));
+            executor.submit(probe);
+            assert probe.finished.await(5, TimeUnit.SECONDS);
+
+            CompositeData state = (CompositeData)ManagementFactory.getPlatformMBeanServer().getAttribute(name, "QueueState");
+            assert "*".equals(state.get("service")) && ((Long)state.get("completed")) == 1;
+            assert ((Integer)ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Threads")) == 2;
+        } finally {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+            executor.shutdown();
+        }
+    }
+}
@@ -0,0 +1,197 @@
+package lab;
+
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import java.util.concurrent.*;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import org.xillium.data.DataBinder;
+import org.xillium.data.validation.Dictionary;
+import org.xillium.core.*;
+import org.xillium.core.management.WithLimiter;
+import org.xillium.core.util.ServiceMetrics;
+
+import org.testng.annotations.*;
+
+
+/**
+ * Testing ServiceLimiter limits, queueing, shedding, and adaptation.
+ */
+public class ServiceLimiterTest {
+    private static class Plain implements Service {
+        public DataBinder run(DataBinder binder, Dictionary dict, Persistence persist) { return binder; }
+    }
+
+    // a limiter whose clock only moves when told to
+    private static class Clocked extends ServiceLimiter {
+        long now;
+
+        @Override
+        protected long nanoTime() {
+            return now;
+        }
+
+        void advance(long millis) {
+            now += TimeUnit.MILLISECONDS.toNanos(millis);
+        }
+    }
+
+    private static ServiceLimiter limiter(int limit) {
+        return limiter(new ServiceLimiter(), limit);
+    }
+
+    private static <T extends ServiceLimiter> T limiter(T limiter, int limit) {
+        limiter.setLimits(Collections.singletonMap("search", limit));
+        limiter.name("module");
+        return limiter;
+    }
+
+    private static WithLimiter.LimitState state(ServiceLimiter limiter) {
+        return limiter.getLimitStates().get(0);
+    }
+
+    @Test(groups={"limiter"})
+    public void testQueueing() throws Exception {
+        final ServiceLimiter limiter = limiter(2);
+        limiter.setQueueLimit(1);
+        limiter.setQueueTimeout(10000);
+        assert limiter.limits("module/search") && !limiter.limits("module/other");
+
+        ServiceLimiter.Permit a = limiter.acquire("module/search"), b = limiter.acquire("module/search");
+        assert a != null && b != null;
+        assert state(limiter).getInFlight() == 2;
+
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            // a request at the limit waits in the queue
+            Future<ServiceLimiter.Permit> queued = executor.submit(new Callable<ServiceLimiter.Permit>() {
+                public ServiceLimiter.Permit call() throws Exception {
+                    return limiter.acquire("module/search");
+                }
+            });
+            for (long deadline = System.currentTimeMillis() + 10000; state(limiter).getQueued() < 1 && System.currentTimeMillis() < deadline;) {
+                Thread.sleep(1);
+            }
+            assert state(limiter).getQueued() == 1;
+
+            // with the queue full, a request is shed at once
+            long start = System.currentTimeMillis();
+            assert limiter.acquire("module/search") == null;
+            assert System.currentTimeMillis() - start < 1000;
+            assert state(limiter).getShed() == 1;
+
+            // a release admits the queued request
+            a.release();
+            ServiceLimiter.Permit c = queued.get(10, TimeUnit.SECONDS);
+            assert c != null;
+            b.release();
+            c.release();
+        } finally {
+            executor.shutdownNow();
+        }
+
+        WithLimiter.LimitState state = state(limiter);
+        assert "module/search".equals(state.getService()) && state.getLimit() == 2;
+        assert state.getInFlight() == 0 && state.getQueued() == 0;
+        assert state.getAdmitted() == 3 && state.getShed() == 1;
+    }
+
+    @Test(groups={"limiter"})
+    public void testTimeout() throws Exception {
+        ServiceLimiter limiter = limiter(1);
+        limiter.setQueueTimeout(20);
+        ServiceLimiter.Permit a = limiter.acquire("module/search");
+
+        long start = System.nanoTime();
+        assert limiter.acquire("module/search") == null;
+        assert System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(20);
+        assert state(limiter).getShed() == 1 && state(limiter).getQueued() == 0;
+
+        a.release();
+        assert limiter.acquire("module/search") != null;
+
+        // a raised limit admits more
+        limiter.setLimit("module/search", 2);
+        assert limiter.acquire("module/search") != null;
+        assert state(limiter).getLimit() == 2 && state(limiter).getInFlight() == 2;
+    }
+
+    @Test(groups={"limiter"})
+    public void testAdaptation() throws Exception {
+        Clocked limiter = limiter(new Clocked(), 10);
+        limiter.setTargetLatency(5);
+        limiter.setMaxLimit(12);
+        limiter.setQueueTimeout(0);
+        double expected = 10;
+
+        // fast executions at the limit raise it additively, once per round as only the first release finds it reached
+        for (int i = 0; i < 40; ++i) {
+            List<ServiceLimiter.Permit> permits = new ArrayList<ServiceLimiter.Permit>();
+            for (ServiceLimiter.Permit p; (p = limiter.acquire("module/search")) != null;) {
+                permits.add(p);
+            }
+            assert permits.size() == (int)expected;
+            limiter.advance(1);
+            for (ServiceLimiter.Permit p: permits) {
+                p.release();
+            }
+            expected = Math.min(12, expected + 1.0/expected);
+            assert state(limiter).getLimit() == (int)expected : i + ": " + state(limiter).getLimit();
+        }
+        assert state(limiter).getLimit() == 12;
+
+        // executions at the target or below the limit leave it alone
+        ServiceLimiter.Permit p = limiter.acquire("module/search");
+        limiter.advance(5);
+        p.release();
+        assert state(limiter).getLimit() == 12;
+
+        // slow executions cut it multiplicatively, at most once per latency
+        p = limiter.acquire("module/search");
+        for (int i = 0; i < 3; ++i) {
+            List<ServiceLimiter.Permit> permits = new ArrayList<ServiceLimiter.Permit>();
+            for (int j = 0; j < 4; ++j) {
+                permits.add(limiter.acquire("module/search"));
+            }
+            limiter.advance(10);
+            for (ServiceLimiter.Permit permit: permits) {
+                permit.release();
+            }
+            expected = Math.max(1, expected * ServiceLimiter.BACKOFF);
+            assert state(limiter).getLimit() == (int)expected : i + ": " + state(limiter).getLimit();
+            limiter.advance(1);
+        }
+
+        // an execution that started before the last cut doesn't cut it again
+        p.release();
+        assert state(limiter).getLimit() == (int)expected && state(limiter).getInFlight() == 0;
+    }
+
+    @Test(groups={"limiter"})
+    public void testAttachment() throws Exception {
+        ServiceLimiter limiter = limiter(4);
+        Map<String, Service> registry = new HashMap<String, Service>();
+        registry.put("module/search", new Plain());
+        registry.put("module/other", new Plain());
+
+        RouteTable routes = new RouteTable(registry, Collections.<String, ServiceMetrics>emptyMap(), Collections.singletonList(limiter));
+        assert routes.get("module/search").limiter == limiter;
+        assert routes.get("module/other").limiter == null;
+
+        MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("org.xillium.core.management:type=ServiceLimiterTest");
+        limiter.assignObjectName(name);
+        mbs.registerMBean(limiter, name);
+        try {
+            limiter.acquire("module/search");
+            mbs.invoke(name, "setLimit", new Object[] { "module/search", 6 }, new String[] { String.class.getName(), int.class.getName() });
+            CompositeData[] states = (CompositeData[])mbs.getAttribute(name, "LimitStates");
+            assert states.length == 1 && "module/search".equals(states[0].get("service"));
+            assert ((Integer)states[0].get("limit")) == 6 && ((Integer)states[0].get("inFlight")) == 1;
+            assert ((Integer)mbs.getAttribute(name, "QueueLimit")) == ServiceLimiter.DEFAULT_QUEUE_LIMIT;
+        } finally {
+            mbs.unregisterMBean(name);
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package lab;
+
+import java.lang.management.ManagementFactory;
+import java.util.*;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.openmbean.CompositeData;
+import org.xillium.base.util.LatencyHistogram;
+import org.xillium.data.DataBinder;
+import org.xillium.data.validation.Dictionary;
+import org.xillium.core.*;
+import org.xillium.core.intrinsic.MetricsService;
+import org.xillium.core.util.ServiceMetrics;
+
+import org.testng.annotations.*;
+
+
+/**
+ * Testing ServiceMetrics recording, JMX exposure, and the metrics service.
+ */
+public class ServiceMetricsTest {
+    private static class Plain implements Service {
+        public DataBinder run(DataBinder binder, Dictionary dict, Persistence persist) { return binder; }
+    }
+
+    @Test(groups={"metrics"})
+    public void testHistogram() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long v = 1; v <= 100000; ++v) {
+            histogram.record(v);
+        }
+        assert histogram.getCount() == 100000;
+        assert histogram.getMin() == 1 && histogram.getMax() == 100000;
+        for (double p: new double[] { 50.0, 90.0, 99.0, 99.9 }) {
+            long expected = (long)(p*1000), actual = histogram.getValueAtPercentile(p);
+            assert actual >= expected && actual < expected*1.01 : p + ": " + actual;
+        }
+        assert histogram.getValueAtPercentile(100.0) == 100000;
+    }
+
+    @Test(groups={"metrics"})
+    public void testRecording() throws Exception {
+        ServiceMetrics metrics = new ServiceMetrics("module/service");
+        long start = metrics.begin();
+        assert metrics.getInFlight() == 1 && metrics.getRequests() == 1;
+        Thread.sleep(2);
+        long mark = metrics.record(ServiceMetrics.Phase.PARSE, start);
+        mark = metrics.record(ServiceMetrics.Phase.RUN, mark);
+        metrics.end(start, true);
+        metrics.end(metrics.begin(), false);
+
+        assert metrics.getInFlight() == 0;
+        assert metrics.getRequests() == 2 && metrics.getSuccesses() == 1 && metrics.getFailures() == 1;
+        assert metrics.getLatencyHistogram().getCount() == 2;
+        assert metrics.getLatencyHistogram().getMax() >= 2000;
+        assert metrics.getLatencyHistogram(ServiceMetrics.Phase.PARSE).getMin() >= 2000;
+        assert metrics.getLatencyHistogram(ServiceMetrics.Phase.RUN).getCount() == 1;
+        assert metrics.getLatencyHistogram(ServiceMetrics.Phase.AUTHORIZE).getCount() == 0;
+
+        MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+        ObjectName name = new ObjectName("org.xillium.core.management:type=ServiceMetricsTest,service=" + ObjectName.quote("module/service"));
+        metrics.assignObjectName(name);
+        mbs.registerMBean(metrics, name);
+        try {
+            assert ((Long)mbs.getAttribute(name, "Requests")) == 2;
+            assert "module/service".equals(mbs.getAttribute(name, "Service"));
+            CompositeData latency = (CompositeData)mbs.getAttribute(name, "Latency");
+            assert ((Long)latency.get("count")) == 2 && ((Long)latency.get("p999")) >= 2000;
+            CompositeData[] phases = (CompositeData[])mbs.getAttribute(name, "Phases");
+            assert phases.length == ServiceMetrics.Phase.values().length;
+            assert "parse".equals(phases[0].get("phase")) && ((Long)phases[0].get("count")) == 1;
+        } finally {
+            mbs.unregisterMBean(name);
+        }
+    }
+
+    @Test(groups={"metrics"})
+    public void testCarryOver() {
+        Map<String, Service> registry = new HashMap<String, Service>();
+        registry.put("module/a", new Plain());
+        registry.put("module/b", new Plain());
+        Map<String, ServiceMetrics> metrics = Collections.singletonMap("module/a", new ServiceMetrics("module/a"));
+
+        RouteTable routes = new RouteTable(registry, metrics);
+        assert routes.get("module/a").metrics == metrics.get("module/a");
+        assert routes.get("module/b").metrics.getService().equals("module/b");
+    }
+
+    @Test(groups={"metrics"})
+    public void testMetricsService() throws Exception {
+        Map<String, ServiceMetrics> metrics = new HashMap<String, ServiceMetrics>();
+        for (String id: new String[] { "module/b", "module/a" }) {
+            ServiceMetrics m = new ServiceMetrics(id);
+            m.end(m.begin(), true);
+            metrics.put(id, m);
+        }
+
+        String json = new MetricsService(metrics).run(new DataBinder(), null, null).get("metrics");
+        assert json.startsWith("json:{\"module/a\":{\"requests\":1,\"successes\":1,\"failures\":0,\"coalesced\":0,\"inflight\":0,\"total\":{\"count\":1,") : json;
+        assert json.indexOf("\"module/b\":{") > json.indexOf("\"module/a\":{") : json;
+        assert json.contains("\"serialize\":{\"count\":0,") && json.endsWith("}}}") : json;
+
+        DataBinder binder = new DataBinder();
+        binder.put("service", "module/b");
+        json = new MetricsService(metrics).run(binder, null, null).get("metrics");
+        assert json.startsWith("json:{\"module/b\":") && !json.contains("module/a") : json;
+
+        binder.put("service", "module/c");
+        assert new MetricsService(metrics).run(binder, null, null).get("metrics").equals("json:{}");
+    }
+}
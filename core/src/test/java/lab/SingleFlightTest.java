@@ -0,0 +1,296 @@
+package lab;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import org.xillium.data.*;
+import org.xillium.data.validation.Dictionary;
+import org.xillium.core.*;
+import org.xillium.core.util.SingleFlight;
+
+import org.testng.annotations.*;
+
+
+/**
+ * Testing request coalescing of Service.Coalesced services under concurrency.
+ */
+public class SingleFlightTest {
+    private static class Lookup implements Service.Coalesced {
+        final AtomicInteger executions = new AtomicInteger();
+        final Semaphore entered = new Semaphore(0);
+        volatile CountDownLatch release = new CountDownLatch(0);
+        volatile boolean failing;
+
+        public DataBinder run(DataBinder binder, Dictionary dict, Persistence persist) throws ServiceException {
+            executions.incrementAndGet();
+            entered.release();
+            try { release.await(); } catch (InterruptedException x) { throw new ServiceException(x); }
+            if (failing) throw new ServiceException("failing " + binder.get("key"));
+
+            binder.put("result", "value of " + binder.get("key"));
+            binder.putResultSet("rows", new CachedResultSet(new String[] { "key" }, Collections.singletonList(new Object[] { binder.get("key") })));
+            Map<String, String> headers = new HashMap<String, String>();
+            headers.put("X-Key", binder.get("key"));
+            binder.putNamedObject(Service.SERVICE_HTTP_HEADER, headers);
+            binder.putNamedObject("private", Thread.currentThread());
+            return binder;
+        }
+    }
+
+    private static class Report implements Service.Coalesced {
+        final AtomicInteger executions = new AtomicInteger();
+        final Semaphore entered = new Semaphore(0);
+        final CountDownLatch release = new CountDownLatch(1);
+        final long budget;
+
+        Report(long budget) {
+            this.budget = budget;
+        }
+
+        public DataBinder run(DataBinder binder, Dictionary dict, Persistence persist) throws ServiceException {
+            executions.incrementAndGet();
+            entered.release();
+            try { release.await(); } catch (InterruptedException x) { throw new ServiceException(x); }
+
+            SpillingRows rows = new SpillingRows(1, budget);
+            for (int i = 0; i < 100; ++i) rows.add(new Object[] { binder.get("key") + i });
+            binder.putResultSet("rows", new CachedResultSet(new String[] { "key" }, rows));
+            binder.put(Service.SERVICE_HTTP_STATUS, "202");
+            binder.put(Service.SERVICE_PAGE_TARGET, "/report.html");
+            return binder;
+        }
+    }
+
+    private static DataBinder request(String key, int client) {
+        DataBinder binder = new DataBinder();
+        binder.put("key", key);
+        binder.put(Service.REQUEST_CLIENT_ADDR, "10.0.0." + client);
+        return binder;
+    }
+
+    private static Future<DataBinder> submit(ExecutorService executor, final DispatchPlan plan, final DataBinder binder) {
+        return executor.submit(new Callable<DataBinder>() {
+            public DataBinder call() throws Exception {
+                return plan.run(binder, null, null);
+            }
+        });
+    }
+
+    @Test(groups={"coalescing"})
+    public void testCoalescing() throws Exception {
+        Lookup service = new Lookup();
+        service.release = new CountDownLatch(1);
+        DispatchPlan plan = new DispatchPlan("module/lookup", service);
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            List<Future<DataBinder>> futures = new ArrayList<Future<DataBinder>>();
+            futures.add(submit(executor, plan, request("a", 0)));
+            assert service.entered.tryAcquire(10, TimeUnit.SECONDS);
+            for (int i = 1; i <= 16; ++i) {
+                futures.add(submit(executor, plan, request("a", i)));
+            }
+            // an identical request that arrives while the service is running shares the execution
+            for (long deadline = System.currentTimeMillis() + 10000; plan.flights.getCoalesced() < 16 && System.currentTimeMillis() < deadline;) {
+                Thread.sleep(1);
+            }
+            assert plan.flights.getCoalesced() == 16;
+            service.release.countDown();
+
+            Set<DataBinder> binders = Collections.newSetFromMap(new IdentityHashMap<DataBinder, Boolean>());
+            Set<Object> headers = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+            Set<Object> rows = Collections.newSetFromMap(new IdentityHashMap<Object, Boolean>());
+            for (int i = 0; i < futures.size(); ++i) {
+                DataBinder binder = futures.get(i).get(10, TimeUnit.SECONDS);
+                assert binders.add(binder);
+                assert "value of a".equals(binder.get("result"));
+                assert ("10.0.0." + i).equals(binder.get(Service.REQUEST_CLIENT_ADDR));
+                // each request has rows of its own
+                CachedResultSet rs = binder.getResultSet("rows");
+                assert rs.rows.size() == 1 && "a".equals(rs.rows.get(0)[0]) && rows.add(rs) && rows.add(rs.rows) && rows.add(rs.rows.get(0));
+                Map<String, String> h = binder.getNamedObject(Service.SERVICE_HTTP_HEADER);
+                assert "a".equals(h.get("X-Key")) && headers.add(h);
+                assert (binder.getNamedObject("private") != null) == (i == 0);
+            }
+            assert service.executions.get() == 1;
+            assert plan.flights.getExecutions() == 1 && plan.flights.getInFlight() == 0;
+            assert plan.metrics.getCoalesced() == 16;
+
+            // once done, the next request runs the service again
+            assert "value of a".equals(plan.run(request("a", 99), null, null).get("result"));
+            assert service.executions.get() == 2;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(groups={"coalescing"})
+    public void testTimeout() throws Exception {
+        final SingleFlight<String, String> flights = new SingleFlight<String, String>(50);
+        final CountDownLatch entered = new CountDownLatch(1), release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            Future<String> leader = executor.submit(new Callable<String>() {
+                public String call() throws Exception {
+                    return flights.execute("a", new Callable<String>() {
+                        public String call() throws Exception {
+                            entered.countDown();
+                            release.await();
+                            return "leader";
+                        }
+                    });
+                }
+            });
+            assert entered.await(10, TimeUnit.SECONDS);
+
+            // a waiter gives up on a hung leader and runs the task on its own
+            assert "waiter".equals(flights.execute("a", new Callable<String>() {
+                public String call() {
+                    return "waiter";
+                }
+            }));
+            assert flights.getCoalesced() == 1 && flights.getTimedOut() == 1 && flights.getInFlight() == 1;
+
+            release.countDown();
+            assert "leader".equals(leader.get(10, TimeUnit.SECONDS));
+            assert flights.getInFlight() == 0;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(groups={"coalescing"})
+    public void testDistinctRequests() throws Exception {
+        Lookup service = new Lookup();
+        service.release = new CountDownLatch(1);
+        DispatchPlan plan = new DispatchPlan("module/lookup", service);
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            Future<DataBinder> a = submit(executor, plan, request("a", 1));
+            Future<DataBinder> b = submit(executor, plan, request("b", 1));
+            // both run the service at the same time
+            assert service.entered.tryAcquire(2, 10, TimeUnit.SECONDS);
+            service.release.countDown();
+            assert "value of a".equals(a.get(10, TimeUnit.SECONDS).get("result"));
+            assert "value of b".equals(b.get(10, TimeUnit.SECONDS).get("result"));
+            assert plan.flights.getCoalesced() == 0 && plan.metrics.getCoalesced() == 0;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(groups={"coalescing"})
+    public void testFailures() throws Exception {
+        Lookup service = new Lookup();
+        service.release = new CountDownLatch(1);
+        service.failing = true;
+        DispatchPlan plan = new DispatchPlan("module/lookup", service);
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            Future<DataBinder> leader = submit(executor, plan, request("a", 0));
+            assert service.entered.tryAcquire(10, TimeUnit.SECONDS);
+            Future<DataBinder> follower = submit(executor, plan, request("a", 1));
+            for (long deadline = System.currentTimeMillis() + 10000; plan.flights.getCoalesced() < 1 && System.currentTimeMillis() < deadline;) {
+                Thread.sleep(1);
+            }
+            service.release.countDown();
+
+            List<Future<DataBinder>> futures = new ArrayList<Future<DataBinder>>();
+            futures.add(leader);
+            futures.add(follower);
+            for (Future<DataBinder> future: futures) {
+                try {
+                    future.get(10, TimeUnit.SECONDS);
+                    assert false;
+                } catch (ExecutionException x) {
+                    assert x.getCause() instanceof ServiceException && "failing a".equals(x.getCause().getMessage());
+                }
+            }
+            assert service.executions.get() == 1 && plan.flights.getInFlight() == 0;
+
+            service.failing = false;
+            assert "value of a".equals(plan.run(request("a", 2), null, null).get("result"));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test(groups={"coalescing"})
+    public void testRaces() throws Exception {
+        final Lookup service = new Lookup();
+        final DispatchPlan plan = new DispatchPlan("module/lookup", service);
+        final int threads = 8, iterations = 2000;
+        final AtomicInteger mismatches = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (int t = 0; t < threads; ++t) {
+                final int client = t;
+                futures.add(executor.submit(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        Random random = new Random(client);
+                        start.await();
+                        for (int i = 0; i < iterations; ++i) {
+                            String key = String.valueOf((char)('a' + random.nextInt(3)));
+                            DataBinder binder = plan.run(request(key, client), null, null);
+                            if (!("value of " + key).equals(binder.get("result")) || !("10.0.0." + client).equals(binder.get(Service.REQUEST_CLIENT_ADDR))) {
+                                mismatches.incrementAndGet();
+                            }
+                        }
+                        return null;
+                    }
+                }));
+            }
+            start.countDown();
+            for (Future<?> future: futures) {
+                future.get(60, TimeUnit.SECONDS);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assert mismatches.get() == 0;
+        assert plan.flights.getExecutions() + plan.flights.getCoalesced() == threads * iterations;
+        assert service.executions.get() == plan.flights.getExecutions();
+        assert plan.metrics.getCoalesced() == plan.flights.getCoalesced();
+        assert plan.flights.getInFlight() == 0;
+    }
+
+    @Test(groups={"coalescing"})
+    public void testClosableRows() throws Exception {
+        for (boolean spilling: new boolean[] { false, true }) {
+            Report service = new Report(spilling ? 0 : SpillingRows.DEFAULT_BUDGET);
+            DispatchPlan plan = new DispatchPlan("module/report", service);
+            ExecutorService executor = Executors.newCachedThreadPool();
+            try {
+                Future<DataBinder> leader = submit(executor, plan, request("a", 0));
+                assert service.entered.tryAcquire(10, TimeUnit.SECONDS);
+                Future<DataBinder> follower = submit(executor, plan, request("a", 1));
+                for (long deadline = System.currentTimeMillis() + 10000; plan.flights.getCoalesced() < 1 && System.currentTimeMillis() < deadline;) {
+                    Thread.sleep(1);
+                }
+                service.release.countDown();
+
+                // the leader's rows are closed once its response is sent
+                CachedResultSet own = leader.get(10, TimeUnit.SECONDS).getResultSet("rows");
+                assert own.isSpilled() == spilling;
+                ((SpillingRows)own.rows).close();
+
+                DataBinder binder = follower.get(10, TimeUnit.SECONDS);
+                CachedResultSet rows = binder.getResultSet("rows");
+                assert rows != own && rows.rows.size() == 100 && "a99".equals(rows.rows.get(99)[0]);
+                assert "202".equals(binder.get(Service.SERVICE_HTTP_STATUS)) && "/report.html".equals(binder.get(Service.SERVICE_PAGE_TARGET));
+                if (spilling) {
+                    // spilled rows are not shared, and the waiting request runs the service on its own
+                    assert service.executions.get() == 2 && plan.metrics.getCoalesced() == 0;
+                    ((SpillingRows)rows.rows).close();
+                } else {
+                    // rows held in memory are copied
+                    assert !(rows.rows instanceof SpillingRows);
+                    assert service.executions.get() == 1 && plan.metrics.getCoalesced() == 1;
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+    }
+}
@@ -1,20 +1,30 @@
 package org.xillium.data;
 
+import java.io.IOException;
 import java.sql.*;
 import java.util.*;
-import java.lang.reflect.Field;
 import org.xillium.base.beans.Beans;
 import org.xillium.base.beans.Strings;
 import org.xillium.base.beans.JSONBuilder;
+import org.xillium.base.text.JSONStreamer;
 import org.xillium.data.persistence.*;
 import org.xillium.data.presentation.*;
 
 
 /**
  * A cached result set that is detached from any database connectivity.
+ * <p/>
+ * Rows are normally kept as a list of object arrays. Alternatively, a cached result set can be built in the columnar layout,
+ * where rows are kept in a ColumnarRows, which stores columns in primitive arrays and materializes row arrays on access. A cached result
+ * set too large for the heap can be built with a byte budget, beyond which rows are spilled into a temporary file by a SpillingRows,
+ * which must be closed when the result set is no longer needed.
+ * <p/>
+ * Values are copied between rows and objects, in either direction, by ObjectAccessors generated for the classes of the objects.
  */
 public class CachedResultSet {
     public static final Builder BUILDER = new Builder();
+    public static final Builder COLUMNAR_BUILDER = new Builder(true);
+    public static final Builder SPILLING_BUILDER = new Builder(SpillingRows.DEFAULT_BUDGET);
 
     /**
      * The name of columns in the result set.
@@ -30,8 +40,28 @@ public class CachedResultSet {
      * A ResultSetWorker implementation that builds a CachedResultSet.
      */
     public static class Builder implements ResultSetWorker<CachedResultSet> {
+        private final boolean _columnar;
+        private final long _budget;
+
+        public Builder() {
+            this(false);
+        }
+
+        public Builder(boolean columnar) {
+            _columnar = columnar;
+            _budget = -1;
+        }
+
+        /**
+         * Constructs a Builder of cached result sets that spill rows beyond the budget in bytes into temporary files.
+         */
+        public Builder(long budget) {
+            _columnar = false;
+            _budget = budget;
+        }
+
         public CachedResultSet process(ResultSet rs) throws SQLException {
-            return new CachedResultSet(rs);
+            return _budget < 0 ? new CachedResultSet(rs, _columnar) : new CachedResultSet(rs, _budget);
         }
     }
 
@@ -46,6 +76,14 @@ public class CachedResultSet {
      * Closes the JDBC result set after retrieval.
      */
     public CachedResultSet(ResultSet rset) throws SQLException {
+        this(rset, false);
+    }
+
+    /**
+     * Retrieves the rows from a freshly obtained JDBC result set into a CachedResultSet, optionally in the columnar layout.
+     * Closes the JDBC result set after retrieval.
+     */
+    public CachedResultSet(ResultSet rset, boolean columnar) throws SQLException {
         try {
             ResultSetMetaData metaData = rset.getMetaData();
             int width = metaData.getColumnCount();
@@ -56,17 +94,66 @@ public class CachedResultSet {
             }
 
             if (rset.next()) {
-                this.rows = new ArrayList<Object[]>();
-                do {
+                if (columnar) {
+                    ColumnarRows store = new ColumnarRows(width);
+                    Object[] row = new Object[width];
+                    do {
+                        for (int i = 0; i < width; ++i) {
+                            row[i] = rset.getObject(i+1);
+                        }
+                        store.add(row);
+                    } while (rset.next());
+                    this.rows = store.trim();
+                } else {
+                    this.rows = new ArrayList<Object[]>();
+                    do {
+                        Object[] row = new Object[width];
+                        for (int i = 0; i < width; ++i) {
+                            row[i] = rset.getObject(i+1);
+                        }
+                        rows.add(row);
+                    } while (rset.next());
+                }
+            } else {
+                this.rows = null;
+            }
+        } finally {
+            rset.close();
+        }
+    }
+
+    /**
+     * Retrieves the rows from a freshly obtained JDBC result set into a CachedResultSet, keeping rows in memory up to the budget in bytes
+     * and spilling the rest into a temporary file, which is released by closing the SpillingRows of the result set.
+     * Closes the JDBC result set after retrieval.
+     */
+    public CachedResultSet(ResultSet rset, long budget) throws SQLException {
+        try {
+            ResultSetMetaData metaData = rset.getMetaData();
+            int width = metaData.getColumnCount();
+
+            this.columns = new String[width];
+            for (int i = 0; i < width; ++i) {
+                columns[i] = Strings.toLowerCamelCase(metaData.getColumnLabel(i+1), '_');
+            }
+
+            SpillingRows store = new SpillingRows(width, budget);
+            try {
+                while (rset.next()) {
                     Object[] row = new Object[width];
                     for (int i = 0; i < width; ++i) {
                         row[i] = rset.getObject(i+1);
                     }
-                    rows.add(row);
-                } while (rset.next());
-            } else {
-                this.rows = null;
+                    store.add(row);
+                }
+            } catch (SQLException x) {
+                store.close();
+                throw x;
+            } catch (RuntimeException x) {
+                store.close();
+                throw x;
             }
+            this.rows = store.isEmpty() ? null : store;
         } finally {
             rset.close();
         }
@@ -84,29 +171,49 @@ public class CachedResultSet {
      * Also performs presentation transformations if any is defined on the fields.
      */
     public <T> CachedResultSet(Collection<T> collection, boolean forPresentation) throws Exception {
-        FieldRetriever[] retrievers = null;
+        this(collection, forPresentation, false);
+    }
+
+    /**
+     * Retrieves the rows from a collection of Objects, where the objects' (of type T) <i>instance fields</i> are taken as result set columns.
+     * Also performs presentation transformations if any is defined on the fields. The rows are kept in the columnar layout if requested.
+     */
+    public <T> CachedResultSet(Collection<T> collection, boolean forPresentation, boolean columnar) throws Exception {
+        ObjectAccessor accessor = null;
+        FieldRetriever[] formatters = null;
+        List<Object[]> list = columnar ? null : new ArrayList<Object[]>();
+        Object[] row = null;
+        int width = 0;
 
-        this.rows = new ArrayList<Object[]>();
         for (T object: collection) {
-            if (retrievers == null) {
+            if (accessor == null) {
+                accessor = ObjectAccessor.forFields(object.getClass());
+                width = accessor.getColumns().length;
                 if (forPresentation) {
-                    retrievers = FieldFormatter.getFieldRetriever(Beans.getKnownInstanceFields(object.getClass()));
-                } else {
-                    retrievers = FieldRetriever.getFieldRetriever(Beans.getKnownInstanceFields(object.getClass()));
+                    // transformers are instantiated anew for each result set, and applied over the raw values
+                    formatters = FieldFormatter.getFieldRetriever(Beans.getKnownInstanceFields(object.getClass()));
+                    for (int i = 0; i < width; ++i) {
+                        if (!(formatters[i] instanceof FieldFormatter)) formatters[i] = null;
+                    }
+                }
+                if (columnar) {
+                    list = new ColumnarRows(width);
+                    row = new Object[width];
                 }
             }
-            Object[] row = new Object[retrievers.length];
-            for (int i = 0; i < retrievers.length; ++i) {
-                row[i] = retrievers[i].get(object);
+            if (!columnar) {
+                row = new Object[width];
             }
-            rows.add(row);
-        }
-
-        int width = retrievers != null ? retrievers.length : 0;
-        this.columns = new String[width];
-        for (int i = 0; i < width; ++i) {
-            columns[i] = retrievers[i].field.getName();
+            accessor.get(object, row);
+            if (formatters != null) {
+                for (int i = 0; i < width; ++i) {
+                    if (formatters[i] != null) row[i] = formatters[i].get(object);
+                }
+            }
+            list.add(row);
         }
+        this.rows = list == null ? new ColumnarRows(0) : list instanceof ColumnarRows ? ((ColumnarRows)list).trim() : list;
+        this.columns = accessor != null ? accessor.getColumns() : new String[0];
     }
 
     /**
@@ -115,22 +222,17 @@ public class CachedResultSet {
     public <T> CachedResultSet(Collection<T> collection, String... columns) {
         this.columns = columns;
         this.rows = new ArrayList<Object[]>();
+        ObjectAccessor accessor = null;
         for (T object: collection) {
             Object[] row = new Object[columns.length];
-            for (int i = 0; i < columns.length; ++i) {
+            if (object != null) {
+                if (accessor == null || accessor.getType() != object.getClass()) {
+                    accessor = ObjectAccessor.forProperties(object.getClass(), columns);
+                }
                 try {
-                    Object value = columns[i].equals("-") ? object : Beans.invoke(object, "get"+Strings.capitalize(columns[i]));
-                    if (value != null) {
-                        if (value.getClass().isArray()) {
-                            row[i] = Strings.join(value, ';');
-                        } else {
-                            row[i] = value.toString();
-                        }
-                    } else {
-                        row[i] = null;
-                    }
-                } catch (Exception x) {
-                    row[i] = null;
+                    accessor.get(object, row);
+                } catch (IllegalAccessException x) {
+                    // not thrown when values are taken as text
                 }
             }
             rows.add(row);
@@ -141,27 +243,34 @@ public class CachedResultSet {
      * Retrieves the rows from a collection of Objects, where a subset of the objects' (of type T) <i>public fields</i> are taken as result set columns.
      */
     public static <T> CachedResultSet chooseFields(Collection<T> collection, String... columns) {
-        CachedResultSet rs = new CachedResultSet(columns, new ArrayList<Object[]>());
+        return chooseFields(collection, false, columns);
+    }
+
+    /**
+     * Retrieves the rows from a collection of Objects, where a subset of the objects' (of type T) <i>public fields</i> are taken as result set columns.
+     * The rows are kept in the columnar layout if requested.
+     */
+    public static <T> CachedResultSet chooseFields(Collection<T> collection, boolean columnar, String... columns) {
+        CachedResultSet rs = new CachedResultSet(columns, columnar ? new ColumnarRows(columns.length) : new ArrayList<Object[]>());
+        Object[] row = columnar ? new Object[columns.length] : null;
+        ObjectAccessor accessor = null;
         for (T object: collection) {
-            Object[] row = new Object[columns.length];
-            for (int i = 0; i < columns.length; ++i) {
+            if (!columnar) row = new Object[columns.length];
+            if (object != null) {
+                if (accessor == null || accessor.getType() != object.getClass()) {
+                    accessor = ObjectAccessor.forColumns(object.getClass(), true, columns);
+                }
                 try {
-                    Object value = Beans.getKnownField(object.getClass(), columns[i]).get(object);
-                    if (value != null) {
-                        if (value.getClass().isArray()) {
-                            row[i] = Strings.join(value, ';');
-                        } else {
-                            row[i] = value.toString();
-                        }
-                    } else {
-                        row[i] = null;
-                    }
-                } catch (Exception x) {
-                    row[i] = null;
+                    accessor.get(object, row);
+                } catch (IllegalAccessException x) {
+                    // not thrown when values are taken as text
                 }
+            } else {
+                Arrays.fill(row, null);
             }
             rs.rows.add(row);
         }
+        if (columnar) ((ColumnarRows)rs.rows).trim();
 
         return rs;
     }
@@ -170,19 +279,11 @@ public class CachedResultSet {
      * Retrieves the contents of this result set as a List of DataObjects.
      */
     public <T extends DataObject> List<T> asList(Class<T> type) throws InstantiationException, IllegalAccessException {
-        Map<String, Field> fields = new HashMap<String, Field>();
-        for (String column: columns) try { fields.put(column, Beans.getKnownField(type, column)); } catch (Exception x) {}
+        ObjectAccessor accessor = ObjectAccessor.forColumns(type, false, columns);
 
         List<T> list = new ArrayList<T>();
         for (Object[] row: rows) {
-            T object = type.newInstance();
-            for (int i = 0; i < row.length; ++i) {
-                Field field = fields.get(columns[i]);
-                if (field != null) {
-                    Beans.setValue(object, field, row[i]);
-                }
-            }
-            list.add(object);
+            list.add(type.cast(accessor.create(row)));
         }
 
         return list;
@@ -196,6 +297,20 @@ public class CachedResultSet {
         this.rows = rows;
     }
 
+    /**
+     * Reports whether the rows are kept in the columnar layout.
+     */
+    public boolean isColumnar() {
+        return rows instanceof ColumnarRows;
+    }
+
+    /**
+     * Reports whether any rows have been spilled into a temporary file.
+     */
+    public boolean isSpilled() {
+        return rows instanceof SpillingRows && ((SpillingRows)rows).isSpilled();
+    }
+
     /**
      * Renames the columns of a CachedResultSet.
      */
@@ -217,10 +332,66 @@ public class CachedResultSet {
         return index;
     }
 
+    /**
+     * Selects the rows that satisfy all conditions. See Operators.
+     */
+    public CachedResultSet filter(Operators.Condition... conditions) {
+        return Operators.filter(this, conditions);
+    }
+
+    /**
+     * Selects the rows whose value in the named column satisfies the predicate. See Operators.
+     */
+    public CachedResultSet filter(String column, Operators.Predicate predicate) {
+        return Operators.filter(this, new Operators.Condition(column, predicate));
+    }
+
+    /**
+     * Sorts the rows by the named columns, each in ascending order unless prefixed with '-'. See Operators.
+     */
+    public CachedResultSet sort(String... columns) {
+        return Operators.sort(this, columns);
+    }
+
+    /**
+     * Selects the first n rows in the order of the named columns. See Operators.
+     */
+    public CachedResultSet top(int n, String... columns) {
+        return Operators.top(this, n, columns);
+    }
+
+    /**
+     * Groups the rows by the named columns, with aggregates over each group. See Operators.
+     */
+    public CachedResultSet group(String[] keys, Operators.Aggregate... aggregates) {
+        return Operators.group(this, keys, aggregates);
+    }
+
+    /**
+     * Inner-joins another result set on equal values of key columns of the same names. See Operators.
+     */
+    public CachedResultSet join(CachedResultSet other, String... keys) {
+        return Operators.join(this, keys, other, keys, false);
+    }
+
+    /**
+     * Left-outer-joins another result set on equal values of key columns of the same names. See Operators.
+     */
+    public CachedResultSet leftJoin(CachedResultSet other, String... keys) {
+        return Operators.join(this, keys, other, keys, true);
+    }
+
     /**
      * Inside an object: serialized the cached result set into JSON.
      */
     public JSONBuilder toJSON(JSONBuilder jb) {
         return jb.append('{').serialize("columns", columns).append(',').serialize("rows", rows).append('}');
     }
+
+    /**
+     * Inside an object: streams the cached result set as JSON.
+     */
+    public JSONStreamer toJSON(JSONStreamer js) throws IOException {
+        return js.append('{').serialize("columns", columns).append(',').serialize("rows", rows).append('}');
+    }
 }
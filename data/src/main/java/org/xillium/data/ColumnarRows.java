@@ -0,0 +1,311 @@
+package org.xillium.data;
+
+import java.math.BigDecimal;
+import java.util.*;
+
+
+/**
+ * A column-oriented store of result set rows, presented as a list of rows.
+ * <p/>
+ * Each column is kept in a primitive array when all its non-null values are of the same type: <code>int[]</code> for Integer,
+ * <code>long[]</code> for Long, for BigDecimal values of a common scale, and for java.sql.Date and java.sql.Timestamp values (plus
+ * <code>int[]</code> nanoseconds for the latter), and <code>double[]</code> for Double. String columns are dictionary-encoded into
+ * <code>int[]</code> codes. Nulls are recorded in a bitmap. A column holding any other kind of values,
+ * or values of mixed types, falls back to <code>Object[]</code>.
+ * <p/>
+ * Rows are appended with <code>add()</code>, which copies the values out of the given array. <code>get()</code> materializes a
+ * new array whose values are equal to, and of the same types as, the values originally added. The store does not support removal
+ * or replacement of rows.
+ */
+public class ColumnarRows extends AbstractList<Object[]> implements RandomAccess {
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final Column[] _columns;
+    private int _size;
+
+    /**
+     * Constructs an empty ColumnarRows of the given number of columns.
+     */
+    public ColumnarRows(int width) {
+        _columns = new Column[width];
+        for (int i = 0; i < width; ++i) {
+            _columns[i] = new Column();
+        }
+    }
+
+    /**
+     * Appends a row. The row array is not retained, and can be reused by the caller.
+     */
+    @Override
+    public boolean add(Object[] row) {
+        if (row.length != _columns.length) {
+            throw new IllegalArgumentException("Row width " + row.length + " != " + _columns.length);
+        }
+        for (int i = 0; i < _columns.length; ++i) {
+            _columns[i].add(_size, row[i]);
+        }
+        ++_size;
+        ++modCount;
+        return true;
+    }
+
+    /**
+     * Materializes a row.
+     */
+    @Override
+    public Object[] get(int index) {
+        if (index < 0 || index >= _size) throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + _size);
+        Object[] row = new Object[_columns.length];
+        for (int i = 0; i < _columns.length; ++i) {
+            row[i] = _columns[i].get(index);
+        }
+        return row;
+    }
+
+    /**
+     * Retrieves a single value without materializing the row.
+     */
+    public Object get(int index, int column) {
+        if (index < 0 || index >= _size) throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + _size);
+        return _columns[column].get(index);
+    }
+
+    @Override
+    public int size() {
+        return _size;
+    }
+
+    /**
+     * Returns the number of columns.
+     */
+    public int getWidth() {
+        return _columns.length;
+    }
+
+    /**
+     * Releases excess capacity and build-time structures. Rows can still be added after trimming.
+     */
+    public ColumnarRows trim() {
+        for (Column column: _columns) {
+            column.trim(_size);
+        }
+        return this;
+    }
+
+    /**
+     * Describes the storage of each column, e.g. "int,string[12],object".
+     */
+    public String describe() {
+        StringBuilder sb = new StringBuilder();
+        for (Column column: _columns) {
+            if (sb.length() > 0) sb.append(',');
+            sb.append(KINDS[column.kind]);
+            if (column.kind == STRING) sb.append('[').append(column.dictionary.size()).append(']');
+        }
+        return sb.toString();
+    }
+
+    private static final int NONE = 0, INT = 1, LONG = 2, DOUBLE = 3, DECIMAL = 4, DATE = 5, TIMESTAMP = 6, STRING = 7, OBJECT = 8;
+    private static final String[] KINDS = { "none", "int", "long", "double", "decimal", "date", "timestamp", "string", "object" };
+
+    private static class Column {
+        int kind;
+        int[] ints;                   // INT, STRING codes, TIMESTAMP nanos
+        long[] longs;                 // LONG, DECIMAL unscaled values, DATE and TIMESTAMP milliseconds
+        double[] doubles;             // DOUBLE
+        Object[] objects;             // OBJECT
+        int scale;                    // DECIMAL
+        List<String> dictionary;      // STRING
+        Map<String, Integer> codes;   // STRING, only while building
+        long[] nulls;                 // bitmap, allocated upon the first null
+
+        void add(int row, Object value) {
+            if (value == null) {
+                if (nulls == null) {
+                    nulls = new long[Math.max(INITIAL_CAPACITY, row + 1)/64 + 1];
+                } else if (row/64 >= nulls.length) {
+                    nulls = Arrays.copyOf(nulls, Math.max(nulls.length*2, row/64 + 1));
+                }
+                nulls[row/64] |= 1L << (row%64);
+                if (kind == OBJECT) {
+                    ensure(row);
+                }
+                return;
+            }
+
+            if (kind == NONE) {
+                kind = kindOf(value);
+                if (kind == DECIMAL) scale = ((BigDecimal)value).scale();
+                if (kind == STRING) {
+                    dictionary = new ArrayList<String>();
+                    codes = new HashMap<String, Integer>();
+                }
+            } else if (kind != OBJECT && !accepts(value)) {
+                demote(row);
+            }
+            ensure(row);
+
+            switch (kind) {
+            case INT:
+                ints[row] = ((Integer)value).intValue();
+                break;
+            case LONG:
+                longs[row] = ((Long)value).longValue();
+                break;
+            case DOUBLE:
+                doubles[row] = ((Double)value).doubleValue();
+                break;
+            case DECIMAL:
+                longs[row] = ((BigDecimal)value).unscaledValue().longValue();
+                break;
+            case DATE:
+                longs[row] = ((java.sql.Date)value).getTime();
+                break;
+            case TIMESTAMP:
+                longs[row] = ((java.sql.Timestamp)value).getTime();
+                ints[row] = ((java.sql.Timestamp)value).getNanos();
+                break;
+            case STRING:
+                if (codes == null) {
+                    codes = new HashMap<String, Integer>();
+                    for (int i = 0; i < dictionary.size(); ++i) codes.put(dictionary.get(i), i);
+                }
+                Integer code = codes.get(value);
+                if (code == null) {
+                    code = dictionary.size();
+                    dictionary.add((String)value);
+                    codes.put((String)value, code);
+                }
+                ints[row] = code.intValue();
+                break;
+            default:
+                objects[row] = value;
+                break;
+            }
+        }
+
+        Object get(int row) {
+            if (nulls != null && row/64 < nulls.length && (nulls[row/64] & (1L << (row%64))) != 0) return null;
+            switch (kind) {
+            case INT:
+                return ints[row];
+            case LONG:
+                return longs[row];
+            case DOUBLE:
+                return doubles[row];
+            case DECIMAL:
+                return BigDecimal.valueOf(longs[row], scale);
+            case DATE:
+                return new java.sql.Date(longs[row]);
+            case TIMESTAMP:
+                java.sql.Timestamp timestamp = new java.sql.Timestamp(longs[row]);
+                timestamp.setNanos(ints[row]);
+                return timestamp;
+            case STRING:
+                return dictionary.get(ints[row]);
+            case OBJECT:
+                return objects[row];
+            default:
+                return null;
+            }
+        }
+
+        void trim(int size) {
+            if (ints != null && ints.length > size) ints = Arrays.copyOf(ints, size);
+            if (longs != null && longs.length > size) longs = Arrays.copyOf(longs, size);
+            if (doubles != null && doubles.length > size) doubles = Arrays.copyOf(doubles, size);
+            if (objects != null && objects.length > size) objects = Arrays.copyOf(objects, size);
+            if (nulls != null && nulls.length > size/64 + 1) nulls = Arrays.copyOf(nulls, size/64 + 1);
+            if (dictionary instanceof ArrayList) ((ArrayList<String>)dictionary).trimToSize();
+            codes = null;
+        }
+
+        private void ensure(int row) {
+            switch (kind) {
+            case INT:
+            case STRING:
+                ints = ensure(ints, row);
+                break;
+            case TIMESTAMP:
+                ints = ensure(ints, row);
+                longs = ensure(longs, row);
+                break;
+            case LONG:
+            case DECIMAL:
+            case DATE:
+                longs = ensure(longs, row);
+                break;
+            case DOUBLE:
+                if (doubles == null) doubles = new double[Math.max(INITIAL_CAPACITY, row + 1)];
+                else if (row >= doubles.length) doubles = Arrays.copyOf(doubles, Math.max(doubles.length*2, row + 1));
+                break;
+            case OBJECT:
+                if (objects == null) objects = new Object[Math.max(INITIAL_CAPACITY, row + 1)];
+                else if (row >= objects.length) objects = Arrays.copyOf(objects, Math.max(objects.length*2, row + 1));
+                break;
+            default:
+                break;
+            }
+        }
+
+        private static int[] ensure(int[] array, int row) {
+            if (array == null) return new int[Math.max(INITIAL_CAPACITY, row + 1)];
+            else if (row >= array.length) return Arrays.copyOf(array, Math.max(array.length*2, row + 1));
+            else return array;
+        }
+
+        private static long[] ensure(long[] array, int row) {
+            if (array == null) return new long[Math.max(INITIAL_CAPACITY, row + 1)];
+            else if (row >= array.length) return Arrays.copyOf(array, Math.max(array.length*2, row + 1));
+            else return array;
+        }
+
+        private boolean accepts(Object value) {
+            if (kind == DECIMAL) {
+                return value.getClass() == BigDecimal.class && ((BigDecimal)value).scale() == scale && fitsLong((BigDecimal)value);
+            } else {
+                return kindOf(value) == kind;
+            }
+        }
+
+        // converts rows [0, row) into objects
+        private void demote(int row) {
+            Object[] values = new Object[Math.max(INITIAL_CAPACITY, row + 1)];
+            for (int i = 0; i < row; ++i) {
+                values[i] = get(i);
+            }
+            kind = OBJECT;
+            objects = values;
+            ints = null;
+            longs = null;
+            doubles = null;
+            dictionary = null;
+            codes = null;
+        }
+
+        private static int kindOf(Object value) {
+            Class<?> type = value.getClass();
+            if (type == Integer.class) {
+                return INT;
+            } else if (type == Long.class) {
+                return LONG;
+            } else if (type == Double.class) {
+                return DOUBLE;
+            } else if (type == String.class) {
+                return STRING;
+            } else if (type == java.sql.Timestamp.class) {
+                return TIMESTAMP;
+            } else if (type == java.sql.Date.class) {
+                return DATE;
+            } else if (type == BigDecimal.class && fitsLong((BigDecimal)value)) {
+                return DECIMAL;
+            } else {
+                return OBJECT;
+            }
+        }
+
+        private static boolean fitsLong(BigDecimal value) {
+            return value.unscaledValue().bitLength() < 64;
+        }
+    }
+}
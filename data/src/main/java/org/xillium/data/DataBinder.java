@@ -8,6 +8,7 @@ import java.sql.*;
 import org.xillium.base.beans.Beans;
 import org.xillium.base.beans.Strings;
 import org.xillium.base.beans.JSONBuilder;
+import org.xillium.base.text.JSONStreamer;
 import org.xillium.data.persistence.ResultSetWorker;
 
 
@@ -238,7 +239,9 @@ public class DataBinder extends HashMap<String, String> implements ResultSetWork
         int count = this.size();
         for (String key: _rsets.keySet()) {
             CachedResultSet crs = _rsets.get(key);
-            if (crs.rows != null) {
+            if (crs.rows instanceof SpillingRows) {
+                count += crs.columns.length*((SpillingRows)crs.rows).getMemorySize();
+            } else if (crs.rows != null) {
                 count += crs.columns.length*crs.rows.size();
             }
         }
@@ -308,5 +311,72 @@ public class DataBinder extends HashMap<String, String> implements ResultSetWork
         return jb;
     }
 
+    /**
+     * Streams a JSON document representing the contents of this data binder, excluding named objects. The output is identical
+     * to that of toJSON().
+     */
+    public JSONStreamer toJSON(JSONStreamer js) throws IOException {
+        js.append('{');
+        appendParams(js).append(',');
+        appendTables(js);
+        return js.append('}');
+    }
+
+    /**
+     * Streams the "params" member, followed by the "values" member if any parameter holds a "json:" value, as
+     * appendParams(JSONBuilder) does.
+     */
+    public JSONStreamer appendParams(JSONStreamer js) throws IOException {
+        boolean json = false;
+        char separator = ' ';
+
+        js.append("\"params\":{");
+        for (Map.Entry<String, String> entry: entrySet()) {
+            String val = entry.getValue();
+            if (val == null) {
+                js.append(separator).quote(entry.getKey()).append(":null");
+            } else if (val.startsWith("json:")) {
+                json = true;
+                continue;
+            } else {
+                js.append(separator).serialize(entry.getKey(), val);
+            }
+            separator = ',';
+        }
+        js.append('}');
+
+        if (json) {
+            separator = ' ';
+            js.append(",\"values\":{");
+            for (Map.Entry<String, String> entry: entrySet()) {
+                String val = entry.getValue();
+                if (val != null && val.startsWith("json:")) {
+                    js.append(separator).quote(entry.getKey()).append(':').append(val.substring(5));
+                    separator = ',';
+                }
+            }
+            js.append('}');
+        }
+
+        return js;
+    }
+
+    /**
+     * Streams the "tables" member, holding every cached result set by name, as appendTables(JSONBuilder) does.
+     */
+    public JSONStreamer appendTables(JSONStreamer js) throws IOException {
+        char separator = ' ';
+
+        js.append("\"tables\":{");
+        for (Map.Entry<String, CachedResultSet> entry: _rsets.entrySet()) {
+            js.append(separator).quote(entry.getKey()).append(':');
+            entry.getValue().toJSON(js);
+            separator = ',';
+        }
+        js.append('}');
+
+        return js;
+    }
+
     private static final long serialVersionUID = -4575511652015221913L;
 }
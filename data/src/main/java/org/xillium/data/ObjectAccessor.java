@@ -0,0 +1,353 @@
+package org.xillium.data;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.*;
+import org.xillium.base.beans.Beans;
+import org.xillium.base.beans.Strings;
+import javassist.*;
+
+
+/**
+ * An ObjectAccessor copies values between the objects of a particular class and the rows of a result set of a particular list of
+ * columns, each backed by a field or a bean property of the class.
+ * <p/>
+ * ObjectAccessors are obtained from the static <code>forXxx()</code> methods, which generate and cache a specialized subclass for each
+ * class and list of columns, reading and assigning public fields and invoking public getters directly. The remaining fields and
+ * properties, and all of them if generation is disabled or fails, are accessed via reflection, with identical results.
+ */
+public abstract class ObjectAccessor {
+    private static final Logger _logger = Logger.getLogger(ObjectAccessor.class.getName());
+    private static final AtomicInteger _sequence = new AtomicInteger();
+    private static final ConcurrentMap<Class<?>, ConcurrentMap<String, ObjectAccessor>> _accessors =
+        new ConcurrentHashMap<Class<?>, ConcurrentMap<String, ObjectAccessor>>();
+    private static volatile boolean _generating = true;
+
+    private Class<?> _type;
+    private String[] _columns;
+    private Field[] _fields;        // the fields backing the columns, if any
+    private String[] _properties;   // the bean properties backing the columns, if any
+    private boolean _text;
+
+    /**
+     * Enables or disables the generation of ObjectAccessors. When disabled, all values are accessed via reflection.
+     */
+    public static void setGeneration(boolean generating) {
+        _generating = generating;
+        _accessors.clear();
+    }
+
+    /**
+     * Reports whether ObjectAccessors are generated.
+     */
+    public static boolean isGeneration() {
+        return _generating;
+    }
+
+    /**
+     * Returns an ObjectAccessor whose columns are the known instance fields of the class, with values as they are.
+     */
+    public static ObjectAccessor forFields(Class<?> type) {
+        ObjectAccessor accessor = lookup(type, "F");
+        if (accessor == null) {
+            Field[] fields = Beans.getKnownInstanceFields(type);
+            String[] columns = new String[fields.length];
+            for (int i = 0; i < fields.length; ++i) {
+                columns[i] = fields[i].getName();
+            }
+            accessor = register(type, "F", build(type, columns, fields, null, false));
+        }
+        return accessor;
+    }
+
+    /**
+     * Returns an ObjectAccessor whose columns are the named fields of the class, with values as they are or as text. Columns
+     * not backed by any field are left out of the objects created, and have null values, as do fields that fail to be read
+     * when values are taken as text.
+     */
+    public static ObjectAccessor forColumns(Class<?> type, boolean text, String... columns) {
+        String key = (text ? "T" : "C") + Arrays.toString(columns);
+        ObjectAccessor accessor = lookup(type, key);
+        if (accessor == null) {
+            Field[] fields = new Field[columns.length];
+            for (int i = 0; i < columns.length; ++i) {
+                try { fields[i] = Beans.getKnownField(type, columns[i]); } catch (NoSuchFieldException x) {}
+            }
+            accessor = register(type, key, build(type, columns.clone(), fields, null, text));
+        }
+        return accessor;
+    }
+
+    /**
+     * Returns an ObjectAccessor whose columns are the named bean properties of the class, with values as text. The column "-"
+     * stands for the object itself. Properties that fail to be read have null values. Such an ObjectAccessor doesn't create
+     * objects.
+     */
+    public static ObjectAccessor forProperties(Class<?> type, String... columns) {
+        String key = "P" + Arrays.toString(columns);
+        ObjectAccessor accessor = lookup(type, key);
+        if (accessor == null) {
+            accessor = register(type, key, build(type, columns.clone(), new Field[columns.length], columns.clone(), true));
+        }
+        return accessor;
+    }
+
+    /**
+     * Returns the class of the objects.
+     */
+    public Class<?> getType() {
+        return _type;
+    }
+
+    /**
+     * Returns the names of the columns.
+     */
+    public String[] getColumns() {
+        return _columns.clone();
+    }
+
+    /**
+     * Copies the values of the columns from an object into a row.
+     */
+    public abstract void get(Object object, Object[] row) throws IllegalAccessException;
+
+    /**
+     * Creates an object and assigns the non-null values of a row to the fields backing the columns, converting value types as
+     * Beans.setValue() does.
+     */
+    public abstract Object create(Object[] row) throws InstantiationException, IllegalAccessException;
+
+    /**
+     * Reads the field backing a column via reflection.
+     */
+    protected final Object value(int index, Object object) throws IllegalAccessException {
+        return _fields[index] != null ? _fields[index].get(object) : null;
+    }
+
+    /**
+     * Reads the bean property backing a column via reflection.
+     */
+    protected final Object property(int index, Object object) throws Exception {
+        String name = _properties[index];
+        return name.equals("-") ? object : Beans.invoke(object, "get" + Strings.capitalize(name));
+    }
+
+    /**
+     * Assigns a value to the field backing a column via reflection.
+     */
+    protected final void assign(int index, Object object, Object value) throws IllegalAccessException {
+        if (_fields[index] != null) {
+            Beans.setValue(object, _fields[index], value);
+        }
+    }
+
+    /**
+     * Creates an object via reflection.
+     */
+    protected final Object instantiate() throws InstantiationException, IllegalAccessException {
+        if (_properties != null) throw new UnsupportedOperationException("Objects are not created from bean properties");
+        return _type.newInstance();
+    }
+
+    /**
+     * Converts a value into text, joining array elements with ';'.
+     */
+    protected static Object text(Object value) {
+        if (value != null) {
+            return value.getClass().isArray() ? Strings.join(value, ';') : value.toString();
+        } else {
+            return null;
+        }
+    }
+
+    private static class Reflective extends ObjectAccessor {
+        @Override
+        public void get(Object object, Object[] row) throws IllegalAccessException {
+            ObjectAccessor accessor = this;
+            for (int i = 0; i < row.length; ++i) {
+                if (accessor._text) {
+                    try {
+                        row[i] = text(accessor._properties != null ? property(i, object) : value(i, object));
+                    } catch (Exception x) {
+                        row[i] = null;
+                    }
+                } else {
+                    row[i] = value(i, object);
+                }
+            }
+        }
+
+        @Override
+        public Object create(Object[] row) throws InstantiationException, IllegalAccessException {
+            Object object = instantiate();
+            for (int i = 0; i < row.length; ++i) {
+                assign(i, object, row[i]);
+            }
+            return object;
+        }
+    }
+
+    private static ObjectAccessor lookup(Class<?> type, String key) {
+        ConcurrentMap<String, ObjectAccessor> accessors = _accessors.get(type);
+        return accessors != null ? accessors.get(key) : null;
+    }
+
+    private static ObjectAccessor register(Class<?> type, String key, ObjectAccessor accessor) {
+        ConcurrentMap<String, ObjectAccessor> accessors = _accessors.get(type);
+        if (accessors == null) {
+            ConcurrentMap<String, ObjectAccessor> existing = _accessors.putIfAbsent(type, accessors = new ConcurrentHashMap<String, ObjectAccessor>());
+            if (existing != null) accessors = existing;
+        }
+        ObjectAccessor existing = accessors.putIfAbsent(key, accessor);
+        return existing != null ? existing : accessor;
+    }
+
+    private static ObjectAccessor build(Class<?> type, String[] columns, Field[] fields, String[] properties, boolean text) {
+        ObjectAccessor accessor = null;
+        if (_generating && Modifier.isPublic(type.getModifiers()) && type.getClassLoader() != null) {
+            accessor = generate(type, fields, properties, text);
+        }
+        if (accessor == null) {
+            accessor = new Reflective();
+        }
+        accessor._type = type;
+        accessor._columns = columns;
+        accessor._fields = fields;
+        accessor._properties = properties;
+        accessor._text = text;
+        return accessor;
+    }
+
+    private static ObjectAccessor generate(Class<?> type, Field[] fields, String[] properties, boolean text) {
+        boolean direct = false;
+
+        StringBuilder get = new StringBuilder("public void get(Object object, Object[] row) throws IllegalAccessException {");
+        for (int i = 0; i < fields.length; ++i) {
+            String expression = null;
+            if (properties != null) {
+                if (properties[i].equals("-")) {
+                    expression = "object";
+                } else {
+                    try {
+                        expression = read(type.getMethod("get" + Strings.capitalize(properties[i])));
+                        if (expression != null) direct = true;
+                    } catch (NoSuchMethodException x) {
+                        // the same exception from reflection results in null
+                    }
+                }
+                if (expression == null) expression = "property(" + i + ", object)";
+            } else {
+                expression = read(fields[i]);
+                if (expression == null) expression = "value(" + i + ", object)";
+                else direct = true;
+            }
+            if (text) {
+                get.append("try { row[").append(i).append("] = text(").append(expression).append("); } catch (Exception x) { row[").append(i).append("] = null; }");
+            } else {
+                get.append("row[").append(i).append("] = ").append(expression).append(';');
+            }
+        }
+        get.append('}');
+
+        StringBuilder create = new StringBuilder("public Object create(Object[] row) throws InstantiationException, IllegalAccessException {");
+        if (properties == null) {
+            boolean constructible = !Modifier.isAbstract(type.getModifiers()) && (type.getEnclosingClass() == null || Modifier.isStatic(type.getModifiers()));
+            try {
+                constructible = constructible && Modifier.isPublic(type.getConstructor().getModifiers());
+            } catch (NoSuchMethodException x) {
+                constructible = false;
+            }
+            create.append("Object object = ").append(constructible ? "new " + type.getName() + "()" : "instantiate()").append("; Object v;");
+            for (int i = 0; i < fields.length; ++i) {
+                String assignment = write(fields[i]);
+                if (assignment != null) {
+                    create.append("v = row[").append(i).append("]; if (v != null) { ").append(assignment).append(" else assign(").append(i).append(", object, v); }");
+                    direct = true;
+                } else {
+                    create.append("assign(").append(i).append(", object, row[").append(i).append("]);");
+                }
+            }
+            create.append("return object;");
+        } else {
+            create.append("return instantiate();");
+        }
+        create.append('}');
+
+        if (!direct) return null;
+
+        try {
+            // a child of the default pool, which knows about classes generated on the fly
+            ClassPool pool = new ClassPool(ClassPool.getDefault());
+            pool.appendClassPath(new LoaderClassPath(type.getClassLoader()));
+            pool.appendClassPath(new LoaderClassPath(ObjectAccessor.class.getClassLoader()));
+
+            CtClass cc = pool.makeClass(type.getName() + "$ObjectAccessor" + _sequence.incrementAndGet());
+            cc.setSuperclass(pool.get(ObjectAccessor.class.getName()));
+            cc.addConstructor(CtNewConstructor.defaultConstructor(cc));
+            cc.addMethod(CtNewMethod.make(get.toString(), cc));
+            cc.addMethod(CtNewMethod.make(create.toString(), cc));
+            ObjectAccessor accessor = (ObjectAccessor)cc.toClass(type.getClassLoader(), type.getProtectionDomain()).newInstance();
+            cc.detach();
+            return accessor;
+        } catch (Exception x) {
+            _logger.log(Level.WARNING, "Failed to generate object accessor for " + type.getName() + ", using reflection: " + x.getMessage(), x);
+            return null;
+        } catch (LinkageError x) {
+            _logger.log(Level.WARNING, "Failed to generate object accessor for " + type.getName() + ", using reflection: " + x.getMessage(), x);
+            return null;
+        }
+    }
+
+    /*
+     * Returns an expression reading a public instance field of a public class as an Object, or null if the field must be read
+     * via reflection.
+     */
+    private static String read(Field field) {
+        if (field == null) return null;
+        int modifiers = field.getModifiers();
+        if (!Modifier.isPublic(modifiers) || Modifier.isStatic(modifiers) || !Modifier.isPublic(field.getDeclaringClass().getModifiers())) return null;
+        return box(field.getType(), "((" + field.getDeclaringClass().getName() + ")object)." + field.getName());
+    }
+
+    /*
+     * Returns an expression invoking a public getter of a public class as an Object, or null if the getter must be invoked
+     * via reflection.
+     */
+    private static String read(Method getter) {
+        int modifiers = getter.getModifiers();
+        if (Modifier.isStatic(modifiers) || getter.getReturnType() == Void.TYPE || !Modifier.isPublic(getter.getDeclaringClass().getModifiers())) return null;
+        return box(getter.getReturnType(), "((" + getter.getDeclaringClass().getName() + ")object)." + getter.getName() + "()");
+    }
+
+    /*
+     * Returns a statement assigning the value in the variable v to a public instance field of a public class if v is of the
+     * field type, or null if the field must be assigned via reflection.
+     */
+    private static String write(Field field) {
+        if (field == null) return null;
+        int modifiers = field.getModifiers();
+        if (!Modifier.isPublic(modifiers) || Modifier.isStatic(modifiers) || Modifier.isFinal(modifiers)) return null;
+        if (!Modifier.isPublic(field.getDeclaringClass().getModifiers())) return null;
+
+        Class<?> ftype = field.getType();
+        String target = "((" + field.getDeclaringClass().getName() + ")object)." + field.getName();
+        if (ftype.isPrimitive()) {
+            String boxed = Beans.boxPrimitive(ftype).getName();
+            return "if (v instanceof " + boxed + ") " + target + " = ((" + boxed + ")v)." + ftype.getName() + "Value();";
+        } else if (Modifier.isPublic(ftype.getModifiers()) && !ftype.isArray()) {
+            return "if (v instanceof " + ftype.getName() + ") " + target + " = (" + ftype.getName() + ")v;";
+        } else {
+            return null;
+        }
+    }
+
+    // javassist does not autobox
+    private static String box(Class<?> type, String expression) {
+        return type.isPrimitive() ? Beans.boxPrimitive(type).getName() + ".valueOf(" + expression + ')' : expression;
+    }
+}
@@ -0,0 +1,523 @@
+package org.xillium.data;
+
+import java.math.BigDecimal;
+import java.util.*;
+
+
+/**
+ * In-memory query operators over CachedResultSets: filters, multi-column sorts, top-N, hash group-by, and hash joins.
+ * <p/>
+ * Operators work a column at a time. The columns an operator refers to are first extracted into arrays, over which predicates,
+ * comparisons, and aggregations run in tight loops, narrowing a selection vector of row numbers; rows are materialized only once,
+ * into the result. Every operator produces a new CachedResultSet, in the columnar layout if its input is columnar. Operators that
+ * don't reshape rows (filter, sort, and top) share the row arrays of a row-wise input with the result.
+ * <p/>
+ * Values are compared by their natural order, numbers of different types by their numeric values, and nulls come first. Integral
+ * numbers of different types, e.g. Integer 1, Long 1, and BigDecimal 1.00, are equal as group-by and join keys. Null keys never join.
+ */
+public final class Operators {
+    /**
+     * A predicate on column values.
+     */
+    public static interface Predicate {
+        public boolean evaluate(Object value);
+    }
+
+    /**
+     * A predicate on a named column.
+     */
+    public static class Condition {
+        public final String column;
+        public final Predicate predicate;
+
+        public Condition(String column, Predicate predicate) {
+            this.column = column;
+            this.predicate = predicate;
+        }
+    }
+
+    /**
+     * An aggregate function over a column, producing a column of the given name.
+     */
+    public static class Aggregate {
+        static final int COUNT = 0, SUM = 1, MIN = 2, MAX = 3, AVG = 4;
+        static final String[] NAMES = { "count", "sum", "min", "max", "avg" };
+
+        final int function;
+        final String column;
+        final String name;
+
+        Aggregate(int function, String column, String name) {
+            this.function = function;
+            this.column = column;
+            this.name = name;
+        }
+
+        /**
+         * Names the column produced by this aggregate, which by default is the function followed by the column name, as in "sumPrice".
+         */
+        public Aggregate as(String name) {
+            return new Aggregate(function, column, name);
+        }
+
+        /**
+         * Counts rows.
+         */
+        public static Aggregate count() {
+            return new Aggregate(COUNT, null, "count");
+        }
+
+        /**
+         * Counts non-null values.
+         */
+        public static Aggregate count(String column) {
+            return new Aggregate(COUNT, column, name(COUNT, column));
+        }
+
+        /**
+         * Sums non-null values, as a Long if all are integral, a BigDecimal if all are integral or BigDecimal, or a Double otherwise.
+         */
+        public static Aggregate sum(String column) {
+            return new Aggregate(SUM, column, name(SUM, column));
+        }
+
+        public static Aggregate min(String column) {
+            return new Aggregate(MIN, column, name(MIN, column));
+        }
+
+        public static Aggregate max(String column) {
+            return new Aggregate(MAX, column, name(MAX, column));
+        }
+
+        /**
+         * Averages non-null values, as a Double.
+         */
+        public static Aggregate avg(String column) {
+            return new Aggregate(AVG, column, name(AVG, column));
+        }
+
+        private static String name(int function, String column) {
+            return NAMES[function] + Character.toUpperCase(column.charAt(0)) + column.substring(1);
+        }
+    }
+
+    /**
+     * Predicates.
+     */
+    public static Predicate eq(final Object value) {
+        return new Predicate() { public boolean evaluate(Object v) { return v != null && compare(v, value) == 0; } };
+    }
+
+    public static Predicate ne(final Object value) {
+        return new Predicate() { public boolean evaluate(Object v) { return v != null && compare(v, value) != 0; } };
+    }
+
+    public static Predicate lt(final Object value) {
+        return new Predicate() { public boolean evaluate(Object v) { return v != null && compare(v, value) < 0; } };
+    }
+
+    public static Predicate le(final Object value) {
+        return new Predicate() { public boolean evaluate(Object v) { return v != null && compare(v, value) <= 0; } };
+    }
+
+    public static Predicate gt(final Object value) {
+        return new Predicate() { public boolean evaluate(Object v) { return v != null && compare(v, value) > 0; } };
+    }
+
+    public static Predicate ge(final Object value) {
+        return new Predicate() { public boolean evaluate(Object v) { return v != null && compare(v, value) >= 0; } };
+    }
+
+    public static Predicate between(final Object low, final Object high) {
+        return new Predicate() { public boolean evaluate(Object v) { return v != null && compare(v, low) >= 0 && compare(v, high) <= 0; } };
+    }
+
+    public static Predicate in(Object... values) {
+        final Set<Object> set = new HashSet<Object>();
+        for (Object value: values) set.add(key(value));
+        return new Predicate() { public boolean evaluate(Object v) { return v != null && set.contains(key(v)); } };
+    }
+
+    public static Predicate isNull() {
+        return new Predicate() { public boolean evaluate(Object v) { return v == null; } };
+    }
+
+    public static Predicate notNull() {
+        return new Predicate() { public boolean evaluate(Object v) { return v != null; } };
+    }
+
+    /**
+     * Selects the rows that satisfy all conditions.
+     */
+    public static CachedResultSet filter(CachedResultSet rset, Condition... conditions) {
+        int[] selection = all(size(rset));
+        int count = selection.length;
+        for (Condition condition: conditions) {
+            Object[] values = column(rset, index(rset, condition.column));
+            Predicate predicate = condition.predicate;
+            int n = 0;
+            for (int i = 0; i < count; ++i) {
+                int row = selection[i];
+                if (predicate.evaluate(values[row])) selection[n++] = row;
+            }
+            count = n;
+        }
+        return select(rset, selection, count);
+    }
+
+    /**
+     * Sorts the rows by the named columns, each in ascending order unless prefixed with '-'. The sort is stable.
+     */
+    public static CachedResultSet sort(CachedResultSet rset, String... columns) {
+        Integer[] order = new Integer[size(rset)];
+        for (int i = 0; i < order.length; ++i) order[i] = i;
+        Arrays.sort(order, comparator(rset, columns));
+        int[] selection = new int[order.length];
+        for (int i = 0; i < order.length; ++i) selection[i] = order[i];
+        return select(rset, selection, selection.length);
+    }
+
+    /**
+     * Selects the first n rows in the order of the named columns, as sort() would, without sorting all rows.
+     */
+    public static CachedResultSet top(CachedResultSet rset, int n, String... columns) {
+        final Comparator<Integer> comparator = comparator(rset, columns);
+        int size = size(rset);
+        n = Math.max(0, Math.min(n, size));
+
+        // a bounded heap that keeps the worst of the best n rows at the head, breaking ties by row number for stability
+        PriorityQueue<Integer> heap = new PriorityQueue<Integer>(Math.max(1, n), new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                int c = comparator.compare(b, a);
+                return c != 0 ? c : b.compareTo(a);
+            }
+        });
+        for (int i = 0; i < size && n > 0; ++i) {
+            if (heap.size() < n) {
+                heap.add(i);
+            } else {
+                int c = comparator.compare(i, heap.peek());
+                if (c < 0) {
+                    heap.poll();
+                    heap.add(i);
+                }
+            }
+        }
+
+        int[] selection = new int[heap.size()];
+        for (int i = selection.length; i > 0;) selection[--i] = heap.poll();
+        return select(rset, selection, selection.length);
+    }
+
+    /**
+     * Groups the rows by the named columns, producing a row of the key columns followed by the aggregates for each group, in the
+     * order in which groups first appear.
+     */
+    public static CachedResultSet group(CachedResultSet rset, String[] keys, Aggregate... aggregates) {
+        int size = size(rset);
+
+        // group number of each row
+        Object[][] keyValues = new Object[keys.length][];
+        for (int k = 0; k < keys.length; ++k) keyValues[k] = column(rset, index(rset, keys[k]));
+        int[] groups = new int[size];
+        List<Integer> firsts = new ArrayList<Integer>();
+        Map<Object, Integer> table = new HashMap<Object, Integer>();
+        for (int i = 0; i < size; ++i) {
+            Object key = key(keyValues, i, true);
+            Integer group = table.get(key);
+            if (group == null) {
+                table.put(key, group = firsts.size());
+                firsts.add(i);
+            }
+            groups[i] = group;
+        }
+        int count = firsts.size();
+
+        // aggregates, one column at a time
+        String[] columns = new String[keys.length + aggregates.length];
+        System.arraycopy(keys, 0, columns, 0, keys.length);
+        Object[][] results = new Object[aggregates.length][];
+        for (int a = 0; a < aggregates.length; ++a) {
+            columns[keys.length + a] = aggregates[a].name;
+            results[a] = aggregate(aggregates[a], aggregates[a].column != null ? column(rset, index(rset, aggregates[a].column)) : null, groups, count);
+        }
+
+        List<Object[]> rows = rset.isColumnar() ? new ColumnarRows(columns.length) : new ArrayList<Object[]>(count);
+        for (int g = 0; g < count; ++g) {
+            Object[] row = new Object[columns.length];
+            int first = firsts.get(g);
+            for (int k = 0; k < keys.length; ++k) row[k] = keyValues[k][first];
+            for (int a = 0; a < aggregates.length; ++a) row[keys.length + a] = results[a][g];
+            rows.add(row);
+        }
+        return new CachedResultSet(columns, trim(rows));
+    }
+
+    /**
+     * Joins two result sets on equal values of key columns, with a hash table built over the right result set. Each result row has
+     * the columns of the left row followed by those of the right row, less the right key columns. Rows are in the order of the left
+     * result set, and then of the right result set.
+     *
+     * @param outer - whether to keep left rows that have no match, with nulls in the right columns
+     */
+    public static CachedResultSet join(CachedResultSet left, String[] leftKeys, CachedResultSet right, String[] rightKeys, boolean outer) {
+        if (leftKeys.length != rightKeys.length) {
+            throw new IllegalArgumentException("Key count mismatch: " + leftKeys.length + " != " + rightKeys.length);
+        }
+
+        // the right columns to carry over
+        Set<Integer> rightKeySet = new HashSet<Integer>();
+        for (String key: rightKeys) rightKeySet.add(index(right, key));
+        int[] carried = new int[right.columns.length - rightKeySet.size()];
+        String[] columns = Arrays.copyOf(left.columns, left.columns.length + carried.length);
+        for (int i = 0, n = 0; i < right.columns.length; ++i) {
+            if (rightKeySet.contains(i)) continue;
+            columns[left.columns.length + n] = right.columns[i];
+            carried[n++] = i;
+        }
+
+        // build
+        int rsize = size(right);
+        Object[][] rightValues = new Object[rightKeys.length][];
+        for (int k = 0; k < rightKeys.length; ++k) rightValues[k] = column(right, index(right, rightKeys[k]));
+        Map<Object, int[]> table = new HashMap<Object, int[]>();
+        for (int i = 0; i < rsize; ++i) {
+            Object key = key(rightValues, i, false);
+            if (key == null) continue;
+            int[] matches = table.get(key);
+            if (matches == null) {
+                table.put(key, matches = new int[] { 0, i });
+            } else {
+                if (matches[0] + 2 == matches.length) table.put(key, matches = Arrays.copyOf(matches, matches.length * 2));
+                matches[++matches[0] + 1] = i;
+            }
+        }
+        Object[][] rightCarried = new Object[carried.length][];
+        for (int c = 0; c < carried.length; ++c) rightCarried[c] = column(right, carried[c]);
+
+        // probe
+        int lsize = size(left);
+        Object[][] leftValues = new Object[leftKeys.length][];
+        for (int k = 0; k < leftKeys.length; ++k) leftValues[k] = column(left, index(left, leftKeys[k]));
+        boolean columnar = left.isColumnar();
+        List<Object[]> rows = columnar ? new ColumnarRows(columns.length) : new ArrayList<Object[]>(lsize);
+        int width = left.columns.length;
+        for (int i = 0; i < lsize; ++i) {
+            Object key = key(leftValues, i, false);
+            int[] matches = key != null ? table.get(key) : null;
+            if (matches == null && !outer) continue;
+            Object[] lrow = left.rows.get(i);
+            if (matches == null) {
+                rows.add(Arrays.copyOf(lrow, columns.length));
+            } else for (int m = 0; m <= matches[0]; ++m) {
+                Object[] row = Arrays.copyOf(lrow, columns.length);
+                int r = matches[m + 1];
+                for (int c = 0; c < carried.length; ++c) row[width + c] = rightCarried[c][r];
+                rows.add(row);
+            }
+        }
+        return new CachedResultSet(columns, trim(rows));
+    }
+
+    /**
+     * Compares two values, nulls first, numbers of different types by their numeric values, and others by their natural order.
+     */
+    @SuppressWarnings("unchecked")
+    public static int compare(Object a, Object b) {
+        if (a == b) return 0;
+        if (a == null) return -1;
+        if (b == null) return 1;
+        if (a instanceof Number && b instanceof Number && a.getClass() != b.getClass()) {
+            if (isIntegral(a) && isIntegral(b)) {
+                long x = ((Number)a).longValue(), y = ((Number)b).longValue();
+                return x < y ? -1 : x > y ? 1 : 0;
+            } else if (a instanceof Double || a instanceof Float || b instanceof Double || b instanceof Float) {
+                return Double.compare(((Number)a).doubleValue(), ((Number)b).doubleValue());
+            } else {
+                return decimal(a).compareTo(decimal(b));
+            }
+        }
+        return ((Comparable<Object>)a).compareTo(b);
+    }
+
+    private static Object[] aggregate(Aggregate aggregate, Object[] values, int[] groups, int count) {
+        Object[] results = new Object[count];
+        switch (aggregate.function) {
+        case Aggregate.COUNT:
+            long[] counts = new long[count];
+            if (values == null) {
+                for (int i = 0; i < groups.length; ++i) ++counts[groups[i]];
+            } else {
+                for (int i = 0; i < groups.length; ++i) if (values[i] != null) ++counts[groups[i]];
+            }
+            for (int g = 0; g < count; ++g) results[g] = counts[g];
+            break;
+        case Aggregate.MIN:
+        case Aggregate.MAX:
+            int sign = aggregate.function == Aggregate.MIN ? 1 : -1;
+            for (int i = 0; i < groups.length; ++i) {
+                Object value = values[i];
+                if (value == null) continue;
+                int g = groups[i];
+                if (results[g] == null || sign * compare(value, results[g]) < 0) results[g] = value;
+            }
+            break;
+        case Aggregate.SUM:
+        case Aggregate.AVG:
+            // integral sums stay in longs, others go to BigDecimal or double, whichever the group's values require
+            long[] longs = new long[count];
+            double[] doubles = new double[count];
+            BigDecimal[] decimals = new BigDecimal[count];
+            long[] n = new long[count];
+            byte[] kinds = new byte[count];
+            for (int i = 0; i < groups.length; ++i) {
+                Object value = values[i];
+                if (value == null) continue;
+                int g = groups[i];
+                ++n[g];
+                if (isIntegral(value) && kinds[g] == LONG_SUM) {
+                    longs[g] += ((Number)value).longValue();
+                } else if ((value instanceof BigDecimal && kinds[g] != DOUBLE_SUM) || (isIntegral(value) && kinds[g] == DECIMAL_SUM)) {
+                    if (kinds[g] == LONG_SUM) {
+                        decimals[g] = BigDecimal.valueOf(longs[g]);
+                        kinds[g] = DECIMAL_SUM;
+                    }
+                    decimals[g] = decimals[g].add(decimal(value));
+                } else {
+                    if (kinds[g] == LONG_SUM) {
+                        doubles[g] = longs[g];
+                    } else if (kinds[g] == DECIMAL_SUM) {
+                        doubles[g] = decimals[g].doubleValue();
+                    }
+                    kinds[g] = DOUBLE_SUM;
+                    doubles[g] += ((Number)value).doubleValue();
+                }
+            }
+            for (int g = 0; g < count; ++g) {
+                if (n[g] == 0) continue;
+                if (aggregate.function == Aggregate.SUM) {
+                    results[g] = kinds[g] == LONG_SUM ? (Object)longs[g] : kinds[g] == DECIMAL_SUM ? (Object)decimals[g] : (Object)doubles[g];
+                } else {
+                    double sum = kinds[g] == LONG_SUM ? longs[g] : kinds[g] == DECIMAL_SUM ? decimals[g].doubleValue() : doubles[g];
+                    results[g] = sum / n[g];
+                }
+            }
+            break;
+        }
+        return results;
+    }
+
+    private static final byte LONG_SUM = 0, DECIMAL_SUM = 1, DOUBLE_SUM = 2;
+
+    private static Comparator<Integer> comparator(CachedResultSet rset, String[] columns) {
+        final Object[][] keys = new Object[columns.length][];
+        final int[] signs = new int[columns.length];
+        for (int k = 0; k < columns.length; ++k) {
+            String column = columns[k];
+            signs[k] = column.startsWith("-") ? -1 : 1;
+            keys[k] = column(rset, index(rset, signs[k] < 0 ? column.substring(1) : column));
+        }
+        return new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                for (int k = 0; k < keys.length; ++k) {
+                    int c = Operators.compare(keys[k][a], keys[k][b]);
+                    if (c != 0) return signs[k] * c;
+                }
+                return 0;
+            }
+        };
+    }
+
+    /*!
+     * The hash key of a row, normalized so that integral numbers of different types are equal. Unless nulls are allowed, the key is
+     * null if any key value is null.
+     */
+    private static Object key(Object[][] values, int row, boolean nulls) {
+        if (values.length == 1) return key(values[0][row]);
+        Object[] key = new Object[values.length];
+        for (int k = 0; k < values.length; ++k) {
+            if ((key[k] = key(values[k][row])) == null && !nulls) return null;
+        }
+        return Arrays.asList(key);
+    }
+
+    private static Object key(Object value) {
+        if (value instanceof Number) {
+            if (isIntegral(value)) {
+                return ((Number)value).longValue();
+            } else if (value instanceof BigDecimal) {
+                BigDecimal decimal = (BigDecimal)value;
+                if (decimal.signum() == 0) return 0L;
+                decimal = decimal.stripTrailingZeros();
+                return decimal.scale() <= 0 && decimal.precision() - decimal.scale() < 19 ? (Object)decimal.longValue() : decimal;
+            } else if (value instanceof Double || value instanceof Float) {
+                double d = ((Number)value).doubleValue();
+                return d == (long)d ? (Object)(long)d : (Object)d;
+            }
+        }
+        return value;
+    }
+
+    private static boolean isIntegral(Object value) {
+        return value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte;
+    }
+
+    private static BigDecimal decimal(Object value) {
+        if (value instanceof BigDecimal) return (BigDecimal)value;
+        if (isIntegral(value)) return BigDecimal.valueOf(((Number)value).longValue());
+        return new BigDecimal(value.toString());
+    }
+
+    private static int size(CachedResultSet rset) {
+        return rset.rows != null ? rset.rows.size() : 0;
+    }
+
+    private static int index(CachedResultSet rset, String column) {
+        for (int i = 0; i < rset.columns.length; ++i) {
+            if (rset.columns[i].equals(column)) return i;
+        }
+        throw new IllegalArgumentException("Unknown column: " + column);
+    }
+
+    private static int[] all(int size) {
+        int[] selection = new int[size];
+        for (int i = 0; i < size; ++i) selection[i] = i;
+        return selection;
+    }
+
+    /*!
+     * Extracts the values of a column, without materializing the rows of a columnar result set.
+     */
+    private static Object[] column(CachedResultSet rset, int column) {
+        int size = size(rset);
+        Object[] values = new Object[size];
+        if (rset.rows instanceof ColumnarRows) {
+            ColumnarRows rows = (ColumnarRows)rset.rows;
+            for (int i = 0; i < size; ++i) values[i] = rows.get(i, column);
+        } else if (size > 0) {
+            int i = 0;
+            for (Object[] row: rset.rows) values[i++] = row[column];
+        }
+        return values;
+    }
+
+    private static CachedResultSet select(CachedResultSet rset, int[] selection, int count) {
+        List<Object[]> rows;
+        if (rset.rows instanceof ColumnarRows) {
+            ColumnarRows source = (ColumnarRows)rset.rows;
+            rows = new ColumnarRows(rset.columns.length);
+            for (int i = 0; i < count; ++i) rows.add(source.get(selection[i]));
+            ((ColumnarRows)rows).trim();
+        } else {
+            rows = new ArrayList<Object[]>(count);
+            for (int i = 0; i < count; ++i) rows.add(rset.rows.get(selection[i]));
+        }
+        return new CachedResultSet(rset.columns.clone(), rows);
+    }
+
+    private static List<Object[]> trim(List<Object[]> rows) {
+        return rows instanceof ColumnarRows ? ((ColumnarRows)rows).trim() : rows;
+    }
+
+    private Operators() {}
+}
@@ -0,0 +1,455 @@
+package org.xillium.data;
+
+import java.io.*;
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.*;
+
+
+/**
+ * A store of result set rows that keeps rows in memory up to a byte budget, and spills the rest into a temporary file.
+ * <p/>
+ * Rows are kept in memory as they are added, until the estimated heap footprint of the rows exceeds the budget. Subsequent rows are
+ * encoded into a compact binary form and appended to a temporary file, which is read back through memory-mapped buffers, so that
+ * spilled rows take no heap beyond an offset per row. <code>get()</code> returns in-memory rows as they are, and decodes spilled rows
+ * into new arrays whose values are equal to, and of the same types as, the values originally added. Values must be of the types
+ * returned by JDBC drivers, or else serializable.
+ * <p/>
+ * The temporary file is deleted by <code>close()</code>, after which spilled rows are no longer accessible. The owner of a SpillingRows
+ * must close it when done; the dispatcher closes those of the result sets in a response after the response is sent.
+ * <p/>
+ * The default budget and the directory of temporary files are configured by the system properties "xillium.data.spill.Budget"
+ * (64 MB by default) and "xillium.data.spill.Directory" (java.io.tmpdir by default).
+ */
+public class SpillingRows extends AbstractList<Object[]> implements RandomAccess, Closeable {
+    public static final long DEFAULT_BUDGET = Long.getLong("xillium.data.spill.Budget", 64L << 20);
+    public static final int DEFAULT_SEGMENT_SIZE = 1 << 30;
+
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int FLUSH_THRESHOLD = 64 * 1024;
+
+    private final int _width;
+    private final long _budget;
+    private final int _segment;
+    private final List<Object[]> _memory = new ArrayList<Object[]>();
+    private long _bytes;
+
+    // spilled rows
+    private File _file;
+    private FileChannel _channel;
+    private long[] _offsets;
+    private int _spilled;
+    private Buffer _pending;
+    private DataOutputStream _output;
+    private long _written, _length;
+    private MappedByteBuffer[] _segments;
+    private long _mapped;
+    private boolean _closed;
+
+    /**
+     * Constructs an empty SpillingRows of the given number of columns, with the default budget.
+     */
+    public SpillingRows(int width) {
+        this(width, DEFAULT_BUDGET);
+    }
+
+    /**
+     * Constructs an empty SpillingRows of the given number of columns, which spills rows beyond the budget in bytes.
+     */
+    public SpillingRows(int width, long budget) {
+        this(width, budget, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Constructs an empty SpillingRows of the given number of columns, which spills rows beyond the budget in bytes into a file mapped
+     * in segments of the given size. No row may be larger than a segment.
+     */
+    public SpillingRows(int width, long budget, int segment) {
+        _width = width;
+        _budget = budget;
+        _segment = segment;
+    }
+
+    /**
+     * Appends a row. The row array is retained if the row is kept in memory.
+     */
+    @Override
+    public boolean add(Object[] row) {
+        if (row.length != _width) {
+            throw new IllegalArgumentException("Row width " + row.length + " != " + _width);
+        }
+        if (_closed) throw new IllegalStateException("Closed");
+
+        if (_file == null && _bytes <= _budget) {
+            _memory.add(row);
+            _bytes += estimate(row);
+        } else try {
+            spill(row);
+        } catch (IOException x) {
+            throw new RuntimeException("Failure in spilling rows to " + _file, x);
+        }
+        ++modCount;
+        return true;
+    }
+
+    /**
+     * Retrieves a row, decoding it from the temporary file if it has been spilled.
+     */
+    @Override
+    public Object[] get(int index) {
+        if (index < 0 || index >= size()) throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+        if (index < _memory.size()) return _memory.get(index);
+        if (_closed) throw new IllegalStateException("Closed");
+
+        try {
+            long offset = _offsets[index - _memory.size()];
+            if (offset >= _mapped) map();
+            ByteBuffer buffer = _segments[(int)(offset / _segment)].duplicate();
+            buffer.position((int)(offset % _segment));
+            return decode(buffer);
+        } catch (IOException x) {
+            throw new RuntimeException("Failure in reading spilled rows from " + _file, x);
+        }
+    }
+
+    @Override
+    public int size() {
+        return _memory.size() + _spilled;
+    }
+
+    /**
+     * Returns the number of rows kept in memory.
+     */
+    public int getMemorySize() {
+        return _memory.size();
+    }
+
+    /**
+     * Reports whether any rows have been spilled.
+     */
+    public boolean isSpilled() {
+        return _file != null;
+    }
+
+    /**
+     * Returns the temporary file, or null if no rows have been spilled.
+     */
+    public File getFile() {
+        return _file;
+    }
+
+    /**
+     * Returns the number of bytes spilled.
+     */
+    public long getSpilledBytes() {
+        return _length;
+    }
+
+    /**
+     * Releases the temporary file. Spilled rows are no longer accessible afterwards.
+     */
+    @Override
+    public void close() {
+        if (_closed) return;
+        _closed = true;
+        if (_segments != null) {
+            for (MappedByteBuffer buffer: _segments) unmap(buffer);
+            _segments = null;
+        }
+        if (_channel != null) {
+            try { _channel.close(); } catch (IOException x) {}
+            _channel = null;
+        }
+        if (_file != null) {
+            _file.delete();
+        }
+    }
+
+    private void spill(Object[] row) throws IOException {
+        if (_file == null) {
+            String directory = System.getProperty("xillium.data.spill.Directory");
+            _file = File.createTempFile("xillium-", ".rows", directory != null ? new File(directory) : null);
+            _channel = new RandomAccessFile(_file, "rw").getChannel();
+            _offsets = new long[1024];
+            _pending = new Buffer();
+            _output = new DataOutputStream(_pending);
+        }
+
+        int start = _pending.size();
+        try {
+            encode(_output, row);
+        } catch (RuntimeException x) {
+            _pending.truncate(start);
+            throw x;
+        }
+        int length = _pending.size() - start;
+        if (length > _segment) {
+            _pending.truncate(start);
+            throw new IllegalArgumentException("Row of " + length + " bytes larger than segment size " + _segment);
+        }
+
+        // a row never straddles two segments
+        if (_length / _segment != (_length + length - 1) / _segment) {
+            _channel.write(ByteBuffer.wrap(_pending.array(), 0, start), _written);
+            _pending.shift(start);
+            _written = _length = (_length / _segment + 1) * _segment;
+        }
+
+        if (_spilled == _offsets.length) _offsets = Arrays.copyOf(_offsets, _spilled * 2);
+        _offsets[_spilled++] = _length;
+        _length += length;
+        if (_pending.size() >= FLUSH_THRESHOLD) flush();
+    }
+
+    private void flush() throws IOException {
+        if (_pending.size() > 0) {
+            _channel.write(ByteBuffer.wrap(_pending.array(), 0, _pending.size()), _written);
+            _written += _pending.size();
+            _pending.reset();
+        }
+    }
+
+    /*!
+     * Maps the file up to its current length.
+     */
+    private synchronized void map() throws IOException {
+        if (_mapped >= _length) return;
+        flush();
+        int count = (int)((_length + _segment - 1) / _segment);
+        MappedByteBuffer[] segments = _segments != null ? Arrays.copyOf(_segments, count) : new MappedByteBuffer[count];
+        for (int i = (int)(_mapped / _segment); i < count; ++i) {
+            long position = (long)i * _segment;
+            if (segments[i] != null) unmap(segments[i]);
+            segments[i] = _channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(_segment, _length - position));
+        }
+        _segments = segments;
+        _mapped = _length;
+    }
+
+    private static final byte NULL = 0, INTEGER = 1, LONG = 2, DOUBLE = 3, DECIMAL = 4, BIG_DECIMAL = 5, STRING = 6, DATE = 7, TIMESTAMP = 8,
+                              TIME = 9, UTIL_DATE = 10, BOOLEAN = 11, SHORT = 12, BYTE = 13, FLOAT = 14, BYTES = 15, OBJECT = 16;
+
+    private static void encode(DataOutputStream output, Object[] row) throws IOException {
+        for (Object value: row) {
+            if (value == null) {
+                output.writeByte(NULL);
+            } else if (value instanceof String) {
+                byte[] bytes = ((String)value).getBytes(UTF8);
+                output.writeByte(STRING);
+                output.writeInt(bytes.length);
+                output.write(bytes);
+            } else if (value instanceof Integer) {
+                output.writeByte(INTEGER);
+                output.writeInt((Integer)value);
+            } else if (value instanceof Long) {
+                output.writeByte(LONG);
+                output.writeLong((Long)value);
+            } else if (value instanceof Double) {
+                output.writeByte(DOUBLE);
+                output.writeDouble((Double)value);
+            } else if (value instanceof BigDecimal) {
+                BigDecimal decimal = (BigDecimal)value;
+                BigInteger unscaled = decimal.unscaledValue();
+                if (unscaled.bitLength() < 64) {
+                    output.writeByte(DECIMAL);
+                    output.writeInt(decimal.scale());
+                    output.writeLong(unscaled.longValue());
+                } else {
+                    byte[] bytes = unscaled.toByteArray();
+                    output.writeByte(BIG_DECIMAL);
+                    output.writeInt(decimal.scale());
+                    output.writeInt(bytes.length);
+                    output.write(bytes);
+                }
+            } else if (value instanceof java.sql.Timestamp) {
+                output.writeByte(TIMESTAMP);
+                output.writeLong(((java.sql.Timestamp)value).getTime());
+                output.writeInt(((java.sql.Timestamp)value).getNanos());
+            } else if (value instanceof java.sql.Date) {
+                output.writeByte(DATE);
+                output.writeLong(((java.util.Date)value).getTime());
+            } else if (value instanceof java.sql.Time) {
+                output.writeByte(TIME);
+                output.writeLong(((java.util.Date)value).getTime());
+            } else if (value.getClass() == java.util.Date.class) {
+                output.writeByte(UTIL_DATE);
+                output.writeLong(((java.util.Date)value).getTime());
+            } else if (value instanceof Boolean) {
+                output.writeByte(BOOLEAN);
+                output.writeBoolean((Boolean)value);
+            } else if (value instanceof Short) {
+                output.writeByte(SHORT);
+                output.writeShort((Short)value);
+            } else if (value instanceof Byte) {
+                output.writeByte(BYTE);
+                output.writeByte((Byte)value);
+            } else if (value instanceof Float) {
+                output.writeByte(FLOAT);
+                output.writeFloat((Float)value);
+            } else if (value instanceof byte[]) {
+                output.writeByte(BYTES);
+                output.writeInt(((byte[])value).length);
+                output.write((byte[])value);
+            } else if (value instanceof Serializable) {
+                ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                ObjectOutputStream stream = new ObjectOutputStream(bytes);
+                stream.writeObject(value);
+                stream.close();
+                output.writeByte(OBJECT);
+                output.writeInt(bytes.size());
+                bytes.writeTo(output);
+            } else {
+                throw new IllegalArgumentException("Value of " + value.getClass().getName() + " can't be spilled");
+            }
+        }
+    }
+
+    private Object[] decode(ByteBuffer buffer) throws IOException {
+        Object[] row = new Object[_width];
+        for (int i = 0; i < _width; ++i) {
+            switch (buffer.get()) {
+            case NULL:
+                break;
+            case STRING:
+                row[i] = new String(bytes(buffer), UTF8);
+                break;
+            case INTEGER:
+                row[i] = buffer.getInt();
+                break;
+            case LONG:
+                row[i] = buffer.getLong();
+                break;
+            case DOUBLE:
+                row[i] = buffer.getDouble();
+                break;
+            case DECIMAL:
+                int scale = buffer.getInt();
+                row[i] = BigDecimal.valueOf(buffer.getLong(), scale);
+                break;
+            case BIG_DECIMAL:
+                scale = buffer.getInt();
+                row[i] = new BigDecimal(new BigInteger(bytes(buffer)), scale);
+                break;
+            case TIMESTAMP:
+                java.sql.Timestamp timestamp = new java.sql.Timestamp(buffer.getLong());
+                timestamp.setNanos(buffer.getInt());
+                row[i] = timestamp;
+                break;
+            case DATE:
+                row[i] = new java.sql.Date(buffer.getLong());
+                break;
+            case TIME:
+                row[i] = new java.sql.Time(buffer.getLong());
+                break;
+            case UTIL_DATE:
+                row[i] = new java.util.Date(buffer.getLong());
+                break;
+            case BOOLEAN:
+                row[i] = buffer.get() != 0;
+                break;
+            case SHORT:
+                row[i] = buffer.getShort();
+                break;
+            case BYTE:
+                row[i] = buffer.get();
+                break;
+            case FLOAT:
+                row[i] = buffer.getFloat();
+                break;
+            case BYTES:
+                row[i] = bytes(buffer);
+                break;
+            case OBJECT:
+                ObjectInputStream stream = new ObjectInputStream(new ByteArrayInputStream(bytes(buffer)));
+                try {
+                    row[i] = stream.readObject();
+                } catch (ClassNotFoundException x) {
+                    throw new IOException(x.getMessage(), x);
+                } finally {
+                    stream.close();
+                }
+                break;
+            default:
+                throw new IOException("Corrupted spill file " + _file);
+            }
+        }
+        return row;
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /*!
+     * Estimates the heap footprint of a row.
+     */
+    private static long estimate(Object[] row) {
+        long bytes = 16 + 4 * row.length;
+        for (Object value: row) {
+            if (value == null) {
+                continue;
+            } else if (value instanceof String) {
+                bytes += 40 + 2 * ((String)value).length();
+            } else if (value instanceof Integer || value instanceof Short || value instanceof Byte || value instanceof Boolean || value instanceof Float) {
+                bytes += 16;
+            } else if (value instanceof BigDecimal) {
+                bytes += 40 + ((BigDecimal)value).unscaledValue().bitLength() / 8;
+            } else if (value instanceof byte[]) {
+                bytes += 16 + ((byte[])value).length;
+            } else {
+                bytes += 24;
+            }
+        }
+        return bytes;
+    }
+
+    /*!
+     * Releases a mapped buffer without waiting for garbage collection, where the JVM allows.
+     */
+    private static void unmap(MappedByteBuffer buffer) {
+        if (buffer == null) return;
+        try {
+            Method cleaner = buffer.getClass().getMethod("cleaner");
+            cleaner.setAccessible(true);
+            Object object = cleaner.invoke(buffer);
+            if (object != null) object.getClass().getMethod("clean").invoke(object);
+        } catch (Exception x) {
+            // left to garbage collection
+        }
+    }
+
+    /*!
+     * A byte array output stream with access to its buffer.
+     */
+    private static class Buffer extends ByteArrayOutputStream {
+        Buffer() {
+            super(FLUSH_THRESHOLD * 2);
+        }
+
+        byte[] array() {
+            return buf;
+        }
+
+        /*!
+         * Discards the bytes after the first n.
+         */
+        void truncate(int n) {
+            count = n;
+        }
+
+        /*!
+         * Discards the first n bytes.
+         */
+        void shift(int n) {
+            System.arraycopy(buf, n, buf, 0, count - n);
+            count -= n;
+        }
+    }
+}
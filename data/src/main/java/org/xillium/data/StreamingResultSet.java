@@ -0,0 +1,176 @@
+package org.xillium.data;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.sql.*;
+import org.xillium.base.beans.JSONBuilder;
+import org.xillium.base.beans.Strings;
+import org.xillium.base.text.JSONStreamer;
+
+
+/**
+ * A result set that streams rows from an open database cursor instead of caching them, so that a query result of any size can be
+ * written to a response in constant memory. A service places a StreamingResultSet into a DataBinder like any other CachedResultSet,
+ * and the response encoder pulls the rows from the cursor as it writes them, in the same JSON or XML form as a CachedResultSet.
+ * <p/>
+ * A StreamingResultSet owns the connection, the statement, and the cursor it reads from, which stay open until the last row has been
+ * pulled or close() is called, whichever comes first. Closing commits the connection's transaction if auto-commit is off, and closes
+ * the connection. Rows can be pulled only once, and the field rows is always null, so a response holding a StreamingResultSet is never
+ * shared with identical requests to a service marked Service.Coalesced, nor cached by a ResponseCache.
+ */
+public class StreamingResultSet extends CachedResultSet implements Closeable {
+    public static final int DEFAULT_FETCH_SIZE = 1000;
+
+    private final Connection _connection;
+    private final Statement _statement;
+    private final ResultSet _rset;
+    private final Object[] _row;
+    private final boolean _restoring, _autoCommit, _readOnly;
+    private long _count;
+    private boolean _closed;
+
+    /**
+     * Constructs a StreamingResultSet over an open JDBC result set, taking over the result set, its statement, and the connection.
+     */
+    public StreamingResultSet(Connection connection, Statement statement, ResultSet rset) throws SQLException {
+        this(connection, statement, rset, false, false, false);
+    }
+
+    /**
+     * Constructs a StreamingResultSet over an open JDBC result set, taking over the result set, its statement, and the connection, whose
+     * auto-commit and read-only settings are restored to the given values before the connection is closed, e.g. returned to a pool.
+     */
+    public StreamingResultSet(Connection connection, Statement statement, ResultSet rset, boolean autoCommit, boolean readOnly)
+    throws SQLException {
+        this(connection, statement, rset, true, autoCommit, readOnly);
+    }
+
+    private StreamingResultSet(Connection connection, Statement statement, ResultSet rset, boolean restoring, boolean autoCommit,
+    boolean readOnly) throws SQLException {
+        super(columns(rset.getMetaData()), null);
+        _connection = connection;
+        _statement = statement;
+        _rset = rset;
+        _row = new Object[columns.length];
+        _restoring = restoring;
+        _autoCommit = autoCommit;
+        _readOnly = readOnly;
+    }
+
+    /**
+     * Pulls the next row from the cursor, returning null and closing this result set if there are no more rows. The returned array is
+     * reused for every row.
+     */
+    public Object[] next() throws SQLException {
+        if (_closed) return null;
+        try {
+            if (_rset.next()) {
+                for (int i = 0; i < _row.length; ++i) {
+                    _row[i] = _rset.getObject(i+1);
+                }
+                ++_count;
+                return _row;
+            }
+        } catch (SQLException x) {
+            close();
+            throw x;
+        }
+        close();
+        return null;
+    }
+
+    /**
+     * Returns the number of rows pulled so far.
+     */
+    public long getCount() {
+        return _count;
+    }
+
+    /**
+     * Reports whether this result set has been closed.
+     */
+    public boolean isClosed() {
+        return _closed;
+    }
+
+    /**
+     * Closes the cursor, the statement, and the connection, committing the connection's transaction if auto-commit is off, and restoring
+     * the connection's settings if so requested.
+     */
+    @Override
+    public void close() {
+        if (_closed) return;
+        _closed = true;
+        try { _rset.close(); } catch (SQLException x) {}
+        try { _statement.close(); } catch (SQLException x) {}
+        try {
+            if (!_connection.getAutoCommit()) _connection.commit();
+        } catch (SQLException x) {
+        } finally {
+            if (_restoring) restore(_connection, _autoCommit, _readOnly);
+            try { _connection.close(); } catch (SQLException x) {}
+        }
+    }
+
+    /**
+     * Restores the auto-commit and read-only settings of a connection, ignoring any failure.
+     */
+    public static void restore(Connection connection, boolean autoCommit, boolean readOnly) {
+        try { connection.setReadOnly(readOnly); } catch (SQLException x) {}
+        try { connection.setAutoCommit(autoCommit); } catch (SQLException x) {}
+    }
+
+    /**
+     * Inside an object: serializes the remaining rows into JSON, in the same form as a CachedResultSet.
+     */
+    @Override
+    public JSONBuilder toJSON(JSONBuilder jb) {
+        try {
+            jb.append('{').serialize("columns", columns).append(",\"rows\":");
+            Object[] row = next();
+            if (row == null) {
+                jb.append("null");
+            } else {
+                jb.append('[').serialize(row);
+                while ((row = next()) != null) {
+                    jb.append(',').serialize(row);
+                }
+                jb.append(']');
+            }
+            return jb.append('}');
+        } catch (SQLException x) {
+            throw new RuntimeException(x.getMessage(), x);
+        }
+    }
+
+    /**
+     * Inside an object: streams the remaining rows as JSON, in the same form as a CachedResultSet.
+     */
+    @Override
+    public JSONStreamer toJSON(JSONStreamer js) throws IOException {
+        try {
+            js.append('{').serialize("columns", columns).append(",\"rows\":");
+            Object[] row = next();
+            if (row == null) {
+                js.append("null");
+            } else {
+                js.append('[').serialize(row);
+                while ((row = next()) != null) {
+                    js.append(',').serialize(row);
+                }
+                js.append(']');
+            }
+            return js.append('}');
+        } catch (SQLException x) {
+            throw new IOException(x.getMessage(), x);
+        }
+    }
+
+    private static String[] columns(ResultSetMetaData metaData) throws SQLException {
+        String[] columns = new String[metaData.getColumnCount()];
+        for (int i = 0; i < columns.length; ++i) {
+            columns[i] = Strings.toLowerCamelCase(metaData.getColumnLabel(i+1), '_');
+        }
+        return columns;
+    }
+}
@@ -0,0 +1,238 @@
+package org.xillium.data.json;
+
+import java.io.*;
+import java.lang.reflect.*;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import com.fasterxml.jackson.core.*;
+import org.xillium.data.DataBinder;
+import org.xillium.data.DataObject;
+import org.xillium.data.validation.*;
+
+
+/**
+ * A streaming decoder of JSON request bodies, which must be JSON objects.
+ * <p/>
+ * Members of the object are decoded into a DataBinder, with structured values flattened under the naming convention of
+ * Dictionary.collect(), e.g.
+ * <pre>
+ *      {"p": 1, "o": {"q": "x"}, "a": [{"q": "y"}, {"q": "z"}]}  =&gt;  p=1, o.q=x, a[0].q=y, a[1].q=z
+ * </pre>
+ * If the request type is known, arrays and data objects that are members of the request type are instead decoded straight into a
+ * request object and validated as they are parsed, without going through string entries in the binder. The request object is left in
+ * the binder as the named object Dictionary.DECODED_DATA_OBJECT, from which Dictionary.collect() takes those members.
+ * <p/>
+ * Either way, the body is decoded in a single pass in time linear to its size.
+ */
+public class JSONDecoder {
+    private static final JsonFactory _factory = new JsonFactory();
+    private static final ConcurrentMap<Class<?>, Map<String, Field>> _fields = new ConcurrentHashMap<Class<?>, Map<String, Field>>();
+
+    /**
+     * Decodes a JSON object into a DataBinder.
+     */
+    public static DataBinder decode(DataBinder binder, InputStream stream) throws IOException, DataValidationException {
+        return decode(binder, stream, null, null);
+    }
+
+    /**
+     * Decodes a JSON object into a DataBinder, decoding arrays and data objects that are members of the request type straight into a
+     * request object, validated against the dictionary.
+     *
+     * @param type - the request type, or null if not known
+     */
+    public static DataBinder decode(DataBinder binder, InputStream stream, Class<? extends DataObject> type, Dictionary dict)
+    throws IOException, DataValidationException {
+        JsonParser parser = _factory.createParser(stream);
+        try {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new JsonParseException("JSON object expected", parser.getCurrentLocation());
+            }
+
+            DataObject data = type != null ? instantiate(type) : null;
+            Map<String, Field> fields = type != null ? fields(type) : Collections.<String, Field>emptyMap();
+            StringBuilder name = new StringBuilder();
+            boolean decoded = false;
+
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String key = parser.getCurrentName();
+                JsonToken token = parser.nextToken();
+                Field field = fields.get(key);
+                if (field != null && isStructured(field, token)) {
+                    Object value = decode(parser, token, field, key, dict);
+                    if (value != null) {
+                        set(data, field, value);
+                        decoded = true;
+                    }
+                } else {
+                    name.setLength(0);
+                    flatten(binder, parser, token, name.append(key));
+                }
+            }
+
+            if (decoded) {
+                binder.putNamedObject(Dictionary.DECODED_DATA_OBJECT, data);
+            }
+            return binder;
+        } finally {
+            parser.close();
+        }
+    }
+
+    /*!
+     * Flattens a JSON value into binder entries, with the name of the value in the string builder, which is restored on return.
+     */
+    private static void flatten(DataBinder binder, JsonParser parser, JsonToken token, StringBuilder name) throws IOException {
+        int length = name.length();
+        switch (token) {
+        case START_OBJECT:
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                name.append('.').append(parser.getCurrentName());
+                flatten(binder, parser, parser.nextToken(), name);
+                name.setLength(length);
+            }
+            break;
+        case START_ARRAY:
+            for (int index = 0; (token = parser.nextToken()) != JsonToken.END_ARRAY; ++index) {
+                name.append('[').append(index).append(']');
+                flatten(binder, parser, token, name);
+                name.setLength(length);
+            }
+            break;
+        case VALUE_NULL:
+            break;
+        default:
+            binder.put(name.toString(), parser.getText());
+            break;
+        }
+    }
+
+    /*!
+     * Decodes a structured JSON value into an array or a data object for a field, returning null if nothing is decoded.
+     */
+    private static Object decode(JsonParser parser, JsonToken token, Field field, String qualified, Dictionary dict)
+    throws IOException, DataValidationException {
+        Class<?> ftype = field.getType();
+        if (token == JsonToken.START_OBJECT) {
+            return decode(parser, ftype.asSubclass(DataObject.class), qualified, dict);
+        }
+
+        Class<?> ctype = ftype.getComponentType();
+        List<Object> list = new ArrayList<Object>();
+        int index = 0;
+        if (DataObject.class.isAssignableFrom(ctype)) {
+            for (; (token = parser.nextToken()) != JsonToken.END_ARRAY; ++index) {
+                if (token == JsonToken.START_OBJECT) {
+                    Object element = decode(parser, ctype.asSubclass(DataObject.class), qualified + '[' + index + ']', dict);
+                    if (element != null) list.add(element);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        } else {
+            for (; (token = parser.nextToken()) != JsonToken.END_ARRAY; ++index) {
+                if (token.isScalarValue() && token != JsonToken.VALUE_NULL) {
+                    list.add(dict.translate(field, parser.getText()));
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+
+        if (list.isEmpty()) return null;
+        Object array = Array.newInstance(ctype, list.size());
+        for (int i = 0; i < list.size(); ++i) {
+            Array.set(array, i, list.get(i));
+        }
+        return array;
+    }
+
+    /*!
+     * Decodes a JSON object into a data object, returning null if the object has no members of the data object.
+     */
+    private static DataObject decode(JsonParser parser, Class<? extends DataObject> type, String qualified, Dictionary dict)
+    throws IOException, DataValidationException {
+        DataObject data = instantiate(type);
+        Map<String, Field> fields = fields(type);
+        int present = 0;
+
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            Field field = fields.get(parser.getCurrentName());
+            JsonToken token = parser.nextToken();
+            if (field == null) {
+                parser.skipChildren();
+            } else if (isStructured(field, token)) {
+                Object value = decode(parser, token, field, qualified + '.' + field.getName(), dict);
+                if (value != null) {
+                    set(data, field, value);
+                    ++present;
+                }
+            } else if (token.isScalarValue() && !field.getType().isArray() && !DataObject.class.isAssignableFrom(field.getType())) {
+                String text = parser.getText();
+                if (token != JsonToken.VALUE_NULL && text.length() > 0) {
+                    set(data, field, dict.translate(field, text));
+                    ++present;
+                }
+            } else {
+                parser.skipChildren();
+            }
+        }
+
+        if (present == 0) return null;
+        for (Field field: fields.values()) {
+            if (field.getAnnotation(required.class) != null && get(data, field) == null) {
+                throw new MissingParameterException(field.getName(), qualified + '(' + type.getName() + ')');
+            }
+        }
+        return data;
+    }
+
+    private static boolean isStructured(Field field, JsonToken token) {
+        Class<?> ftype = field.getType();
+        return (token == JsonToken.START_ARRAY && ftype.isArray()) || (token == JsonToken.START_OBJECT && DataObject.class.isAssignableFrom(ftype));
+    }
+
+    private static Map<String, Field> fields(Class<?> type) {
+        Map<String, Field> fields = _fields.get(type);
+        if (fields == null) {
+            fields = new HashMap<String, Field>();
+            for (Field field: type.getFields()) {
+                if (Modifier.isStatic(field.getModifiers()) || Modifier.isTransient(field.getModifiers())) continue;
+                fields.put(field.getName(), field);
+            }
+            _fields.put(type, fields);
+        }
+        return fields;
+    }
+
+    private static DataObject instantiate(Class<? extends DataObject> type) {
+        try {
+            return type.newInstance();
+        } catch (InstantiationException x) {
+            throw new ValidationSpecificationException("Impossible to instantiate " + type.getName(), x);
+        } catch (IllegalAccessException x) {
+            throw new ValidationSpecificationException("Impossible to instantiate " + type.getName(), x);
+        }
+    }
+
+    private static Object get(DataObject data, Field field) {
+        try {
+            return field.get(data);
+        } catch (IllegalAccessException x) {
+            throw new RuntimeException("While getting field " + field, x);
+        }
+    }
+
+    private static void set(DataObject data, Field field, Object value) {
+        try {
+            field.set(data, value);
+        } catch (IllegalAccessException x) {
+            throw new RuntimeException("While setting field " + field, x);
+        }
+    }
+}
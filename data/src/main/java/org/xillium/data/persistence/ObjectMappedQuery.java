@@ -6,7 +6,12 @@ import org.xillium.data.*;
 import java.math.BigDecimal;
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.*;
 import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import javassist.*;
 
 
 /**
@@ -25,6 +30,20 @@ public class ObjectMappedQuery<T extends DataObject> extends ParametricQuery {
         }
     }
 
+    /*
+     * How to map a particular result set shape: a generated RowMapper (possibly null) to copy column values that can be
+     * retrieved with typed getters and assigned directly, followed by reflective Beans.setValue() for the remaining columns.
+     */
+    private static class MappingPlan {
+        final RowMapper mapper;
+        final Column2Field[] c2fs;
+
+        MappingPlan(RowMapper mapper, List<Column2Field> c2fs) {
+            this.mapper = mapper;
+            this.c2fs = c2fs.toArray(new Column2Field[c2fs.size()]);
+        }
+    }
+
     private class  ResultSetMapper<C extends Collector<T>> implements ResultSetWorker<C> {
         private final C _collector;
 
@@ -32,30 +51,15 @@ public class ObjectMappedQuery<T extends DataObject> extends ParametricQuery {
             _collector = collector;
         }
 
-        @SuppressWarnings("unchecked")
         public C process(ResultSet rs) throws SQLException, InstantiationException, IllegalAccessException {
             try {
-                if (_c2fs == null) {
-                    synchronized(ObjectMappedQuery.this) {
-                        if (_c2fs == null) {
-                            List<Column2Field> list = new ArrayList<Column2Field>();
-                            ResultSetMetaData meta = rs.getMetaData();
-                            for (int i = 1, ii = meta.getColumnCount()+1; i < ii; ++i) {
-                                try {
-                                    String name = Strings.toLowerCamelCase(meta.getColumnLabel(i), '_');
-                                    list.add(new Column2Field(i, Beans.getKnownField(_type, name)));
-                                } catch (NoSuchFieldException x) {
-                                    // ignored
-                                }
-                            }
-                            _c2fs = list;
-                        }
-                    }
-                }
-
+                MappingPlan plan = getMappingPlan(rs.getMetaData());
                 while (rs.next()) {
                     T object = _type.newInstance();
-                    for (Column2Field c2f: _c2fs) {
+                    if (plan.mapper != null) {
+                        plan.mapper.map(rs, object);
+                    }
+                    for (Column2Field c2f: plan.c2fs) {
                         Beans.setValue(object, c2f.field, rs.getObject(c2f.index));
                     }
                     if (!_collector.add(object)) break;
@@ -75,8 +79,12 @@ public class ObjectMappedQuery<T extends DataObject> extends ParametricQuery {
         }
     }
 
+    private static final Logger _logger = Logger.getLogger(ObjectMappedQuery.class.getName());
+    private static final AtomicInteger _sequence = new AtomicInteger();
+
     private final Class<T> _type;
-    private volatile List<Column2Field> _c2fs; // lazily initialized with double checked locking
+    private final Map<String, MappingPlan> _plans = new ConcurrentHashMap<String, MappingPlan>(); // keyed by result set shape
+    private volatile boolean _generating = true;
 
     public ObjectMappedQuery(Param[] parameters, String sql, Class<T> type) throws IllegalArgumentException {
         super(parameters, sql);
@@ -102,6 +110,21 @@ public class ObjectMappedQuery<T extends DataObject> extends ParametricQuery {
         }
     }
 
+    /**
+     * Enables or disables the use of generated RowMappers. When disabled, all columns are mapped via reflection.
+     */
+    public void setMapperGeneration(boolean generating) {
+        _generating = generating;
+        _plans.clear();
+    }
+
+    /**
+     * Reports whether generated RowMappers are used.
+     */
+    public boolean isMapperGeneration() {
+        return _generating;
+    }
+
     /**
      * Executes the query and returns the results as a list of objects.
      */
@@ -122,4 +145,160 @@ public class ObjectMappedQuery<T extends DataObject> extends ParametricQuery {
     public Collector<T> getResults(Connection conn, DataObject object, Collector<T> collector) throws Exception {
         return executeSelect(conn, object, new ResultSetMapper<Collector<T>>(collector));
     }
+
+    private MappingPlan getMappingPlan(ResultSetMetaData meta) throws SQLException {
+        int count = meta.getColumnCount();
+        String[] labels = new String[count+1], classes = new String[count+1];
+        StringBuilder shape = new StringBuilder();
+        for (int i = 1; i <= count; ++i) {
+            labels[i] = meta.getColumnLabel(i);
+            try {
+                classes[i] = meta.getColumnClassName(i);
+            } catch (SQLException x) {
+                classes[i] = null;
+            }
+            shape.append(labels[i]).append(':').append(classes[i]).append(';');
+        }
+
+        MappingPlan plan = _plans.get(shape.toString());
+        if (plan == null) {
+            List<Column2Field> list = new ArrayList<Column2Field>();
+            Map<Field, Integer> uses = new HashMap<Field, Integer>();
+            for (int i = 1; i <= count; ++i) {
+                try {
+                    String name = Strings.toLowerCamelCase(labels[i], '_');
+                    Column2Field c2f = new Column2Field(i, Beans.getKnownField(_type, name));
+                    list.add(c2f);
+                    Integer used = uses.get(c2f.field);
+                    uses.put(c2f.field, used == null ? 1 : used + 1);
+                } catch (NoSuchFieldException x) {
+                    // ignored
+                }
+            }
+
+            RowMapper mapper = null;
+            if (_generating && Modifier.isPublic(_type.getModifiers()) && _type.getClassLoader() != null) {
+                List<Column2Field> rest = new ArrayList<Column2Field>();
+                StringBuilder body = new StringBuilder();
+                for (Column2Field c2f: list) {
+                    // fields receiving more than one column keep the original assignment order via reflection
+                    if (uses.get(c2f.field) > 1 || !appendColumnMapping(body, c2f, classes[c2f.index])) {
+                        rest.add(c2f);
+                    }
+                }
+                if (body.length() > 0 && (mapper = generateRowMapper(body.toString())) != null) {
+                    list = rest;
+                }
+            }
+            plan = new MappingPlan(mapper, list);
+            _plans.put(shape.toString(), plan);
+        }
+        return plan;
+    }
+
+    /*
+     * Appends code that retrieves the column with a typed getter and assigns it to the field, converting the value exactly
+     * as Beans.setValue() would. Returns false if the column must be mapped via reflection.
+     */
+    private static boolean appendColumnMapping(StringBuilder body, Column2Field c2f, String cname) {
+        int modifiers = c2f.field.getModifiers();
+        if (cname == null || !Modifier.isPublic(modifiers) || Modifier.isStatic(modifiers) || Modifier.isFinal(modifiers)) return false;
+        if (!Modifier.isPublic(c2f.field.getDeclaringClass().getModifiers())) return false;
+
+        String[] getter = GETTERS.get(cname);
+        if (getter == null) return false;
+
+        Class<?> ftype = c2f.field.getType(), ctype;
+        try {
+            ctype = Class.forName(cname);
+        } catch (ClassNotFoundException x) {
+            return false;
+        }
+        String local = "c" + c2f.index, primitive = getter[1];
+        String conversion = convert(ftype, ctype, primitive, local);
+        if (conversion == null) return false;
+
+        body.append(primitive != null ? primitive : cname).append(' ').append(local).append("=rs.").append(getter[0]).append('(').append(c2f.index).append(");");
+        body.append(primitive != null ? "if(!rs.wasNull())" : "if(" + local + "!=null)");
+        body.append("((").append(c2f.field.getDeclaringClass().getName()).append(")object).").append(c2f.field.getName()).append('=').append(conversion).append(';');
+        return true;
+    }
+
+    /*
+     * Returns an expression converting a column value of type ctype (held in the variable x, primitive if not null) into
+     * the field type ftype, or null if the conversion is not a simple one.
+     */
+    private static String convert(Class<?> ftype, Class<?> ctype, String primitive, String x) {
+        boolean numeric = Number.class.isAssignableFrom(ctype);
+        if (ftype.isPrimitive()) {
+            if (ftype == Boolean.TYPE || ftype == Character.TYPE) {
+                if (ftype == Boolean.TYPE && ctype == Boolean.class) return x;
+                if (ftype == Boolean.TYPE && ctype == String.class) return "Boolean.valueOf(" + x + ").booleanValue()";
+                return null;
+            } else if (numeric) {
+                return primitive != null ? "(" + ftype.getName() + ')' + x : x + '.' + ftype.getName() + "Value()";
+            } else if (ctype == String.class) {
+                return Beans.boxPrimitive(ftype).getName() + ".valueOf(" + x + ")." + ftype.getName() + "Value()";
+            } else {
+                return null;
+            }
+        } else if (ftype.isAssignableFrom(ctype)) {
+            return primitive != null ? ctype.getName() + ".valueOf(" + x + ')' : x;
+        } else if (numeric) {
+            if (ftype.isEnum()) {
+                return ftype.getName() + ".values()[" + (primitive != null ? "(int)" + x : x + ".intValue()") + ']';
+            }
+            for (Class<?> boxed: NUMBERS) {
+                if (ftype == boxed) {
+                    String p = boxed == Integer.class ? "int" : boxed.getSimpleName().toLowerCase();
+                    return boxed.getName() + ".valueOf(" + (primitive != null ? "(" + p + ')' + x : x + '.' + p + "Value()") + ')';
+                }
+            }
+            return null;
+        } else if (ctype == java.sql.Timestamp.class && ftype == java.sql.Date.class) {
+            return "new java.sql.Date(" + x + ".getTime())";
+        } else if (ctype == String.class && (ftype.isEnum() || ftype == Boolean.class || Arrays.asList(NUMBERS).contains(ftype))) {
+            return ftype.getName() + ".valueOf(" + x + ')';
+        } else {
+            return null;
+        }
+    }
+
+    private RowMapper generateRowMapper(String body) {
+        try {
+            // a child of the default pool, which knows about DataObject classes generated on the fly
+            ClassPool pool = new ClassPool(ClassPool.getDefault());
+            pool.appendClassPath(new LoaderClassPath(_type.getClassLoader()));
+            pool.appendClassPath(new LoaderClassPath(RowMapper.class.getClassLoader()));
+
+            CtClass cc = pool.makeClass(_type.getName() + "$RowMapper" + _sequence.incrementAndGet());
+            cc.addInterface(pool.get(RowMapper.class.getName()));
+            cc.addMethod(CtNewMethod.make("public void map(java.sql.ResultSet rs, Object object) throws java.sql.SQLException {" + body + '}', cc));
+            RowMapper mapper = (RowMapper)cc.toClass(_type.getClassLoader(), _type.getProtectionDomain()).newInstance();
+            cc.detach();
+            return mapper;
+        } catch (Exception x) {
+            _logger.log(Level.WARNING, "Failed to generate row mapper for " + _type.getName() + ", using reflection: " + x.getMessage(), x);
+            return null;
+        }
+    }
+
+    private static final Class<?>[] NUMBERS = { Double.class, Float.class, Long.class, Integer.class, Short.class, Byte.class };
+
+    // column class name => { typed getter, primitive type of the getter if any }
+    private static final Map<String, String[]> GETTERS = new HashMap<String, String[]>();
+    static {
+        GETTERS.put("java.lang.String", new String[] { "getString", null });
+        GETTERS.put("java.math.BigDecimal", new String[] { "getBigDecimal", null });
+        GETTERS.put("java.sql.Timestamp", new String[] { "getTimestamp", null });
+        GETTERS.put("java.sql.Date", new String[] { "getDate", null });
+        GETTERS.put("java.sql.Time", new String[] { "getTime", null });
+        GETTERS.put("java.lang.Integer", new String[] { "getInt", "int" });
+        GETTERS.put("java.lang.Long", new String[] { "getLong", "long" });
+        GETTERS.put("java.lang.Short", new String[] { "getShort", "short" });
+        GETTERS.put("java.lang.Byte", new String[] { "getByte", "byte" });
+        GETTERS.put("java.lang.Double", new String[] { "getDouble", "double" });
+        GETTERS.put("java.lang.Float", new String[] { "getFloat", "float" });
+        GETTERS.put("java.lang.Boolean", new String[] { "getBoolean", "boolean" });
+    }
 }
@@ -0,0 +1,14 @@
+package org.xillium.data.persistence;
+
+import org.xillium.data.*;
+import java.sql.*;
+
+
+/**
+ * A ParameterBinder assigns values of the fields of a DataObject to the bind variables of a PreparedStatement.
+ * <p/>
+ * ParametricStatement generates a specialized ParameterBinder for each DataObject class it encounters.
+ */
+public interface ParameterBinder {
+    public void bind(PreparedStatement statement, DataObject object) throws SQLException;
+}
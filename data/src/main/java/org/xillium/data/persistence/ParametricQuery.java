@@ -34,12 +34,71 @@ public class ParametricQuery extends ParametricStatement {
      * The ResultSetWorker must close the result set before returning.
      */
     public <T> T executeSelect(Connection conn, DataObject object, ResultSetWorker<T> worker) throws Exception {
-        PreparedStatement statement = conn.prepareStatement(_sql);
+        PreparedStatement statement = prepare(conn, StatementCache.PLAIN);
         try {
             load(statement, object);
             return worker.process(statement.executeQuery());
         } finally {
-            statement.close();
+            release(conn, statement, StatementCache.PLAIN);
+        }
+    }
+
+    /**
+     * Executes the SELECT statement, passing the result set, limited to at most maxRows rows, to the ResultSetWorker for processing.
+     *
+     * The ResultSetWorker must close the result set before returning.
+     */
+    public <T> T executeSelect(Connection conn, DataObject object, ResultSetWorker<T> worker, int maxRows) throws Exception {
+        PreparedStatement statement = prepare(conn, StatementCache.PLAIN);
+        try {
+            statement.setMaxRows(maxRows);
+            load(statement, object);
+            return worker.process(statement.executeQuery());
+        } finally {
+            // a cached statement must not keep the limit
+            try { statement.setMaxRows(0); } catch (SQLException x) {}
+            release(conn, statement, StatementCache.PLAIN);
+        }
+    }
+
+    /**
+     * Executes the SELECT statement, returning a StreamingResultSet that pulls rows from the open cursor, fetchSize rows at a time.
+     *
+     * The StreamingResultSet takes over the connection, which should be dedicated to it, and closes it along with the statement
+     * once all rows have been pulled or the StreamingResultSet is closed. The statement cache is not used.
+     */
+    public StreamingResultSet executeStream(Connection conn, DataObject object, int fetchSize) throws SQLException {
+        return executeStream(conn, object, fetchSize, false, false, false);
+    }
+
+    /**
+     * Executes the SELECT statement as executeStream(Connection, DataObject, int) does, on a connection whose auto-commit and read-only
+     * settings have been changed for the purpose, restoring them to the given values before the connection is closed, whether by the
+     * StreamingResultSet or upon failure.
+     */
+    public StreamingResultSet executeStream(Connection conn, DataObject object, int fetchSize, boolean autoCommit, boolean readOnly)
+    throws SQLException {
+        return executeStream(conn, object, fetchSize, true, autoCommit, readOnly);
+    }
+
+    private StreamingResultSet executeStream(Connection conn, DataObject object, int fetchSize, boolean restoring, boolean autoCommit,
+    boolean readOnly) throws SQLException {
+        PreparedStatement statement = null;
+        try {
+            statement = conn.prepareStatement(getSQL(), ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            statement.setFetchSize(fetchSize);
+            load(statement, object);
+            ResultSet rset = statement.executeQuery();
+            if (restoring) {
+                return new StreamingResultSet(conn, statement, rset, autoCommit, readOnly);
+            } else {
+                return new StreamingResultSet(conn, statement, rset);
+            }
+        } catch (SQLException x) {
+            if (statement != null) try { statement.close(); } catch (SQLException t) {}
+            if (restoring) StreamingResultSet.restore(conn, autoCommit, readOnly);
+            try { conn.close(); } catch (SQLException t) {}
+            throw x;
         }
     }
 }
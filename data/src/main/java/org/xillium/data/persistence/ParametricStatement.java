@@ -4,8 +4,13 @@ import org.xillium.base.beans.Beans;
 import org.xillium.data.*;
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.*;
 import java.util.regex.*;
+import java.lang.reflect.Array;
 import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
 import java.math.BigDecimal;
 import javassist.*;
 import javassist.bytecode.*;
@@ -215,6 +220,23 @@ public class ParametricStatement {
         if (object != null && _params.length > 0) {
             Class<? extends DataObject> type = object.getClass();
 
+            if (_generating) {
+                ParameterBinder binder = _binders.get(type);
+                if (binder == null) {
+                    binder = generateBinder(type);
+                    _binders.put(type, binder);
+                }
+                if (binder != REFLECTIVE) {
+                    try {
+                        binder.bind(statement, object);
+                        return statement;
+                    } catch (Exception x) {
+                        statement.close();
+                        throw new SQLException("Exception in binding parameters from " + type.getName() + ": " + x.getMessage(), x);
+                    }
+                }
+            }
+
             for (int i = 0; i < _params.length; ++i) {
                 if ((_params[i].direction & Param.IN) == 0) continue;
                 try {
@@ -260,12 +282,12 @@ public class ParametricStatement {
      * @return the number of rows affected
      */
     public int executeUpdate(Connection conn, DataObject object) throws SQLException {
-        PreparedStatement statement = conn.prepareStatement(_sql);
+        PreparedStatement statement = prepare(conn, StatementCache.PLAIN);
         try {
             load(statement, object);
             return statement.executeUpdate();
         } finally {
-            statement.close();
+            release(conn, statement, StatementCache.PLAIN);
         }
     }
 
@@ -275,7 +297,7 @@ public class ParametricStatement {
      * @return the number of rows affected
      */
     public int executeUpdate(Connection conn, DataObject[] objects) throws SQLException {
-        PreparedStatement statement = conn.prepareStatement(_sql);
+        PreparedStatement statement = prepare(conn, StatementCache.PLAIN);
         try {
             for (DataObject object: objects) {
                 load(statement, object);
@@ -284,7 +306,7 @@ public class ParametricStatement {
             int count = getAffectedRowCount(statement.executeBatch());
             return count;
         } finally {
-            statement.close();
+            release(conn, statement, StatementCache.PLAIN);
         }
     }
 
@@ -294,7 +316,7 @@ public class ParametricStatement {
      * @return the number of rows affected
      */
     public int executeUpdate(Connection conn, Collection<? extends DataObject> objects) throws SQLException {
-        PreparedStatement statement = conn.prepareStatement(_sql);
+        PreparedStatement statement = prepare(conn, StatementCache.PLAIN);
         try {
             for (DataObject object: objects) {
                 load(statement, object);
@@ -303,7 +325,7 @@ public class ParametricStatement {
             int count = getAffectedRowCount(statement.executeBatch());
             return count;
         } finally {
-            statement.close();
+            release(conn, statement, StatementCache.PLAIN);
         }
     }
 
@@ -314,7 +336,8 @@ public class ParametricStatement {
      *          contains the keys; otherwise the content of the array is not defined.
      */
     public long[] executeInsert(Connection conn, DataObject object, boolean generatedKeys) throws SQLException {
-        PreparedStatement statement = conn.prepareStatement(_sql, generatedKeys ? Statement.RETURN_GENERATED_KEYS : Statement.NO_GENERATED_KEYS);
+        int kind = generatedKeys ? Statement.RETURN_GENERATED_KEYS : Statement.NO_GENERATED_KEYS;
+        PreparedStatement statement = prepare(conn, kind);
         try {
             load(statement, object);
             long[] keys = new long[statement.executeUpdate()];
@@ -327,7 +350,7 @@ public class ParametricStatement {
             }
             return keys;
         } finally {
-            statement.close();
+            release(conn, statement, kind);
         }
     }
 
@@ -337,7 +360,7 @@ public class ParametricStatement {
      * @return the number of rows inserted.
      */
     public int executeInsert(Connection conn, DataObject[] objects) throws SQLException {
-        PreparedStatement statement = conn.prepareStatement(_sql);
+        PreparedStatement statement = prepare(conn, StatementCache.PLAIN);
         try {
             for (DataObject object: objects) {
                 load(statement, object);
@@ -345,7 +368,7 @@ public class ParametricStatement {
             }
             return getAffectedRowCount(statement.executeBatch());
         } finally {
-            statement.close();
+            release(conn, statement, StatementCache.PLAIN);
         }
     }
 
@@ -355,7 +378,7 @@ public class ParametricStatement {
      * @return the number of rows inserted.
      */
     public int executeInsert(Connection conn, Collection<? extends DataObject> objects) throws SQLException {
-        PreparedStatement statement = conn.prepareStatement(_sql);
+        PreparedStatement statement = prepare(conn, StatementCache.PLAIN);
         try {
             for (DataObject object: objects) {
                 load(statement, object);
@@ -363,7 +386,7 @@ public class ParametricStatement {
             }
             return getAffectedRowCount(statement.executeBatch());
         } finally {
-            statement.close();
+            release(conn, statement, StatementCache.PLAIN);
         }
     }
 
@@ -373,7 +396,7 @@ public class ParametricStatement {
      * @return the number of rows affected
      */
     public int executeProcedure(Connection conn, DataObject object) throws SQLException {
-        CallableStatement statement = conn.prepareCall(_sql);
+        CallableStatement statement = (CallableStatement)prepare(conn, StatementCache.CALLABLE);
         try {
             for (int i = 0; i < _params.length; ++i) {
                 if ((_params[i].direction & Param.OUT) == 0) continue;
@@ -399,10 +422,70 @@ public class ParametricStatement {
             }
             return result;
         } finally {
+            release(conn, statement, StatementCache.CALLABLE);
+        }
+    }
+
+    /**
+     * Assigns a StatementCache to this ParametricStatement, which then reuses prepared statements held in the cache
+     * instead of preparing a new statement at every execution. A null cache disables statement caching.
+     */
+    public void setStatementCache(StatementCache cache) {
+        _cache = cache;
+    }
+
+    /**
+     * Returns the StatementCache assigned to this ParametricStatement, or null if there is none.
+     */
+    public StatementCache getStatementCache() {
+        return _cache;
+    }
+
+    /**
+     * Prepares the SQL of this statement on the connection, drawing from the statement cache if one is assigned.
+     *
+     * @param kind - one of StatementCache.PLAIN, StatementCache.CALLABLE, Statement.RETURN_GENERATED_KEYS, and Statement.NO_GENERATED_KEYS
+     */
+    protected PreparedStatement prepare(Connection conn, int kind) throws SQLException {
+        StatementCache cache = _cache;
+        if (cache != null) {
+            return cache.prepare(conn, _sql, kind);
+        } else switch (kind) {
+        case StatementCache.CALLABLE:
+            return conn.prepareCall(_sql);
+        case StatementCache.PLAIN:
+            return conn.prepareStatement(_sql);
+        default:
+            return conn.prepareStatement(_sql, kind);
+        }
+    }
+
+    /**
+     * Releases a statement obtained from prepare(), either returning it to the statement cache or closing it.
+     */
+    protected void release(Connection conn, PreparedStatement statement, int kind) throws SQLException {
+        StatementCache cache = _cache;
+        if (cache != null) {
+            cache.release(conn, _sql, kind, statement);
+        } else {
             statement.close();
         }
     }
 
+    /**
+     * Enables or disables the use of generated ParameterBinders. When disabled, parameters are bound via reflection.
+     */
+    public void setBinderGeneration(boolean generating) {
+        _generating = generating;
+    }
+
+    /**
+     * Reports whether generated ParameterBinders are used.
+     */
+    public boolean isBinderGeneration() {
+        return _generating;
+    }
+
     public void setTag(String t) {
         _tag = t;
     }
@@ -420,11 +503,21 @@ public class ParametricStatement {
         return sb;
     }
 
+    private static final Logger _logger = Logger.getLogger(ParametricStatement.class.getName());
+    private static final AtomicInteger _sequence = new AtomicInteger();
     private static final Param[] NoParams = new Param[0];
+
+    // marks a DataObject class whose parameters are bound via reflection
+    private static final ParameterBinder REFLECTIVE = new ParameterBinder() {
+        public void bind(PreparedStatement statement, DataObject object) {}
+    };
     private static final Pattern PARAM_SYNTAX = Pattern.compile(":([-+]?\\w+\\??):(\\w+)");
     private /*final*/ Param[] _params;
     protected String _sql;
     protected String _tag;
+    private volatile StatementCache _cache;
+    private volatile boolean _generating = true;
+    private final Map<Class<?>, ParameterBinder> _binders = new ConcurrentHashMap<Class<?>, ParameterBinder>();
 
     private static int getAffectedRowCount(int[] results) {
         int count = 0;
@@ -443,6 +536,132 @@ public class ParametricStatement {
         return count;
     }
 
+    /*
+     * Generates a ParameterBinder that reads the fields of the DataObject class directly and calls typed setters on the
+     * statement where the field type matches the parameter type exactly, otherwise setObject() as load() does. Returns
+     * REFLECTIVE if any field is not publicly accessible or the class can't be generated.
+     */
+    private ParameterBinder generateBinder(Class<? extends DataObject> type) {
+        try {
+            if (!Modifier.isPublic(type.getModifiers()) || type.getClassLoader() == null) return REFLECTIVE;
+
+            StringBuilder body = new StringBuilder("{ Object v;");
+            for (int i = 0; i < _params.length; ++i) {
+                if ((_params[i].direction & Param.IN) == 0) continue;
+                int index = i + 1, sqltype = _params[i].type;
+                Field field;
+                try {
+                    field = Beans.getKnownField(type, _params[i].name);
+                } catch (NoSuchFieldException x) {
+                    body.append("s.setNull(").append(index).append(',').append(sqltype).append(");");
+                    continue;
+                }
+                int modifiers = field.getModifiers();
+                if (!Modifier.isPublic(modifiers) || Modifier.isStatic(modifiers) || !Modifier.isPublic(field.getDeclaringClass().getModifiers())) {
+                    return REFLECTIVE;
+                }
+
+                Class<?> ftype = field.getType();
+                String access = "((" + field.getDeclaringClass().getName() + ")o)." + field.getName();
+                if (ftype.isPrimitive()) {
+                    String setter = typedSetter(ftype, sqltype);
+                    if (setter != null) {
+                        body.append("s.").append(setter).append('(').append(index).append(',').append(access).append(");");
+                    } else {
+                        body.append("s.setObject(").append(index).append(',').append(box(ftype, access)).append(',').append(sqltype).append(");");
+                    }
+                } else {
+                    body.append("v=").append(access).append(";if(v==null)s.setNull(").append(index).append(',').append(sqltype).append(");else s.");
+                    if (Enum.class.isAssignableFrom(ftype)) {
+                        if (Types.CHAR == sqltype || Types.VARCHAR == sqltype) {
+                            body.append("setObject(").append(index).append(",v.toString(),").append(sqltype).append(");");
+                        } else {
+                            body.append("setObject(").append(index).append(",new Integer(((Enum)v).ordinal()),").append(sqltype).append(");");
+                        }
+                    } else if (Calendar.class.isAssignableFrom(ftype)) {
+                        body.append("setObject(").append(index).append(",new java.sql.Date(((java.util.Calendar)v).getTime().getTime()),").append(sqltype).append(");");
+                    } else {
+                        String setter = typedSetter(ftype, sqltype);
+                        if (setter != null) {
+                            body.append(setter).append('(').append(index).append(',').append(unbox(ftype, "v")).append(");");
+                        } else {
+                            body.append("setObject(").append(index).append(",v,").append(sqltype).append(");");
+                        }
+                    }
+                }
+            }
+            body.append('}');
+
+            // a child of the default pool, which knows about DataObject classes generated by getDataObjectClass()
+            ClassPool pool = new ClassPool(ClassPool.getDefault());
+            pool.appendClassPath(new LoaderClassPath(type.getClassLoader()));
+            pool.appendClassPath(new LoaderClassPath(ParameterBinder.class.getClassLoader()));
+
+            CtClass cc = pool.makeClass(type.getName() + "$ParameterBinder" + _sequence.incrementAndGet());
+            cc.addInterface(pool.get(ParameterBinder.class.getName()));
+            cc.addMethod(CtNewMethod.make(
+                "public void bind(java.sql.PreparedStatement s, org.xillium.data.DataObject o) throws java.sql.SQLException " + body, cc
+            ));
+            ParameterBinder binder = (ParameterBinder)cc.toClass(type.getClassLoader(), type.getProtectionDomain()).newInstance();
+            cc.detach();
+            return binder;
+        } catch (Exception x) {
+            _logger.log(Level.WARNING, "Failed to generate parameter binder for " + type.getName() + ", using reflection: " + x.getMessage(), x);
+            return REFLECTIVE;
+        }
+    }
+
+    // returns the name of a PreparedStatement setter that takes the field type directly, or null if setObject() is required
+    private static String typedSetter(Class<?> ftype, int sqltype) {
+        switch (sqltype) {
+        case Types.CHAR:
+        case Types.VARCHAR:
+        case Types.LONGVARCHAR:
+            return ftype == String.class ? "setString" : null;
+        case Types.INTEGER:
+            return ftype == Integer.TYPE || ftype == Integer.class ? "setInt" : null;
+        case Types.BIGINT:
+            return ftype == Long.TYPE || ftype == Long.class ? "setLong" : null;
+        case Types.SMALLINT:
+            return ftype == Short.TYPE || ftype == Short.class ? "setShort" : null;
+        case Types.TINYINT:
+            return ftype == Byte.TYPE || ftype == Byte.class ? "setByte" : null;
+        case Types.DOUBLE:
+        case Types.FLOAT:
+            return ftype == Double.TYPE || ftype == Double.class ? "setDouble" : null;
+        case Types.REAL:
+            return ftype == Float.TYPE || ftype == Float.class ? "setFloat" : null;
+        case Types.BIT:
+        case Types.BOOLEAN:
+            return ftype == Boolean.TYPE || ftype == Boolean.class ? "setBoolean" : null;
+        case Types.NUMERIC:
+        case Types.DECIMAL:
+            return ftype == BigDecimal.class ? "setBigDecimal" : null;
+        case Types.DATE:
+            return ftype == java.sql.Date.class ? "setDate" : null;
+        case Types.TIME:
+            return ftype == java.sql.Time.class ? "setTime" : null;
+        case Types.TIMESTAMP:
+            return ftype == java.sql.Timestamp.class ? "setTimestamp" : null;
+        default:
+            return null;
+        }
+    }
+
+    // javassist does not autobox
+    private static String box(Class<?> ptype, String expression) {
+        String wrapper = Array.get(Array.newInstance(ptype, 1), 0).getClass().getName();
+        return "new " + wrapper + '(' + expression + ')';
+    }
+
+    private static String unbox(Class<?> ftype, String variable) {
+        if (ftype == String.class || ftype == BigDecimal.class || java.util.Date.class.isAssignableFrom(ftype)) {
+            return '(' + ftype.getName() + ')' + variable;
+        } else {
+            return "((" + ftype.getName() + ')' + variable + ")." + ftype.getSimpleName().toLowerCase().replace("integer", "int") + "Value()";
+        }
+    }
+
     private static String sqlTypeName(int type) {
         switch (type) {
         case Types.NUMERIC:
@@ -0,0 +1,13 @@
+package org.xillium.data.persistence;
+
+import java.sql.*;
+
+
+/**
+ * A RowMapper copies column values of the current row of a ResultSet into the fields of an object.
+ * <p/>
+ * ObjectMappedQuery generates a specialized RowMapper for each result set shape it encounters.
+ */
+public interface RowMapper {
+    public void map(ResultSet rs, Object object) throws SQLException;
+}
@@ -0,0 +1,205 @@
+package org.xillium.data.persistence;
+
+import java.sql.*;
+import java.util.*;
+
+
+/**
+ * A bounded cache of idle prepared statements, keyed by connection and SQL text, with the LRU replacement policy.
+ * <p/>
+ * A statement is removed from the cache while it is in use, so it is never shared by two concurrent executions, and it is
+ * returned to the cache when released. A statement is only ever reused on the very same Connection object it was prepared on.
+ * Connections obtained through Spring's DataSourceUtils remain the same object for the duration of a transaction; when the
+ * connection is returned to its pool, any statements closed by the pool are detected and discarded upon next lookup.
+ * <p/>
+ * Statements evicted from the cache are closed.
+ */
+public class StatementCache {
+    /**
+     * The statement kind used for CallableStatements.
+     */
+    public static final int CALLABLE = -2;
+
+    /**
+     * The statement kind used for PreparedStatements created without specifying auto-generated keys.
+     */
+    public static final int PLAIN = -1;
+
+    private final int _limit;
+    private final Map<Key, PreparedStatement> _idle;
+    private long _hit, _miss, _swap;
+    private int _max;
+
+    private static class Key {
+        final Connection connection;
+        final String sql;
+        final int kind;
+        final int hash;
+
+        Key(Connection c, String s, int k) {
+            connection = c;
+            sql = s;
+            kind = k;
+            hash = (System.identityHashCode(c) * 31 + s.hashCode()) * 31 + k;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) return false;
+            Key k = (Key)o;
+            return connection == k.connection && kind == k.kind && sql.equals(k.sql);
+        }
+    }
+
+    /**
+     * Constructs a StatementCache holding at most <code>limit</code> idle statements.
+     */
+    public StatementCache(int limit) {
+        _limit = limit;
+        _idle = new LinkedHashMap<Key, PreparedStatement>((int)Math.ceil(limit/0.75f), 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, PreparedStatement> eldest) {
+                if (size() > _limit) {
+                    ++_swap;
+                    close(eldest.getValue());
+                    return true;
+                } else {
+                    return false;
+                }
+            }
+            private static final long serialVersionUID = 1L;
+        };
+    }
+
+    /**
+     * Obtains a prepared statement, either from the cache or freshly prepared on the connection.
+     *
+     * @param kind - one of PLAIN, CALLABLE, Statement.RETURN_GENERATED_KEYS, and Statement.NO_GENERATED_KEYS
+     */
+    public PreparedStatement prepare(Connection conn, String sql, int kind) throws SQLException {
+        PreparedStatement statement;
+        synchronized (this) {
+            statement = _idle.remove(new Key(conn, sql, kind));
+            if (statement != null && !statement.isClosed()) {
+                ++_hit;
+                return statement;
+            } else {
+                ++_miss;
+            }
+        }
+
+        switch (kind) {
+        case CALLABLE:
+            return conn.prepareCall(sql);
+        case PLAIN:
+            return conn.prepareStatement(sql);
+        default:
+            return conn.prepareStatement(sql, kind);
+        }
+    }
+
+    /**
+     * Returns a statement obtained from prepare() to the cache. A statement that is closed or can't be reset is discarded.
+     */
+    public void release(Connection conn, String sql, int kind, PreparedStatement statement) {
+        try {
+            if (statement.isClosed()) return;
+            statement.clearParameters();
+            statement.clearBatch();
+        } catch (SQLException x) {
+            close(statement);
+            return;
+        }
+
+        PreparedStatement replaced;
+        synchronized (this) {
+            replaced = _idle.put(new Key(conn, sql, kind), statement);
+            if (_idle.size() > _max) _max = _idle.size();
+        }
+        if (replaced != null) {
+            close(replaced);
+        }
+    }
+
+    /**
+     * Closes and removes all idle statements prepared on the given connection.
+     *
+     * @return the number of statements removed
+     */
+    public synchronized int purge(Connection conn) {
+        int count = 0;
+        Iterator<Map.Entry<Key, PreparedStatement>> it = _idle.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Key, PreparedStatement> entry = it.next();
+            if (entry.getKey().connection == conn) {
+                close(entry.getValue());
+                it.remove();
+                ++count;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Closes and removes all idle statements, and resets statistics.
+     */
+    public synchronized void clear() {
+        for (PreparedStatement statement: _idle.values()) {
+            close(statement);
+        }
+        _idle.clear();
+        _hit = _miss = _swap = 0;
+        _max = 0;
+    }
+
+    /**
+     * Returns the maximum number of idle statements in this cache.
+     */
+    public int getLimit() {
+        return _limit;
+    }
+
+    /**
+     * Returns the current number of idle statements in this cache.
+     */
+    public synchronized int getSize() {
+        return _idle.size();
+    }
+
+    /**
+     * Returns the high water mark of the number of idle statements.
+     */
+    public synchronized int getMax() {
+        return _max;
+    }
+
+    /**
+     * Returns the number of lookups satisfied by the cache.
+     */
+    public synchronized long getHit() {
+        return _hit;
+    }
+
+    /**
+     * Returns the number of lookups that required a new statement to be prepared.
+     */
+    public synchronized long getMiss() {
+        return _miss;
+    }
+
+    /**
+     * Returns the number of statements evicted from the cache.
+     */
+    public synchronized long getSwap() {
+        return _swap;
+    }
+
+    private static void close(PreparedStatement statement) {
+        try { statement.close(); } catch (SQLException x) {}
+    }
+}
@@ -1,11 +1,14 @@
 package org.xillium.data.persistence.crud;
 
+import java.io.*;
 import java.util.*;
 import java.sql.*;
+import javax.xml.bind.DatatypeConverter;
 import javassist.*;
 import javassist.bytecode.*;
 import javassist.bytecode.annotation.MemberValue;
 import javassist.bytecode.annotation.IntegerMemberValue;
+import org.xillium.base.beans.Beans;
 import org.xillium.base.beans.Strings;
 import org.xillium.base.util.Pair;
 import org.xillium.data.*;
@@ -47,9 +50,16 @@ import org.xillium.data.persistence.util.MetaDataHelper;
  * </ul>
  *
  * A SEARCH command with n optional arguments will generate 2^n statements to match the incoming request arguments.
+ *
+ * <h4>Keyset Pagination</h4>
+ * <p>A SEARCH command on a table with a primary key also retrieves its rows a page at a time, in the order of the primary key of the
+ * first table. Each page after the first continues from the key of the last row of the previous page, which is carried by an opaque
+ * continuation token, so that every page costs the same regardless of how far into the rows it is.</p>
  */
 public class CrudCommand {
     private static final String STATEMENT_FIELD_NAME = "_STMT";
+    private static final String PAGE_FIELD_NAME = "_PAGE";
+    private static final String SEEK_FIELD_PREFIX = "after$";
     private static final char REQUIRED_INDICATOR = '*';
     private static final char DOMINANT_INDICATOR = '*';
     private static final char NEGATIVE_INDICATOR = '!';
@@ -59,6 +69,8 @@ public class CrudCommand {
     private final String _name, _desc;
     private final String[] _opts;
     private final Class<? extends DataObject> _type;
+    private final String _table;
+    private final String[] _keys;
 
     public static enum Operation {
         CREATE,
@@ -187,6 +199,26 @@ public class CrudCommand {
         }
     }
 
+    /**
+     * A page of rows retrieved by a SEARCH command.
+     */
+    public static class Page {
+        /**
+         * The rows in this page.
+         */
+        public final CachedResultSet results;
+
+        /**
+         * The continuation token to retrieve the next page with, or null if this is the last page.
+         */
+        public final String next;
+
+        Page(CachedResultSet results, String next) {
+            this.results = results;
+            this.next = next;
+        }
+    }
+
     /**
      * Constructs a CrudCommand.
      *
@@ -211,6 +243,16 @@ public class CrudCommand {
             _type = type;
         }
         _opts = action.opts;
+
+        String table = names[0].charAt(0) == DOMINANT_INDICATOR ? names[0].substring(1) : names[0];
+        if (_oper == Operation.SEARCH && getPages() != null) {
+            List<String> keys = MetaDataHelper.getPrimaryKeyColumns(connection.getMetaData(), table);
+            _table = table;
+            _keys = keys.toArray(new String[keys.size()]);
+        } else {
+            _table = null;
+            _keys = null;
+        }
     }
 
     public Class<? extends DataObject> getRequestType() {
@@ -254,6 +296,53 @@ public class CrudCommand {
         }
     }
 
+    /**
+     * For SEARCH operation only, reports whether the rows can be retrieved a page at a time.
+     */
+    public boolean isPageable() {
+        return _keys != null;
+    }
+
+    /**
+     * For SEARCH operation only, retrieves a page of at most size rows with the statement chosen by choose(), in the order of
+     * the primary key. The page starts after the position carried by the continuation token of the previous page, or at the
+     * first row if the token is null.
+     *
+     * @throws IllegalArgumentException if the continuation token is not valid
+     * @throws IllegalStateException if the rows can't be retrieved a page at a time
+     */
+    public Page page(Connection connection, DataObject request, int index, String token, int size) throws Exception {
+        if (_keys == null) throw new IllegalStateException("Pagination requires the primary key of the first table: " + _desc);
+        if (size < 1) throw new IllegalArgumentException("Page size " + size);
+
+        ParametricStatement[] pages = getPages();
+        ParametricQuery query;
+        if (token != null) {
+            String[] values = decode(token, _keys.length);
+            for (int i = 0; i < _keys.length; ++i) {
+                Beans.setValue(request, Beans.getKnownField(request.getClass(), SEEK_FIELD_PREFIX + fieldName(_table, _keys[i])), values[i]);
+            }
+            query = (ParametricQuery)pages[index*2+1];
+        } else {
+            query = (ParametricQuery)pages[index*2];
+        }
+
+        // one more row than requested tells whether there is a next page
+        CachedResultSet results = query.executeSelect(connection, request, CachedResultSet.BUILDER, size + 1);
+        String next = null;
+        if (results.rows != null && results.rows.size() > size) {
+            results.rows.remove(size);
+            Object[] last = results.rows.get(size - 1);
+            List<String> columns = Arrays.asList(results.columns);
+            String[] values = new String[_keys.length];
+            for (int i = 0; i < _keys.length; ++i) {
+                values[i] = last[columns.indexOf(Strings.toLowerCamelCase(_keys[i], '_'))].toString();
+            }
+            next = encode(values);
+        }
+        return new Page(results, next);
+    }
+
     /**
      * Creates a new Java model class for carrying out the CRUD action on the entity represented by the list of tables.
      */
@@ -294,6 +383,10 @@ public class CrudCommand {
         String schema = meta.getUserName();
         List<String> dominant = new ArrayList<String>();
 
+        // for SEARCH only: { column, field name, sql type, class name } of the primary key columns of the first table
+        List<String[]> pagekeys = new ArrayList<String[]>();
+        List<String> pages = new ArrayList<String>();
+
         for (int i = 0; i < tablenames.length; ++i) {
             // Dominant tables are recognized and maintained in 'dominant' list
             if (tablenames[i].charAt(0) == DOMINANT_INDICATOR) {
@@ -320,6 +413,17 @@ public class CrudCommand {
                 throw new RuntimeException("Primary key expected for RETRIEVE command, but missing on table " + tablenames[i]);
             }
 
+            // SEARCH pages are ordered by the primary key of the first table
+            if (action.op == Operation.SEARCH && i == 0) {
+                for (String column: MetaDataHelper.getPrimaryKeyColumns(meta, tablenames[i])) {
+                    int idx = colref.get(column).intValue();
+                    pagekeys.add(new String[] {
+                        tablenames[i] + '.' + column, SEEK_FIELD_PREFIX + fieldName(tablenames[i], column),
+                        String.valueOf(rsmeta.getColumnType(idx)), MetaDataHelper.getClassName(rsmeta, idx)
+                    });
+                }
+            }
+
             // ISA keys and table join conditions
             Set<String> isaKeys = new HashSet<String>();
             if (i > 0) {
@@ -533,6 +637,10 @@ public class CrudCommand {
             fragments.add("SELECT " + selectTarget(dominant) + " FROM " + cols + " WHERE " + vals.toString().replaceAll(" AND *$", ""));
             fragments.add("");
         } else if (action.op == Operation.SEARCH) {
+            // the key columns must be selected
+            if (!dominant.isEmpty() && !dominant.contains(tablenames[0])) {
+                pagekeys.clear();
+            }
             if (action.opts != null) {
                 for (int i = 0; i < action.opts.length; ++i) {
                     action.opts[i] = nametrans.get(action.opts[i]);
@@ -563,6 +671,7 @@ public class CrudCommand {
                         fragments.add("SELECT " + selectTarget(dominant) + " FROM " + cols);
                     }
                     fragments.add("");
+                    addPages(pages, pagekeys, "SELECT " + selectTarget(dominant) + " FROM " + cols, new String(fchars).replaceAll("\\s+", " "), vals0);
                 }
             } else {
                 fragments.add("org.xillium.data.persistence.ParametricQuery");
@@ -573,6 +682,7 @@ public class CrudCommand {
                     fragments.add("SELECT " + selectTarget(dominant) + " FROM " + cols);
                 }
                 fragments.add("");
+                addPages(pages, pagekeys, "SELECT " + selectTarget(dominant) + " FROM " + cols, flds.toString(), vals.toString().replaceAll(" AND *$", ""));
             }
         }
 
@@ -582,6 +692,20 @@ public class CrudCommand {
             pool.getCtClass(CrudCommand.class.getName()), "buildStatements", fragments.toArray(new String[fragments.size()])
         ));
 
+        if (!pages.isEmpty()) {
+            // transient fields holding the key of the last row of the previous page, not to be collected from requests
+            for (String[] key: pagekeys) {
+                field = new CtField(pool.getCtClass(key[3]), key[1], cc);
+                field.setModifiers(java.lang.reflect.Modifier.PUBLIC | java.lang.reflect.Modifier.TRANSIENT);
+                cc.addField(field);
+            }
+            field = new CtField(pool.getCtClass("org.xillium.data.persistence.ParametricStatement[]"), PAGE_FIELD_NAME, cc);
+            field.setModifiers(java.lang.reflect.Modifier.PUBLIC | java.lang.reflect.Modifier.STATIC | java.lang.reflect.Modifier.FINAL);
+            cc.addField(field, CtField.Initializer.byCallWithParams(
+                pool.getCtClass(CrudCommand.class.getName()), "buildStatements", pages.toArray(new String[pages.size()])
+            ));
+        }
+
         return (Class<? extends DataObject>)cc.toClass(CrudCommand.class.getClassLoader(), CrudCommand.class.getProtectionDomain());
     }
 
@@ -603,6 +727,82 @@ public class CrudCommand {
     //private static final int FKEY_REFERENCED_COLUMN = 4;
     private static final int FKEY_REFERENCING_COLUMN = 8;
 
+    /*
+     * Adds the statements retrieving the first and the following pages of a SEARCH, ordered by the key columns. The following
+     * pages start after the key of the last row of the previous page:
+     *
+     *      K1>=? AND (K1>? OR K1=? AND (K2>? OR K2=? AND K3>?))
+     *
+     * where the leading condition helps the database to use the index of the primary key.
+     */
+    private static void addPages(List<String> pages, List<String[]> keys, String select, String flds, String where) {
+        if (keys.isEmpty()) return;
+
+        StringBuilder order = new StringBuilder(), seek = new StringBuilder(), params = new StringBuilder(flds.trim());
+        if (params.length() > 0 && params.charAt(params.length()-1) != ',') params.append(',');
+        if (keys.size() > 1) {
+/*SQL*/     seek.append(keys.get(0)[0]).append(">=? AND ");
+            params.append(keys.get(0)[1]).append(':').append(keys.get(0)[2]).append(',');
+        }
+        for (int i = 0; i < keys.size(); ++i) {
+            String[] key = keys.get(i);
+/*SQL*/     if (order.length() > 0) order.append(',');
+/*SQL*/     order.append(key[0]);
+            if (i < keys.size() - 1) {
+/*SQL*/         seek.append('(').append(key[0]).append(">? OR ").append(key[0]).append("=? AND ");
+                params.append(key[1]).append(':').append(key[2]).append(',').append(key[1]).append(':').append(key[2]).append(',');
+            } else {
+/*SQL*/         seek.append(key[0]).append(">?");
+                params.append(key[1]).append(':').append(key[2]);
+            }
+        }
+        for (int i = 1; i < keys.size(); ++i) seek.append(')');
+
+        pages.add("org.xillium.data.persistence.ParametricQuery");
+        pages.add(flds);
+        pages.add(select + (where.length() > 0 ? " WHERE " + where : "") + " ORDER BY " + order);
+        pages.add("");
+        pages.add("org.xillium.data.persistence.ParametricQuery");
+        pages.add(params.toString());
+        pages.add(select + " WHERE " + (where.length() > 0 ? where + " AND " : "") + seek + " ORDER BY " + order);
+        pages.add("");
+    }
+
+    private ParametricStatement[] getPages() {
+        try {
+            return (ParametricStatement[])_type.getDeclaredField(PAGE_FIELD_NAME).get(null);
+        } catch (NoSuchFieldException x) {
+            return null;
+        } catch (Exception x) {
+            throw new RuntimeException("Unexpected CRUD class error", x);
+        }
+    }
+
+    /*
+     * A continuation token is the URL-safe Base64 encoding of the string values of the key.
+     */
+    private static String encode(String[] values) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        for (String value: values) output.writeUTF(value);
+        output.close();
+        return DatatypeConverter.printBase64Binary(bytes.toByteArray()).replace('+', '-').replace('/', '_').replace("=", "");
+    }
+
+    private static String[] decode(String token, int count) {
+        try {
+            String text = token.replace('-', '+').replace('_', '/');
+            while (text.length() % 4 != 0) text += '=';
+            DataInputStream input = new DataInputStream(new ByteArrayInputStream(DatatypeConverter.parseBase64Binary(text)));
+            String[] values = new String[count];
+            for (int i = 0; i < count; ++i) values[i] = input.readUTF();
+            if (input.read() != -1) throw new IOException("Trailing bytes");
+            return values;
+        } catch (Exception x) {
+            throw new IllegalArgumentException("Invalid continuation token: " + token, x);
+        }
+    }
+
     private static void generateCondition(String restriction, StringBuilder vals, StringBuilder flds, String name, String fname, int ftype) {
 /*SQL*/ vals.append(name);
         if (restriction == null || restriction.charAt(0) == NEGATIVE_INDICATOR) {
@@ -67,6 +67,7 @@ public class MetaDataHelper {
 */
 
     private static final int PRIMARY_PK_COL_NAME = 4;
+    private static final int PRIMARY_PK_KEY_SEQ = 5;
 
     private static final int IMPORTED_PK_TAB_NAME = 3;
     private static final int IMPORTED_PK_COL_NAME = 4;
@@ -88,6 +89,19 @@ public class MetaDataHelper {
         return columns;
     }
 
+    /**
+     * Returns a table's primary key columns as a List of strings, in the order of the columns in the key.
+     */
+    public static List<String> getPrimaryKeyColumns(DatabaseMetaData metadata, String tableName) throws Exception {
+        SortedMap<Short, String> columns = new TreeMap<Short, String>();
+        ResultSet keys = metadata.getPrimaryKeys(metadata.getConnection().getCatalog(), metadata.getUserName(), tableName);
+        while (keys.next()) {
+            columns.put(keys.getShort(PRIMARY_PK_KEY_SEQ), keys.getString(PRIMARY_PK_COL_NAME));
+        }
+        keys.close();
+        return new ArrayList<String>(columns.values());
+    }
+
     /**
      * Returns a table's foreign keys and their columns as a Map from the key name to the ForeignKey object.
      * <p/>
@@ -11,6 +11,12 @@ import java.util.*;
  * A dictionary of extended types for data validation.
  */
 public class Dictionary {
+    /**
+     * The name of a named object in a DataBinder that holds a request object partially decoded from the request, whose arrays and data
+     * objects are taken by collect() in place of those found in the binder.
+     */
+    public static final String DECODED_DATA_OBJECT = "#decoded_data_object#";
+
     protected static final Map<Class<?>, Map<String, Validator>> _cachedValidators = new HashMap<Class<?>, Map<String, Validator>>();
 
     public static synchronized Validator cache(Class<?> type, String name, Validator validator) {
@@ -75,10 +81,40 @@ public class Dictionary {
      * @throws SecurityException if the data object is inproperly designed
      */
     public <T extends DataObject> T collect(T data, DataBinder binder) throws SecurityException, DataValidationException {
-        return collect(data, binder, null);
+        Set<Field> taken = Collections.emptySet();
+        Object decoded = binder.getNamedObject(DECODED_DATA_OBJECT);
+        if (decoded != null && decoded.getClass() == data.getClass()) {
+            taken = new HashSet<Field>();
+            for (Field field: data.getClass().getFields()) {
+                if (Modifier.isStatic(field.getModifiers()) || Modifier.isTransient(field.getModifiers())) continue;
+                if (field.getType().isArray() || DataObject.class.isAssignableFrom(field.getType())) {
+                    try {
+                        Object value = field.get(decoded);
+                        if (value != null) {
+                            field.set(data, value);
+                            taken.add(field);
+                        }
+                    } catch (IllegalAccessException x) {
+                        throw new RuntimeException("While setting field " + field, x);
+                    }
+                }
+            }
+        }
+        return collect(data, binder, null, taken);
+    }
+
+    /**
+     * Translates a text string to a value of the appropriate type for a field of a data object, validating the value.
+     */
+    public Object translate(Field field, String text) throws DataValidationException {
+        return translate(field, field.getName(), text);
     }
 
-    private final <T extends DataObject> T collect(T data, DataBinder binder, String prefix) throws SecurityException, DataValidationException {
+    /*!
+     * Populates a data object, whose top-level fields in "taken" have been taken from a decoded request object.
+     */
+    private final <T extends DataObject> T collect(T data, DataBinder binder, String prefix, Set<Field> taken)
+    throws SecurityException, DataValidationException {
         int present = 0;
         String absent = null;
 
@@ -99,7 +135,7 @@ public class Dictionary {
                     Trace.g.std.note(Dictionary.class, "collect(): DataObject array");
                     for (int index = 0; true; ++index) {
                         try {
-                            list.add(collect((DataObject)ctype.newInstance(), binder, qualified + '[' + index + ']'));
+                            list.add(collect((DataObject)ctype.newInstance(), binder, qualified + '[' + index + ']', Collections.<Field>emptySet()));
                         } catch (EmptyDataObjectException x) {
                             Trace.g.std.note(Dictionary.class, "DataObject array '" + qualified + "': no more elements");
                             break;
@@ -131,6 +167,8 @@ public class Dictionary {
                         throw new RuntimeException("While setting array field " + field, x);
                     }
                     Trace.g.std.note(Dictionary.class, "Array '" + qualified + "' stored");
+                } else if (taken.contains(field)) {
+                    Trace.g.std.note(Dictionary.class, "Array '" + qualified + "' already present");
                 } else if (field.getAnnotation(required.class) != null) {
                     throw new MissingParameterException(
                         name, (prefix != null ? prefix : "") + '(' + data.getClass().getName() + ')'
@@ -140,9 +178,13 @@ public class Dictionary {
                 }
             } else if (DataObject.class.isAssignableFrom(ftype)) {
                 try {
-                    field.set(data, collect((DataObject)ftype.newInstance(), binder, qualified));
+                    field.set(data, collect((DataObject)ftype.newInstance(), binder, qualified, Collections.<Field>emptySet()));
                 } catch (EmptyDataObjectException x) {
-                    if (isRequired(data, field, prefix, name, present)) {
+                    if (taken.contains(field)) {
+                        Trace.g.std.note(Dictionary.class, "DataObject '" + qualified + "' already present");
+                        ++present;
+                        continue;
+                    } else if (isRequired(data, field, prefix, name, present)) {
                         absent = name;
                     }
                     continue;
@@ -1,27 +1,21 @@
 package org.xillium.data.xml;
 
 import java.io.IOException;
-import java.io.InputStream;;
+import java.io.InputStream;
 import java.io.Writer;
-import java.util.*;
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
+import java.sql.SQLException;
 import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.transform.Transformer;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
 import javax.xml.transform.TransformerException;
-import javax.xml.transform.TransformerFactory;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamResult;
- 
-import org.w3c.dom.Attr;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
+
 import org.xml.sax.*;
-import org.xml.sax.helpers.DefaultHandler;
 import org.xillium.base.beans.Strings;
 import org.xillium.base.util.XML;
 import org.xillium.data.DataBinder;
 import org.xillium.data.CachedResultSet;
+import org.xillium.data.StreamingResultSet;
 
 
 /**
@@ -38,69 +32,69 @@ public class XDBCodec {
     public static final String R = XDB.Element.R.toString().toLowerCase();
     public static final String C = XDB.Element.C.toString().toLowerCase();
 
-	public static Writer encode(Writer sink, DataBinder binder) throws ParserConfigurationException, TransformerException, IOException {
-        Document doc = DocumentBuilderFactory.newInstance().newDocumentBuilder().newDocument();
-        Element root = doc.createElementNS(NAMESPACE, XDB_NS + M);
-
-        Iterator<String> it = binder.keySet().iterator();
-        while (it.hasNext()) {
-            String key = it.next();
-            if (key.charAt(0) == '#' && key.charAt(key.length()-1) == '#') continue;
-            String val = binder.get(key);
-
-            Element param = doc.createElement(P);
-            Attr attr = doc.createAttribute(NAME);
-            attr.setValue(key);
-            param.setAttributeNode(attr);
-
-            if (val != null) {
-                param.appendChild(doc.createTextNode(val.toString()));
-            } else {
-                param.appendChild(doc.createTextNode(""));
-            }
-            root.appendChild(param);
-        }
-
-        Set<String> rsets = binder.getResultSetNames();
-        it = rsets.iterator();
-        while (it.hasNext()) {
-            String key = it.next();
-
-            Element table = doc.createElement(T);
-            Attr attr = doc.createAttribute(NAME);
-            attr.setValue(key);
-            table.setAttributeNode(attr);
-
-            CachedResultSet rset = binder.getResultSet(key);
-            Element row = doc.createElement(H);
-            for (int i = 0; i < rset.columns.length; ++i) {
-                Element col = doc.createElement(C);
-                col.appendChild(doc.createTextNode(rset.columns[i]));
-                row.appendChild(col);
+    /**
+     * Encodes a data binder as XML into the writer. Returns the writer.
+     * <p/>
+     * The XML is streamed as it is produced, and rows of a StreamingResultSet are pulled from its cursor as they are written, so that a
+     * data binder of any size is encoded in constant memory.
+     */
+    public static Writer encode(Writer sink, DataBinder binder) throws ParserConfigurationException, TransformerException, IOException {
+        try {
+            XMLStreamWriter writer = XMLOutputFactory.newInstance().createXMLStreamWriter(sink);
+            writer.writeStartDocument("UTF-8", "1.0");
+            String prefix = XDB_NS.substring(0, XDB_NS.length()-1);
+            writer.writeStartElement(prefix, M, NAMESPACE);
+            writer.writeNamespace(prefix, NAMESPACE);
+
+            for (String key: binder.keySet()) {
+                if (key.charAt(0) == '#' && key.charAt(key.length()-1) == '#') continue;
+                writer.writeStartElement(P);
+                writer.writeAttribute(NAME, key);
+                writer.writeCharacters(Strings.toString(binder.get(key)));
+                writer.writeEndElement();
             }
-            table.appendChild(row);
 
-            for (int r = 0; r < rset.rows.size(); ++r) {
-                row = doc.createElement(R);
-                for (int i = 0; i < rset.columns.length; ++i) {
-                    Element col = doc.createElement(C);
-                    col.appendChild(doc.createTextNode(Strings.toString(rset.rows.get(r)[i])));
-                    row.appendChild(col);
+            for (String key: binder.getResultSetNames()) {
+                CachedResultSet rset = binder.getResultSet(key);
+                writer.writeStartElement(T);
+                writer.writeAttribute(NAME, key);
+                writeRow(writer, H, rset.columns);
+                if (rset instanceof StreamingResultSet) {
+                    StreamingResultSet stream = (StreamingResultSet)rset;
+                    for (Object[] values; (values = stream.next()) != null;) {
+                        writeRow(writer, R, values);
+                    }
+                } else if (rset.rows != null) {
+                    for (Object[] values: rset.rows) {
+                        writeRow(writer, R, values);
+                    }
                 }
-                table.appendChild(row);
+                writer.writeEndElement();
             }
-            root.appendChild(table);
-        }
-
-        doc.appendChild(root);
 
-        // send the content into the writer
-        TransformerFactory.newInstance().newTransformer().transform(new DOMSource(doc), new StreamResult(sink));
+            writer.writeEndElement();
+            writer.writeEndDocument();
+            writer.flush();
+        } catch (XMLStreamException x) {
+            throw new IOException(x.getMessage(), x);
+        } catch (SQLException x) {
+            throw new IOException(x.getMessage(), x);
+        }
         sink.flush();
 
         return sink;
     }
 
+    private static void writeRow(XMLStreamWriter writer, String element, Object[] values) throws XMLStreamException {
+        writer.writeStartElement(element);
+        for (Object value: values) {
+            writer.writeStartElement(C);
+            writer.writeCharacters(Strings.toString(value));
+            writer.writeEndElement();
+        }
+        writer.writeEndElement();
+    }
+
     /**
      * Decodes an XML stream. Returns the input stream.
      */
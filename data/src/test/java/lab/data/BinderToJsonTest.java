@@ -1,11 +1,13 @@
 package lab.data;
 
+import java.io.*;
 import java.util.*;
 
 import org.testng.annotations.*;
 
 import org.xillium.data.*;
 import org.xillium.base.beans.*;
+import org.xillium.base.text.JSONStreamer;
 
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.DeserializationFeature;
@@ -54,4 +56,29 @@ public class BinderToJsonTest {
         assert deserialized.tables.size() == 1;
     }
 
+    @Test(groups={"json"})
+    public void testStreamedJSON() throws Exception {
+        Properties props = new Properties();
+        props.load(getClass().getResourceAsStream("/validation/SubmitPurchaseOrderData.properties"));
+
+        DataBinder binder = new DataBinder().load(props);
+        binder.put("interface", DataObject.Util.describe(DataObject.Empty.class, "json:"));
+        binder.put("nothing", null);
+        List<Object[]> rows = new ArrayList<Object[]>();
+        for (int i = 0; i < 10000; ++i) {
+            rows.add(new Object[] { i, "name\t" + i, i % 7 == 0 ? null : new java.math.BigDecimal(i).movePointLeft(2) });
+        }
+        binder.putResultSet("big", new CachedResultSet(new String[] { "id", "name", "amount" }, rows));
+        binder.putResultSet("empty", new CachedResultSet(new String[] {}, new ArrayList<Object[]>()));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        binder.toJSON(new JSONStreamer(bytes)).close();
+        assert Arrays.equals(binder.toJSON().getBytes("UTF-8"), bytes.toByteArray()) : "streamed JSON differs from toJSON()";
+
+        DataBinder empty = new DataBinder();
+        StringWriter writer = new StringWriter();
+        empty.toJSON(new JSONStreamer(writer)).close();
+        assert empty.toJSON().equals(writer.toString()) : "streamed JSON differs from toJSON()";
+    }
+
 }
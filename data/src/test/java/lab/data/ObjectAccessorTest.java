@@ -0,0 +1,154 @@
+package lab.data;
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.*;
+import org.testng.annotations.*;
+import org.xillium.data.*;
+import org.xillium.data.presentation.*;
+
+
+/**
+ * Testing generated ObjectAccessors against reflection.
+ */
+public class ObjectAccessorTest {
+    public enum Side { BUY, SELL }
+
+    public static class Upper implements Transformer<Object, Object> {
+        public Object transform(Object object) {
+            return object != null ? object.toString().toUpperCase() : null;
+        }
+    }
+
+    public static class Base implements DataObject {
+        public long id;
+        public String name;
+        protected int hidden;
+    }
+
+    public static class Position extends Base {
+        public static int COUNT;
+        public String name;             // shadows Base.name
+        public double price;
+        public Double weight;
+        public BigDecimal amount;
+        public boolean active;
+        public char flag;
+        public Side side;
+        public java.sql.Date day;
+        public String[] tags;
+        @presentation(Upper.class) public String note;
+        public final int version = 3;
+        private Integer secret;
+
+        public Position() {}
+
+        public Position(int i) {
+            id = i;
+            ((Base)this).name = "base-" + i;
+            name = i % 5 == 0 ? null : "position-" + i;
+            hidden = -i;
+            price = i * 1.5;
+            weight = i % 3 == 0 ? null : i / 7.0;
+            amount = BigDecimal.valueOf(i, 2);
+            active = i % 2 == 0;
+            flag = (char)('a' + i % 26);
+            side = Side.values()[i % 2];
+            tags = new String[] { "t" + i, "u" + i };
+            note = "note " + i;
+            secret = i;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public double getPrice() {
+            return price;
+        }
+
+        public String getBroken() {
+            throw new IllegalStateException();
+        }
+    }
+
+    @AfterMethod
+    public void reset() {
+        ObjectAccessor.setGeneration(true);
+    }
+
+    @Test(groups={"accessor"})
+    public void testGenerated() throws Exception {
+        assert ObjectAccessor.forFields(Position.class).getClass().getName().startsWith(Position.class.getName() + "$ObjectAccessor");
+        assert ObjectAccessor.forFields(Position.class) == ObjectAccessor.forFields(Position.class);
+        assert ObjectAccessor.forProperties(Position.class, "name", "-").getClass().getName().contains("$ObjectAccessor");
+        assert ObjectAccessor.forColumns(Position.class, false, "id", "flag").getClass().getName().contains("$ObjectAccessor");
+
+        ObjectAccessor.setGeneration(false);
+        assert !ObjectAccessor.forFields(Position.class).getClass().getName().contains("$ObjectAccessor");
+    }
+
+    @Test(groups={"accessor"})
+    public void testParity() throws Exception {
+        List<Position> positions = new ArrayList<Position>();
+        for (int i = 0; i < 100; ++i) positions.add(new Position(i));
+        positions.add(null);
+
+        // collection to table
+        List<CachedResultSet[]> sets = new ArrayList<CachedResultSet[]>();
+        for (boolean generating: new boolean[] { false, true }) {
+            ObjectAccessor.setGeneration(generating);
+            List<Position> objects = positions.subList(0, 100);
+            sets.add(new CachedResultSet[] {
+                new CachedResultSet(objects),
+                new CachedResultSet(objects, true),
+                new CachedResultSet(objects, true, true),
+                new CachedResultSet(positions, "-", "id", "name", "price", "broken", "missing"),
+                CachedResultSet.chooseFields(positions, "id", "name", "tags", "secret", "COUNT", "missing"),
+                CachedResultSet.chooseFields(positions, true, "price", "active", "flag", "side")
+            });
+        }
+        for (int i = 0; i < sets.get(0).length; ++i) {
+            CachedResultSet expected = sets.get(0)[i], actual = sets.get(1)[i];
+            assert Arrays.equals(expected.columns, actual.columns) && expected.rows.size() == actual.rows.size() : i;
+            for (int j = 0; j < expected.rows.size(); ++j) {
+                assert Arrays.deepEquals(expected.rows.get(j), actual.rows.get(j)) : i + ": " + Arrays.deepToString(actual.rows.get(j));
+            }
+        }
+        Object[] row = sets.get(1)[1].rows.get(7);
+        List<String> columns = Arrays.asList(sets.get(1)[1].columns);
+        assert row[columns.indexOf("note")].equals("NOTE 7") && row[columns.indexOf("hidden")].equals(-7) && row[columns.lastIndexOf("name")].equals("base-7");
+        assert Arrays.asList(sets.get(1)[3].rows.get(7)).equals(Arrays.asList(positions.get(7).toString(), null, "position-7", "10.5", null, null));
+        assert Arrays.asList(sets.get(1)[4].rows.get(7)).equals(Arrays.asList("7", "position-7", "t7;u7", "7", "0", null));
+
+        // table to objects, with values to convert
+        CachedResultSet table = new CachedResultSet(
+            new String[] { "id", "name", "price", "weight", "amount", "active", "flag", "side", "day", "tags", "note", "secret", "missing" },
+            new ArrayList<Object[]>()
+        );
+        for (int i = 0; i < 100; ++i) {
+            table.rows.add(new Object[] {
+                i % 2 == 0 ? (Object)i : (Object)Long.valueOf(i), i % 5 == 0 ? null : "n" + i, i % 3 == 0 ? (Object)BigDecimal.valueOf(i, 1) : (Object)(i / 2.0),
+                i % 4 == 0 ? (Object)Integer.valueOf(i) : (Object)Double.valueOf(i), i % 3 == 0 ? null : BigDecimal.valueOf(i), i % 2 == 0,
+                (char)('A' + i % 26), i % 2 == 0 ? (Object)Side.SELL : (Object)"BUY", new Timestamp(i * 86400000L), new String[] { "x" + i },
+                null, i, "ignored"
+            });
+        }
+        List<List<Position>> lists = new ArrayList<List<Position>>();
+        for (boolean generating: new boolean[] { false, true }) {
+            ObjectAccessor.setGeneration(generating);
+            lists.add(table.asList(Position.class));
+        }
+        for (int i = 0; i < 100; ++i) {
+            Position x = lists.get(0).get(i), y = lists.get(1).get(i);
+            assert x.id == y.id && x.id == i && equal(x.name, y.name) && equal(((Base)x).name, ((Base)y).name) && x.price == y.price;
+            assert equal(x.weight, y.weight) && equal(x.amount, y.amount) && x.active == y.active && x.flag == y.flag && x.side == y.side;
+            assert equal(x.day, y.day) && x.day.getClass() == java.sql.Date.class && Arrays.equals(x.tags, y.tags) && equal(x.note, y.note);
+            assert equal(x.secret, y.secret) && y.secret == i && y.side == (i % 2 == 0 ? Side.SELL : Side.BUY);
+        }
+    }
+
+    private static boolean equal(Object a, Object b) {
+        return a == null ? b == null : a.equals(b);
+    }
+}
@@ -0,0 +1,238 @@
+package lab.data;
+
+import java.sql.*;
+import java.util.*;
+import org.testng.annotations.*;
+import org.xillium.data.*;
+import org.xillium.data.persistence.*;
+import static org.xillium.data.Operators.*;
+
+
+/**
+ * Testing in-memory query operators against the same queries in HSQLDB.
+ */
+public class OperatorsTest {
+    private static final String[] REGIONS = { "N", "S", "E", "W", null };
+
+    private Connection _connection;
+
+    @BeforeClass
+    public void setUp() throws Exception {
+        Class.forName("org.hsqldb.jdbc.JDBCDriver");
+        _connection = DriverManager.getConnection("jdbc:hsqldb:mem:operators", "SA", "");
+        populate(20000);
+    }
+
+    @AfterClass
+    public void tearDown() throws SQLException {
+        _connection.close();
+    }
+
+    @Test(groups={"operators"})
+    public void testFilterSortTop() throws Exception {
+        for (boolean columnar: new boolean[] { false, true }) {
+            CachedResultSet orders = select("SELECT * FROM ORDERS ORDER BY ID", columnar);
+            assert orders.isColumnar() == columnar;
+
+            CachedResultSet filtered = orders.filter(new Condition("amount", gt(500)), new Condition("region", in("N", "S")));
+            assert same(filtered, select("SELECT * FROM ORDERS WHERE AMOUNT > 500 AND REGION IN ('N', 'S') ORDER BY ID", false));
+            assert filtered.isColumnar() == columnar;
+            assert same(orders.filter("region", isNull()), select("SELECT * FROM ORDERS WHERE REGION IS NULL ORDER BY ID", false));
+            assert same(orders.filter("qty", between(3L, 5.0)), select("SELECT * FROM ORDERS WHERE QTY BETWEEN 3 AND 5 ORDER BY ID", false));
+            assert orders.filter("id", lt(0)).rows.isEmpty();
+
+            assert same(orders.sort("-amount", "id"), select("SELECT * FROM ORDERS ORDER BY AMOUNT DESC, ID", false));
+            assert same(orders.sort("region", "-qty", "id"), select("SELECT * FROM ORDERS ORDER BY REGION NULLS FIRST, QTY DESC, ID", false));
+
+            assert same(orders.top(25, "-amount", "id"), select("SELECT * FROM ORDERS ORDER BY AMOUNT DESC, ID LIMIT 25", false));
+            assert same(orders.top(7, "qty"), orders.sort("qty").filter("id", in(ids(orders.sort("qty"), 7))));
+            assert orders.top(0, "qty").rows.isEmpty() && orders.top(30000, "id").rows.size() == 20000;
+        }
+    }
+
+    @Test(groups={"operators"})
+    public void testGroup() throws Exception {
+        for (boolean columnar: new boolean[] { false, true }) {
+            CachedResultSet orders = select("SELECT * FROM ORDERS ORDER BY ID", columnar);
+            CachedResultSet grouped = orders.group(
+                new String[] { "region" }, Aggregate.count(), Aggregate.count("note"), Aggregate.sum("amount"), Aggregate.sum("qty"),
+                Aggregate.min("amount"), Aggregate.max("qty"), Aggregate.avg("qty")
+            ).sort("region");
+            assert Arrays.asList(grouped.columns).equals(Arrays.asList(
+                "region", "count", "countNote", "sumAmount", "sumQty", "minAmount", "maxQty", "avgQty"
+            )) : Arrays.asList(grouped.columns);
+            CachedResultSet expected = select(
+                "SELECT REGION, COUNT(*), COUNT(NOTE), SUM(AMOUNT), SUM(QTY), MIN(AMOUNT), MAX(QTY), AVG(CAST(QTY AS DOUBLE)) " +
+                "FROM ORDERS GROUP BY REGION ORDER BY REGION NULLS FIRST", false
+            );
+            assert same(grouped, expected);
+            assert grouped.rows.get(1)[3] instanceof java.math.BigDecimal && grouped.rows.get(1)[4] instanceof Long;
+
+            // multiple keys, renamed aggregates
+            grouped = orders.group(new String[] { "region", "qty" }, Aggregate.sum("amount").as("total")).sort("region", "qty");
+            assert "total".equals(grouped.columns[2]);
+            assert same(grouped, select("SELECT REGION, QTY, SUM(AMOUNT) FROM ORDERS GROUP BY REGION, QTY ORDER BY REGION NULLS FIRST, QTY", false));
+        }
+    }
+
+    @Test(groups={"operators"})
+    public void testJoin() throws Exception {
+        for (boolean columnar: new boolean[] { false, true }) {
+            CachedResultSet orders = select("SELECT * FROM ORDERS ORDER BY ID", columnar);
+            CachedResultSet customers = select("SELECT * FROM CUSTOMERS ORDER BY ID", columnar);
+
+            // INTEGER keys on the left and BIGINT keys on the right
+            CachedResultSet joined = Operators.join(orders, new String[] { "customer" }, customers, new String[] { "id" }, false);
+            assert Arrays.asList(joined.columns).equals(Arrays.asList("id", "customer", "region", "amount", "qty", "note", "name", "tier"));
+            assert same(joined, select("SELECT O.*, C.NAME, C.TIER FROM ORDERS O JOIN CUSTOMERS C ON O.CUSTOMER = C.ID ORDER BY O.ID", false));
+            assert joined.rows.size() < orders.rows.size();
+
+            CachedResultSet outer = Operators.join(orders, new String[] { "customer" }, customers, new String[] { "id" }, true);
+            assert same(outer, select("SELECT O.*, C.NAME, C.TIER FROM ORDERS O LEFT JOIN CUSTOMERS C ON O.CUSTOMER = C.ID ORDER BY O.ID", false));
+
+            // multiple matches, multiple keys
+            CachedResultSet tiers = select("SELECT * FROM TIERS ORDER BY REGION, LEVEL", columnar);
+            joined = Operators.join(customers, new String[] { "tier" }, tiers, new String[] { "level" }, false);
+            assert same(joined.sort("id", "region"), select(
+                "SELECT C.*, T.REGION, T.DISCOUNT FROM CUSTOMERS C JOIN TIERS T ON C.TIER = T.LEVEL ORDER BY C.ID, T.REGION", false
+            ));
+            joined = orders.join(select("SELECT REGION, LEVEL AS QTY, DISCOUNT FROM TIERS", columnar), "region", "qty");
+            assert same(joined, select(
+                "SELECT O.*, T.DISCOUNT FROM ORDERS O JOIN TIERS T ON O.REGION = T.REGION AND O.QTY = T.LEVEL ORDER BY O.ID", false
+            ));
+        }
+    }
+
+    @Test(groups={"operators-performance"})
+    public void testPerformance() throws Exception {
+        populate(100000);
+        CachedResultSet orders = select("SELECT * FROM ORDERS", true), customers = select("SELECT * FROM CUSTOMERS", true);
+
+        for (int i = 0; i < 3; ++i) {
+            long now = System.nanoTime();
+            int n = orders.filter(new Condition("amount", gt(500)), new Condition("region", in("N", "S"))).rows.size();
+            long filter = lap(now);
+            now = System.nanoTime();
+            orders.sort("-amount", "id");
+            long sort = lap(now);
+            now = System.nanoTime();
+            orders.top(100, "-amount", "id");
+            long top = lap(now);
+            now = System.nanoTime();
+            orders.group(new String[] { "region" }, Aggregate.count(), Aggregate.sum("amount"), Aggregate.avg("qty"));
+            long group = lap(now);
+            now = System.nanoTime();
+            orders.join(customers.rename("customer", "name", "tier"), "customer");
+            long join = lap(now);
+            customers.rename("id", "name", "tier");
+
+            now = System.nanoTime();
+            assert select("SELECT * FROM ORDERS WHERE AMOUNT > 500 AND REGION IN ('N', 'S')", true).rows.size() == n;
+            long sqlFilter = lap(now);
+            now = System.nanoTime();
+            select("SELECT * FROM ORDERS ORDER BY AMOUNT DESC, ID", true);
+            long sqlSort = lap(now);
+            now = System.nanoTime();
+            select("SELECT * FROM ORDERS ORDER BY AMOUNT DESC, ID LIMIT 100", true);
+            long sqlTop = lap(now);
+            now = System.nanoTime();
+            select("SELECT REGION, COUNT(*), SUM(AMOUNT), AVG(CAST(QTY AS DOUBLE)) FROM ORDERS GROUP BY REGION", true);
+            long sqlGroup = lap(now);
+            now = System.nanoTime();
+            select("SELECT O.*, C.NAME, C.TIER FROM ORDERS O JOIN CUSTOMERS C ON O.CUSTOMER = C.ID", true);
+            long sqlJoin = lap(now);
+
+            System.err.println("Operators vs SQL over 100000 rows, ms: filter " + filter + "/" + sqlFilter + ", sort " + sort + "/" + sqlSort +
+                               ", top " + top + "/" + sqlTop + ", group " + group + "/" + sqlGroup + ", join " + join + "/" + sqlJoin);
+        }
+        populate(20000);
+    }
+
+    private static long lap(long start) {
+        return (System.nanoTime() - start) / 1000000;
+    }
+
+    private void populate(int count) throws SQLException {
+        Statement statement = _connection.createStatement();
+        statement.execute("DROP TABLE ORDERS IF EXISTS");
+        statement.execute("DROP TABLE CUSTOMERS IF EXISTS");
+        statement.execute("DROP TABLE TIERS IF EXISTS");
+        statement.execute("CREATE TABLE ORDERS(ID INTEGER PRIMARY KEY, CUSTOMER INTEGER, REGION VARCHAR(4), AMOUNT DECIMAL(10,2), QTY INTEGER, NOTE VARCHAR(16))");
+        statement.execute("CREATE TABLE CUSTOMERS(ID BIGINT PRIMARY KEY, NAME VARCHAR(16), TIER INTEGER)");
+        statement.execute("CREATE TABLE TIERS(REGION VARCHAR(4), LEVEL INTEGER, DISCOUNT DOUBLE)");
+        statement.close();
+
+        Random random = new Random(count);
+        PreparedStatement insert = _connection.prepareStatement("INSERT INTO ORDERS VALUES (?, ?, ?, ?, ?, ?)");
+        for (int i = 0; i < count; ++i) {
+            insert.setInt(1, i);
+            insert.setInt(2, random.nextInt(count / 10));
+            insert.setString(3, REGIONS[random.nextInt(REGIONS.length)]);
+            insert.setBigDecimal(4, java.math.BigDecimal.valueOf(random.nextInt(100000), 2));
+            insert.setInt(5, random.nextInt(10));
+            insert.setString(6, random.nextInt(3) == 0 ? null : "note-" + random.nextInt(100));
+            insert.addBatch();
+        }
+        insert.executeBatch();
+        insert.close();
+
+        // customers for 90% of the ids referenced
+        insert = _connection.prepareStatement("INSERT INTO CUSTOMERS VALUES (?, ?, ?)");
+        for (int i = 0; i < count / 10; ++i) {
+            if (i % 10 == 3) continue;
+            insert.setLong(1, i);
+            insert.setString(2, "customer-" + i);
+            insert.setInt(3, i % 4);
+            insert.addBatch();
+        }
+        insert.executeBatch();
+        insert.close();
+
+        insert = _connection.prepareStatement("INSERT INTO TIERS VALUES (?, ?, ?)");
+        for (int r = 0; r < REGIONS.length - 1; ++r) {
+            for (int level = 0; level < 3; ++level) {
+                insert.setString(1, REGIONS[r]);
+                insert.setInt(2, level);
+                insert.setDouble(3, level * 0.05 + r * 0.01);
+                insert.addBatch();
+            }
+        }
+        insert.executeBatch();
+        insert.close();
+    }
+
+    private CachedResultSet select(String sql, boolean columnar) throws Exception {
+        return new ParametricQuery(new ParametricStatement.Param[0], sql).executeSelect(_connection, null, columnar ? CachedResultSet.COLUMNAR_BUILDER : CachedResultSet.BUILDER);
+    }
+
+    private static Object[] ids(CachedResultSet rset, int n) {
+        Object[] ids = new Object[n];
+        for (int i = 0; i < n; ++i) ids[i] = rset.rows.get(i)[0];
+        return ids;
+    }
+
+    /**
+     * Compares result sets by their values, allowing for numbers of different types.
+     */
+    private static boolean same(CachedResultSet a, CachedResultSet b) {
+        int size = b.rows != null ? b.rows.size() : 0;
+        if (a.rows.size() != size) {
+            System.err.println("size " + a.rows.size() + " != " + size);
+            return false;
+        }
+        for (int i = 0; i < size; ++i) {
+            Object[] x = a.rows.get(i), y = b.rows.get(i);
+            if (x.length != y.length) return false;
+            for (int j = 0; j < x.length; ++j) {
+                boolean equal = x[j] instanceof Double && y[j] instanceof Double
+                    ? Math.abs((Double)x[j] - (Double)y[j]) < 1e-9
+                    : Operators.compare(x[j], y[j]) == 0;
+                if (!equal) {
+                    System.err.println("row " + i + ": " + Arrays.asList(x) + " != " + Arrays.asList(y));
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+}
@@ -0,0 +1,115 @@
+package lab.data.json;
+
+import java.io.*;
+import lab.data.*;
+import org.xillium.data.*;
+import org.xillium.data.json.*;
+import org.xillium.data.validation.*;
+import org.testng.annotations.*;
+
+
+public class JSON2BinderTest {
+    private static InputStream stream(String json) throws IOException {
+        return new ByteArrayInputStream(json.getBytes("UTF-8"));
+    }
+
+    private static final String CART =
+        "{\"email\":\"joe@example.com\",\"transactionDate\":\"2014-01-15\",\"note\":{\"gift\":true},\"products\":[" +
+            "{\"identity\":\"P1\",\"price\":9.5,\"quantity\":2,\"coupons\":[{\"code\":\"C1\"},{\"code\":\"C2\"}]}," +
+            "{\"identity\":\"P2\",\"name\":\"pen\",\"price\":1,\"quantity\":10,\"unknown\":[1,[2]]}" +
+        "]}";
+
+    @Test(groups={"json"})
+    public void testFlattening() throws Exception {
+        DataBinder binder = JSONDecoder.decode(new DataBinder(), stream(CART));
+        assert "joe@example.com".equals(binder.get("email"));
+        assert "true".equals(binder.get("note.gift"));
+        assert "P1".equals(binder.get("products[0].identity")) && "9.5".equals(binder.get("products[0].price"));
+        assert "C2".equals(binder.get("products[0].coupons[1].code"));
+        assert "pen".equals(binder.get("products[1].name"));
+        assert "2".equals(binder.get("products[1].unknown[1][0]"));
+        assert binder.getNamedObject(Dictionary.DECODED_DATA_OBJECT) == null;
+
+        // the flattened binder collects like form parameters
+        ShoppingCartCreate cart = new Dictionary().addTypeSet(StandardDataTypes.class).collect(new ShoppingCartCreate(), binder);
+        assert cart.products.length == 2 && cart.products[0].coupons.length == 2 && cart.products[1].quantity == 10;
+    }
+
+    @Test(groups={"json"})
+    public void testDirectDecoding() throws Exception {
+        Dictionary dict = new Dictionary().addTypeSet(StandardDataTypes.class);
+        DataBinder binder = JSONDecoder.decode(new DataBinder(), stream(CART), ShoppingCartCreate.class, dict);
+
+        // arrays of the request type go straight into the request object, simple values into the binder
+        assert binder.get("products[0].identity") == null;
+        assert "2014-01-15".equals(binder.get("transactionDate")) && "true".equals(binder.get("note.gift"));
+        ShoppingCartCreate decoded = binder.getNamedObject(Dictionary.DECODED_DATA_OBJECT);
+        assert decoded.products.length == 2 && decoded.products[0].price == 9.5;
+
+        // a parameter set by a filter is still collected
+        binder.put("email", "ann@example.com");
+        ShoppingCartCreate cart = dict.collect(new ShoppingCartCreate(), binder);
+        assert "ann@example.com".equals(cart.email) && cart.transactionDate != null;
+        assert cart.products.length == 2 && "C1".equals(cart.products[0].coupons[0].code);
+        assert "pen".equals(cart.products[1].name) && cart.products[1].quantity == 10 && cart.products[1].coupons == null;
+    }
+
+    @Test(groups={"json"})
+    public void testValidation() throws Exception {
+        Dictionary dict = new Dictionary().addTypeSet(StandardDataTypes.class);
+        try {
+            JSONDecoder.decode(new DataBinder(), stream("{\"products\":[{\"identity\":\"P1\",\"price\":1}]}"), ShoppingCartCreate.class, dict);
+            assert false;
+        } catch (MissingParameterException x) {
+            assert x.getMessage().contains("quantity") : x.getMessage();
+        }
+        try {
+            JSONDecoder.decode(new DataBinder(), stream("{\"products\":[{\"identity\":\"P1\",\"price\":\"cheap\",\"quantity\":1}]}"), ShoppingCartCreate.class, dict);
+            assert false;
+        } catch (DataValidationException x) {
+        }
+        try {
+            JSONDecoder.decode(new DataBinder(), stream("[1,2]"));
+            assert false;
+        } catch (IOException x) {
+        }
+
+        // a required array missing from the request is still reported by collect()
+        DataBinder binder = JSONDecoder.decode(new DataBinder(), stream("{\"transactionDate\":\"2014-01-15\"}"), ShoppingCartCreate.class, dict);
+        try {
+            dict.collect(new ShoppingCartCreate(), binder);
+            assert false;
+        } catch (MissingParameterException x) {
+            assert x.getMessage().contains("products") : x.getMessage();
+        }
+
+        // and so is one the data object already holds, since it was not decoded from the request
+        ShoppingCartCreate prefilled = new ShoppingCartCreate();
+        prefilled.products = new Product[0];
+        try {
+            dict.collect(prefilled, binder);
+            assert false;
+        } catch (MissingParameterException x) {
+            assert x.getMessage().contains("products") : x.getMessage();
+        }
+    }
+
+    @Test(groups={"json"})
+    public void testLargeArrays() throws Exception {
+        Dictionary dict = new Dictionary();
+        int count = 100000;
+        StringBuilder sb = new StringBuilder("{\"productId\":[");
+        for (int i = 0; i < count; ++i) sb.append(i > 0 ? "," : "").append(i);
+        sb.append("],\"quantity\":[");
+        for (int i = 0; i < count; ++i) sb.append(i > 0 ? "," : "").append(i % 7 + 1);
+        sb.append("]}");
+
+        long start = System.currentTimeMillis();
+        DataBinder binder = JSONDecoder.decode(new DataBinder(), stream(sb.toString()), Cart.class, dict);
+        Cart cart = dict.collect(new Cart(), binder);
+        long elapsed = System.currentTimeMillis() - start;
+        System.err.println("Decoded " + count + " x 2 elements directly in " + elapsed + " ms");
+        assert binder.isEmpty();
+        assert cart.productId.length == count && cart.productId[count - 1] == count - 1 && cart.quantity[8] == 2;
+    }
+}
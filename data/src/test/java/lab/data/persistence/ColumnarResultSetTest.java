@@ -0,0 +1,139 @@
+package lab.data.persistence;
+
+import java.math.BigDecimal;
+import java.sql.*;
+import java.util.*;
+import javax.sql.DataSource;
+import javax.annotation.Resource;
+
+import org.springframework.jdbc.datasource.DataSourceUtils;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.transaction.TransactionConfiguration;
+import org.springframework.test.context.testng.AbstractTransactionalTestNGSpringContextTests;
+import org.springframework.transaction.annotation.Transactional;
+import org.testng.annotations.*;
+
+import org.xillium.base.beans.JSONBuilder;
+import org.xillium.data.*;
+import org.xillium.data.persistence.*;
+
+
+/**
+ * Testing the columnar layout of CachedResultSet, with footprint and construction time measurements over HSQLDB.
+ */
+@ContextConfiguration(locations={"/application-context.xml"})
+@TransactionConfiguration(transactionManager="transactionManager", defaultRollback=true)
+@Transactional(readOnly=true)
+public class ColumnarResultSetTest extends AbstractTransactionalTestNGSpringContextTests {
+    public static class Item implements DataObject {
+        public int id;
+        public Long code;
+        public BigDecimal price;
+        public Double weight;
+        public String status;
+        public Timestamp created;
+    }
+
+    private static final String SQL =
+        "SELECT X AS ID, CAST(X * 1000 AS BIGINT) AS CODE, CAST(X AS DECIMAL(12,2)) / 4 AS PRICE, CAST(X AS DOUBLE) / 3 AS WEIGHT, " +
+        "CASE WHEN MOD(X, 7) = 0 THEN NULL ELSE 'STATUS-' || MOD(X, 5) END AS STATUS, TIMESTAMP '2014-05-01 12:30:00' AS CREATED " +
+        "FROM UNNEST(SEQUENCE_ARRAY(1, %d, 1)) AS T(X)";
+
+    @Resource
+    private DataSource dataSource;
+
+    @Test(groups={"columnar"})
+    public void testColumnarRows() throws Exception {
+        Object[][] data = {
+            { 1, 10L, new BigDecimal("1.50"), 0.5, "a", null, new BigDecimal("1.5"), 7 },
+            { null, 20L, new BigDecimal("2.25"), null, "b", "x", new BigDecimal("1.50"), 7L },
+            { 3, null, null, 1.5, "a", null, null, null },
+            { 4, 40L, new BigDecimal("99999999999999999999.99"), 2.5, null, "y", new BigDecimal("2"), 7 },
+        };
+        Timestamp timestamp = new Timestamp(1400000000123L);
+        timestamp.setNanos(123456789);
+        for (int i = 0; i < data.length; ++i) {
+            data[i] = Arrays.copyOf(data[i], 10);
+            data[i][8] = i == 2 ? null : new java.sql.Date(1400000000000L + i*86400000L);
+            data[i][9] = i == 1 ? null : timestamp;
+        }
+        ColumnarRows rows = new ColumnarRows(10);
+        for (Object[] row: data) rows.add(row.clone());
+        rows.trim();
+
+        assert rows.size() == data.length;
+        for (int i = 0; i < data.length; ++i) {
+            assert Arrays.equals(data[i], rows.get(i)) : Arrays.asList(rows.get(i));
+            for (int j = 0; j < data[i].length; ++j) {
+                assert data[i][j] == null ? rows.get(i, j) == null : data[i][j].getClass() == rows.get(i, j).getClass();
+            }
+        }
+        assert rows.describe().equals("int,long,object,double,string[2],string[2],object,object,date,timestamp") : rows.describe();
+
+        // more rows after trimming
+        rows.add(new Object[] { 5, 50L, new BigDecimal("3.00"), 3.5, "c", "x", null, 8, null, timestamp });
+        assert Arrays.equals(new Object[] { 5, 50L, new BigDecimal("3.00"), 3.5, "c", "x", null, 8, null, timestamp }, rows.get(4));
+        assert Arrays.equals(data[3], rows.get(3));
+    }
+
+    @Test(groups={"columnar"})
+    public void testCachedResultSet() throws Exception {
+        CachedResultSet r = select(1000, false), c = select(1000, true);
+        assert !r.isColumnar() && c.isColumnar();
+        assert Arrays.equals(r.columns, c.columns);
+        assert r.rows.size() == c.rows.size();
+        assert ((ColumnarRows)c.rows).describe().equals("int,long,decimal,double,string[5],timestamp") : ((ColumnarRows)c.rows).describe();
+
+        assert r.toJSON(new JSONBuilder()).toString().equals(c.toJSON(new JSONBuilder()).toString());
+        assert r.buildIndex().equals(c.buildIndex());
+
+        List<Item> ri = r.asList(Item.class), ci = c.asList(Item.class);
+        for (int i = 0; i < ri.size(); ++i) {
+            Item a = ri.get(i), b = ci.get(i);
+            assert a.id == b.id && a.code.equals(b.code) && a.price.equals(b.price) && a.weight.equals(b.weight) && a.created.equals(b.created);
+            assert a.status == null ? b.status == null : a.status.equals(b.status);
+        }
+
+        CachedResultSet rf = CachedResultSet.chooseFields(ri, "id", "status", "price"), cf = CachedResultSet.chooseFields(ci, true, "id", "status", "price");
+        assert cf.isColumnar();
+        assert rf.toJSON(new JSONBuilder()).toString().equals(cf.toJSON(new JSONBuilder()).toString());
+
+        CachedResultSet ro = new CachedResultSet(ri), co = new CachedResultSet(ci, false, true);
+        assert co.isColumnar();
+        assert ro.toJSON(new JSONBuilder()).toString().equals(co.toJSON(new JSONBuilder()).toString());
+    }
+
+    @Test(groups={"columnar"})
+    public void testFootprint() throws Exception {
+        final int ROWS = 100000;
+        for (boolean columnar: new boolean[] { false, true, false, true }) {
+            long now = System.nanoTime();
+            CachedResultSet rs = select(ROWS, columnar);
+            long time = System.nanoTime() - now;
+            assert rs.rows.size() == ROWS;
+            int width = rs.columns.length;
+
+            // the memory retained by the result set alone
+            long footprint = used();
+            rs = null;
+            footprint -= used();
+
+            System.err.println("CachedResultSet, " + ROWS + " rows x " + width + " columns, " + (columnar ? "columnar" : "row-wise") +
+                               ": " + footprint/1024 + " KB, " + time/1000000 + " ms");
+        }
+    }
+
+    private CachedResultSet select(int count, boolean columnar) throws Exception {
+        ParametricQuery query = new ParametricQuery(new ParametricStatement.Param[0], String.format(SQL, count));
+        return query.executeSelect(DataSourceUtils.getConnection(dataSource), null, columnar ? CachedResultSet.COLUMNAR_BUILDER : CachedResultSet.BUILDER);
+    }
+
+    private static long used() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; ++i) {
+            System.gc();
+            try { Thread.sleep(50); } catch (InterruptedException x) {}
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
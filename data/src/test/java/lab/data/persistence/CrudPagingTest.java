@@ -0,0 +1,126 @@
+package lab.data.persistence;
+
+import java.math.BigDecimal;
+import java.sql.*;
+import java.util.*;
+import org.testng.annotations.*;
+
+import org.xillium.data.*;
+import org.xillium.data.persistence.*;
+import org.xillium.data.persistence.crud.CrudCommand;
+
+
+/**
+ * Testing keyset pagination of CRUD SEARCH commands on tables with composite primary keys.
+ */
+public class CrudPagingTest {
+    private static final String[] REGIONS = { "EAST", "NORTH", "SOUTH", "WEST" };
+    private static final int ROWS = 301;
+
+    private Connection _connection;
+
+    @BeforeClass
+    public void setUp() throws Exception {
+        Class.forName("org.hsqldb.jdbc.JDBCDriver");
+        _connection = DriverManager.getConnection("jdbc:hsqldb:mem:paging", "SA", "");
+        Statement statement = _connection.createStatement();
+        statement.execute("CREATE SCHEMA SA AUTHORIZATION DBA");
+        statement.execute("SET SCHEMA SA");
+        // the key columns in an order different from the table columns
+        statement.execute(
+            "CREATE TABLE LEDGER(ENTRY INTEGER NOT NULL, REGION VARCHAR(8) NOT NULL, BOOKED TIMESTAMP NOT NULL, AMOUNT DECIMAL(10,2), " +
+            "PRIMARY KEY(REGION, BOOKED, ENTRY))"
+        );
+        statement.execute("CREATE TABLE JOURNAL(LINE INTEGER, NOTE VARCHAR(16))");
+        statement.close();
+
+        PreparedStatement insert = _connection.prepareStatement("INSERT INTO LEDGER VALUES(?, ?, ?, ?)");
+        Random random = new Random(ROWS);
+        for (int i = 0; i < ROWS; ++i) {
+            insert.setInt(1, i % 3);
+            insert.setString(2, REGIONS[random.nextInt(REGIONS.length)]);
+            // colliding timestamps with fractional seconds
+            insert.setTimestamp(3, new Timestamp(1400000000000L + (i / 3) * 1500L));
+            insert.setBigDecimal(4, BigDecimal.valueOf(random.nextInt(100000), 2));
+            insert.addBatch();
+        }
+        insert.executeBatch();
+        insert.close();
+    }
+
+    @AfterClass
+    public void tearDown() throws SQLException {
+        _connection.close();
+    }
+
+    @Test(groups={"crud", "crud-search"})
+    public void testPages() throws Exception {
+        CrudCommand command = new CrudCommand(_connection, "paging", "LEDGER", new CrudCommand.Action(CrudCommand.Operation.SEARCH, new String[] {
+            "REGION", "AMOUNT>="
+        }));
+        assert command.isPageable();
+
+        // all rows, in pages of a size that divides the number of rows
+        DataBinder binder = new DataBinder();
+        assert pages(command, binder, 7, "SELECT * FROM LEDGER ORDER BY REGION, BOOKED, ENTRY") == ROWS / 7;
+        assert pages(command, binder, 1000, "SELECT * FROM LEDGER ORDER BY REGION, BOOKED, ENTRY") == 1;
+
+        // search conditions
+        binder.put("region", "NORTH");
+        binder.put("amount", "300");
+        pages(command, binder, 5, "SELECT * FROM LEDGER WHERE REGION = 'NORTH' AND AMOUNT >= 300 ORDER BY REGION, BOOKED, ENTRY");
+        binder.remove("region");
+        pages(command, binder, 9, "SELECT * FROM LEDGER WHERE AMOUNT >= 300 ORDER BY REGION, BOOKED, ENTRY");
+        binder.put("amount", "100000");
+        assert pages(command, binder, 9, "SELECT * FROM LEDGER WHERE AMOUNT >= 100000") == 1;
+
+        // tokens are validated
+        try {
+            command.page(_connection, request(command, new DataBinder()), 0, "not a token", 10);
+            assert false;
+        } catch (IllegalArgumentException x) {
+        }
+    }
+
+    @Test(groups={"crud", "crud-search"})
+    public void testNoPrimaryKey() throws Exception {
+        CrudCommand command = new CrudCommand(_connection, "paging", "JOURNAL", new CrudCommand.Action(CrudCommand.Operation.SEARCH, new String[] {
+            "NOTE"
+        }));
+        assert !command.isPageable();
+        try {
+            command.page(_connection, request(command, new DataBinder()), 0, null, 10);
+            assert false;
+        } catch (IllegalStateException x) {
+        }
+    }
+
+    /*
+     * Pages through the rows, comparing them with those of the query, and returns the number of pages.
+     */
+    private int pages(CrudCommand command, DataBinder binder, int size, String sql) throws Exception {
+        CachedResultSet expected = new ParametricQuery(new ParametricStatement.Param[0], sql).executeSelect(_connection, null, CachedResultSet.BUILDER);
+        List<Object[]> rows = new ArrayList<Object[]>();
+        int count = 0;
+        String token = null;
+        do {
+            CrudCommand.Page page = command.page(_connection, request(command, binder), command.choose(binder), token, size);
+            assert page.results.rows == null || page.results.rows.size() <= size;
+            if (page.results.rows != null) rows.addAll(page.results.rows);
+            token = page.next;
+            ++count;
+            assert token == null || page.results.rows.size() == size;
+        } while (token != null);
+
+        int total = expected.rows != null ? expected.rows.size() : 0;
+        assert rows.size() == total : rows.size() + " != " + total;
+        for (int i = 0; i < total; ++i) {
+            assert Arrays.equals(expected.rows.get(i), rows.get(i)) : i;
+        }
+        return count;
+    }
+
+    private static DataObject request(CrudCommand command, DataBinder binder) throws Exception {
+        return new org.xillium.data.validation.Dictionary().collect(command.getRequestType().newInstance(), binder);
+    }
+}
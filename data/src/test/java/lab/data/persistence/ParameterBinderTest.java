@@ -0,0 +1,151 @@
+package lab.data.persistence;
+
+import java.lang.reflect.*;
+import java.math.BigDecimal;
+import java.sql.*;
+import java.util.*;
+import javax.sql.DataSource;
+import javax.annotation.Resource;
+
+import org.springframework.jdbc.datasource.DataSourceUtils;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.transaction.TransactionConfiguration;
+import org.springframework.test.context.testng.AbstractTransactionalTestNGSpringContextTests;
+import org.springframework.transaction.annotation.Transactional;
+import org.testng.annotations.*;
+
+import org.xillium.data.*;
+import org.xillium.data.persistence.*;
+
+
+/**
+ * Testing generated ParameterBinders against reflective parameter binding, with a micro-benchmark over HSQLDB.
+ */
+@ContextConfiguration(locations={"/application-context.xml"})
+@TransactionConfiguration(transactionManager="transactionManager", defaultRollback=true)
+@Transactional(readOnly=true)
+public class ParameterBinderTest extends AbstractTransactionalTestNGSpringContextTests {
+    public static enum Level { LOW, MEDIUM, HIGH }
+
+    public static class Base implements DataObject {
+        public String email;
+    }
+
+    public static class Request extends Base {
+        public int count;
+        public Long big;
+        public BigDecimal amount;
+        public Timestamp when;
+        public Level name;
+        public Level rank;
+        public Calendar day;
+        public Integer missing;
+        public String text;
+        public double ratio;
+    }
+
+    public static class Hidden implements DataObject {
+        private String email;
+        Hidden(String e) { email = e; }
+    }
+
+    // exposes the protected load() method
+    public static class Probe extends ParametricStatement {
+        public Probe(String sql) {
+            set(sql);
+        }
+
+        public PreparedStatement bind(PreparedStatement statement, DataObject object) throws SQLException {
+            return load(statement, object);
+        }
+    }
+
+    private static final String SQL =
+        "SELECT :email:VARCHAR, :count:INTEGER, :big:BIGINT, :amount:NUMERIC, :when:TIMESTAMP, :name:VARCHAR, :rank:INTEGER, :day:DATE, " +
+        ":missing:INTEGER, :text:INTEGER, :ratio:NUMERIC, :absent:VARCHAR, :-out:INTEGER FROM MEMBERSHIP";
+
+    @Resource
+    private DataSource dataSource;
+
+    @Test(groups={"binder"})
+    public void testParity() throws Exception {
+        Request request = new Request();
+        request.email = "me@mail.com";
+        request.count = 12;
+        request.big = 3000000000L;
+        request.amount = new BigDecimal("12.50");
+        request.when = new Timestamp(1400000000000L);
+        request.name = Level.MEDIUM;
+        request.rank = Level.HIGH;
+        request.day = Calendar.getInstance();
+        request.text = "34";
+        request.ratio = 0.25;
+
+        Probe generated = new Probe(SQL), reflective = new Probe(SQL);
+        reflective.setBinderGeneration(false);
+
+        Map<Integer, Object> expected = new HashMap<Integer, Object>(), actual = new HashMap<Integer, Object>();
+        reflective.bind(recorder(expected), request);
+        generated.bind(recorder(actual), request);
+
+        assert expected.size() == 12 : "Parameters bound: " + expected;
+        assert expected.equals(actual) : expected + " != " + actual;
+
+        // non-public fields fall back to reflection
+        expected.clear();
+        actual.clear();
+        reflective.bind(recorder(expected), new Hidden("you@mail.com"));
+        generated.bind(recorder(actual), new Hidden("you@mail.com"));
+        assert "you@mail.com".equals(actual.get(1));
+        assert expected.equals(actual) : expected + " != " + actual;
+    }
+
+    @Test(groups={"binder"})
+    public void testBindingBenchmark() throws Exception {
+        Request request = new Request();
+        request.email = "me@mail.com";
+        request.count = 12;
+        request.big = 3000L;
+        request.amount = new BigDecimal("12");
+        request.when = new Timestamp(System.currentTimeMillis());
+
+        String sql = "SELECT COUNT(*) FROM MEMBERSHIP WHERE EMAIL <> :email:VARCHAR AND :count:INTEGER > 0 AND :big:BIGINT > 0 " +
+                     "AND :amount:NUMERIC > 0 AND :when:TIMESTAMP IS NOT NULL";
+        Probe generated = new Probe(sql), reflective = new Probe(sql);
+        reflective.setBinderGeneration(false);
+
+        Connection connection = DataSourceUtils.getConnection(dataSource);
+        PreparedStatement statement = connection.prepareStatement(generated.getSQL());
+        try {
+            final int ROUNDS = 5, BINDS = 100000;
+            long best[] = { Long.MAX_VALUE, Long.MAX_VALUE };
+            for (int r = 0; r < ROUNDS; ++r) {
+                long now = System.nanoTime();
+                for (int i = 0; i < BINDS; ++i) reflective.bind(statement, request);
+                best[0] = Math.min(best[0], System.nanoTime() - now);
+
+                now = System.nanoTime();
+                for (int i = 0; i < BINDS; ++i) generated.bind(statement, request);
+                best[1] = Math.min(best[1], System.nanoTime() - now);
+            }
+            System.err.println("Parameter binding, 5 parameters, ns/bind: reflective = " + best[0]/BINDS + ", generated = " + best[1]/BINDS);
+
+            ResultSet rs = generated.bind(statement, request).executeQuery();
+            assert rs.next() && rs.getInt(1) > 0;
+            rs.close();
+        } finally {
+            statement.close();
+        }
+    }
+
+    private static PreparedStatement recorder(final Map<Integer, Object> values) {
+        return (PreparedStatement)Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(), new Class<?>[] { PreparedStatement.class }, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().startsWith("set")) {
+                    values.put((Integer)args[0], method.getName().equals("setNull") ? "NULL:" + args[1] : args[1]);
+                }
+                return null;
+            }
+        });
+    }
+}
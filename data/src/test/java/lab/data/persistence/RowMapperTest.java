@@ -0,0 +1,110 @@
+package lab.data.persistence;
+
+import java.lang.reflect.Field;
+import java.math.BigDecimal;
+import java.util.*;
+import javax.sql.DataSource;
+import javax.annotation.Resource;
+
+import org.springframework.jdbc.datasource.DataSourceUtils;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.transaction.TransactionConfiguration;
+import org.springframework.test.context.testng.AbstractTransactionalTestNGSpringContextTests;
+import org.springframework.transaction.annotation.Transactional;
+import org.testng.annotations.*;
+
+import org.xillium.base.beans.Beans;
+import org.xillium.data.*;
+import org.xillium.data.persistence.*;
+
+
+/**
+ * Testing generated RowMappers in ObjectMappedQuery against reflective mapping, with a micro-benchmark over HSQLDB.
+ */
+@ContextConfiguration(locations={"/application-context.xml"})
+@TransactionConfiguration(transactionManager="transactionManager", defaultRollback=true)
+@Transactional(readOnly=true)
+public class RowMapperTest extends AbstractTransactionalTestNGSpringContextTests {
+    public static enum Level { LOW, MEDIUM, HIGH }
+
+    public static class Base implements DataObject {
+        public String email;
+    }
+
+    public static class Row extends Base {
+        public int seq;
+        public Long total;
+        public long amountL;
+        public Double ratio;
+        public short tiny;
+        public BigDecimal amount;
+        public Level grade;
+        public Level tier;
+        public java.sql.Date startDay;
+        public java.util.Date startedAt;
+        public Integer nothing;
+        public int missed;
+        public boolean flag;
+        public String label;
+        public Integer parsed;
+        private String hidden;
+    }
+
+    private static final String SQL =
+        "SELECT 'me@mail.com' AS EMAIL, X AS SEQ, X AS TOTAL, CAST(X * 1.5 AS DECIMAL(12,2)) AS AMOUNT_L, CAST(X AS DECIMAL(12,3)) / 8 AS RATIO, " +
+        "CAST(X AS BIGINT) AS TINY, CAST(X * 2.25 AS DECIMAL(12,2)) AS AMOUNT, MOD(X, 3) AS GRADE, 'HIGH' AS TIER, " +
+        "TIMESTAMP '2014-05-01 12:30:00' AS START_DAY, TIMESTAMP '2014-05-01 12:30:00' AS STARTED_AT, CAST(NULL AS INTEGER) AS NOTHING, " +
+        "CAST(NULL AS INTEGER) AS MISSED, TRUE AS FLAG, 'x' || X AS LABEL, '' || X AS PARSED, 'secret' AS HIDDEN " +
+        "FROM UNNEST(SEQUENCE_ARRAY(1, %d, 1)) AS T(X)";
+
+    @Resource
+    private DataSource dataSource;
+
+    @Test(groups={"mapper"})
+    public void testParity() throws Exception {
+        List<Row> expected = reflective(10).getResults(DataSourceUtils.getConnection(dataSource), null);
+        List<Row> actual = generated(10).getResults(DataSourceUtils.getConnection(dataSource), null);
+
+        assert expected.size() == 10 && actual.size() == 10;
+        for (int i = 0; i < expected.size(); ++i) {
+            for (Field field: Beans.getKnownInstanceFields(Row.class)) {
+                Object e = field.get(expected.get(i)), a = field.get(actual.get(i));
+                assert e == null ? a == null : e.equals(a) : field.getName() + ": " + e + " != " + a;
+            }
+        }
+
+        Row row = actual.get(4);
+        assert row.seq == 5 && row.total == 5L && row.amountL == 7L && row.tiny == 5 && row.ratio == 0.625;
+        assert row.grade == Level.HIGH && row.tier == Level.HIGH && row.nothing == null && row.missed == 0 && row.flag;
+        assert row.parsed == 5 && "x5".equals(row.label) && "secret".equals(row.hidden) && "me@mail.com".equals(row.email);
+        assert row.startDay.getClass() == java.sql.Date.class && row.startedAt.getClass() == java.sql.Timestamp.class;
+    }
+
+    @Test(groups={"mapper"})
+    public void testMappingBenchmark() throws Exception {
+        final int ROUNDS = 5, ROWS = 20000;
+        ObjectMappedQuery<Row> reflective = reflective(ROWS), generated = generated(ROWS);
+
+        long best[] = { Long.MAX_VALUE, Long.MAX_VALUE };
+        for (int r = 0; r < ROUNDS; ++r) {
+            long now = System.nanoTime();
+            assert reflective.getResults(DataSourceUtils.getConnection(dataSource), null).size() == ROWS;
+            best[0] = Math.min(best[0], System.nanoTime() - now);
+
+            now = System.nanoTime();
+            assert generated.getResults(DataSourceUtils.getConnection(dataSource), null).size() == ROWS;
+            best[1] = Math.min(best[1], System.nanoTime() - now);
+        }
+        System.err.println("Object mapping, " + ROWS + " rows, ms/query: reflective = " + best[0]/1000000 + ", generated = " + best[1]/1000000);
+    }
+
+    private static ObjectMappedQuery<Row> generated(int rows) {
+        return new ObjectMappedQuery<Row>(new ParametricStatement.Param[0], String.format(SQL, rows), Row.class);
+    }
+
+    private static ObjectMappedQuery<Row> reflective(int rows) {
+        ObjectMappedQuery<Row> query = new ObjectMappedQuery<Row>(new ParametricStatement.Param[0], String.format(SQL, rows), Row.class);
+        query.setMapperGeneration(false);
+        return query;
+    }
+}
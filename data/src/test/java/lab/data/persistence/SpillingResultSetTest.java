@@ -0,0 +1,147 @@
+package lab.data.persistence;
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.sql.*;
+import java.util.*;
+import org.testng.annotations.*;
+
+import org.xillium.base.beans.JSONBuilder;
+import org.xillium.data.*;
+import org.xillium.data.persistence.*;
+
+
+/**
+ * Testing CachedResultSets that spill rows to disk, with forced small budgets over HSQLDB.
+ */
+public class SpillingResultSetTest {
+    private static final String SQL =
+        "SELECT X AS ID, CAST(X * 1000 AS BIGINT) AS CODE, CAST(X AS DECIMAL(12,2)) / 4 AS PRICE, CAST(X AS DOUBLE) / 3 AS WEIGHT, " +
+        "CASE WHEN MOD(X, 7) = 0 THEN NULL ELSE 'STATUS-' || MOD(X, 5) || '-é中' END AS STATUS, " +
+        "TIMESTAMP '2014-05-01 12:30:00.123456789' AS CREATED, DATE '2014-05-01' AS DAY, CASE WHEN MOD(X, 2) = 0 THEN TRUE ELSE FALSE END AS EVEN " +
+        "FROM UNNEST(SEQUENCE_ARRAY(1, %d, 1)) AS T(X)";
+
+    public static class Item implements DataObject {
+        public int id;
+        public Long code;
+        public BigDecimal price;
+        public Double weight;
+        public String status;
+        public Timestamp created;
+    }
+
+    private Connection _connection;
+
+    @BeforeClass
+    public void setUp() throws Exception {
+        Class.forName("org.hsqldb.jdbc.JDBCDriver");
+        _connection = DriverManager.getConnection("jdbc:hsqldb:mem:spilling", "SA", "");
+    }
+
+    @AfterClass
+    public void tearDown() throws SQLException {
+        _connection.close();
+    }
+
+    @Test(groups={"spilling"})
+    public void testSpilledResultSet() throws Exception {
+        CachedResultSet expected = select(20000, CachedResultSet.BUILDER);
+        CachedResultSet spilled = select(20000, new CachedResultSet.Builder(64 * 1024));
+        try {
+            assert spilled.isSpilled() && !expected.isSpilled();
+            SpillingRows rows = (SpillingRows)spilled.rows;
+            assert rows.getMemorySize() > 0 && rows.getMemorySize() < 1000 : rows.getMemorySize();
+            assert rows.getFile().exists();
+
+            // iteration, random access, JSON, and objects
+            assert Arrays.equals(expected.columns, spilled.columns) && expected.rows.size() == rows.size();
+            int index = 0;
+            for (Object[] row: spilled.rows) {
+                assert Arrays.equals(expected.rows.get(index++), row) : Arrays.asList(row);
+            }
+            for (int i = rows.size(); i-- > 0;) {
+                assert Arrays.equals(expected.rows.get(i), rows.get(i));
+            }
+            assert rows.getFile().length() == rows.getSpilledBytes();
+            assert spilled.rows.get(19999)[5].equals(expected.rows.get(19999)[5]) && ((Timestamp)spilled.rows.get(19999)[5]).getNanos() == 123456789;
+            assert spilled.toJSON(new JSONBuilder()).toString().equals(expected.toJSON(new JSONBuilder()).toString());
+
+            List<Item> a = expected.asList(Item.class), b = spilled.asList(Item.class);
+            for (int i = 0; i < a.size(); ++i) {
+                Item x = a.get(i), y = b.get(i);
+                assert x.id == y.id && x.code.equals(y.code) && x.price.equals(y.price) && x.weight.equals(y.weight) && x.created.equals(y.created);
+                assert x.status == null ? y.status == null : x.status.equals(y.status);
+            }
+
+            // operators over spilled rows
+            assert spilled.filter("id", Operators.gt(19990)).rows.size() == 10;
+        } finally {
+            ((SpillingRows)spilled.rows).close();
+        }
+
+        // the temporary file is gone once closed
+        SpillingRows rows = (SpillingRows)spilled.rows;
+        assert !rows.getFile().exists();
+        assert Arrays.equals(expected.rows.get(0), rows.get(0));
+        try {
+            rows.get(rows.size() - 1);
+            assert false;
+        } catch (IllegalStateException x) {
+        }
+
+        // within budget
+        CachedResultSet small = select(100, new CachedResultSet.Builder(1L << 20));
+        assert !small.isSpilled() && small.rows.size() == 100 && ((SpillingRows)small.rows).getFile() == null;
+        assert small.toJSON(new JSONBuilder()).toString().equals(select(100, CachedResultSet.BUILDER).toJSON(new JSONBuilder()).toString());
+    }
+
+    @Test(groups={"spilling"})
+    public void testSegments() throws Exception {
+        SpillingRows rows = new SpillingRows(6, 0, 1024);
+        List<Object[]> expected = new ArrayList<Object[]>();
+        Random random = new Random(7);
+        try {
+            for (int i = 0; i < 2000; ++i) {
+                char[] text = new char[random.nextInt(300)];
+                Arrays.fill(text, (char)('a' + i % 26));
+                Object[] row = {
+                    i, new String(text), new BigDecimal(new java.math.BigInteger(100, random), 3), random.nextBoolean() ? null : (short)i,
+                    new java.sql.Time(i * 1000L), random.nextFloat()
+                };
+                rows.add(row);
+                expected.add(row);
+
+                // reading while adding maps the file again as it grows
+                if (i % 300 == 0) {
+                    int j = random.nextInt(i + 1);
+                    assert Arrays.equals(expected.get(j), rows.get(j));
+                }
+            }
+            assert rows.isSpilled() && rows.getMemorySize() == 1 && rows.getSpilledBytes() > 100 * 1024;
+            for (int i = 0; i < expected.size(); ++i) {
+                assert Arrays.equals(expected.get(i), rows.get(i)) : i;
+            }
+
+            try {
+                rows.add(new Object[] { new Object(), null, null, null, null, null });
+                assert false;
+            } catch (IllegalArgumentException x) {
+            }
+            try {
+                char[] text = new char[2000];
+                rows.add(new Object[] { null, new String(text), null, null, null, null });
+                assert false;
+            } catch (IllegalArgumentException x) {
+            }
+        } finally {
+            rows.close();
+        }
+        File file = rows.getFile();
+        assert !file.exists();
+    }
+
+    private CachedResultSet select(int count, CachedResultSet.Builder builder) throws Exception {
+        ParametricQuery query = new ParametricQuery(new ParametricStatement.Param[0], String.format(SQL, count));
+        return query.executeSelect(_connection, null, builder);
+    }
+}
@@ -0,0 +1,126 @@
+package lab.data.persistence;
+
+import java.sql.*;
+import javax.sql.DataSource;
+import javax.annotation.Resource;
+
+import org.springframework.jdbc.datasource.DataSourceUtils;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.transaction.TransactionConfiguration;
+import org.springframework.test.context.testng.AbstractTransactionalTestNGSpringContextTests;
+import org.springframework.transaction.annotation.Transactional;
+import org.testng.annotations.*;
+
+import org.xillium.data.*;
+import org.xillium.data.persistence.*;
+
+
+/**
+ * Testing StatementCache with ParametricQuery over HSQLDB.
+ */
+@ContextConfiguration(locations={"/application-context.xml"})
+@TransactionConfiguration(transactionManager="transactionManager", defaultRollback=true)
+@Transactional(readOnly=true)
+public class StatementCacheTest extends AbstractTransactionalTestNGSpringContextTests {
+    public static class Request implements DataObject {
+        public String email;
+    }
+
+    private static final ResultSetWorker<Integer> COUNTER = new ResultSetWorker<Integer>() {
+        public Integer process(ResultSet rs) throws Exception {
+            try {
+                return rs.next() ? rs.getInt(1) : -1;
+            } finally {
+                rs.close();
+            }
+        }
+    };
+
+    @Resource
+    private DataSource dataSource;
+
+    @Test(groups={"statement-cache"})
+    public void testCacheHits() throws Exception {
+        StatementCache cache = new StatementCache(4);
+        ParametricQuery query = new ParametricQuery();
+        query.set("SELECT COUNT(*) FROM MEMBERSHIP WHERE EMAIL <> :email:VARCHAR");
+        query.setStatementCache(cache);
+
+        Request request = new Request();
+        request.email = "nobody@mail.com";
+
+        // a connection bound to the current transaction, just as Persistence obtains it
+        Connection connection = DataSourceUtils.getConnection(dataSource);
+        int count = query.executeSelect(connection, request, COUNTER);
+        for (int i = 0; i < 9; ++i) {
+            assert query.executeSelect(DataSourceUtils.getConnection(dataSource), request, COUNTER) == count;
+        }
+        assert cache.getMiss() == 1 : "Misses: " + cache.getMiss();
+        assert cache.getHit() == 9 : "Hits: " + cache.getHit();
+        assert cache.getSize() == 1;
+
+        assert cache.purge(connection) == 1;
+        assert cache.getSize() == 0;
+    }
+
+    @Test(groups={"statement-cache"})
+    public void testEviction() throws Exception {
+        StatementCache cache = new StatementCache(2);
+        ParametricQuery[] queries = new ParametricQuery[3];
+        for (int i = 0; i < queries.length; ++i) {
+            queries[i] = new ParametricQuery();
+            queries[i].set("SELECT COUNT(*) + " + i + " FROM MEMBERSHIP WHERE EMAIL <> :email:VARCHAR");
+            queries[i].setStatementCache(cache);
+        }
+
+        Request request = new Request();
+        request.email = "nobody@mail.com";
+
+        Connection connection = DataSourceUtils.getConnection(dataSource);
+        int base = queries[0].executeSelect(connection, request, COUNTER);
+        for (int r = 0; r < 3; ++r) {
+            for (int i = 0; i < queries.length; ++i) {
+                assert queries[i].executeSelect(connection, request, COUNTER) == base + i;
+                assert cache.getSize() <= 2;
+            }
+        }
+        assert cache.getMax() == 2;
+        assert cache.getSwap() > 0 : "No evictions";
+        assert cache.getHit() + cache.getMiss() == 10;
+
+        cache.clear();
+        assert cache.getSize() == 0 && cache.getHit() == 0 && cache.getMiss() == 0 && cache.getSwap() == 0;
+    }
+
+    @Test(groups={"statement-cache"})
+    public void testClosedStatementNotReused() throws Exception {
+        StatementCache cache = new StatementCache(4);
+        String sql = "SELECT COUNT(*) FROM MEMBERSHIP";
+
+        Connection connection = DataSourceUtils.getConnection(dataSource);
+        PreparedStatement statement = cache.prepare(connection, sql, StatementCache.PLAIN);
+        cache.release(connection, sql, StatementCache.PLAIN, statement);
+        assert cache.prepare(connection, sql, StatementCache.PLAIN) == statement;
+        cache.release(connection, sql, StatementCache.PLAIN, statement);
+
+        // as when the connection pool closes statements upon connection return
+        statement.close();
+        PreparedStatement fresh = cache.prepare(connection, sql, StatementCache.PLAIN);
+        assert fresh != statement && !fresh.isClosed();
+        assert COUNTER.process(fresh.executeQuery()) >= 0;
+        cache.release(connection, sql, StatementCache.PLAIN, fresh);
+
+        // a different connection never sees statements prepared on another
+        Connection other = dataSource.getConnection();
+        try {
+            PreparedStatement another = cache.prepare(other, sql, StatementCache.PLAIN);
+            assert another != fresh;
+            cache.release(other, sql, StatementCache.PLAIN, another);
+            assert cache.getSize() == 2;
+            assert cache.purge(other) == 1;
+        } finally {
+            other.close();
+        }
+        assert cache.getHit() == 1 && cache.getMiss() == 3;
+    }
+}
@@ -0,0 +1,232 @@
+package lab.data.persistence;
+
+import java.io.*;
+import java.sql.*;
+import javax.sql.DataSource;
+
+import org.hsqldb.jdbc.JDBCDataSource;
+import org.testng.annotations.*;
+
+import org.xillium.base.beans.JSONBuilder;
+import org.xillium.base.text.JSONStreamer;
+import org.xillium.data.*;
+import org.xillium.data.persistence.*;
+import org.xillium.data.xml.XDBCodec;
+
+
+/**
+ * Testing StreamingResultSet, with heap measurements while streaming a large HSQLDB table.
+ */
+public class StreamingResultSetTest {
+    private static final String SELECT = "SELECT ID, CODE, PRICE, STATUS, CREATED FROM STREAM_ITEM WHERE ID > ? ORDER BY ID";
+
+    private DataSource dataSource;
+
+    @BeforeClass
+    public void setUp() {
+        // a database of its own, which keeps neither the table nor large results in memory
+        JDBCDataSource source = new JDBCDataSource();
+        source.setUrl("jdbc:hsqldb:file:target/test-classes/sql/hsqldb/streaming;hsqldb.cache_rows=10000;hsqldb.result_max_memory_rows=10000");
+        source.setUser("sa");
+        source.setPassword("");
+        dataSource = source;
+    }
+
+    @Test(groups={"streaming"})
+    public void testEquivalence() throws Exception {
+        populate(2000);
+        ParametricQuery query = query();
+
+        // JSON, both built and streamed
+        assert json(query.executeStream(dataSource.getConnection(), bound(0), 100)).equals(json(cached(query, 0)));
+        StringWriter sw = new StringWriter();
+        JSONStreamer js = new JSONStreamer(sw);
+        query.executeStream(dataSource.getConnection(), bound(0), 100).toJSON(js).close();
+        assert sw.toString().equals(json(cached(query, 0)));
+
+        // XML
+        assert xml(query.executeStream(dataSource.getConnection(), bound(1500), 64)).equals(xml(cached(query, 1500)));
+
+        // no rows
+        StreamingResultSet empty = query.executeStream(dataSource.getConnection(), bound(5000), 10);
+        String json = json(empty);
+        assert json.equals(json(cached(query, 5000))) && json.endsWith("\"rows\":null}") : json;
+        assert empty.isClosed();
+
+        // rows are pulled only once, after which the cursor is closed
+        StreamingResultSet stream = query.executeStream(dataSource.getConnection(), bound(0), 100);
+        assert stream.rows == null && stream.columns.length == 5 && "created".equals(stream.columns[4]);
+        int count = 0;
+        while (stream.next() != null) ++count;
+        assert count == 2000 && stream.getCount() == 2000 && stream.isClosed();
+        assert stream.next() == null;
+
+        // closed before all rows are pulled
+        stream = query.executeStream(dataSource.getConnection(), bound(0), 100);
+        stream.next();
+        stream.close();
+        assert stream.isClosed() && stream.next() == null && stream.getCount() == 1;
+    }
+
+    @Test(groups={"streaming"})
+    public void testConnectionSettings() throws Exception {
+        populate(10);
+        ParametricQuery query = query();
+
+        // the settings of a connection taken from a pool are restored before it is returned, after all rows or upon failure
+        final boolean[] returned = new boolean[2];
+        for (ParametricQuery q: new ParametricQuery[] { query, new ParametricQuery(query.getParameters(), SELECT.replace("STREAM_ITEM", "NO_ITEM")) }) {
+            final Connection connection = dataSource.getConnection();
+            Connection pooled = (Connection)java.lang.reflect.Proxy.newProxyInstance(
+                Connection.class.getClassLoader(), new Class<?>[] { Connection.class }, new java.lang.reflect.InvocationHandler() {
+                    public Object invoke(Object proxy, java.lang.reflect.Method method, Object[] args) throws Throwable {
+                        if ("close".equals(method.getName())) {
+                            returned[0] = connection.getAutoCommit();
+                            returned[1] = connection.isReadOnly();
+                        }
+                        try {
+                            return method.invoke(connection, args);
+                        } catch (java.lang.reflect.InvocationTargetException x) {
+                            throw x.getCause();
+                        }
+                    }
+                }
+            );
+            assert pooled.getAutoCommit() && !pooled.isReadOnly();
+            pooled.setAutoCommit(false);
+            pooled.setReadOnly(true);
+            returned[0] = false;
+            returned[1] = true;
+            try {
+                StreamingResultSet stream = q.executeStream(pooled, bound(0), 4, true, false);
+                int count = 0;
+                while (stream.next() != null) ++count;
+                assert q == query && count == 10 && stream.isClosed();
+            } catch (SQLException x) {
+                assert q != query;
+            }
+            assert returned[0] && !returned[1] && connection.isClosed();
+        }
+    }
+
+    @Test(groups={"streaming"})
+    public void testConstantHeap() throws Exception {
+        final int ROWS = 500000;
+        populate(ROWS);
+        ParametricQuery query = query();
+
+        SamplingStream sink = new SamplingStream(4 << 20);
+        long now = System.nanoTime();
+        StreamingResultSet stream = query.executeStream(dataSource.getConnection(), bound(0), 1000);
+        JSONStreamer js = new JSONStreamer(sink);
+        stream.toJSON(js).close();
+        long time = System.nanoTime() - now;
+        assert stream.getCount() == ROWS && stream.isClosed();
+
+        // the memory retained by the same rows in a CachedResultSet
+        long footprint = used();
+        CachedResultSet cached = cached(query, 0);
+        assert cached.rows.size() == ROWS;
+        footprint = used() - footprint;
+        cached = null;
+
+        System.err.println("StreamingResultSet, " + ROWS + " rows, " + sink.bytes/1024 + " KB of JSON in " + time/1000000 + " ms: heap growth " +
+                           (sink.max - sink.min)/1024 + " KB over " + sink.samples + " samples, vs " + footprint/1024 + " KB as CachedResultSet");
+        assert sink.samples > 4;
+        assert sink.max - sink.min < footprint / 8 : (sink.max - sink.min) + " vs " + footprint;
+    }
+
+    /**
+     * An output stream that discards its content, sampling the used heap once every so many bytes.
+     */
+    private static class SamplingStream extends OutputStream {
+        final int interval;
+        long bytes, min = Long.MAX_VALUE, max;
+        int samples;
+
+        SamplingStream(int interval) {
+            this.interval = interval;
+        }
+
+        @Override
+        public void write(int b) {
+            if (++bytes % interval == 0) sample();
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            if ((bytes + len) / interval > bytes / interval) sample();
+            bytes += len;
+        }
+
+        private void sample() {
+            long used = used();
+            min = Math.min(min, used);
+            max = Math.max(max, used);
+            ++samples;
+        }
+    }
+
+    public static class Bound implements DataObject {
+        public int id;
+    }
+
+    private static Bound bound(int id) {
+        Bound bound = new Bound();
+        bound.id = id;
+        return bound;
+    }
+
+    private static ParametricQuery query() {
+        return new ParametricQuery(new ParametricStatement.Param[] { new ParametricStatement.Param("id", Types.INTEGER) }, SELECT);
+    }
+
+    private CachedResultSet cached(ParametricQuery query, int id) throws Exception {
+        Connection connection = dataSource.getConnection();
+        try {
+            return query.executeSelect(connection, bound(id), CachedResultSet.BUILDER);
+        } finally {
+            connection.close();
+        }
+    }
+
+    private void populate(int count) throws SQLException {
+        Connection connection = dataSource.getConnection();
+        try {
+            Statement statement = connection.createStatement();
+            statement.execute("DROP TABLE STREAM_ITEM IF EXISTS");
+            statement.execute(
+                "CREATE CACHED TABLE STREAM_ITEM(ID INT NOT NULL PRIMARY KEY, CODE BIGINT, PRICE DECIMAL(12,2), STATUS VARCHAR(16), CREATED TIMESTAMP)"
+            );
+            statement.execute(
+                "INSERT INTO STREAM_ITEM SELECT X, CAST(X * 1000 AS BIGINT), CAST(X AS DECIMAL(12,2)) / 4, " +
+                "CASE WHEN MOD(X, 7) = 0 THEN NULL ELSE 'STATUS-' || MOD(X, 5) END, TIMESTAMP '2014-05-01 12:30:00' " +
+                "FROM UNNEST(SEQUENCE_ARRAY(1, " + count + ", 1)) AS T(X)"
+            );
+            statement.close();
+            if (!connection.getAutoCommit()) connection.commit();
+        } finally {
+            connection.close();
+        }
+    }
+
+    private static String json(CachedResultSet rset) {
+        return rset.toJSON(new JSONBuilder()).toString();
+    }
+
+    private static String xml(CachedResultSet rset) throws Exception {
+        DataBinder binder = new DataBinder();
+        binder.put("p", "<&>");
+        binder.putResultSet("items", rset);
+        return XDBCodec.encode(new StringWriter(), binder).toString();
+    }
+
+    private static long used() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; ++i) {
+            System.gc();
+            try { Thread.sleep(20); } catch (InterruptedException x) {}
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -7,6 +7,7 @@ import org.xillium.data.*;
 import org.xillium.core.*;
 import org.xillium.core.management.ManagedComponent;
 import org.xillium.core.management.WithCache;
+import org.xillium.gear.util.ConcurrentLeastRecentlyUsedCache;
 
 
 /**
@@ -15,9 +16,15 @@ import org.xillium.core.management.WithCache;
 public class StandardAuthorizer extends ManagedComponent implements Authorizer, PlatformLifeCycleAware, WithCache {
 	private static final Logger _logger = Logger.getLogger(StandardAuthorizer.class.getName());
 
-	private final Map<String, Permission[]> _roles = new HashMap<String, Permission[]>(); // a map from role name to authorized function names
+    /**
+     * The default capacity of the decision cache.
+     */
+    public static final int DEFAULT_DECISION_CACHE_SIZE = 4096;
+
     private final Authority _authority;
     private final Authenticator _authenticator;
+    private volatile Index _index = new Index(new HashMap<String, Permission[]>(), 0);
+    private int _capacity = DEFAULT_DECISION_CACHE_SIZE;
 
 
     /**
@@ -31,6 +38,14 @@ public class StandardAuthorizer extends ManagedComponent implements Authorizer,
 		_authenticator = authenticator;
 	}
 
+    /**
+     * Sets the capacity of the decision cache, which remembers the outcome of recent authorizations. A capacity of 0 disables
+     * the cache. The new capacity takes effect upon the next refresh.
+     */
+    public void setDecisionCacheSize(int capacity) {
+        _capacity = capacity;
+    }
+
     @Override
 	public void configure(String applName, String moduleName) {
 	}
@@ -48,19 +63,20 @@ public class StandardAuthorizer extends ManagedComponent implements Authorizer,
 	}
 
 	/**
-	 * (Re)loads all roles and permissions into memory.
+	 * (Re)loads all roles and permissions into memory. The permissions are indexed into a new prefix trie, which replaces the
+	 * current one atomically, together with an empty decision cache.
 	 */
     @Override
     public void refresh() {
 		try {
-            _roles.clear();
+            Map<String, Permission[]> roles = new HashMap<String, Permission[]>(); // a map from role name to authorized function names
 
 			List<Permission> permissions = new ArrayList<Permission>();
 			String name = null;
 			for (Permission auth: _authority.loadRolesAndPermissions()) {
 				if (name != null && !name.equals(auth.roleId)) {
 					_logger.fine(name + " with " + permissions.size() + " authorizations");
-					_roles.put(name, permissions.toArray(new Permission[permissions.size()]));
+					roles.put(name, permissions.toArray(new Permission[permissions.size()]));
 					permissions.clear();
 				}
 				name = auth.roleId;
@@ -68,40 +84,44 @@ public class StandardAuthorizer extends ManagedComponent implements Authorizer,
 			}
 			if (name != null) {
 				_logger.fine(name + " with " + permissions.size() + " authorizations");
-				_roles.put(name, permissions.toArray(new Permission[permissions.size()]));
+				roles.put(name, permissions.toArray(new Permission[permissions.size()]));
 			}
 
+            _index = new Index(roles, _capacity);
 			_logger.info("Completed loading all roles & permissions");
 		} catch (Exception x) {
 			throw new ServiceException("***FailureInLoadingRoles", x);
 		}
     }
 
+    /**
+     * Reports the state of the decision cache, or null if the cache is disabled.
+     */
     @Override
     public CacheState getCacheState() {
-        return null;
+        ConcurrentLeastRecentlyUsedCache<Key, int[]> decisions = _index.decisions;
+        return decisions != null ? decisions.getCacheState() : null;
     }
 
 	protected void authorize(String deployment, List<Role> roles) throws AuthorizationException {
-        int authorization = -1;
-        int prerequisite = -1;
-
 		String required = '/' + deployment;
 		_logger.fine("target function is " + required);
 		_logger.fine("# of roles to check: " + roles.size());
-		for (Role role: roles) {
-			_logger.fine("role: " + role.roleId);
-			Permission[] permissions = _roles.get(role.roleId);
-			if (permissions != null) {
-				for (Permission permission: permissions) {
-					if (required.startsWith(permission.function)) {
-                        authorization = Math.max(authorization, role.permission + permission.permission);
-                        prerequisite = Math.max(prerequisite, role.prerequisite + permission.permission);
-                        _logger.fine("authorized function: " + permission.function + ", authorization = " + authorization);
-					}
-				}
-			}
-		}
+
+        Index index = _index;
+        int[] decision;
+        if (index.decisions != null) {
+            Key key = new Key(required, roles);
+            decision = index.decisions.get(key);
+            if (decision == null) {
+                index.decisions.put(key, decision = index.decide(required, roles));
+            }
+        } else {
+            decision = index.decide(required, roles);
+        }
+        int authorization = decision[0];
+        int prerequisite = decision[1];
+
         _logger.fine("final authorization = " + authorization + ", prerequisite = " + prerequisite);
         if (authorization < 0) {
             throw new AuthorizationException("OperationNotAuthorized");
@@ -127,4 +147,131 @@ public class StandardAuthorizer extends ManagedComponent implements Authorizer,
             throw new AuthorizationException(x.getMessage(), x);
         }
     }
+
+    /*
+     * An immutable prefix trie of function paths, one node per character. A node where a function path ends records, for each role
+     * that is granted the function, the highest permission among the role's grants of that path. Walking the trie along a required
+     * function visits exactly those functions that are prefixes of it.
+     */
+    private static class Index {
+        final Node root = new Node();
+        final ConcurrentLeastRecentlyUsedCache<Key, int[]> decisions;
+
+        Index(Map<String, Permission[]> roles, int capacity) {
+            for (Map.Entry<String, Permission[]> role: roles.entrySet()) {
+                for (Permission permission: role.getValue()) {
+                    if (permission.function == null) {
+                        _logger.warning("Ignored permission with no function in role " + role.getKey());
+                        continue;
+                    }
+                    Node node = root;
+                    for (int i = 0; i < permission.function.length(); ++i) {
+                        node = node.insert(permission.function.charAt(i));
+                    }
+                    if (node.grants == null) node.grants = new HashMap<String, Integer>();
+                    Integer granted = node.grants.get(role.getKey());
+                    if (granted == null || granted.intValue() < permission.permission) {
+                        node.grants.put(role.getKey(), permission.permission);
+                    }
+                }
+            }
+            decisions = capacity > 0 ? new ConcurrentLeastRecentlyUsedCache<Key, int[]>(capacity) : null;
+        }
+
+        /**
+         * Returns { authorization, prerequisite }, each being -1 if no permission applies.
+         */
+        int[] decide(String required, List<Role> roles) {
+            int authorization = -1;
+            int prerequisite = -1;
+
+            Node node = root;
+            int i = 0;
+            while (node != null) {
+                if (node.grants != null) {
+                    for (Role role: roles) {
+                        Integer permission = node.grants.get(role.roleId);
+                        if (permission != null) {
+                            authorization = Math.max(authorization, role.permission + permission.intValue());
+                            prerequisite = Math.max(prerequisite, role.prerequisite + permission.intValue());
+                        }
+                    }
+                }
+                node = i < required.length() ? node.child(required.charAt(i++)) : null;
+            }
+            return new int[] { authorization, prerequisite };
+        }
+    }
+
+    /*
+     * A decision cache key made of the required function and the (role, permission, prerequisite) of each role, in order. The hash
+     * code is computed once, and nothing is formatted or concatenated.
+     */
+    private static final class Key {
+        final String function;
+        final String[] ids;
+        final int[] values;
+        final int hash;
+
+        Key(String function, List<Role> roles) {
+            this.function = function;
+            this.ids = new String[roles.size()];
+            this.values = new int[ids.length * 2];
+            int h = function.hashCode();
+            for (int i = 0; i < ids.length; ++i) {
+                Role role = roles.get(i);
+                ids[i] = role.roleId;
+                values[i*2] = role.permission;
+                values[i*2+1] = role.prerequisite;
+                h = 31*(31*(31*h + (role.roleId != null ? role.roleId.hashCode() : 0)) + role.permission) + role.prerequisite;
+            }
+            hash = h;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object object) {
+            if (this == object) return true;
+            if (!(object instanceof Key)) return false;
+            Key key = (Key)object;
+            return hash == key.hash && function.equals(key.function) && Arrays.equals(values, key.values) && Arrays.equals(ids, key.ids);
+        }
+    }
+
+    private static class Node {
+        private static final char[] NO_KEYS = new char[0];
+        private static final Node[] NO_CHILDREN = new Node[0];
+
+        char[] keys = NO_KEYS;
+        Node[] children = NO_CHILDREN;
+        Map<String, Integer> grants;
+
+        Node child(char key) {
+            int i = Arrays.binarySearch(keys, key);
+            return i < 0 ? null : children[i];
+        }
+
+        // used only while building the index
+        Node insert(char key) {
+            int i = Arrays.binarySearch(keys, key);
+            if (i < 0) {
+                i = -i - 1;
+                char[] k = new char[keys.length + 1];
+                Node[] c = new Node[children.length + 1];
+                System.arraycopy(keys, 0, k, 0, i);
+                System.arraycopy(children, 0, c, 0, i);
+                k[i] = key;
+                c[i] = new Node();
+                System.arraycopy(keys, i, k, i + 1, keys.length - i);
+                System.arraycopy(children, i, c, i + 1, children.length - i);
+                keys = k;
+                children = c;
+            }
+            return children[i];
+        }
+    }
 }
@@ -0,0 +1,275 @@
+package org.xillium.gear.util;
+
+import java.util.Map;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.xillium.base.Functor;
+import org.xillium.core.management.WithCache;
+
+
+/**
+ * A thread-safe cache with a maximum capacity and the LRU replacement policy, optional time-to-live, and an optional loader.
+ * <p/>
+ * The cache is divided into lock-striped segments, each of which is an access-ordered hash map holding a share of the capacity
+ * and guarded by its own lock, so that threads working on different segments do not contend. Replacement is least-recently-used
+ * within each segment, which approximates global LRU when keys hash evenly.
+ * <p/>
+ * When a time-to-live is given, entries older than that are treated as absent and removed upon access. When a loader is given,
+ * a miss in <code>get()</code> invokes the loader outside of any lock and caches a non-null result. Concurrent misses on the same
+ * key may each invoke the loader, in which case the value cached first wins.
+ * <p/>
+ * Like LeastRecentlyUsedCache, this class does not accept null values.
+ */
+public class ConcurrentLeastRecentlyUsedCache<K, V> {
+    /**
+     * The default number of segments.
+     */
+    public static final int DEFAULT_CONCURRENCY = 16;
+
+    /**
+     * The minimum capacity of a segment, which keeps small caches from degenerating into many tiny segments.
+     */
+    public static final int MIN_SEGMENT_CAPACITY = 8;
+
+    private final Segment<K, V>[] _segments;
+    private final int _shift;
+    private final int _limit;
+    private final long _ttl;
+    private final Functor<V, K> _loader;
+    private final AtomicInteger _max = new AtomicInteger();
+
+    /**
+     * Constructs a ConcurrentLeastRecentlyUsedCache with the given capacity limit, no time-to-live and no loader.
+     */
+    public ConcurrentLeastRecentlyUsedCache(int limit) {
+        this(limit, DEFAULT_CONCURRENCY, 0, null);
+    }
+
+    /**
+     * Constructs a ConcurrentLeastRecentlyUsedCache with the given capacity limit, time-to-live in milliseconds (0 for never
+     * expiring), and loader (may be null).
+     */
+    public ConcurrentLeastRecentlyUsedCache(int limit, long ttl, Functor<V, K> loader) {
+        this(limit, DEFAULT_CONCURRENCY, ttl, loader);
+    }
+
+    /**
+     * Constructs a ConcurrentLeastRecentlyUsedCache with the given capacity limit, concurrency level, time-to-live in milliseconds
+     * (0 for never expiring), and loader (may be null). The number of segments is the concurrency level rounded up to a power of 2,
+     * reduced as necessary so that each segment holds at least MIN_SEGMENT_CAPACITY entries.
+     */
+    @SuppressWarnings("unchecked")
+    public ConcurrentLeastRecentlyUsedCache(int limit, int concurrency, long ttl, Functor<V, K> loader) {
+        if (limit < 1) throw new IllegalArgumentException("limit must be positive: " + limit);
+        if (ttl < 0) throw new IllegalArgumentException("ttl must not be negative: " + ttl);
+
+        int bits = 0;
+        while ((1 << bits) < concurrency && (MIN_SEGMENT_CAPACITY << (bits + 1)) <= limit && bits < 16) ++bits;
+        _segments = (Segment<K, V>[])new Segment<?, ?>[1 << bits];
+        _shift = 32 - bits;
+        for (int i = 0; i < _segments.length; ++i) {
+            _segments[i] = new Segment<K, V>(this, limit / _segments.length + (i < limit % _segments.length ? 1 : 0));
+        }
+        _limit = limit;
+        _ttl = ttl * 1000000L;
+        _loader = loader;
+    }
+
+    /**
+     * Returns the value associated with the key, or null if there is none. Upon a miss the loader, if any, is invoked to obtain
+     * the value.
+     */
+    @SuppressWarnings("unchecked")
+    public V get(Object key) {
+        Segment<K, V> segment = segmentFor(key);
+        V value = segment.lookup(key);
+        if (value == null && _loader != null) {
+            value = _loader.invoke((K)key);
+            if (value != null) {
+                value = segment.storeIfAbsent((K)key, value);
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Associates the value with the key, returning the value previously associated with the key, if any.
+     */
+    public V put(K key, V value) {
+        if (value == null) throw new NullPointerException("value");
+        return segmentFor(key).store(key, value);
+    }
+
+    /**
+     * Removes an entry from the cache. Like LeastRecentlyUsedCache.remove(), this counts as a cache replacement.
+     */
+    public V remove(Object key) {
+        return segmentFor(key).discard(key, true);
+    }
+
+    /**
+     * Invalidates an entry in the cache. Compared to "remove()", this operation does not constitute a cache replacement.
+     */
+    public V invalidate(Object key) {
+        return segmentFor(key).discard(key, false);
+    }
+
+    /**
+     * Removes all entries and resets the statistics.
+     */
+    public void clear() {
+        for (Segment<K, V> segment: _segments) {
+            segment.clear();
+        }
+        _max.set(size());
+    }
+
+    /**
+     * Returns the number of entries currently in the cache, including those expired but not yet removed. The result is only a
+     * snapshot while other threads are modifying the cache.
+     */
+    public int size() {
+        int size = 0;
+        for (Segment<K, V> segment: _segments) {
+            size += segment.size();
+        }
+        return size;
+    }
+
+    /**
+     * Returns the capacity limit.
+     */
+    public int getLimit() {
+        return _limit;
+    }
+
+    /**
+     * Returns the number of segments.
+     */
+    public int getConcurrency() {
+        return _segments.length;
+    }
+
+    /**
+     * Reports the cumulative statistics of this cache.
+     */
+    public WithCache.CacheState getCacheState() {
+        long read = 0, hit = 0, swap = 0;
+        int size = 0;
+        for (Segment<K, V> segment: _segments) {
+            synchronized (segment) {
+                size += segment.size();
+                read += segment.read;
+                hit += segment.hit;
+                swap += segment.swap;
+            }
+        }
+        return new WithCache.CacheState(size, _max.get(), read, hit, swap);
+    }
+
+    private Segment<K, V> segmentFor(Object key) {
+        // spreads the hash code so that both high and low bits contribute to segment selection
+        int h = key.hashCode();
+        h += (h <<  15) ^ 0xffffcd7d;
+        h ^= (h >>> 10);
+        h += (h <<   3);
+        h ^= (h >>>  6);
+        h += (h <<   2) + (h << 14);
+        h ^= (h >>> 16);
+        return _segments.length == 1 ? _segments[0] : _segments[h >>> _shift];
+    }
+
+    // maintains the high water mark, which costs nothing once the cache has been filled up
+    private void grown() {
+        int max = _max.get();
+        if (max < _limit) {
+            int size = size();
+            while (size > max && !_max.compareAndSet(max, size)) max = _max.get();
+        }
+    }
+
+    private static class Entry<V> {
+        final V value;
+        final long time;
+
+        Entry(V v, long t) {
+            value = v;
+            time = t;
+        }
+    }
+
+    private static class Segment<K, V> extends LinkedHashMap<K, Entry<V>> {
+        private final ConcurrentLeastRecentlyUsedCache<K, V> _cache;
+        private final int _limit;
+        long read, hit, swap;
+
+        Segment(ConcurrentLeastRecentlyUsedCache<K, V> cache, int limit) {
+            super((int)Math.ceil(limit/0.75f) + 1, 0.75f, true);
+            _cache = cache;
+            _limit = limit;
+        }
+
+        synchronized V lookup(Object key) {
+            ++read;
+            Entry<V> entry = super.get(key);
+            if (entry != null) {
+                if (!expired(entry)) {
+                    ++hit;
+                    return entry.value;
+                } else {
+                    super.remove(key);
+                    ++swap;
+                }
+            }
+            return null;
+        }
+
+        synchronized V store(K key, V value) {
+            Entry<V> old = super.put(key, new Entry<V>(value, _cache._ttl > 0 ? System.nanoTime() : 0));
+            if (old == null) {
+                _cache.grown();
+                return null;
+            } else {
+                return expired(old) ? null : old.value;
+            }
+        }
+
+        synchronized V storeIfAbsent(K key, V value) {
+            Entry<V> entry = super.get(key);
+            if (entry != null && !expired(entry)) {
+                return entry.value;
+            } else {
+                store(key, value);
+                return value;
+            }
+        }
+
+        synchronized V discard(Object key, boolean replacement) {
+            Entry<V> old = super.remove(key);
+            if (replacement) ++swap;
+            return old == null || expired(old) ? null : old.value;
+        }
+
+        @Override
+        public synchronized void clear() {
+            super.clear();
+            read = hit = swap = 0;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<K, Entry<V>> eldest) {
+            if (size() > _limit) {
+                ++swap;
+                return true;
+            } else {
+                return false;
+            }
+        }
+
+        private boolean expired(Entry<V> entry) {
+            return _cache._ttl > 0 && System.nanoTime() - entry.time > _cache._ttl;
+        }
+
+        static final long serialVersionUID = 1L;
+    }
+}
@@ -0,0 +1,194 @@
+package lab.gear.auth;
+
+import java.util.*;
+import org.xillium.core.AuthorizationException;
+import org.xillium.core.management.WithCache;
+import org.xillium.gear.auth.*;
+import org.testng.annotations.*;
+
+
+/**
+ * Testing the permission index of StandardAuthorizer against the linear scan it replaces, with a micro-benchmark.
+ */
+public class StandardAuthorizerTest {
+    private static final String[] SEGMENTS = { "", "a", "ab", "b", "x/", "y", "service", "/" };
+
+    // exposes the protected authorize() method
+    public static class Probe extends StandardAuthorizer {
+        public Probe(final List<Permission> permissions, int capacity) {
+            super(new Authority() {
+                public List<Permission> loadRolesAndPermissions() { return permissions; }
+            }, null);
+            setDecisionCacheSize(capacity);
+            refresh();
+        }
+
+        public String check(String deployment, List<Role> roles) {
+            try {
+                authorize(deployment, roles);
+                return "OK";
+            } catch (AuthorizationException x) {
+                return x.getMessage();
+            }
+        }
+    }
+
+    // the original linear scan, over roles grouped the same way as StandardAuthorizer.refresh()
+    public static class Reference {
+        private final Map<String, Permission[]> _roles = new HashMap<String, Permission[]>();
+
+        public Reference(List<Permission> all) {
+            List<Permission> permissions = new ArrayList<Permission>();
+            String name = null;
+            for (Permission auth: all) {
+                if (name != null && !name.equals(auth.roleId)) {
+                    _roles.put(name, permissions.toArray(new Permission[permissions.size()]));
+                    permissions.clear();
+                }
+                name = auth.roleId;
+                permissions.add(auth);
+            }
+            if (name != null) {
+                _roles.put(name, permissions.toArray(new Permission[permissions.size()]));
+            }
+        }
+
+        public String check(String deployment, List<Role> roles) {
+            int authorization = -1;
+            int prerequisite = -1;
+            String required = '/' + deployment;
+            for (Role role: roles) {
+                Permission[] permissions = _roles.get(role.roleId);
+                if (permissions != null) {
+                    for (Permission permission: permissions) {
+                        if (required.startsWith(permission.function)) {
+                            authorization = Math.max(authorization, role.permission + permission.permission);
+                            prerequisite = Math.max(prerequisite, role.prerequisite + permission.permission);
+                        }
+                    }
+                }
+            }
+            // constructs exceptions like StandardAuthorizer does, to keep the benchmark fair
+            if (authorization < 0) {
+                return new AuthorizationException("OperationNotAuthorized").getMessage();
+            } else if (authorization < 1) {
+                return new AuthorizationException("PasswordExpired").getMessage();
+            } else if (prerequisite < 1) {
+                return new AuthorizationException("AgreementNotSigned").getMessage();
+            } else {
+                return "OK";
+            }
+        }
+    }
+
+    @Test(groups={"authorizer"})
+    public void testMatchingSemantics() throws Exception {
+        Random random = new Random(7);
+        Map<String, Integer> outcomes = new HashMap<String, Integer>();
+        for (int trial = 0; trial < 20; ++trial) {
+            // permissions of a role may come in more than one run, in which case the last run prevails
+            List<Permission> permissions = new ArrayList<Permission>();
+            for (int i = 0; i < 200; ++i) {
+                permissions.add(new Permission("R" + random.nextInt(12), path(random, 3), random.nextInt(4) - 2));
+            }
+
+            Reference reference = new Reference(permissions);
+            Probe indexed = new Probe(permissions, 0), cached = new Probe(permissions, 64);
+            for (int i = 0; i < 500; ++i) {
+                List<Role> roles = new ArrayList<Role>();
+                for (int r = random.nextInt(4); r >= 0; --r) {
+                    roles.add(new Role("R" + random.nextInt(14), random.nextInt(3) - 1, random.nextInt(3) - 1));
+                }
+                String deployment = path(random, 4).substring(1);
+                String expected = reference.check(deployment, roles);
+                assert expected.equals(indexed.check(deployment, roles)) : deployment + ": " + expected;
+                assert expected.equals(cached.check(deployment, roles)) : deployment + ": " + expected;
+                assert expected.equals(cached.check(deployment, roles)) : deployment + ": " + expected;
+                outcomes.put(expected, outcomes.containsKey(expected) ? outcomes.get(expected) + 1 : 1);
+            }
+
+            WithCache.CacheState state = cached.getCacheState();
+            assert indexed.getCacheState() == null;
+            assert state.getRead() == 1000 && state.getHit() >= 500 && state.getSize() <= 64 : state.getRead() + "/" + state.getHit();
+        }
+        assert outcomes.size() == 4 : outcomes;
+    }
+
+    @Test(groups={"authorizer"})
+    public void testRefresh() throws Exception {
+        List<Permission> permissions = new ArrayList<Permission>();
+        permissions.add(new Permission("user", "/account/", 1));
+        Probe probe = new Probe(permissions, 16);
+        List<Role> roles = Arrays.asList(new Role("user", 0, 0));
+
+        assert probe.check("account/view", roles).equals("OK");
+        assert probe.check("admin/purge", roles).equals("OperationNotAuthorized");
+        assert probe.getCacheState().getSize() == 2;
+
+        permissions.add(new Permission("user", "/admin/", 1));
+        probe.refresh();
+        assert probe.getCacheState().getSize() == 0;
+        assert probe.check("admin/purge", roles).equals("OK");
+    }
+
+    @Test(groups={"authorizer"})
+    public void testAuthorizationBenchmark() throws Exception {
+        final int ROLES = 300, PERMISSIONS = 20;
+        Random random = new Random(11);
+        List<Permission> permissions = new ArrayList<Permission>();
+        for (int r = 0; r < ROLES; ++r) {
+            for (int p = 0; p < PERMISSIONS; ++p) {
+                permissions.add(new Permission("ROLE" + r, "/module" + random.nextInt(50) + "/service" + random.nextInt(20), 1));
+            }
+        }
+        List<List<Role>> requests = new ArrayList<List<Role>>();
+        List<String> deployments = new ArrayList<String>(), granted = new ArrayList<String>();
+        for (int i = 0; i < 1000; ++i) {
+            List<Role> roles = new ArrayList<Role>();
+            for (int r = 0; r < 5; ++r) roles.add(new Role("ROLE" + random.nextInt(ROLES), 0, 0));
+            requests.add(roles);
+            deployments.add("module" + random.nextInt(50) + "/service" + random.nextInt(20));
+            // a function granted to one of the roles, so that the check succeeds without constructing an exception
+            int role = Integer.parseInt(roles.get(random.nextInt(5)).roleId.substring(4));
+            granted.add(permissions.get(role * PERMISSIONS + random.nextInt(PERMISSIONS)).function.substring(1));
+        }
+
+        Reference reference = new Reference(permissions);
+        Probe indexed = new Probe(permissions, 0), cached = new Probe(permissions, 4096);
+        for (int w = 0; w < 2; ++w) {
+            List<String> workload = w == 0 ? deployments : granted;
+            long[] best = measure(requests, workload, reference, indexed, cached);
+            System.err.println("Authorization, " + ROLES + " roles x " + PERMISSIONS + " permissions, 5 roles/request, " +
+                               (workload == granted ? "granted" : "random") + " functions, ns/check: linear = " +
+                               best[0] + ", trie = " + best[1] + ", trie+cache = " + best[2]);
+        }
+    }
+
+    private static long[] measure(List<List<Role>> requests, List<String> deployments, Reference reference, Probe indexed, Probe cached) {
+        final int CHECKS = 100000;
+        long best[] = { Long.MAX_VALUE, Long.MAX_VALUE, Long.MAX_VALUE };
+        for (int round = 0; round < 5; ++round) {
+            long now = System.nanoTime();
+            for (int i = 0; i < CHECKS; ++i) reference.check(deployments.get(i % 1000), requests.get(i % 1000));
+            best[0] = Math.min(best[0], System.nanoTime() - now);
+
+            now = System.nanoTime();
+            for (int i = 0; i < CHECKS; ++i) indexed.check(deployments.get(i % 1000), requests.get(i % 1000));
+            best[1] = Math.min(best[1], System.nanoTime() - now);
+
+            now = System.nanoTime();
+            for (int i = 0; i < CHECKS; ++i) cached.check(deployments.get(i % 1000), requests.get(i % 1000));
+            best[2] = Math.min(best[2], System.nanoTime() - now);
+        }
+        for (int i = 0; i < best.length; ++i) best[i] /= CHECKS;
+        return best;
+    }
+
+    private static String path(Random random, int depth) {
+        StringBuilder sb = new StringBuilder("/");
+        for (int d = random.nextInt(depth); d >= 0; --d) {
+            sb.append(SEGMENTS[random.nextInt(SEGMENTS.length)]);
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,136 @@
+package lab.gear.util;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
+import org.xillium.base.Functor;
+import org.xillium.core.management.WithCache;
+import org.xillium.gear.util.*;
+import org.testng.annotations.*;
+
+
+/**
+ * Testing ConcurrentLeastRecentlyUsedCache, with a multi-threaded throughput benchmark against a synchronized LeastRecentlyUsedCache.
+ */
+public class ConcurrentLeastRecentlyUsedCacheTest {
+    @Test(groups={"cache"})
+    public void testReplacement() throws Exception {
+        ConcurrentLeastRecentlyUsedCache<Integer, String> cache = new ConcurrentLeastRecentlyUsedCache<Integer, String>(100);
+        for (int i = 0; i < 1000; ++i) {
+            cache.put(i, "v" + i);
+            assert cache.size() <= 100 : cache.size();
+        }
+        assert cache.size() == 100 : cache.size();
+        assert "v999".equals(cache.get(999));
+
+        WithCache.CacheState state = cache.getCacheState();
+        assert state.getSize() == 100 && state.getMax() == 100 && state.getSwap() == 900 : state.getSwap();
+        assert state.getRead() == 1 && state.getHit() == 1;
+
+        assert "v999".equals(cache.invalidate(999)) && cache.get(999) == null;
+        assert cache.getCacheState().getSwap() == 900;
+        assert cache.getCacheState().getRead() == 2 && cache.getCacheState().getHit() == 1;
+
+        cache.clear();
+        assert cache.size() == 0 && cache.getCacheState().getRead() == 0;
+
+        // a single segment replaces in strict LRU order
+        ConcurrentLeastRecentlyUsedCache<Integer, String> lru = new ConcurrentLeastRecentlyUsedCache<Integer, String>(3, 1, 0, null);
+        lru.put(1, "a");
+        lru.put(2, "b");
+        lru.put(3, "c");
+        lru.get(1);
+        lru.put(4, "d");
+        assert lru.get(2) == null && "a".equals(lru.get(1)) && "c".equals(lru.get(3)) && "d".equals(lru.get(4));
+    }
+
+    @Test(groups={"cache"})
+    public void testTimeToLiveAndLoader() throws Exception {
+        final AtomicInteger loads = new AtomicInteger();
+        ConcurrentLeastRecentlyUsedCache<String, String> cache = new ConcurrentLeastRecentlyUsedCache<String, String>(10, 50, new Functor<String, String>() {
+            public String invoke(String key) {
+                loads.incrementAndGet();
+                return key.startsWith("-") ? null : key.toUpperCase();
+            }
+        });
+
+        assert "ABC".equals(cache.get("abc")) && loads.get() == 1;
+        assert "ABC".equals(cache.get("abc")) && loads.get() == 1;
+        assert cache.get("-x") == null && cache.get("-x") == null && loads.get() == 3 && cache.size() == 1;
+
+        Thread.sleep(100);
+        assert "ABC".equals(cache.get("abc")) && loads.get() == 4;
+
+        WithCache.CacheState state = cache.getCacheState();
+        assert state.getRead() == 5 && state.getHit() == 1 && state.getSwap() == 1 : state.getRead() + "/" + state.getHit() + "/" + state.getSwap();
+
+        cache.put("xyz", "123");
+        Thread.sleep(100);
+        assert cache.put("xyz", "456") == null && "456".equals(cache.get("xyz"));
+    }
+
+    @Test(groups={"cache"})
+    public void testThroughputBenchmark() throws Exception {
+        final int THREADS = Math.max(4, Runtime.getRuntime().availableProcessors()), KEYS = 20000, LIMIT = 10000, OPERATIONS = 500000;
+
+        final LeastRecentlyUsedCache<Integer, Integer> locked = new LeastRecentlyUsedCache<Integer, Integer>(LIMIT);
+        Functor<Integer, Integer> baseline = new Functor<Integer, Integer>() {
+            public Integer invoke(Integer key) {
+                synchronized (locked) {
+                    Integer value = locked.get(key);
+                    if (value == null) locked.put(key, value = key);
+                    return value;
+                }
+            }
+        };
+        final ConcurrentLeastRecentlyUsedCache<Integer, Integer> striped = new ConcurrentLeastRecentlyUsedCache<Integer, Integer>(LIMIT);
+        Functor<Integer, Integer> concurrent = new Functor<Integer, Integer>() {
+            public Integer invoke(Integer key) {
+                Integer value = striped.get(key);
+                if (value == null) striped.put(key, value = key);
+                return value;
+            }
+        };
+
+        for (int round = 0; round < 3; ++round) {
+            long l = run(baseline, THREADS, KEYS, OPERATIONS), c = run(concurrent, THREADS, KEYS, OPERATIONS);
+            System.err.println("Cache throughput, " + THREADS + " threads, ops/ms: synchronized LeastRecentlyUsedCache = " + l +
+                               ", ConcurrentLeastRecentlyUsedCache = " + c);
+        }
+        assert striped.size() <= LIMIT && locked.size() <= LIMIT;
+
+        WithCache.CacheState state = striped.getCacheState();
+        assert state.getRead() == 3L * THREADS * OPERATIONS : state.getRead();
+        assert state.getHit() > 0 && state.getSwap() > 0 && state.getMax() <= LIMIT;
+    }
+
+    // returns operations per millisecond
+    private static long run(final Functor<Integer, Integer> operation, int threads, final int keys, final int operations) throws Exception {
+        final CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<Future<?>>();
+            for (int t = 0; t < threads; ++t) {
+                final long seed = t;
+                futures.add(executor.submit(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        Random random = new Random(seed);
+                        start.await();
+                        for (int i = 0; i < operations; ++i) {
+                            // skewed key distribution: half of the accesses go to 10% of the keys
+                            int key = random.nextBoolean() ? random.nextInt(keys/10) : random.nextInt(keys);
+                            if (operation.invoke(key).intValue() != key) throw new IllegalStateException("wrong value for " + key);
+                        }
+                        return null;
+                    }
+                }));
+            }
+            long now = System.nanoTime();
+            start.countDown();
+            for (Future<?> future: futures) future.get();
+            return (long)threads * operations * 1000000L / (System.nanoTime() - now);
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
@@ -53,7 +53,7 @@ public class TestAction {
      * @param context - a script object that exists for the duration of the test case
      * @param target - test target
      * @param engine - script engine
-     * @return the timestamp when the request was sent; 0 if the action is to end and no request was sent.
+     * @return the System.nanoTime() when the request was sent; 0 if the action is to end and no request was sent.
      * @throws Exception
      */
     public long run(Object context, TestTarget target, ScriptEngine engine) throws Exception {
@@ -114,7 +114,8 @@ public class TestAction {
         }
         _log.fine("Finished prescript");
         _log.fine(_case + '#' + _name + ": Sending request " + request);
-        long start = System.currentTimeMillis();
+        long start = System.nanoTime();
+        if (start == 0) start = 1; // 0 is reserved for the end of the action
         TestTarget.Response response = target.fire(request);
         _log.fine("Calling POSTSCRIPT");
         try {
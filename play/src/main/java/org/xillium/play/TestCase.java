@@ -140,6 +140,9 @@ public class TestCase implements Runnable {
 
     private void addAction(String name, Properties properties) {
         _actions.add(new TestAction(_name, name, properties));
+        if (name != null) {
+            _stats.addAction(name);
+        }
     }
 
     /**
@@ -203,7 +206,7 @@ public class TestCase implements Runnable {
                         if (start == 0) {
                             break TestLoop;
                         } else {
-                            _stats.addSuccessPeg(System.currentTimeMillis() - start);
+                            _stats.addSuccessPeg(action.getName(), (System.nanoTime() - start)/1000L);
                         }
                     }
                     errors = 0;
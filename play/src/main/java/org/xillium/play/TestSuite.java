@@ -12,6 +12,7 @@ public class TestSuite {
     private static final String SCRIPT = "script";
     private static final String CASES = "cases";
     private static final String SCALE = "scale";
+    private static final String INTERVAL = "interval";
 
     /**
      * @param prop
@@ -49,6 +50,11 @@ public class TestSuite {
         } catch (Exception x) {
         }
 
+        try {
+            _summary.setInterval(Long.parseLong(properties.getProperty(PREFIX_ + INTERVAL)));
+        } catch (Exception x) {
+        }
+
         String testcases = properties.getProperty(PREFIX_ + CASES);
         if (testcases == null || testcases.length() == 0) {
             throw new RuntimeException("No test cases specified");
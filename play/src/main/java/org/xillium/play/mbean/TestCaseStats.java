@@ -1,30 +1,46 @@
 package org.xillium.play.mbean;
 
+import java.io.*;
 import java.lang.management.*;
 import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.*;
 import javax.management.*;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
 
+import org.xillium.base.util.LatencyHistogram;
 import org.xillium.play.TestFailureException;
 
 
+/**
+ * Statistics of a test case. Latencies are recorded in microseconds into lock-free histograms, one for the test case as a whole
+ * and one for each named action, and reported in milliseconds.
+ */
 public class TestCaseStats implements TestCaseStatsMBean {
+	public static final double[] PERCENTILES = { 50.0, 90.0, 99.0, 99.9 };
+	public static final String[] PERCENTILE_NAMES = { "p50", "p90", "p99", "p99.9" };
+	public static final int MAX_INTERVALS = 1440;
+
 	public static class ErrorSummary {
 		String message;
 		long count;
 	}
 
-	private int numThreads;
-	private long successPeg;
-	private long failurePeg;
-	private long latencyMin = Integer.MAX_VALUE;
-	private long latencyMax;
-	private double latencyAvg;
-	private long _latency;
+	private final AtomicInteger numThreads = new AtomicInteger();
+	private final AtomicLong successPeg = new AtomicLong();
+	private final AtomicLong failurePeg = new AtomicLong();
+	private final LatencyHistogram _latency = new LatencyHistogram();
+	private final ConcurrentMap<String, LatencyHistogram> _actions = new ConcurrentHashMap<String, LatencyHistogram>();
+	private final List<String> _actionNames = new CopyOnWriteArrayList<String>();
+	private final LinkedList<LatencyHistogram.Snapshot> _intervals = new LinkedList<LatencyHistogram.Snapshot>();
+	private LatencyHistogram.Snapshot _last;
 	private String _name;
 	private final Map<Integer, ErrorSummary> _errors = new HashMap<Integer, ErrorSummary>();
 
 	public TestCaseStats(String name) {
 		this._name = name;
+		_last = _latency.snapshot();
 		try {
 			ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName("play:type=TestCaseStats,name="+name));
 		} catch (JMException x) {
@@ -32,90 +48,276 @@ public class TestCaseStats implements TestCaseStatsMBean {
 		}
 	}
 
-	public synchronized void updateThreadCount(int update) {
-		numThreads += update;
+	public void updateThreadCount(int update) {
+		numThreads.addAndGet(update);
 	}
 
-	public synchronized void addSuccessPeg(long latency) {
-		++successPeg;
-		if (latency < latencyMin) {
-			latencyMin = latency;
-		}
-		if (latency > latencyMax) {
-			latencyMax = latency;
+	/**
+	 * Records a successful invocation.
+	 *
+	 * @param latency - the latency in milliseconds
+	 */
+	public void addSuccessPeg(long latency) {
+		addSuccessPeg(null, latency*1000L);
+	}
+
+	/**
+	 * Records a successful invocation of an action.
+	 *
+	 * @param action - the name of the action, or null for the implicit action
+	 * @param micros - the latency in microseconds
+	 */
+	public void addSuccessPeg(String action, long micros) {
+		successPeg.incrementAndGet();
+		_latency.record(micros);
+		if (action != null) {
+			LatencyHistogram histogram = _actions.get(action);
+			if (histogram == null) {
+				histogram = addAction(action);
+			}
+			histogram.record(micros);
 		}
-		_latency += latency;
-		latencyAvg = _latency / (double)successPeg;
 	}
 
-	public synchronized void addFailurePeg(TestFailureException x) {
-		++failurePeg;
+	public void addFailurePeg(TestFailureException x) {
+		failurePeg.incrementAndGet();
 
 		Integer code = x.getStatusCode();
-		ErrorSummary summary = _errors.get(code);
-		if (summary != null) {
-			++summary.count;
-			if (summary.message == null) {
+		synchronized (_errors) {
+			ErrorSummary summary = _errors.get(code);
+			if (summary != null) {
+				++summary.count;
+				if (summary.message == null) {
+					summary.message = x.getMessage();
+				}
+			} else {
+				summary = new ErrorSummary();
+				summary.count = 1;
 				summary.message = x.getMessage();
+				_errors.put(code, summary);
 			}
+		}
+	}
+
+	/**
+	 * Registers a named action, so that actions are reported in the order of registration.
+	 */
+	public LatencyHistogram addAction(String action) {
+		LatencyHistogram histogram = new LatencyHistogram(), existing = _actions.putIfAbsent(action, histogram);
+		if (existing == null) {
+			_actionNames.add(action);
+			return histogram;
 		} else {
-			summary = new ErrorSummary();
-			summary.count = 1;
-			summary.message = x.getMessage();
-			_errors.put(code, summary);
+			return existing;
+		}
+	}
+
+	/**
+	 * Closes the current interval, keeping up to MAX_INTERVALS of the most recent intervals.
+	 *
+	 * @return the latencies recorded during the interval
+	 */
+	public synchronized LatencyHistogram.Snapshot takeIntervalSnapshot() {
+		LatencyHistogram.Snapshot current = _latency.snapshot(), interval = current.since(_last);
+		_last = current;
+		_intervals.add(interval);
+		if (_intervals.size() > MAX_INTERVALS) {
+			_intervals.removeFirst();
 		}
+		return interval;
+	}
+
+	/**
+	 * @return the latency histogram of the whole test case
+	 */
+	public LatencyHistogram getLatencyHistogram() {
+		return _latency;
+	}
+
+	/**
+	 * @return the latency histogram of a named action, or null if no such action has been registered
+	 */
+	public LatencyHistogram getLatencyHistogram(String action) {
+		return _actions.get(action);
+	}
+
+	/**
+	 * @return the most recent intervals, oldest first
+	 */
+	public synchronized List<LatencyHistogram.Snapshot> getIntervals() {
+		return new ArrayList<LatencyHistogram.Snapshot>(_intervals);
 	}
 
 	public String getName() {
 		return _name;
 	}
 
-	public synchronized int getThreadCount() {
-		return numThreads;
+	public int getThreadCount() {
+		return numThreads.get();
 	}
 
-	public synchronized long getSuccessPeg() {
-		return successPeg;
+	public long getSuccessPeg() {
+		return successPeg.get();
 	}
 
-	public synchronized long getFailurePeg() {
-		return failurePeg;
+	public long getFailurePeg() {
+		return failurePeg.get();
 	}
 
-	public synchronized String getSuccessRatio() {
-		long total = successPeg + failurePeg;
+	public String getSuccessRatio() {
+		long success = successPeg.get(), total = success + failurePeg.get();
 		if (total > 0) {
-			return String.valueOf(successPeg*100/(successPeg + failurePeg)) + '%';
+			return String.valueOf(success*100/total) + '%';
 		} else {
 			return "-";
 		}
 	}
 
-	public synchronized long getLatencyMax() {
-		return latencyMax;
+	public long getLatencyMax() {
+		return _latency.getMax()/1000L;
+	}
+
+	public long getLatencyMin() {
+		return _latency.getMin()/1000L;
+	}
+
+	public double getLatencyAvg() {
+		return _latency.getMean()/1000.0;
+	}
+
+	public double getLatencyP50() {
+		return millis(_latency.getValueAtPercentile(50.0));
+	}
+
+	public double getLatencyP90() {
+		return millis(_latency.getValueAtPercentile(90.0));
+	}
+
+	public double getLatencyP99() {
+		return millis(_latency.getValueAtPercentile(99.0));
+	}
+
+	public double getLatencyP999() {
+		return millis(_latency.getValueAtPercentile(99.9));
+	}
+
+	public synchronized double getRecentLatencyP99() {
+		return _intervals.isEmpty() ? 0.0 : millis(_intervals.getLast().getValueAtPercentile(99.0));
 	}
 
-	public synchronized long getLatencyMin() {
-		return latencyMin;
+	public String[] getActions() {
+		return _actionNames.toArray(new String[_actionNames.size()]);
+	}
+
+	public void exportCSV(String filename) throws IOException {
+		PrintWriter pw = new PrintWriter(new FileWriter(filename));
+		try {
+			writeCSV(pw);
+		} finally {
+			pw.close();
+		}
 	}
 
-	public synchronized double getLatencyAvg() {
-		return latencyAvg;
+	public void exportJSON(String filename) throws IOException {
+		JsonGenerator generator = new JsonFactory().createGenerator(new FileWriter(filename));
+		try {
+			generator.useDefaultPrettyPrinter();
+			writeJSON(generator);
+		} finally {
+			generator.close();
+		}
 	}
 
 	public Map<Integer, ErrorSummary> getErrorSummary() {
 		return _errors;
 	}
 
+	/**
+	 * Writes the latencies of the test case and its actions, followed by the intervals, in CSV.
+	 */
+	public void writeCSV(PrintWriter pw) {
+		pw.println("Test Case,Action,Count,Minimum Latency,Average Latency,P50,P90,P99,P99.9,Maximum Latency");
+		writeCSV(pw, "", _latency.snapshot());
+		for (String action: _actionNames) {
+			writeCSV(pw, action, _actions.get(action).snapshot());
+		}
+		pw.println();
+
+		pw.println("Test Case,Time,Count,Minimum Latency,Average Latency,P50,P90,P99,P99.9,Maximum Latency");
+		for (LatencyHistogram.Snapshot interval: getIntervals()) {
+			writeCSV(pw, String.valueOf(interval.getTime()), interval);
+		}
+	}
+
+	/**
+	 * Writes the statistics of the test case as a JSON object.
+	 */
+	public void writeJSON(JsonGenerator generator) throws IOException {
+		generator.writeStartObject();
+		generator.writeStringField("name", _name);
+		generator.writeNumberField("threads", getThreadCount());
+		generator.writeNumberField("successes", getSuccessPeg());
+		generator.writeNumberField("failures", getFailurePeg());
+		generator.writeFieldName("latency");
+		writeJSON(generator, _latency.snapshot());
+		generator.writeObjectFieldStart("actions");
+		for (String action: _actionNames) {
+			generator.writeFieldName(action);
+			writeJSON(generator, _actions.get(action).snapshot());
+		}
+		generator.writeEndObject();
+		generator.writeArrayFieldStart("intervals");
+		for (LatencyHistogram.Snapshot interval: getIntervals()) {
+			writeJSON(generator, interval);
+		}
+		generator.writeEndArray();
+		generator.writeEndObject();
+	}
+
 	public void report(StringBuilder sb) {
-		sb.append("\n\t    Successes: ").append(successPeg)
-		  .append("\n\t     Failures: ").append(failurePeg)
-		  .append("\n\tLatency - min: ").append(latencyMin)
-		  .append("\n\t          max: ").append(latencyMax)
-		  .append("\n\t      average: ").append(Math.round(latencyAvg))
-		  .append("\n\t # of threads: ").append(numThreads);
+		LatencyHistogram.Snapshot snapshot = _latency.snapshot();
+		sb.append("\n\t    Successes: ").append(successPeg.get())
+		  .append("\n\t     Failures: ").append(failurePeg.get())
+		  .append("\n\tLatency - min: ").append(millis(snapshot.getMin()));
+		for (int i = 0; i < PERCENTILES.length; ++i) {
+			sb.append(String.format("\n\t%13s: ", PERCENTILE_NAMES[i])).append(millis(snapshot.getValueAtPercentile(PERCENTILES[i])));
+		}
+		sb.append("\n\t          max: ").append(millis(snapshot.getMax()))
+		  .append("\n\t      average: ").append(Math.round(snapshot.getMean()/1000.0))
+		  .append("\n\t # of threads: ").append(numThreads.get());
+	}
+
+	/**
+	 * Converts microseconds to milliseconds.
+	 */
+	public static double millis(long micros) {
+		return micros/1000.0;
+	}
+
+	private void writeCSV(PrintWriter pw, String label, LatencyHistogram.Snapshot snapshot) {
+		pw.print(_name); pw.print(',');
+		pw.print(label); pw.print(',');
+		pw.print(snapshot.getCount()); pw.print(',');
+		pw.print(millis(snapshot.getMin())); pw.print(',');
+		pw.print(snapshot.getMean()/1000.0); pw.print(',');
+		for (int i = 0; i < PERCENTILES.length; ++i) {
+			pw.print(millis(snapshot.getValueAtPercentile(PERCENTILES[i]))); pw.print(',');
+		}
+		pw.print(millis(snapshot.getMax())); pw.println();
+	}
+
+	private static void writeJSON(JsonGenerator generator, LatencyHistogram.Snapshot snapshot) throws IOException {
+		generator.writeStartObject();
+		generator.writeNumberField("time", snapshot.getTime());
+		generator.writeNumberField("count", snapshot.getCount());
+		generator.writeNumberField("min", millis(snapshot.getMin()));
+		generator.writeNumberField("mean", snapshot.getMean()/1000.0);
+		for (int i = 0; i < PERCENTILES.length; ++i) {
+			generator.writeNumberField(PERCENTILE_NAMES[i], millis(snapshot.getValueAtPercentile(PERCENTILES[i])));
+		}
+		generator.writeNumberField("max", millis(snapshot.getMax()));
+		generator.writeEndObject();
 	}
 
 	private boolean _reporting = true;
 }
-
@@ -1,5 +1,7 @@
 package org.xillium.play.mbean;
 
+import java.io.IOException;
+
 public interface TestCaseStatsMBean {
     /**
      * @return the number of parallel threads in this test case
@@ -35,4 +37,44 @@ public interface TestCaseStatsMBean {
      * @return observed average latency in milliseconds
      */
     public double getLatencyAvg();
+
+    /**
+     * @return the 50th percentile of latency in milliseconds
+     */
+    public double getLatencyP50();
+
+    /**
+     * @return the 90th percentile of latency in milliseconds
+     */
+    public double getLatencyP90();
+
+    /**
+     * @return the 99th percentile of latency in milliseconds
+     */
+    public double getLatencyP99();
+
+    /**
+     * @return the 99.9th percentile of latency in milliseconds
+     */
+    public double getLatencyP999();
+
+    /**
+     * @return the 99th percentile of latency in milliseconds during the most recent interval
+     */
+    public double getRecentLatencyP99();
+
+    /**
+     * @return the names of the actions in this test case, with latencies broken down by action
+     */
+    public String[] getActions();
+
+    /**
+     * Exports latency percentiles of the test case, its actions, and recent intervals to a CSV file.
+     */
+    public void exportCSV(String filename) throws IOException;
+
+    /**
+     * Exports latency percentiles of the test case, its actions, and recent intervals to a JSON file.
+     */
+    public void exportJSON(String filename) throws IOException;
 }
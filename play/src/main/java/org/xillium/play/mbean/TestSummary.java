@@ -1,17 +1,27 @@
 package org.xillium.play.mbean;
 
+import org.xillium.base.util.LatencyHistogram;
 import org.xillium.play.TestSuite;
 
 import java.lang.management.*;
 import java.util.*;
 import java.io.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
 import javax.management.*;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
 
 
 public class TestSummary implements TestSummaryMBean {
-	private static final List<TestCaseStats> _stats = new ArrayList<TestCaseStats>();
+	private static final List<TestCaseStats> _stats = new CopyOnWriteArrayList<TestCaseStats>();
 	private long _clock;
 	private TestSuite _suite;
+	private long _interval = DEFAULT_INTERVAL;
+	private Timer _timer;
+	private final AtomicBoolean _printed = new AtomicBoolean();
+
+	public static final long DEFAULT_INTERVAL = 10000L;
 
 	public TestSummary(TestSuite suite) {
 		try {
@@ -21,6 +31,19 @@ public class TestSummary implements TestSummaryMBean {
 		}
 		_suite = suite;
 		_clock = System.currentTimeMillis();
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			public void run() {
+				printPercentiles(System.err);
+			}
+		});
+	}
+
+	/**
+	 * Sets the length of the intervals in which latencies are snapshotted, in milliseconds. A non-positive value disables
+	 * interval snapshots.
+	 */
+	public void setInterval(long interval) {
+		_interval = interval;
 	}
 
 	public void addTestCaseStats(TestCaseStats stats) {
@@ -34,10 +57,24 @@ public class TestSummary implements TestSummaryMBean {
 	public void stop() {
 		//System.exit(0);
 		_suite.stop();
+		printPercentiles(System.err);
 	}
 
-	public void reset() {
+	public synchronized void reset() {
 		_clock = System.currentTimeMillis();
+		if (_timer != null) {
+			_timer.cancel();
+			_timer = null;
+		}
+		if (_interval > 0) {
+			for (TestCaseStats stats: _stats) stats.takeIntervalSnapshot();
+			_timer = new Timer("play-interval", true);
+			_timer.scheduleAtFixedRate(new TimerTask() {
+				public void run() {
+					for (TestCaseStats stats: _stats) stats.takeIntervalSnapshot();
+				}
+			}, _interval, _interval);
+		}
 	}
 
 	public void report(String filename) {
@@ -45,7 +82,7 @@ public class TestSummary implements TestSummaryMBean {
 			PrintWriter pw = new PrintWriter(new FileWriter(filename + ".csv"));
 			try {
 				pw.println(
-					"Test Case,Threads,Success,Failure,Success Ratio,Minimum Latency,Maximum Latency,Average Latency,Throughput"
+					"Test Case,Threads,Success,Failure,Success Ratio,Minimum Latency,Maximum Latency,Average Latency,P50,P90,P99,P99.9,Throughput"
 				);
 				Iterator<TestCaseStats> it = _stats.iterator();
 				while (it.hasNext()) {
@@ -57,11 +94,20 @@ public class TestSummary implements TestSummaryMBean {
 					pw.print(stats.getSuccessRatio()); pw.print(',');
 					pw.print(stats.getLatencyMin()); pw.print(',');
 					pw.print(stats.getLatencyMax()); pw.print(',');
-					pw.print(stats.getLatencyAvg()); pw.println();
+					pw.print(stats.getLatencyAvg()); pw.print(',');
+					pw.print(stats.getLatencyP50()); pw.print(',');
+					pw.print(stats.getLatencyP90()); pw.print(',');
+					pw.print(stats.getLatencyP99()); pw.print(',');
+					pw.print(stats.getLatencyP999()); pw.println();
 				}
-				pw.print("[Total],,,,,,,,"); pw.println(getThroughput());
+				pw.print("[Total],,,,,,,,,,,,"); pw.println(getThroughput());
 				pw.println();
 
+				for (TestCaseStats stats: _stats) {
+					stats.writeCSV(pw);
+					pw.println();
+				}
+
 				pw.println("Test Case,Occurance,Code,Message");
 				it = _stats.iterator();
 				while (it.hasNext()) {
@@ -82,11 +128,48 @@ public class TestSummary implements TestSummaryMBean {
 			} finally {
 				pw.close();
 			}
+
+			JsonGenerator generator = new JsonFactory().createGenerator(new FileWriter(filename + ".json"));
+			try {
+				generator.useDefaultPrettyPrinter();
+				generator.writeStartObject();
+				generator.writeNumberField("elapsed", getElapsedTime());
+				generator.writeNumberField("throughput", getThroughput());
+				generator.writeArrayFieldStart("cases");
+				for (TestCaseStats stats: _stats) {
+					stats.writeJSON(generator);
+				}
+				generator.writeEndArray();
+				generator.writeEndObject();
+			} finally {
+				generator.close();
+			}
 		} catch (IOException x) {
 			throw new RuntimeException(x.getMessage(), x);
 		}
 	}
 
+	/**
+	 * Prints a table of latency percentiles, in milliseconds, of all test cases and their actions. The table is printed only once,
+	 * either when the test suite is stopped or when the JVM exits.
+	 */
+	public void printPercentiles(PrintStream ps) {
+		if (_stats.isEmpty() || !_printed.compareAndSet(false, true)) return;
+
+		StringBuilder sb = new StringBuilder("\nLatency percentiles (ms)\n");
+		sb.append(String.format("%-32s %10s %10s", "Test Case/Action", "Count", "Min"));
+		for (String name: TestCaseStats.PERCENTILE_NAMES) sb.append(String.format(" %10s", name));
+		sb.append(String.format(" %10s\n", "Max"));
+		for (TestCaseStats stats: _stats) {
+			printPercentiles(sb, stats.getName(), stats.getLatencyHistogram().snapshot());
+			for (String action: stats.getActions()) {
+				printPercentiles(sb, "  " + action, stats.getLatencyHistogram(action).snapshot());
+			}
+		}
+		ps.print(sb);
+		ps.flush();
+	}
+
 	public int getThreadCount() {
 		int count = 0;
 		Iterator<TestCaseStats> it = _stats.iterator();
@@ -123,5 +206,12 @@ public class TestSummary implements TestSummaryMBean {
 	public long getElapsedTime() {
 		return System.currentTimeMillis() - _clock;
 	}
-}
 
+	private static void printPercentiles(StringBuilder sb, String label, LatencyHistogram.Snapshot snapshot) {
+		sb.append(String.format("%-32s %10d %10.3f", label, snapshot.getCount(), TestCaseStats.millis(snapshot.getMin())));
+		for (double percentile: TestCaseStats.PERCENTILES) {
+			sb.append(String.format(" %10.3f", TestCaseStats.millis(snapshot.getValueAtPercentile(percentile))));
+		}
+		sb.append(String.format(" %10.3f\n", TestCaseStats.millis(snapshot.getMax())));
+	}
+}
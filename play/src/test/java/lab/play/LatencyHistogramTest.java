@@ -0,0 +1,97 @@
+package lab.play;
+
+import java.io.*;
+import java.util.*;
+import org.xillium.base.util.LatencyHistogram;
+import org.xillium.play.mbean.TestCaseStats;
+
+import org.testng.annotations.*;
+
+
+/**
+ * Testing the latency histograms that record play test case statistics.
+ */
+public class LatencyHistogramTest {
+
+    @Test(groups={"histogram"})
+    public void testPercentiles() {
+        Random random = new Random(3);
+        LatencyHistogram histogram = new LatencyHistogram();
+        long[] values = new long[100000];
+        for (int i = 0; i < values.length; ++i) {
+            // from microseconds to minutes
+            values[i] = (long)Math.exp(random.nextDouble() * Math.log(LatencyHistogram.DEFAULT_HIGHEST_TRACKABLE_VALUE / 60));
+            histogram.record(values[i]);
+        }
+        Arrays.sort(values);
+
+        assert histogram.getCount() == values.length;
+        assert histogram.getMin() == values[0] && histogram.getMax() == values[values.length - 1];
+        for (double percentile: new double[] { 0.1, 1.0, 10.0, 50.0, 90.0, 99.0, 99.9, 100.0 }) {
+            long expected = values[(int)Math.ceil(percentile / 100.0 * values.length) - 1];
+            long actual = histogram.getValueAtPercentile(percentile);
+            assert actual >= expected && actual - expected <= expected / 100 : percentile + ": " + actual + " vs " + expected;
+        }
+
+        // values beyond the highest trackable one are still reported exactly as the maximum
+        histogram.record(LatencyHistogram.DEFAULT_HIGHEST_TRACKABLE_VALUE * 10);
+        histogram.record(-5);
+        assert histogram.getMax() == LatencyHistogram.DEFAULT_HIGHEST_TRACKABLE_VALUE * 10 && histogram.getMin() == 0;
+        assert new LatencyHistogram().getValueAtPercentile(99.0) == 0;
+    }
+
+    @Test(groups={"histogram"})
+    public void testConcurrentRecording() throws Exception {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        final int THREADS = 4, VALUES = 100000;
+        Thread[] threads = new Thread[THREADS];
+        for (int t = 0; t < THREADS; ++t) {
+            final int offset = t;
+            threads[t] = new Thread() {
+                public void run() {
+                    for (int i = 1; i <= VALUES; ++i) histogram.record(i * THREADS + offset);
+                }
+            };
+            threads[t].start();
+        }
+        for (Thread thread: threads) thread.join();
+
+        long n = (long)THREADS * VALUES;
+        assert histogram.getCount() == n;
+        assert histogram.getMin() == THREADS && histogram.getMax() == n + THREADS - 1;
+        assert histogram.getMean() == (THREADS + n + THREADS - 1) / 2.0 : histogram.getMean();
+    }
+
+    @Test(groups={"histogram"})
+    public void testTestCaseStats() throws Exception {
+        TestCaseStats stats = new TestCaseStats("LatencyHistogramTest");
+        stats.addAction("login");
+        stats.addAction("search");
+        for (int i = 1; i <= 100; ++i) {
+            stats.addSuccessPeg("login", i * 1000L);
+            stats.addSuccessPeg("search", i * 10L);
+        }
+        stats.addSuccessPeg(7); // in milliseconds, by an implicit action
+
+        assert stats.getSuccessPeg() == 201;
+        assert Arrays.asList(stats.getActions()).equals(Arrays.asList("login", "search"));
+        assert stats.getLatencyHistogram().getCount() == 201;
+        assert stats.getLatencyHistogram("login").getMax() == 100000L && stats.getLatencyHistogram("search").getMax() == 1000L;
+        long median = stats.getLatencyHistogram("search").getValueAtPercentile(50.0);
+        assert stats.getLatencyMax() == 100 && median >= 500L && median <= 505L : median;
+
+        // an interval holds only what has been recorded since the previous one
+        assert stats.takeIntervalSnapshot().getCount() == 201;
+        stats.addSuccessPeg("search", 2500L);
+        LatencyHistogram.Snapshot interval = stats.takeIntervalSnapshot();
+        assert interval.getCount() == 1 && interval.getMean() == 2500.0;
+        assert interval.getMin() <= 2500L && interval.getMax() >= 2500L && interval.getValueAtPercentile(99.0) == interval.getMax();
+        assert stats.getIntervals().size() == 2 && stats.getRecentLatencyP99() == TestCaseStats.millis(interval.getMax());
+
+        StringWriter csv = new StringWriter();
+        stats.writeCSV(new PrintWriter(csv));
+        String[] lines = csv.toString().split("\r?\n");
+        assert lines.length == 8 : csv;
+        assert lines[1].startsWith("LatencyHistogramTest,,202,0.01,") && lines[2].startsWith("LatencyHistogramTest,login,100,1.0,");
+    }
+}